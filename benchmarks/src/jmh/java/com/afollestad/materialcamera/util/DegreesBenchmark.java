@@ -0,0 +1,36 @@
+package com.afollestad.materialcamera.util;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+/** @author Aidan Follestad (afollestad) */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DegreesBenchmark {
+
+  private static final int[] DEGREES = {0, 90, 180, 270};
+
+  /** Every sensor and display orientation, for both cameras. */
+  @Benchmark
+  public int getDisplayOrientation() {
+    int result = 0;
+    for (int sensor : DEGREES) {
+      for (int display : DEGREES) {
+        result += Degrees.getDisplayOrientation(sensor, display, false);
+        result += Degrees.getDisplayOrientation(sensor, display, true);
+      }
+    }
+    return result;
+  }
+
+  /** Angles up to three turns either way, as sums and differences of orientations can be. */
+  @Benchmark
+  public int naturalize() {
+    int result = 0;
+    for (int degrees = -1080; degrees <= 1080; degrees += 90) result += Degrees.naturalize(degrees);
+    return result;
+  }
+}
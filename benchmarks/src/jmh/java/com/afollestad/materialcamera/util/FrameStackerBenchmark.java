@@ -0,0 +1,69 @@
+package com.afollestad.materialcamera.util;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/** @author Aidan Follestad (afollestad) */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class FrameStackerBenchmark {
+
+  // 12 MP, a typical still size
+  private static final int WIDTH = 4000;
+  private static final int HEIGHT = 3000;
+  private static final int FRAME_COUNT = 4;
+
+  /** How many cores the merge may use. */
+  @Param({"4", "8"})
+  public int parallelism;
+
+  private final FrameStacker mStacker = new FrameStacker(WIDTH, HEIGHT);
+  private final ByteBuffer[] mFrames = new ByteBuffer[FRAME_COUNT];
+  private final int[] mOffsets = new int[2 * FRAME_COUNT];
+  private ForkJoinPool mPool;
+
+  @Setup
+  public void setUp() {
+    // The same noisy scene, moved a few pixels further in each frame like a shaky hand would
+    final int size = JpegEncoder.getFrameSize(WIDTH, HEIGHT);
+    final byte[] scene = new byte[size + 8 * WIDTH + 8];
+    new Random(42).nextBytes(scene);
+    for (int i = 0; i < FRAME_COUNT; i++) {
+      final byte[] frame = new byte[size];
+      System.arraycopy(scene, i * 2 * WIDTH + i * 2, frame, 0, size);
+      mFrames[i] = ByteBuffer.wrap(frame);
+    }
+    mStacker.align(mFrames, FRAME_COUNT, mOffsets);
+    mPool = new ForkJoinPool(parallelism);
+  }
+
+  @TearDown
+  public void tearDown() {
+    mPool.shutdown();
+  }
+
+  @Benchmark
+  public int[] align() {
+    mStacker.align(mFrames, FRAME_COUNT, mOffsets);
+    return mOffsets;
+  }
+
+  /** Merges into the first frame, which changes its pixels but not the work done. */
+  @Benchmark
+  public ByteBuffer[] merge() {
+    mStacker.merge(mFrames, FRAME_COUNT, mOffsets, mPool);
+    return mFrames;
+  }
+}
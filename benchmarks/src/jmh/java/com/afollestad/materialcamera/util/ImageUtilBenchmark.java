@@ -0,0 +1,63 @@
+package com.afollestad.materialcamera.util;
+
+import android.graphics.BitmapFactory;
+import android.media.ExifInterface;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** @author Aidan Follestad (afollestad) */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class ImageUtilBenchmark {
+
+  private byte[] mJpeg;
+  private BitmapFactory.Options mOptions;
+
+  @Setup
+  public void setUp() throws IOException {
+    // A real JPEG with an EXIF orientation, as written for stills
+    final int width = 640;
+    final int height = 480;
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new JpegEncoder(90)
+        .encode(
+            ByteBuffer.allocate(JpegEncoder.getFrameSize(width, height)),
+            width,
+            height,
+            90,
+            null,
+            1,
+            out);
+    mJpeg = out.toByteArray();
+
+    mOptions = new BitmapFactory.Options();
+    mOptions.outWidth = 4032;
+    mOptions.outHeight = 3024;
+  }
+
+  /**
+   * Parses from memory, the file path constructor checks the descriptor with native calls that only
+   * exist on a device. Reading the orientation is the same work either way.
+   */
+  @Benchmark
+  public int getExifDegrees() throws IOException {
+    return ImageUtil.getExifDegrees(new ExifInterface(new ByteArrayInputStream(mJpeg)));
+  }
+
+  /** A 12 MP portrait still shown in a 1080p view. */
+  @Benchmark
+  public int calculateInSampleSize() {
+    return ImageUtil.calculateInSampleSize(mOptions, 1080, 1920, 90);
+  }
+}
@@ -0,0 +1,59 @@
+package com.afollestad.materialcamera.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/** @author Aidan Follestad (afollestad) */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class JpegEncoderBenchmark {
+
+  private static final int WIDTH = 1920;
+  private static final int HEIGHT = 1080;
+
+  /** How many stripes to encode in parallel, 1 encodes on the calling thread. */
+  @Param({"1", "4"})
+  public int stripes;
+
+  private final JpegEncoder mEncoder = new JpegEncoder(90);
+  private final ByteArrayOutputStream mOut = new ByteArrayOutputStream(1024 * 1024);
+  private ByteBuffer mFrame;
+  private ExecutorService mExecutor;
+
+  @Setup
+  public void setUp() {
+    // Noise is the worst case for the entropy coder, like a dark and grainy scene
+    final byte[] frame = new byte[JpegEncoder.getFrameSize(WIDTH, HEIGHT)];
+    new Random(42).nextBytes(frame);
+    mFrame = ByteBuffer.wrap(frame);
+    if (stripes > 1) mExecutor = Executors.newFixedThreadPool(stripes);
+  }
+
+  @TearDown
+  public void tearDown() {
+    if (mExecutor != null) mExecutor.shutdown();
+  }
+
+  @Benchmark
+  public int encode() throws IOException {
+    mOut.reset();
+    mFrame.rewind();
+    mEncoder.encode(mFrame, WIDTH, HEIGHT, 0, mExecutor, stripes, mOut);
+    return mOut.size();
+  }
+}
@@ -0,0 +1,41 @@
+package com.afollestad.materialcamera.util;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+/** @author Aidan Follestad (afollestad) */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SizeSelectorBenchmark {
+
+  // The output sizes of a typical 12 MP back camera, largest first like the framework lists them
+  private static final int[] WIDTHS = {
+    4032, 4000, 3840, 3264, 2592, 1920, 1920, 1600, 1440, 1280, 1280, 1024, 800, 720, 640, 640, 352,
+    320, 176
+  };
+  private static final int[] HEIGHTS = {
+    3024, 3000, 2160, 2448, 1944, 1440, 1080, 1200, 1080, 960, 720, 768, 600, 480, 480, 360, 288,
+    240, 144
+  };
+
+  /** A 1080p preview in a 16:9 view, as Camera2Fragment asks for it. */
+  @Benchmark
+  public int chooseOptimalSize() {
+    return SizeSelector.chooseOptimalSize(WIDTHS, HEIGHTS, 1920, 1080, 1920, 1080, 16, 9, true);
+  }
+
+  /** No size is big enough, so the largest smaller one is picked. */
+  @Benchmark
+  public int chooseOptimalSizeTooSmall() {
+    return SizeSelector.chooseOptimalSize(WIDTHS, HEIGHTS, 2560, 1440, 1920, 1080, 16, 9, true);
+  }
+
+  /** The default preferences, 720p at 4:3. */
+  @Benchmark
+  public int chooseVideoSize() {
+    return SizeSelector.chooseVideoSize(WIDTHS, HEIGHTS, 720, 4f / 3f);
+  }
+}
@@ -0,0 +1,40 @@
+package com.afollestad.materialcamera.util;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/** @author Aidan Follestad (afollestad) */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class TimeFormatBenchmark {
+
+  private final DurationFormatter mFormatter = new DurationFormatter();
+  private final Date mDate = new Date(1496331012000L);
+  private long mDuration;
+
+  /** What the recording and playback labels showed before {@link DurationFormatter}. */
+  @Benchmark
+  public String getDurationString() {
+    mDuration += 1000;
+    return TimeFormat.getDurationString(mDuration);
+  }
+
+  @Benchmark
+  public CharSequence durationFormatter() {
+    mDuration += 1000;
+    return mFormatter.format(mDuration, false);
+  }
+
+  /** The time stamped name of each capture, built with a new SimpleDateFormat every time. */
+  @Benchmark
+  public String getFileName() {
+    return TimeFormat.getFileName("VID_", mDate, ".mp4");
+  }
+}
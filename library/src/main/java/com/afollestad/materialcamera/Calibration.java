@@ -0,0 +1,180 @@
+package com.afollestad.materialcamera;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import com.afollestad.materialcamera.util.DeviceQuirks;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The outcome of {@link MaterialCamera#calibrate(Context, Callback)}: which camera API and how
+ * large a preview run best on this device, and what was measured to decide that.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public class Calibration {
+
+  public interface Callback {
+    /** Called on the main thread once the calibration was saved. */
+    void onCalibrated(Calibration calibration);
+
+    void onCalibrationError(Exception e);
+  }
+
+  /** One camera API at one preview size, averaged over a few runs. */
+  public static class Measurement {
+
+    private final int mBackend;
+    private final int mPreviewWidth;
+    private final int mPreviewHeight;
+    private final long mOpenMillis;
+    private final long mConfigureMillis;
+    private final float mPreviewFps;
+    private final long mCaptureMillis;
+    private final boolean mStable;
+
+    public Measurement(
+        int backend,
+        int previewWidth,
+        int previewHeight,
+        long openMillis,
+        long configureMillis,
+        float previewFps,
+        long captureMillis,
+        boolean stable) {
+      mBackend = backend;
+      mPreviewWidth = previewWidth;
+      mPreviewHeight = previewHeight;
+      mOpenMillis = openMillis;
+      mConfigureMillis = configureMillis;
+      mPreviewFps = previewFps;
+      mCaptureMillis = captureMillis;
+      mStable = stable;
+    }
+
+    /** @return {@link DeviceQuirks#BACKEND_CAMERA1} or {@link DeviceQuirks#BACKEND_CAMERA2} */
+    public int getBackend() {
+      return mBackend;
+    }
+
+    public int getPreviewWidth() {
+      return mPreviewWidth;
+    }
+
+    public int getPreviewHeight() {
+      return mPreviewHeight;
+    }
+
+    /** @return how long opening the camera took */
+    public long getOpenMillis() {
+      return mOpenMillis;
+    }
+
+    /** @return how long it took from configuring the streams to the first preview frame */
+    public long getConfigureMillis() {
+      return mConfigureMillis;
+    }
+
+    public float getPreviewFps() {
+      return mPreviewFps;
+    }
+
+    /** @return how long a still took from the request until it was written */
+    public long getCaptureMillis() {
+      return mCaptureMillis;
+    }
+
+    /** @return whether all runs succeeded with about the same frame rate */
+    public boolean isStable() {
+      return mStable;
+    }
+
+    public long getLatencyMillis() {
+      return mOpenMillis + mConfigureMillis + mCaptureMillis;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.getDefault(),
+          "Camera%d %dx%d: open %d ms, configure %d ms, %.1f fps, capture %d ms%s",
+          mBackend == DeviceQuirks.BACKEND_CAMERA2 ? 2 : 1,
+          mPreviewWidth,
+          mPreviewHeight,
+          mOpenMillis,
+          mConfigureMillis,
+          mPreviewFps,
+          mCaptureMillis,
+          mStable ? "" : ", unstable");
+    }
+  }
+
+  private static final String PREFERENCES = "mcam_calibration";
+  private static final String KEY_FINGERPRINT = "fingerprint";
+  private static final String KEY_BACKEND = "backend";
+  private static final String KEY_PREVIEW_WIDTH = "preview_width";
+  private static final String KEY_PREVIEW_HEIGHT = "preview_height";
+
+  private final List<Measurement> mMeasurements;
+  private final int mBackend;
+  private final int mPreviewWidth;
+  private final int mPreviewHeight;
+
+  public Calibration(
+      @NonNull List<Measurement> measurements, int backend, int previewWidth, int previewHeight) {
+    mMeasurements = Collections.unmodifiableList(measurements);
+    mBackend = backend;
+    mPreviewWidth = previewWidth;
+    mPreviewHeight = previewHeight;
+  }
+
+  /**
+   * @return the calibration saved on this device, without its measurements. Null if none was saved,
+   *     or the system was updated since.
+   */
+  @Nullable
+  public static Calibration getSaved(@NonNull Context context) {
+    final SharedPreferences prefs = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+    if (!Build.FINGERPRINT.equals(prefs.getString(KEY_FINGERPRINT, null))) return null;
+    return new Calibration(
+        Collections.<Measurement>emptyList(),
+        prefs.getInt(KEY_BACKEND, DeviceQuirks.BACKEND_DEFAULT),
+        prefs.getInt(KEY_PREVIEW_WIDTH, 0),
+        prefs.getInt(KEY_PREVIEW_HEIGHT, 0));
+  }
+
+  /** Makes this the calibration the camera uses from now on. */
+  public void save(@NonNull Context context) {
+    context
+        .getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE)
+        .edit()
+        .putString(KEY_FINGERPRINT, Build.FINGERPRINT)
+        .putInt(KEY_BACKEND, mBackend)
+        .putInt(KEY_PREVIEW_WIDTH, mPreviewWidth)
+        .putInt(KEY_PREVIEW_HEIGHT, mPreviewHeight)
+        .apply();
+  }
+
+  /** @return every configuration that could be measured, empty for a saved calibration */
+  public List<Measurement> getMeasurements() {
+    return mMeasurements;
+  }
+
+  /** @return {@link DeviceQuirks#BACKEND_CAMERA1} or {@link DeviceQuirks#BACKEND_CAMERA2} */
+  public int getBackend() {
+    return mBackend;
+  }
+
+  /** @return the largest preview width, in sensor orientation, that kept up on that backend */
+  public int getPreviewWidth() {
+    return mPreviewWidth;
+  }
+
+  public int getPreviewHeight() {
+    return mPreviewHeight;
+  }
+}
@@ -0,0 +1,46 @@
+package com.afollestad.materialcamera;
+
+import android.support.annotation.Nullable;
+import java.io.File;
+
+/**
+ * A camera as driven by {@link CaptureSession}, without any views. Methods are called one at a time
+ * from the session's worker thread and block until they're done, so implementations can be swapped
+ * for a fake in tests. They're called in the order open, configure, startRepeating, then any
+ * captures or recordings, and close last.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public interface CameraBackend {
+
+  /** Opens the camera facing the given way. */
+  void open(boolean frontFacing) throws Exception;
+
+  /**
+   * Picks the stream sizes, stills are taken at the largest size the camera supports.
+   *
+   * @param maxPreviewWidth The preview, and so the frames analyzed, are at most this wide
+   * @param maxPreviewHeight The preview, and so the frames analyzed, are at most this high
+   */
+  void configure(int maxPreviewWidth, int maxPreviewHeight) throws Exception;
+
+  /**
+   * Starts the offscreen preview, or swaps the analyzer if it's already running. The preview keeps
+   * running around stills and recordings until {@link #close()}.
+   *
+   * @param analyzer Gets the preview frames, null to drop them
+   */
+  void startRepeating(@Nullable FrameAnalyzer analyzer) throws Exception;
+
+  /** Takes a still and writes it to {@code output} as a JPEG. */
+  void takePicture(File output) throws Exception;
+
+  /** Starts recording an MPEG-4 video to {@code output}. */
+  void startRecording(File output, boolean audio) throws Exception;
+
+  /** Stops the recording, the file is complete once this returns. */
+  void stopRecording() throws Exception;
+
+  /** Releases the camera. Also called after a failed {@link #open(boolean)}. */
+  void close();
+}
@@ -0,0 +1,106 @@
+package com.afollestad.materialcamera;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts what the camera does and how long it takes, across all captures of the process. Disabled
+ * until an {@link Exporter} is set, e.g. an {@link InMemoryExporter}; until then recording a metric
+ * is a single volatile read.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public class CameraMetrics {
+
+  /** Receives metrics on the thread that recorded them, so it should return quickly. */
+  public interface Exporter {
+    void onCount(@NonNull String name, long delta);
+
+    /** A sample of a histogram, e.g. a latency in milliseconds. */
+    void onSample(@NonNull String name, long value);
+
+    void onGauge(@NonNull String name, long value);
+  }
+
+  /** Counter, cameras opened. */
+  public static final String OPENS = "camera.opens";
+  /**
+   * Counter prefix, failures by the simple class name of the root cause, e.g.
+   * camera.failures.IOException.
+   */
+  public static final String FAILURES = "camera.failures";
+  /** Counter, captures thrown away with the retry button. */
+  public static final String RETRIES = "camera.retries";
+  /** Counter, stills saved. */
+  public static final String CAPTURES = "camera.captures";
+  /** Counter, recordings started. */
+  public static final String RECORDINGS = "camera.recordings";
+  /** Histogram, ms from requesting a camera until it's open. */
+  public static final String OPEN_LATENCY = "camera.open_ms";
+  /** Histogram, ms from requesting a still until it's saved. */
+  public static final String CAPTURE_LATENCY = "camera.capture_ms";
+  /** Histogram, ms spent writing a still. */
+  public static final String WRITE_LATENCY = "camera.write_ms";
+  /** Gauge, bytes of stills written since the process started. */
+  public static final String BYTES_WRITTEN = "camera.bytes_written";
+  /** Gauge, calls waiting in a {@link CaptureSession}. */
+  public static final String QUEUE_DEPTH = "camera.queue_depth";
+
+  private static final AtomicLong sBytesWritten = new AtomicLong();
+
+  private static volatile Exporter sExporter;
+
+  private CameraMetrics() {}
+
+  /** @param exporter Null disables metrics */
+  public static void setExporter(@Nullable Exporter exporter) {
+    sExporter = exporter;
+  }
+
+  @Nullable
+  public static Exporter getExporter() {
+    return sExporter;
+  }
+
+  public static void count(@NonNull String name) {
+    final Exporter exporter = sExporter;
+    if (exporter != null) exporter.onCount(name, 1);
+  }
+
+  /** Counts a failure under {@link #FAILURES} and the root cause of {@code t}. */
+  public static void failure(@NonNull Throwable t) {
+    final Exporter exporter = sExporter;
+    if (exporter == null) return;
+    while (t.getCause() != null && t.getCause() != t) t = t.getCause();
+    exporter.onCount(FAILURES + "." + t.getClass().getSimpleName(), 1);
+  }
+
+  public static void sample(@NonNull String name, long value) {
+    final Exporter exporter = sExporter;
+    if (exporter != null) exporter.onSample(name, value);
+  }
+
+  public static void gauge(@NonNull String name, long value) {
+    final Exporter exporter = sExporter;
+    if (exporter != null) exporter.onGauge(name, value);
+  }
+
+  /** @return a start time for {@link #sampleSince(String, long)}, 0 while disabled */
+  public static long start() {
+    return sExporter != null ? System.nanoTime() : 0;
+  }
+
+  /** Samples the milliseconds since {@code start}, nothing if metrics were disabled then. */
+  public static void sampleSince(@NonNull String name, long start) {
+    if (start == 0) return;
+    sample(name, (System.nanoTime() - start) / 1000000);
+  }
+
+  /** Samples {@link #WRITE_LATENCY} since {@code start} and adds to {@link #BYTES_WRITTEN}. */
+  public static void written(long start, long bytes) {
+    if (sExporter == null) return;
+    sampleSince(WRITE_LATENCY, start);
+    gauge(BYTES_WRITTEN, sBytesWritten.addAndGet(bytes));
+  }
+}
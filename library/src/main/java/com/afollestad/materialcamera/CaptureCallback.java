@@ -0,0 +1,21 @@
+package com.afollestad.materialcamera;
+
+import android.net.Uri;
+import android.support.annotation.Nullable;
+
+/**
+ * Receives the captures of a camera embedded with {@link MaterialCamera#createFragment()},
+ * implemented by the activity the fragment is added to. Called on the main thread.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public interface CaptureCallback {
+
+  /**
+   * @param uri The still or video, null if it was written to the caller's file descriptor
+   * @param manifest Its checksums if {@link MaterialCamera#checksums(int)} is enabled
+   */
+  void onCaptured(@Nullable Uri uri, @Nullable CaptureManifest manifest);
+
+  void onCaptureError(Exception e);
+}
@@ -0,0 +1,48 @@
+package com.afollestad.materialcamera;
+
+import java.io.Serializable;
+
+/**
+ * SHA-256 digests of a captured file, returned in {@link MaterialCamera#MANIFEST_EXTRA}. The file
+ * is split into chunks of {@link #getChunkSize()} bytes, only the last one can be shorter.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public class CaptureManifest implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private final String mSha256;
+  private final long mLength;
+  private final int mChunkSize;
+  private final String[] mChunkSha256;
+
+  public CaptureManifest(String sha256, long length, int chunkSize, String[] chunkSha256) {
+    mSha256 = sha256;
+    mLength = length;
+    mChunkSize = chunkSize;
+    mChunkSha256 = chunkSha256;
+  }
+
+  /** @return the lowercase hex SHA-256 of the whole file */
+  public String getSha256() {
+    return mSha256;
+  }
+
+  public long getLength() {
+    return mLength;
+  }
+
+  public int getChunkSize() {
+    return mChunkSize;
+  }
+
+  public int getChunkCount() {
+    return mChunkSha256.length;
+  }
+
+  /** @return the lowercase hex SHA-256 of the bytes in chunk {@code index} */
+  public String getChunkSha256(int index) {
+    return mChunkSha256[index];
+  }
+}
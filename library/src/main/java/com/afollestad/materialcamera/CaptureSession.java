@@ -0,0 +1,237 @@
+package com.afollestad.materialcamera;
+
+import android.content.Context;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import com.afollestad.materialcamera.internal.Camera1Backend;
+import com.afollestad.materialcamera.internal.Camera2Backend;
+import com.afollestad.materialcamera.util.CameraUtil;
+import java.io.File;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Captures stills and videos without any UI, e.g. on a schedule. The camera previews offscreen
+ * while the session is open. Calls are queued and run in order on a worker thread, and each one
+ * reports to its {@link Callback} on the executor passed in. Camera and audio permissions have to
+ * be granted beforehand.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public class CaptureSession {
+
+  public interface Callback {
+    /** @param output The file that was written, null for calls that don't write one */
+    void onSuccess(@Nullable File output);
+
+    void onError(Exception e);
+  }
+
+  private static final int STATE_CLOSED = 0;
+  private static final int STATE_OPEN = 1;
+  private static final int STATE_RECORDING = 2;
+
+  private static final int PREVIEW_MAX_WIDTH = 640;
+  private static final int PREVIEW_MAX_HEIGHT = 480;
+
+  private final CameraBackend mBackend;
+  private final Executor mCallbackExecutor;
+  private final ExecutorService mWorker;
+  private final AtomicInteger mQueued = new AtomicInteger();
+
+  // Only used on the worker thread
+  private int mState = STATE_CLOSED;
+  private File mRecording;
+  private FrameAnalyzer mAnalyzer;
+
+  /** Uses Camera2 where it's fully supported, Camera1 otherwise. */
+  public static CaptureSession create(
+      @NonNull Context context, @NonNull Executor callbackExecutor) {
+    final CameraBackend backend =
+        Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP
+                && CameraUtil.hasCamera2(context, true)
+            ? new Camera2Backend(context)
+            : new Camera1Backend();
+    return new CaptureSession(backend, callbackExecutor);
+  }
+
+  /** @param backend Drives the camera, e.g. a fake one in tests */
+  public CaptureSession(@NonNull CameraBackend backend, @NonNull Executor callbackExecutor) {
+    mBackend = backend;
+    mCallbackExecutor = callbackExecutor;
+    mWorker =
+        Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+              @Override
+              public Thread newThread(@NonNull Runnable r) {
+                return new Thread(r, "CaptureSession");
+              }
+            });
+  }
+
+  public void open(final boolean frontFacing, @NonNull Callback callback) {
+    run(
+        callback,
+        new Task() {
+          @Override
+          public File run() throws Exception {
+            checkState(STATE_CLOSED, "The session is already open.");
+            try {
+              final long start = CameraMetrics.start();
+              mBackend.open(frontFacing);
+              CameraMetrics.count(CameraMetrics.OPENS);
+              CameraMetrics.sampleSince(CameraMetrics.OPEN_LATENCY, start);
+              mBackend.configure(PREVIEW_MAX_WIDTH, PREVIEW_MAX_HEIGHT);
+              mBackend.startRepeating(mAnalyzer);
+            } catch (Exception e) {
+              mBackend.close();
+              throw e;
+            }
+            mState = STATE_OPEN;
+            return null;
+          }
+        });
+  }
+
+  /**
+   * Hands preview frames to {@code analyzer} on a dedicated thread, at up to 640x480. Takes effect
+   * right away if the session is open, otherwise once it opens.
+   *
+   * @param analyzer Null to stop analyzing
+   */
+  public void setFrameAnalyzer(@Nullable final FrameAnalyzer analyzer, @NonNull Callback callback) {
+    run(
+        callback,
+        new Task() {
+          @Override
+          public File run() throws Exception {
+            mAnalyzer = analyzer;
+            if (mState != STATE_CLOSED) mBackend.startRepeating(analyzer);
+            return null;
+          }
+        });
+  }
+
+  public void takePicture(@NonNull final File output, @NonNull Callback callback) {
+    run(
+        callback,
+        new Task() {
+          @Override
+          public File run() throws Exception {
+            checkState(STATE_OPEN, "Stills can only be taken while open and not recording.");
+            final long start = CameraMetrics.start();
+            mBackend.takePicture(output);
+            CameraMetrics.count(CameraMetrics.CAPTURES);
+            CameraMetrics.sampleSince(CameraMetrics.CAPTURE_LATENCY, start);
+            return output;
+          }
+        });
+  }
+
+  /** Reports success once recording started, {@link #stop(Callback)} gets the file. */
+  public void startRecording(
+      @NonNull final File output, final boolean audio, @NonNull Callback callback) {
+    run(
+        callback,
+        new Task() {
+          @Override
+          public File run() throws Exception {
+            checkState(STATE_OPEN, "Recording can only start while open and not recording.");
+            mBackend.startRecording(output, audio);
+            CameraMetrics.count(CameraMetrics.RECORDINGS);
+            mRecording = output;
+            mState = STATE_RECORDING;
+            return null;
+          }
+        });
+  }
+
+  /** Stops the recording and reports the finished video. */
+  public void stop(@NonNull Callback callback) {
+    run(
+        callback,
+        new Task() {
+          @Override
+          public File run() throws Exception {
+            checkState(STATE_RECORDING, "Not recording.");
+            final File output = mRecording;
+            mRecording = null;
+            mState = STATE_OPEN;
+            mBackend.stopRecording();
+            return output;
+          }
+        });
+  }
+
+  /** Stops any recording and releases the camera once the queued calls are done. */
+  public void close() {
+    try {
+      mWorker.execute(
+          new Runnable() {
+            @Override
+            public void run() {
+              if (mState == STATE_RECORDING) {
+                try {
+                  mBackend.stopRecording();
+                } catch (Exception e) {
+                  e.printStackTrace();
+                }
+              }
+              if (mState != STATE_CLOSED) mBackend.close();
+              mState = STATE_CLOSED;
+              mRecording = null;
+            }
+          });
+    } catch (RejectedExecutionException ignored) {
+      // Already closed
+    }
+    mWorker.shutdown();
+  }
+
+  private interface Task {
+    @Nullable
+    File run() throws Exception;
+  }
+
+  private void checkState(int state, String message) {
+    if (mState != state) throw new IllegalStateException(message);
+  }
+
+  private void run(final Callback callback, final Task task) {
+    try {
+      CameraMetrics.gauge(CameraMetrics.QUEUE_DEPTH, mQueued.incrementAndGet());
+      mWorker.execute(
+          new Runnable() {
+            @Override
+            public void run() {
+              CameraMetrics.gauge(CameraMetrics.QUEUE_DEPTH, mQueued.decrementAndGet());
+              try {
+                deliver(callback, task.run(), null);
+              } catch (Exception e) {
+                CameraMetrics.failure(e);
+                deliver(callback, null, e);
+              }
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      CameraMetrics.gauge(CameraMetrics.QUEUE_DEPTH, mQueued.decrementAndGet());
+      deliver(callback, null, new IllegalStateException("The session was closed."));
+    }
+  }
+
+  private void deliver(final Callback callback, final File output, final Exception error) {
+    mCallbackExecutor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            if (error != null) callback.onError(error);
+            else callback.onSuccess(output);
+          }
+        });
+  }
+}
@@ -0,0 +1,48 @@
+package com.afollestad.materialcamera;
+
+import android.support.annotation.Nullable;
+import java.io.Serializable;
+
+/**
+ * One still of a {@link MaterialCamera#multiCapture(int)} batch, returned in {@link
+ * MaterialCamera#ITEMS_EXTRA}.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public class CapturedItem implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private final String mUri;
+  private final long mCapturedAt;
+  private final long mLength;
+  private final CaptureManifest mManifest;
+
+  public CapturedItem(
+      String uri, long capturedAt, long length, @Nullable CaptureManifest manifest) {
+    mUri = uri;
+    mCapturedAt = capturedAt;
+    mLength = length;
+    mManifest = manifest;
+  }
+
+  /** @return the file:// Uri of the still */
+  public String getUri() {
+    return mUri;
+  }
+
+  /** @return when the still was saved, in milliseconds since the epoch */
+  public long getCapturedAt() {
+    return mCapturedAt;
+  }
+
+  public long getLength() {
+    return mLength;
+  }
+
+  /** @return the still's checksums if {@link MaterialCamera#checksums(int)} is enabled, or null */
+  @Nullable
+  public CaptureManifest getManifest() {
+    return mManifest;
+  }
+}
@@ -0,0 +1,17 @@
+package com.afollestad.materialcamera;
+
+/**
+ * Looks at camera preview frames while the capture screen is open, e.g. to detect barcodes or
+ * faces. Set with {@link MaterialCamera#frameAnalyzer(FrameAnalyzer)}.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public interface FrameAnalyzer {
+
+  /**
+   * Called on a dedicated thread with the latest preview frame. Frames that arrive while this is
+   * running replace each other, so only the newest one is analyzed next and slow analyzers never
+   * hold up the preview. The frame's data is reused after this returns.
+   */
+  void analyze(PreviewFrame frame);
+}
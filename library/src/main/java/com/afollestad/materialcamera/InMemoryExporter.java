@@ -0,0 +1,150 @@
+package com.afollestad.materialcamera;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps {@link CameraMetrics} in memory for the app to read and upload when it likes. Histograms
+ * count samples into fixed buckets, so memory stays the same however many there are.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public class InMemoryExporter implements CameraMetrics.Exporter {
+
+  /**
+   * Upper bounds of the histogram buckets, in the unit of the samples (ms for latencies). The last
+   * bucket holds everything larger.
+   */
+  public static final long[] BUCKETS = {10, 25, 50, 100, 250, 500, 1000, 2500, 5000};
+
+  public static class Histogram {
+
+    private long mCount;
+    private long mSum;
+    private long mMax;
+    private final long[] mBuckets = new long[BUCKETS.length + 1];
+
+    private Histogram() {}
+
+    private Histogram(Histogram other) {
+      mCount = other.mCount;
+      mSum = other.mSum;
+      mMax = other.mMax;
+      System.arraycopy(other.mBuckets, 0, mBuckets, 0, mBuckets.length);
+    }
+
+    private void add(long value) {
+      mCount++;
+      mSum += value;
+      mMax = Math.max(mMax, value);
+      int bucket = 0;
+      while (bucket < BUCKETS.length && value > BUCKETS[bucket]) bucket++;
+      mBuckets[bucket]++;
+    }
+
+    public long getCount() {
+      return mCount;
+    }
+
+    public long getSum() {
+      return mSum;
+    }
+
+    public long getMax() {
+      return mMax;
+    }
+
+    public float getMean() {
+      return mCount > 0 ? (float) mSum / mCount : 0;
+    }
+
+    /**
+     * @return how many samples fell in each bucket of {@link #BUCKETS}, with one more entry for the
+     *     larger ones
+     */
+    public long[] getBuckets() {
+      return mBuckets.clone();
+    }
+
+    /**
+     * @param percentile e.g. 0.95
+     * @return the upper bound of the bucket that sample falls in, or the max for the last bucket
+     */
+    public long getPercentile(float percentile) {
+      if (mCount == 0) return 0;
+      final long rank = (long) Math.ceil(percentile * mCount);
+      long seen = 0;
+      for (int i = 0; i < BUCKETS.length; i++) {
+        seen += mBuckets[i];
+        if (seen >= rank) return Math.min(BUCKETS[i], mMax);
+      }
+      return mMax;
+    }
+  }
+
+  private final Map<String, Long> mCounters = new HashMap<>();
+  private final Map<String, Long> mGauges = new HashMap<>();
+  private final Map<String, Histogram> mHistograms = new HashMap<>();
+
+  @Override
+  public synchronized void onCount(@NonNull String name, long delta) {
+    final Long value = mCounters.get(name);
+    mCounters.put(name, value != null ? value + delta : delta);
+  }
+
+  @Override
+  public synchronized void onSample(@NonNull String name, long value) {
+    Histogram histogram = mHistograms.get(name);
+    if (histogram == null) {
+      histogram = new Histogram();
+      mHistograms.put(name, histogram);
+    }
+    histogram.add(value);
+  }
+
+  @Override
+  public synchronized void onGauge(@NonNull String name, long value) {
+    mGauges.put(name, value);
+  }
+
+  public synchronized long getCount(@NonNull String name) {
+    final Long value = mCounters.get(name);
+    return value != null ? value : 0;
+  }
+
+  public synchronized long getGauge(@NonNull String name) {
+    final Long value = mGauges.get(name);
+    return value != null ? value : 0;
+  }
+
+  /** @return a copy of the histogram, null if nothing was sampled yet */
+  @Nullable
+  public synchronized Histogram getHistogram(@NonNull String name) {
+    final Histogram histogram = mHistograms.get(name);
+    return histogram != null ? new Histogram(histogram) : null;
+  }
+
+  /** @return a copy of all counters, e.g. to find the {@link CameraMetrics#FAILURES} causes */
+  public synchronized Map<String, Long> getCounts() {
+    return new HashMap<>(mCounters);
+  }
+
+  public synchronized Map<String, Long> getGauges() {
+    return new HashMap<>(mGauges);
+  }
+
+  public synchronized Map<String, Histogram> getHistograms() {
+    final Map<String, Histogram> copy = new HashMap<>();
+    for (Map.Entry<String, Histogram> entry : mHistograms.entrySet())
+      copy.put(entry.getKey(), new Histogram(entry.getValue()));
+    return copy;
+  }
+
+  /** Starts over, e.g. after uploading. Gauges are kept since they're current values. */
+  public synchronized void reset() {
+    mCounters.clear();
+    mHistograms.clear();
+  }
+}
@@ -4,6 +4,9 @@ import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
 import android.media.CamcorderProfile;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
 import android.support.annotation.AttrRes;
 import android.support.annotation.ColorInt;
 import android.support.annotation.ColorRes;
@@ -15,7 +18,13 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.annotation.StringRes;
 import android.support.v4.content.ContextCompat;
+import com.afollestad.materialcamera.internal.Calibrator;
+import com.afollestad.materialcamera.internal.Camera2Fragment;
+import com.afollestad.materialcamera.internal.CameraFragment;
 import com.afollestad.materialcamera.internal.CameraIntentKey;
+import com.afollestad.materialcamera.internal.CaptureConfig;
+import com.afollestad.materialcamera.internal.DescriptorRegistry;
+import com.afollestad.materialcamera.internal.ListenerRegistry;
 import com.afollestad.materialcamera.util.CameraUtil;
 import com.afollestad.materialdialogs.util.DialogUtils;
 import java.io.File;
@@ -36,8 +45,27 @@ public class MaterialCamera {
   public static final int QUALITY_720P = CamcorderProfile.QUALITY_720P;
   public static final int QUALITY_1080P = CamcorderProfile.QUALITY_1080P;
 
+  @IntDef({CODEC_DEFAULT, CODEC_H264, CODEC_HEVC, CODEC_VP8})
+  @Retention(RetentionPolicy.SOURCE)
+  public @interface VideoCodec {}
+
+  /** Whatever codec the quality profile uses. */
+  public static final int CODEC_DEFAULT = 0;
+
+  public static final int CODEC_H264 = 1;
+  public static final int CODEC_HEVC = 2;
+  public static final int CODEC_VP8 = 3;
+
   public static final String ERROR_EXTRA = "mcam_error";
   public static final String STATUS_EXTRA = "mcam_status";
+  /** String list of file:// Uris of the stills taken while recording, if any. */
+  public static final String SNAPSHOTS_EXTRA = "mcam_snapshots";
+  /** A {@link CaptureManifest} of the returned file, if {@link #checksums(int)} is enabled. */
+  public static final String MANIFEST_EXTRA = "mcam_manifest";
+  /**
+   * {@link CapturedItem} list of all stills taken, in order, if {@link #multiCapture(int)} is used.
+   */
+  public static final String ITEMS_EXTRA = "mcam_items";
 
   public static final int STATUS_RECORDED = 1;
   public static final int STATUS_RETRY = 2;
@@ -51,6 +79,8 @@ public class MaterialCamera {
   private boolean mAllowRetry = true;
   private boolean mAutoSubmit = false;
   private String mSaveDir;
+  private Uri mOutputDestination;
+  private ParcelFileDescriptor mOutputDescriptor;
   private int mPrimaryColor;
   private boolean mShowPortraitWarning = true;
   private boolean mAllowChangeCamera = true;
@@ -63,6 +93,17 @@ public class MaterialCamera {
   private boolean mStillShot;
   private boolean mAudioDisabled = false;
   private long mAutoRecord = -1;
+  private long mPreRoll = -1;
+  private boolean mVideoSnapshots = false;
+  private int mTranscodeShortSide = -1;
+  private int mTranscodeBitRate = -1;
+  private int mChecksumChunkSize = -1;
+  private int mMultiCapture;
+  private boolean mParallelJpeg = false;
+  private boolean mNightMode = false;
+  private FrameAnalyzer mFrameAnalyzer;
+  private PreviewStats.Listener mPreviewStatsListener;
+  private boolean mShowPreviewStats = false;
 
   private int mVideoEncodingBitRate = -1;
   private int mAudioEncodingBitRate = -1;
@@ -71,6 +112,7 @@ public class MaterialCamera {
   private float mVideoPreferredAspect = -1f;
   private long mMaxFileSize = -1;
   private int mQualityProfile = -1;
+  private int[] mVideoCodecs;
 
   private int mIconRecord;
   private int mIconStop;
@@ -105,6 +147,17 @@ public class MaterialCamera {
     mPrimaryColor = DialogUtils.resolveColor(mContext, R.attr.colorPrimary);
   }
 
+  /**
+   * Measures how quickly each camera API opens, starts previewing and takes a still, and how fast
+   * it previews at a few sizes. The best combination is saved for this device and from then on
+   * chooses between Camera1 and Camera2 for stills, where both could be used, and caps the back
+   * camera's preview size. Recordings aren't affected. Keeps the back camera open for a while, so
+   * run it once, e.g. during onboarding, with the camera permission granted.
+   */
+  public static void calibrate(@NonNull Context context, @NonNull Calibration.Callback callback) {
+    Calibrator.start(context, callback);
+  }
+
   public MaterialCamera countdownMillis(long lengthLimitMs) {
     mLengthLimit = lengthLimitMs;
     return this;
@@ -143,6 +196,27 @@ public class MaterialCamera {
     return this;
   }
 
+  /**
+   * Writes the capture straight to a file:// or content:// Uri (e.g. a MediaStore entry) instead of
+   * a new file in the save directory. Takes precedence over {@link #saveDir(String)}.
+   */
+  public MaterialCamera output(@Nullable Uri destination) {
+    mOutputDestination = destination;
+    mOutputDescriptor = null;
+    return this;
+  }
+
+  /**
+   * Writes the capture straight to an already opened, writable and seekable file descriptor. The
+   * descriptor stays owned by the caller, who should close it after receiving the result. The
+   * result Intent carries no data Uri in this case.
+   */
+  public MaterialCamera output(@Nullable ParcelFileDescriptor destination) {
+    mOutputDescriptor = destination;
+    mOutputDestination = null;
+    return this;
+  }
+
   public MaterialCamera primaryColor(@ColorInt int color) {
     mPrimaryColor = color;
     return this;
@@ -239,6 +313,15 @@ public class MaterialCamera {
     return this;
   }
 
+  /**
+   * Sets the video codecs to try, in order of preference. The first one the device can encode at
+   * the recorded size is used, falling back to the quality profile's codec if none can.
+   */
+  public MaterialCamera videoCodec(@VideoCodec int... codecs) {
+    mVideoCodecs = codecs;
+    return this;
+  }
+
   public MaterialCamera iconRecord(@DrawableRes int iconRes) {
     mIconRecord = iconRes;
     return this;
@@ -299,6 +382,18 @@ public class MaterialCamera {
     return this;
   }
 
+  /**
+   * Takes up to {@code maxCount} stills with the camera kept open, without review screens. A button
+   * returns the ones taken so far, and reaching {@code maxCount} returns them right away. The data
+   * Uri is the first still; the result's ClipData (API 16+) and {@link #ITEMS_EXTRA} hold all of
+   * them. Implies {@link #stillShot()}. Each still gets its own file in the save directory, so
+   * {@link #output(Uri)} is ignored.
+   */
+  public MaterialCamera multiCapture(@IntRange(from = 1, to = Integer.MAX_VALUE) int maxCount) {
+    mMultiCapture = maxCount;
+    return stillShot();
+  }
+
   public MaterialCamera autoRecordWithDelayMs(
       @IntRange(from = -1, to = Long.MAX_VALUE) long delayMillis) {
     mAutoRecord = delayMillis;
@@ -311,52 +406,178 @@ public class MaterialCamera {
     return this;
   }
 
+  /**
+   * Keeps the last {@code preRollMs} of video and audio encoded in memory while the camera is open,
+   * and writes them out at the start of the recording when record is pressed. Camera2 only.
+   */
+  public MaterialCamera preRollMillis(@IntRange(from = -1, to = Long.MAX_VALUE) long preRollMs) {
+    mPreRoll = preRollMs;
+    return this;
+  }
+
+  public MaterialCamera preRollSeconds(float preRollSec) {
+    return preRollMillis((long) (preRollSec * 1000f));
+  }
+
+  /**
+   * Shows a button while recording that takes a still without stopping the video, if the camera
+   * supports it. The stills are returned in {@link #SNAPSHOTS_EXTRA}.
+   */
+  public MaterialCamera allowVideoSnapshots(boolean allow) {
+    mVideoSnapshots = allow;
+    return this;
+  }
+
+  /**
+   * Re-encodes the video to H.264 once it's submitted, scaled down so that its shorter side is at
+   * most {@code shortSide} pixels. The rotation is applied to the frames rather than stored as
+   * metadata. Requires API 18, videos are returned as recorded below that.
+   */
+  public MaterialCamera transcodeVideo(
+      @IntRange(from = 1, to = Integer.MAX_VALUE) int shortSide,
+      @IntRange(from = 1, to = Integer.MAX_VALUE) int bitRate) {
+    mTranscodeShortSide = shortSide;
+    mTranscodeBitRate = bitRate;
+    return this;
+  }
+
+  /**
+   * Returns a {@link CaptureManifest} with the SHA-256 of the captured file and of each {@code
+   * chunkSize} byte chunk of it. Stills are hashed while they're written, videos right after the
+   * recorder finalizes them.
+   */
+  public MaterialCamera checksums(@IntRange(from = 1, to = Integer.MAX_VALUE) int chunkSize) {
+    mChecksumChunkSize = chunkSize;
+    return this;
+  }
+
+  /**
+   * Captures stills as YUV and encodes them to JPEG on all cores, rather than with the camera's own
+   * encoder. Faster on most multi-core devices. Camera2 only.
+   */
+  public MaterialCamera parallelJpegEncoding(boolean enabled) {
+    mParallelJpeg = enabled;
+    return this;
+  }
+
+  /**
+   * Takes stills as a short burst at a locked exposure, without flash, and merges the frames into
+   * one with less noise. Meant for dim scenes, holding still helps. Camera2 only.
+   */
+  public MaterialCamera nightMode(boolean enabled) {
+    mNightMode = enabled;
+    return this;
+  }
+
+  /**
+   * Hands preview frames to {@code analyzer} on a background thread while the camera is open, at
+   * about VGA on Camera2 and at the preview size on Camera1. The analyzer is held until the capture
+   * activity finishes.
+   */
+  public MaterialCamera frameAnalyzer(@Nullable FrameAnalyzer analyzer) {
+    mFrameAnalyzer = analyzer;
+    return this;
+  }
+
+  /**
+   * Reports the preview's delivered frame rate, frame intervals and dropped frames about once a
+   * second, e.g. to catch preview sizes the camera can't keep up with. Camera2 only.
+   */
+  public MaterialCamera previewStatsListener(@Nullable PreviewStats.Listener listener) {
+    mPreviewStatsListener = listener;
+    return this;
+  }
+
+  /** Shows the preview's frame rate and dropped frames over it, for debugging. Camera2 only. */
+  public MaterialCamera showPreviewStats(boolean show) {
+    mShowPreviewStats = show;
+    return this;
+  }
+
+  /**
+   * Builds the Intent {@link #start(int)} launches. The output descriptor, frame analyzer and stats
+   * listener are held for the capture activity until it's destroyed, so an Intent that's built has
+   * to be started, or they're kept for the rest of the process.
+   */
   public Intent getIntent() {
-    final Class<?> cls =
-        !mForceCamera1 && CameraUtil.hasCamera2(mContext, mStillShot)
-            ? CaptureActivity2.class
-            : CaptureActivity.class;
-    Intent intent =
-        new Intent(mContext, cls)
-            .putExtra(CameraIntentKey.LENGTH_LIMIT, mLengthLimit)
-            .putExtra(CameraIntentKey.ALLOW_RETRY, mAllowRetry)
-            .putExtra(CameraIntentKey.AUTO_SUBMIT, mAutoSubmit)
-            .putExtra(CameraIntentKey.SAVE_DIR, mSaveDir)
-            .putExtra(CameraIntentKey.PRIMARY_COLOR, mPrimaryColor)
-            .putExtra(CameraIntentKey.SHOW_PORTRAIT_WARNING, mShowPortraitWarning)
-            .putExtra(CameraIntentKey.ALLOW_CHANGE_CAMERA, mAllowChangeCamera)
-            .putExtra(CameraIntentKey.DEFAULT_TO_FRONT_FACING, mDefaultToFrontFacing)
-            .putExtra(CameraIntentKey.COUNTDOWN_IMMEDIATELY, mCountdownImmediately)
-            .putExtra(CameraIntentKey.RETRY_EXITS, mRetryExists)
-            .putExtra(CameraIntentKey.RESTART_TIMER_ON_RETRY, mRestartTimerOnRetry)
-            .putExtra(CameraIntentKey.CONTINUE_TIMER_IN_PLAYBACK, mContinueTimerInPlayback)
-            .putExtra(CameraIntentKey.STILL_SHOT, mStillShot)
-            .putExtra(CameraIntentKey.AUTO_RECORD, mAutoRecord)
-            .putExtra(CameraIntentKey.AUDIO_DISABLED, mAudioDisabled);
-
-    if (mVideoEncodingBitRate > 0)
-      intent.putExtra(CameraIntentKey.VIDEO_BIT_RATE, mVideoEncodingBitRate);
-    if (mAudioEncodingBitRate > 0)
-      intent.putExtra(CameraIntentKey.AUDIO_ENCODING_BIT_RATE, mAudioEncodingBitRate);
-    if (mVideoFrameRate > 0) intent.putExtra(CameraIntentKey.VIDEO_FRAME_RATE, mVideoFrameRate);
-    if (mVideoPreferredHeight > 0)
-      intent.putExtra(CameraIntentKey.VIDEO_PREFERRED_HEIGHT, mVideoPreferredHeight);
-    if (mVideoPreferredAspect > 0f)
-      intent.putExtra(CameraIntentKey.VIDEO_PREFERRED_ASPECT, mVideoPreferredAspect);
-    if (mMaxFileSize > -1) intent.putExtra(CameraIntentKey.MAX_ALLOWED_FILE_SIZE, mMaxFileSize);
-    if (mQualityProfile > -1) intent.putExtra(CameraIntentKey.QUALITY_PROFILE, mQualityProfile);
-
-    if (mIconRecord != 0) intent.putExtra(CameraIntentKey.ICON_RECORD, mIconRecord);
-    if (mIconStop != 0) intent.putExtra(CameraIntentKey.ICON_STOP, mIconStop);
-    if (mIconFrontCamera != 0) intent.putExtra(CameraIntentKey.ICON_FRONT_CAMERA, mIconFrontCamera);
-    if (mIconRearCamera != 0) intent.putExtra(CameraIntentKey.ICON_REAR_CAMERA, mIconRearCamera);
-    if (mIconPlay != 0) intent.putExtra(CameraIntentKey.ICON_PLAY, mIconPlay);
-    if (mIconPause != 0) intent.putExtra(CameraIntentKey.ICON_PAUSE, mIconPause);
-    if (mIconRestart != 0) intent.putExtra(CameraIntentKey.ICON_RESTART, mIconRestart);
-    if (mLabelRetry != 0) intent.putExtra(CameraIntentKey.LABEL_RETRY, mLabelRetry);
-    if (mLabelConfirm != 0) intent.putExtra(CameraIntentKey.LABEL_CONFIRM, mLabelConfirm);
-
-    return intent;
+    final Class<?> cls = useCamera2() ? CaptureActivity2.class : CaptureActivity.class;
+    return new Intent(mContext, cls).putExtra(CameraIntentKey.CONFIG, buildConfig());
+  }
+
+  /**
+   * Creates a camera to add to the caller's own layout instead of starting a capture activity. The
+   * activity it's added to implements {@link CaptureCallback}, which gets each capture right away
+   * since there are no review screens. The fragment stays open for the next capture until it's
+   * removed. Camera and audio permissions have to be granted beforehand. Transcoding and video
+   * snapshots aren't available in place. Like {@link #getIntent()}, a fragment that's created has
+   * to be added so the objects it was given are let go of once it's removed.
+   */
+  public android.app.Fragment createFragment() {
+    final android.app.Fragment fragment =
+        useCamera2() ? Camera2Fragment.newInstance() : CameraFragment.newInstance();
+    final Bundle args = new Bundle();
+    args.putParcelable(CameraIntentKey.CONFIG, buildConfig());
+    fragment.setArguments(args);
+    return fragment;
+  }
+
+  private boolean useCamera2() {
+    return !mForceCamera1 && CameraUtil.hasCamera2(mContext, mStillShot);
+  }
+
+  private CaptureConfig buildConfig() {
+    final CaptureConfig.Builder config =
+        new CaptureConfig.Builder()
+            .lengthLimit(mLengthLimit)
+            .allowRetry(mAllowRetry)
+            .autoSubmit(mAutoSubmit)
+            .saveDir(mSaveDir)
+            .primaryColor(mPrimaryColor)
+            .showPortraitWarning(mShowPortraitWarning)
+            .allowChangeCamera(mAllowChangeCamera)
+            .defaultToFrontFacing(mDefaultToFrontFacing)
+            .countdownImmediately(mCountdownImmediately)
+            .retryExits(mRetryExists)
+            .restartTimerOnRetry(mRestartTimerOnRetry)
+            .continueTimerInPlayback(mContinueTimerInPlayback)
+            .stillShot(mStillShot)
+            .autoRecordDelay(mAutoRecord)
+            .audioDisabled(mAudioDisabled)
+            .preRoll(mPreRoll)
+            .videoSnapshots(mVideoSnapshots)
+            .transcode(mTranscodeShortSide, mTranscodeBitRate)
+            .checksumChunkSize(mChecksumChunkSize)
+            .multiCaptureLimit(mMultiCapture)
+            .parallelJpeg(mParallelJpeg)
+            .nightMode(mNightMode)
+            .showPreviewStats(mShowPreviewStats)
+            .videoEncodingBitRate(mVideoEncodingBitRate)
+            .audioEncodingBitRate(mAudioEncodingBitRate)
+            .videoFrameRate(mVideoFrameRate)
+            .maxAllowedFileSize(mMaxFileSize)
+            .videoCodecs(mVideoCodecs)
+            .outputDestination(mMultiCapture > 0 ? null : mOutputDestination)
+            .labelConfirm(mLabelConfirm);
+
+    if (mVideoPreferredHeight > 0) config.videoPreferredHeight(mVideoPreferredHeight);
+    if (mVideoPreferredAspect > 0f) config.videoPreferredAspect(mVideoPreferredAspect);
+    if (mQualityProfile > -1) config.qualityProfile(mQualityProfile);
+    if (mOutputDescriptor != null && mMultiCapture == 0)
+      config.outputDescriptor(DescriptorRegistry.register(mOutputDescriptor));
+    if (mFrameAnalyzer != null) config.frameAnalyzer(ListenerRegistry.register(mFrameAnalyzer));
+    if (mPreviewStatsListener != null)
+      config.previewStatsListener(ListenerRegistry.register(mPreviewStatsListener));
+
+    if (mIconRecord != 0) config.iconRecord(mIconRecord);
+    if (mIconStop != 0) config.iconStop(mIconStop);
+    if (mIconFrontCamera != 0) config.iconFrontCamera(mIconFrontCamera);
+    if (mIconRearCamera != 0) config.iconRearCamera(mIconRearCamera);
+    if (mIconPlay != 0) config.iconPlay(mIconPlay);
+    if (mIconPause != 0) config.iconPause(mIconPause);
+    if (mIconRestart != 0) config.iconRestart(mIconRestart);
+    if (mLabelRetry != 0) config.labelRetry(mLabelRetry);
+
+    return config.build();
   }
 
   public void start(int requestCode) {
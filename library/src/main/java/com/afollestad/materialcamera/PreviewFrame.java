@@ -0,0 +1,71 @@
+package com.afollestad.materialcamera;
+
+/**
+ * A preview frame handed to a {@link FrameAnalyzer}, along with counters of how well the analyzer
+ * keeps up with the camera.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public class PreviewFrame {
+
+  private final byte[] mData;
+  private final int mWidth;
+  private final int mHeight;
+  private final int mRotation;
+  private final long mFrameNumber;
+  private final long mDroppedFrames;
+  private final long mLatencyMillis;
+
+  public PreviewFrame(
+      byte[] data,
+      int width,
+      int height,
+      int rotation,
+      long frameNumber,
+      long droppedFrames,
+      long latencyMillis) {
+    mData = data;
+    mWidth = width;
+    mHeight = height;
+    mRotation = rotation;
+    mFrameNumber = frameNumber;
+    mDroppedFrames = droppedFrames;
+    mLatencyMillis = latencyMillis;
+  }
+
+  /**
+   * @return the frame as NV21, a full resolution luma plane followed by interleaved V and U at half
+   *     resolution. Only valid during {@link FrameAnalyzer#analyze(PreviewFrame)}.
+   */
+  public byte[] getData() {
+    return mData;
+  }
+
+  public int getWidth() {
+    return mWidth;
+  }
+
+  public int getHeight() {
+    return mHeight;
+  }
+
+  /** @return the clockwise rotation in degrees that shows the frame upright on screen */
+  public int getRotation() {
+    return mRotation;
+  }
+
+  /** @return how many frames the camera delivered since analysis started, including this one */
+  public long getFrameNumber() {
+    return mFrameNumber;
+  }
+
+  /** @return how many frames were replaced by a newer one before they could be analyzed */
+  public long getDroppedFrames() {
+    return mDroppedFrames;
+  }
+
+  /** @return how long the frame waited between arriving from the camera and being analyzed */
+  public long getLatencyMillis() {
+    return mLatencyMillis;
+  }
+}
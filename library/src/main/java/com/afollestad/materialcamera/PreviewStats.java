@@ -0,0 +1,71 @@
+package com.afollestad.materialcamera;
+
+/**
+ * How smoothly the camera delivered preview frames, measured from the sensor timestamps of capture
+ * results. Set a listener with {@link MaterialCamera#previewStatsListener(Listener)}. Camera2 only.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public class PreviewStats {
+
+  public interface Listener {
+    /** Called on the main thread about once a second while the preview runs. */
+    void onPreviewStats(PreviewStats stats);
+  }
+
+  /**
+   * Upper bounds in ms of the frame interval histogram buckets, the last bucket holds everything
+   * longer. They fall between the intervals of 60, 40, 30, 20, 15 and 10 fps.
+   */
+  public static final int[] INTERVAL_BUCKETS_MS = {20, 30, 40, 55, 80, 120};
+
+  private final float mFps;
+  private final long mFrameCount;
+  private final long mDroppedFrames;
+  private final long mWorstIntervalMillis;
+  private final long[] mIntervalHistogram;
+
+  public PreviewStats(
+      float fps,
+      long frameCount,
+      long droppedFrames,
+      long worstIntervalMillis,
+      long[] intervalHistogram) {
+    mFps = fps;
+    mFrameCount = frameCount;
+    mDroppedFrames = droppedFrames;
+    mWorstIntervalMillis = worstIntervalMillis;
+    mIntervalHistogram = intervalHistogram;
+  }
+
+  /** @return frames delivered per second since the previous report */
+  public float getFps() {
+    return mFps;
+  }
+
+  /** @return frames delivered since the preview started */
+  public long getFrameCount() {
+    return mFrameCount;
+  }
+
+  /**
+   * @return frames the camera skipped since the preview started, from gaps in the frame numbers.
+   *     Frames that went to still captures count as well, since the preview didn't get them.
+   */
+  public long getDroppedFrames() {
+    return mDroppedFrames;
+  }
+
+  /** @return the longest time between two frames since the previous report */
+  public long getWorstIntervalMillis() {
+    return mWorstIntervalMillis;
+  }
+
+  /**
+   * @return how many frame intervals since the preview started fell in each bucket of {@link
+   *     #INTERVAL_BUCKETS_MS}, with one more entry for the longer ones
+   */
+  public long[] getIntervalHistogram() {
+    return mIntervalHistogram.clone();
+  }
+}
@@ -1,6 +1,5 @@
 package com.afollestad.materialcamera.internal;
 
-import static android.app.Activity.RESULT_CANCELED;
 import static com.afollestad.materialcamera.internal.BaseCaptureActivity.CAMERA_POSITION_BACK;
 import static com.afollestad.materialcamera.internal.BaseCaptureActivity.FLASH_MODE_ALWAYS_ON;
 import static com.afollestad.materialcamera.internal.BaseCaptureActivity.FLASH_MODE_AUTO;
@@ -9,17 +8,19 @@ import static com.afollestad.materialcamera.internal.BaseCaptureActivity.FLASH_M
 import android.annotation.SuppressLint;
 import android.app.Activity;
 import android.app.Fragment;
-import android.content.Intent;
 import android.content.pm.ActivityInfo;
 import android.content.res.ColorStateList;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.RippleDrawable;
 import android.media.MediaRecorder;
+import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.ParcelFileDescriptor;
 import android.support.annotation.DrawableRes;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.v4.content.ContextCompat;
 import android.support.v4.graphics.drawable.DrawableCompat;
 import android.support.v7.content.res.AppCompatResources;
@@ -30,13 +31,17 @@ import android.view.ViewGroup;
 import android.widget.ImageButton;
 import android.widget.ImageView;
 import android.widget.TextView;
+import com.afollestad.materialcamera.CameraMetrics;
 import com.afollestad.materialcamera.MaterialCamera;
 import com.afollestad.materialcamera.R;
 import com.afollestad.materialcamera.util.CameraUtil;
 import com.afollestad.materialcamera.util.Degrees;
+import com.afollestad.materialcamera.util.DurationFormatter;
 import com.afollestad.materialdialogs.DialogAction;
 import com.afollestad.materialdialogs.MaterialDialog;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 
 /** @author Aidan Follestad (afollestad) */
 abstract class BaseCameraFragment extends Fragment
@@ -46,14 +51,17 @@ abstract class BaseCameraFragment extends Fragment
   protected ImageButton mButtonStillshot;
   protected ImageButton mButtonFacing;
   protected ImageButton mButtonFlash;
+  protected ImageButton mButtonSnapshot;
   protected TextView mRecordDuration;
   protected TextView mDelayStartCountdown;
+  protected TextView mButtonDone;
 
   private boolean mIsRecording;
   protected String mOutputUri;
   protected BaseCaptureInterface mInterface;
-  protected Handler mPositionHandler;
+  private EmbeddedCaptureHost mEmbeddedHost;
   protected MediaRecorder mMediaRecorder;
+  protected ParcelFileDescriptor mOutputDescriptor;
   private int mIconTextColor;
 
   protected static void LOG(Object context, String message) {
@@ -64,28 +72,19 @@ abstract class BaseCameraFragment extends Fragment
         message);
   }
 
-  private final Runnable mPositionUpdater =
-      new Runnable() {
-        @Override
-        public void run() {
-          if (mInterface == null || mRecordDuration == null) return;
-          final long mRecordStart = mInterface.getRecordingStart();
-          final long mRecordEnd = mInterface.getRecordingEnd();
-          if (mRecordStart == -1 && mRecordEnd == -1) return;
-          final long now = System.currentTimeMillis();
-          if (mRecordEnd != -1) {
-            if (now >= mRecordEnd) {
-              stopRecordingVideo(true);
-            } else {
-              final long diff = mRecordEnd - now;
-              mRecordDuration.setText(String.format("-%s", CameraUtil.getDurationString(diff)));
+  private final RecordingTimer mRecordTimer =
+      new RecordingTimer(
+          new RecordingTimer.Callback() {
+            @Override
+            public void onTick(CharSequence label) {
+              if (mRecordDuration != null) mRecordDuration.setText(label);
             }
-          } else {
-            mRecordDuration.setText(CameraUtil.getDurationString(now - mRecordStart));
-          }
-          if (mPositionHandler != null) mPositionHandler.postDelayed(this, 1000);
-        }
-      };
+
+            @Override
+            public void onFinished() {
+              if (mInterface != null) stopRecordingVideo(true);
+            }
+          });
 
   @Override
   public final View onCreateView(
@@ -114,6 +113,7 @@ abstract class BaseCameraFragment extends Fragment
     mButtonVideo = (ImageButton) view.findViewById(R.id.video);
     mButtonStillshot = (ImageButton) view.findViewById(R.id.stillshot);
     mRecordDuration = (TextView) view.findViewById(R.id.recordDuration);
+    mButtonDone = (TextView) view.findViewById(R.id.done);
     mButtonFacing = (ImageButton) view.findViewById(R.id.facing);
     if (mInterface.shouldHideCameraFacing() || CameraUtil.isChromium()) {
       mButtonFacing.setVisibility(View.GONE);
@@ -128,12 +128,17 @@ abstract class BaseCameraFragment extends Fragment
     mButtonFlash = (ImageButton) view.findViewById(R.id.flash);
     setupFlashMode();
 
+    mButtonSnapshot = (ImageButton) view.findViewById(R.id.snapshot);
+    setImageRes(mButtonSnapshot, mInterface.iconStillshot());
+
     mButtonVideo.setOnClickListener(this);
     mButtonStillshot.setOnClickListener(this);
     mButtonFacing.setOnClickListener(this);
     mButtonFlash.setOnClickListener(this);
+    mButtonSnapshot.setOnClickListener(this);
+    mButtonDone.setOnClickListener(this);
 
-    int primaryColor = getArguments().getInt(CameraIntentKey.PRIMARY_COLOR);
+    int primaryColor = mInterface.getConfig().getPrimaryColor();
     if (CameraUtil.isColorDark(primaryColor)) {
       mIconTextColor = ContextCompat.getColor(getActivity(), R.color.mcam_color_light);
       primaryColor = CameraUtil.darkenColor(primaryColor);
@@ -142,6 +147,7 @@ abstract class BaseCameraFragment extends Fragment
     }
     view.findViewById(R.id.controlsFrame).setBackgroundColor(primaryColor);
     mRecordDuration.setTextColor(mIconTextColor);
+    mButtonDone.setTextColor(mIconTextColor);
 
     if (mMediaRecorder != null && mIsRecording) {
       setImageRes(mButtonVideo, mInterface.iconStop());
@@ -158,6 +164,7 @@ abstract class BaseCameraFragment extends Fragment
       mButtonStillshot.setVisibility(View.VISIBLE);
       setImageRes(mButtonStillshot, mInterface.iconStillshot());
       mButtonFlash.setVisibility(View.VISIBLE);
+      onBatchChanged(mInterface.getBatchSize());
     }
 
     if (mInterface.autoRecordDelay() < 1000) {
@@ -250,6 +257,19 @@ abstract class BaseCameraFragment extends Fragment
     mButtonFacing = null;
     mButtonFlash = null;
     mRecordDuration = null;
+    mButtonDone = null;
+  }
+
+  /** Shows how many stills of a multi-capture batch were taken, and the button to return them. */
+  public final void onBatchChanged(int count) {
+    if (mButtonDone == null) return;
+    mButtonDone.setVisibility(count > 0 ? View.VISIBLE : View.GONE);
+    mButtonDone.setText(getString(R.string.mcam_use_batch, count));
+  }
+
+  /** @return whether stills are collected into a batch, with the camera kept open between them */
+  protected final boolean isMultiCapture() {
+    return mInterface != null && mInterface.getConfig().getMultiCaptureLimit() > 0;
   }
 
   @Override
@@ -261,8 +281,7 @@ abstract class BaseCameraFragment extends Fragment
           mInterface.setRecordingStart(System.currentTimeMillis());
         startCounter();
       } else {
-        mRecordDuration.setText(
-            String.format("-%s", CameraUtil.getDurationString(mInterface.getLengthLimit())));
+        mRecordDuration.setText(new DurationFormatter().format(mInterface.getLengthLimit(), true));
       }
     }
   }
@@ -271,19 +290,79 @@ abstract class BaseCameraFragment extends Fragment
   @Override
   public final void onAttach(Activity activity) {
     super.onAttach(activity);
-    mInterface = (BaseCaptureInterface) activity;
+    if (activity instanceof BaseCaptureInterface) {
+      mInterface = (BaseCaptureInterface) activity;
+    } else {
+      // Added to the caller's own layout by MaterialCamera#createFragment()
+      if (mEmbeddedHost == null) {
+        final Bundle args = getArguments();
+        final CaptureConfig config =
+            args != null ? (CaptureConfig) args.getParcelable(CameraIntentKey.CONFIG) : null;
+        mEmbeddedHost = new EmbeddedCaptureHost(this, config);
+      }
+      mEmbeddedHost.attach(activity);
+      mInterface = mEmbeddedHost;
+    }
   }
 
   @NonNull
   protected final File getOutputMediaFile() {
+    return getOutputMediaFile(".mp4");
+  }
+
+  @NonNull
+  protected final File getOutputMediaFile(String extension) {
     return CameraUtil.makeTempFile(
-        getActivity(), getArguments().getString(CameraIntentKey.SAVE_DIR), "VID_", ".mp4");
+        getActivity(), mInterface.getConfig().getSaveDir(), "VID_", extension);
   }
 
   @NonNull
   protected final File getOutputPictureFile() {
     return CameraUtil.makeTempFile(
-        getActivity(), getArguments().getString(CameraIntentKey.SAVE_DIR), "IMG_", ".jpg");
+        getActivity(), mInterface.getConfig().getSaveDir(), "IMG_", ".jpg");
+  }
+
+  /**
+   * Opens the destination given to {@link MaterialCamera#output(Uri)} or {@link
+   * MaterialCamera#output(ParcelFileDescriptor)}, truncated, and points {@link #mOutputUri} at it.
+   * The returned descriptor is owned by the caller of this method.
+   *
+   * @return null if no destination was given, in which case a temp file should be used.
+   */
+  @Nullable
+  protected final ParcelFileDescriptor openOutputDestination() throws IOException {
+    final ParcelFileDescriptor descriptor = mInterface.outputDescriptor();
+    if (descriptor != null) {
+      // Not closed on purpose, that would close the caller's descriptor too
+      final FileOutputStream stream = new FileOutputStream(descriptor.getFileDescriptor());
+      stream.getChannel().truncate(0).position(0);
+      // Lets the playback and stillshot screens read it back through a regular path
+      mOutputUri = Uri.fromFile(new File("/proc/self/fd/" + descriptor.getFd())).toString();
+      return descriptor.dup();
+    }
+    final Uri destination = mInterface.outputDestination();
+    if (destination == null) return null;
+    mOutputUri = destination.toString();
+    final ParcelFileDescriptor opened =
+        getActivity().getContentResolver().openFileDescriptor(destination, "rwt");
+    if (opened == null) throw new IOException("Unable to open " + destination);
+    return opened;
+  }
+
+  protected final boolean hasOutputDestination() {
+    return mInterface != null
+        && (mInterface.outputDestination() != null || mInterface.outputDescriptor() != null);
+  }
+
+  protected final void closeOutputDescriptor() {
+    if (mOutputDescriptor != null) {
+      try {
+        mOutputDescriptor.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+      mOutputDescriptor = null;
+    }
   }
 
   public abstract void openCamera();
@@ -298,6 +377,12 @@ abstract class BaseCameraFragment extends Fragment
 
   public abstract void takeStillshot();
 
+  /** @return whether a still can be taken while recording with the current camera */
+  protected abstract boolean canTakeVideoSnapshot();
+
+  /** Takes a still without interrupting the recording, see {@link #canTakeVideoSnapshot()} */
+  public abstract void takeVideoSnapshot();
+
   public abstract void onPreferencesUpdated();
 
   @Override
@@ -310,12 +395,30 @@ abstract class BaseCameraFragment extends Fragment
   public final void onDetach() {
     super.onDetach();
     mInterface = null;
+    if (mEmbeddedHost != null) mEmbeddedHost.detach();
+  }
+
+  @Override
+  public void onDestroy() {
+    super.onDestroy();
+    if (mEmbeddedHost != null) mEmbeddedHost.release();
+  }
+
+  /** Gets an embedded camera ready for the next capture, after the last one was delivered. */
+  final void resetForNextCapture() {
+    if (mInterface == null || getView() == null) return;
+    stopCounter();
+    final boolean limited = mInterface.hasLengthLimit();
+    mRecordDuration.setText(
+        new DurationFormatter().format(limited ? mInterface.getLengthLimit() : 0, limited));
+    closeCamera();
+    openCamera();
   }
 
   public final void startCounter() {
-    if (mPositionHandler == null) mPositionHandler = new Handler();
-    else mPositionHandler.removeCallbacks(mPositionUpdater);
-    mPositionHandler.post(mPositionUpdater);
+    if (mInterface == null || mRecordDuration == null) return;
+    mRecordTimer.start(
+        mRecordDuration, mInterface.getRecordingStart(), mInterface.getRecordingEnd());
   }
 
   @BaseCaptureActivity.CameraPosition
@@ -331,10 +434,7 @@ abstract class BaseCameraFragment extends Fragment
   }
 
   public final void stopCounter() {
-    if (mPositionHandler != null) {
-      mPositionHandler.removeCallbacks(mPositionUpdater);
-      mPositionHandler = null;
-    }
+    mRecordTimer.stop();
   }
 
   public final void releaseRecorder() {
@@ -353,6 +453,8 @@ abstract class BaseCameraFragment extends Fragment
       mMediaRecorder.release();
       mMediaRecorder = null;
     }
+    mIsRecording = false;
+    closeOutputDescriptor();
   }
 
   public boolean startRecordingVideo() {
@@ -367,11 +469,14 @@ abstract class BaseCameraFragment extends Fragment
     //noinspection ResourceType
     getActivity().setRequestedOrientation(orientation);
     mInterface.setDidRecord(true);
+    if (mInterface.allowVideoSnapshots() && canTakeVideoSnapshot())
+      mButtonSnapshot.setVisibility(View.VISIBLE);
     return true;
   }
 
   public void stopRecordingVideo(boolean reachedZero) {
     getActivity().setRequestedOrientation(ActivityInfo.SCREEN_ORIENTATION_UNSPECIFIED);
+    mButtonSnapshot.setVisibility(View.GONE);
   }
 
   @Override
@@ -386,11 +491,8 @@ abstract class BaseCameraFragment extends Fragment
   }
 
   protected final void throwError(Exception e) {
-    Activity act = getActivity();
-    if (act != null) {
-      act.setResult(RESULT_CANCELED, new Intent().putExtra(MaterialCamera.ERROR_EXTRA, e));
-      act.finish();
-    }
+    CameraMetrics.failure(e);
+    if (mInterface != null) mInterface.onCaptureError(e);
   }
 
   @Override
@@ -411,8 +513,7 @@ abstract class BaseCameraFragment extends Fragment
         stopRecordingVideo(false);
         mIsRecording = false;
       } else {
-        if (getArguments().getBoolean(CameraIntentKey.SHOW_PORTRAIT_WARNING, true)
-            && Degrees.isPortrait(getActivity())) {
+        if (mInterface.getConfig().showPortraitWarning() && Degrees.isPortrait(getActivity())) {
           new MaterialDialog.Builder(getActivity())
               .title(R.string.mcam_portrait)
               .content(R.string.mcam_portrait_warning)
@@ -434,6 +535,10 @@ abstract class BaseCameraFragment extends Fragment
       }
     } else if (id == R.id.stillshot) {
       takeStillshot();
+    } else if (id == R.id.snapshot) {
+      takeVideoSnapshot();
+    } else if (id == R.id.done) {
+      mInterface.finishBatch();
     } else if (id == R.id.flash) {
       invalidateFlash(true);
     }
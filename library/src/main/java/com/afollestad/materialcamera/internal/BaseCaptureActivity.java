@@ -1,16 +1,18 @@
 package com.afollestad.materialcamera.internal;
 
 import android.Manifest;
+import android.annotation.TargetApi;
 import android.app.Activity;
 import android.app.Fragment;
+import android.content.ClipData;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.graphics.Color;
-import android.media.CamcorderProfile;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
 import android.support.annotation.DrawableRes;
 import android.support.annotation.IntDef;
 import android.support.annotation.NonNull;
@@ -23,14 +25,22 @@ import android.support.v7.app.AppCompatDelegate;
 import android.view.View;
 import android.view.Window;
 import android.view.WindowManager;
+import com.afollestad.materialcamera.CameraMetrics;
+import com.afollestad.materialcamera.CaptureManifest;
+import com.afollestad.materialcamera.CapturedItem;
+import com.afollestad.materialcamera.FrameAnalyzer;
 import com.afollestad.materialcamera.MaterialCamera;
+import com.afollestad.materialcamera.PreviewStats;
 import com.afollestad.materialcamera.R;
 import com.afollestad.materialcamera.TimeLimitReachedException;
 import com.afollestad.materialcamera.util.CameraUtil;
+import com.afollestad.materialcamera.util.CaptureCache;
+import com.afollestad.materialcamera.util.ChunkedDigest;
 import com.afollestad.materialdialogs.MaterialDialog;
 import java.io.File;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
 import java.util.List;
 
 /** @author Aidan Follestad (afollestad) */
@@ -46,7 +56,17 @@ public abstract class BaseCaptureActivity extends AppCompatActivity
   private Object mFrontCameraId;
   private Object mBackCameraId;
   private boolean mDidRecord = false;
+  private String mVideoMimeType = "video/mp4";
   private List<Integer> mFlashModes;
+  private ArrayList<String> mVideoSnapshots = new ArrayList<>();
+  private ArrayList<CapturedItem> mBatch = new ArrayList<>();
+  private VideoTranscoder mTranscoder;
+  private MaterialDialog mProgressDialog;
+  private CaptureManifest mManifest;
+  private boolean mManifestPending;
+  private int mManifestToken;
+  private String mPendingDelivery;
+  private CaptureConfig mConfig;
 
   public static final int PERMISSION_RC = 69;
 
@@ -82,6 +102,10 @@ public abstract class BaseCaptureActivity extends AppCompatActivity
       if (mBackCameraId != null) outState.putInt("back_camera_id_int", (Integer) mBackCameraId);
     }
     outState.putInt("flash_mode", mFlashMode);
+    outState.putStringArrayList("video_snapshots", mVideoSnapshots);
+    outState.putSerializable("batch", mBatch);
+    outState.putSerializable("capture_manifest", mManifest);
+    outState.putString("video_mime_type", mVideoMimeType);
   }
 
   @Override
@@ -89,6 +113,11 @@ public abstract class BaseCaptureActivity extends AppCompatActivity
     AppCompatDelegate.setCompatVectorFromResourcesEnabled(true);
     super.onCreate(savedInstanceState);
 
+    mConfig = getIntent().getParcelableExtra(CameraIntentKey.CONFIG);
+    if (mConfig == null) mConfig = new CaptureConfig.Builder().build();
+    // Starts scanning for leftovers while the camera opens
+    if (mConfig.getSaveDir() == null) CaptureCache.get(this);
+
     if (!CameraUtil.hasCamera(this)) {
       new MaterialDialog.Builder(this)
           .title(R.string.mcam_error)
@@ -107,7 +136,7 @@ public abstract class BaseCaptureActivity extends AppCompatActivity
     setContentView(R.layout.mcam_activity_videocapture);
 
     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-      final int primaryColor = getIntent().getIntExtra(CameraIntentKey.PRIMARY_COLOR, 0);
+      final int primaryColor = mConfig.getPrimaryColor();
       final boolean isPrimaryDark = CameraUtil.isColorDark(primaryColor);
       final Window window = getWindow();
       window.setStatusBarColor(CameraUtil.darkenColor(primaryColor));
@@ -122,7 +151,7 @@ public abstract class BaseCaptureActivity extends AppCompatActivity
 
     if (null == savedInstanceState) {
       checkPermissions();
-      mLengthLimit = getIntent().getLongExtra(CameraIntentKey.LENGTH_LIMIT, -1);
+      mLengthLimit = mConfig.getLengthLimit();
     } else {
       mCameraPosition = savedInstanceState.getInt("camera_position", -1);
       mRequestingPermission = savedInstanceState.getBoolean("requesting_permission", false);
@@ -137,6 +166,14 @@ public abstract class BaseCaptureActivity extends AppCompatActivity
         mBackCameraId = savedInstanceState.getInt("back_camera_id_int");
       }
       mFlashMode = savedInstanceState.getInt("flash_mode");
+      final ArrayList<String> snapshots = savedInstanceState.getStringArrayList("video_snapshots");
+      if (snapshots != null) mVideoSnapshots = snapshots;
+      @SuppressWarnings("unchecked")
+      final ArrayList<CapturedItem> batch =
+          (ArrayList<CapturedItem>) savedInstanceState.getSerializable("batch");
+      if (batch != null) mBatch = batch;
+      mManifest = (CaptureManifest) savedInstanceState.getSerializable("capture_manifest");
+      mVideoMimeType = savedInstanceState.getString("video_mime_type", mVideoMimeType);
     }
 
     getWindow()
@@ -185,6 +222,26 @@ public abstract class BaseCaptureActivity extends AppCompatActivity
     if (!isFinishing() && !isChangingConfigurations() && !mRequestingPermission) finish();
   }
 
+  @Override
+  protected final void onDestroy() {
+    super.onDestroy();
+    if (mTranscoder != null) {
+      mTranscoder.cancel();
+      mTranscoder = null;
+    }
+    if (mProgressDialog != null) {
+      mProgressDialog.dismiss();
+      mProgressDialog = null;
+    }
+    if (isFinishing() && mConfig != null) {
+      if (mConfig.getOutputDescriptor() != -1)
+        DescriptorRegistry.unregister(mConfig.getOutputDescriptor());
+      if (mConfig.getFrameAnalyzer() != -1) ListenerRegistry.unregister(mConfig.getFrameAnalyzer());
+      if (mConfig.getPreviewStatsListener() != -1)
+        ListenerRegistry.unregister(mConfig.getPreviewStatsListener());
+    }
+  }
+
   @Override
   public final void onBackPressed() {
     Fragment frag = getFragmentManager().findFragmentById(R.id.container);
@@ -206,9 +263,13 @@ public abstract class BaseCaptureActivity extends AppCompatActivity
   public abstract Fragment getFragment();
 
   public final Fragment createFragment() {
-    Fragment frag = getFragment();
-    frag.setArguments(getIntent().getExtras());
-    return frag;
+    // The fragments read the config through BaseCaptureInterface#getConfig()
+    return getFragment();
+  }
+
+  @Override
+  public CaptureConfig getConfig() {
+    return mConfig;
   }
 
   @Override
@@ -245,7 +306,7 @@ public abstract class BaseCaptureActivity extends AppCompatActivity
 
   @Override
   public boolean countdownImmediately() {
-    return getIntent().getBooleanExtra(CameraIntentKey.COUNTDOWN_IMMEDIATELY, false);
+    return mConfig.countdownImmediately();
   }
 
   @Override
@@ -301,9 +362,15 @@ public abstract class BaseCaptureActivity extends AppCompatActivity
 
   @Override
   public final void onRetry(@Nullable String outputUri) {
+    CameraMetrics.count(CameraMetrics.RETRIES);
     if (outputUri != null) deleteOutputFile(outputUri);
+    for (String snapshot : mVideoSnapshots)
+      //noinspection ResultOfMethodCallIgnored
+      new File(Uri.parse(snapshot).getPath()).delete();
+    mVideoSnapshots.clear();
+    setCaptureManifest(null);
     if (!shouldAutoSubmit() || restartTimerOnRetry()) setRecordingStart(-1);
-    if (getIntent().getBooleanExtra(CameraIntentKey.RETRY_EXITS, false)) {
+    if (mConfig.retryExits()) {
       setResult(
           RESULT_OK,
           new Intent().putExtra(MaterialCamera.STATUS_EXTRA, MaterialCamera.STATUS_RETRY));
@@ -324,45 +391,111 @@ public abstract class BaseCaptureActivity extends AppCompatActivity
         finish();
         return;
       }
+      if (checksumChunkSize() > 0) computeManifest(outputUri);
       useMedia(outputUri);
     } else {
+      // Hashed while the playback screen is up, the file is still in the page cache then
+      if (checksumChunkSize() > 0) computeManifest(outputUri);
       if (!hasLengthLimit() || !continueTimerInPlayback()) {
         // No countdown or countdown should not continue through playback, reset timer to 0
         setRecordingStart(-1);
       }
       Fragment frag =
-          PlaybackVideoFragment.newInstance(
-              outputUri, allowRetry(), getIntent().getIntExtra(CameraIntentKey.PRIMARY_COLOR, 0));
+          PlaybackVideoFragment.newInstance(outputUri, allowRetry(), mConfig.getPrimaryColor());
       getFragmentManager().beginTransaction().replace(R.id.container, frag).commit();
     }
   }
 
+  @Override
+  public void onVideoSnapshot(String outputUri) {
+    mVideoSnapshots.add(outputUri);
+  }
+
+  @Override
+  public void onCaptureError(Exception e) {
+    setResult(RESULT_CANCELED, new Intent().putExtra(MaterialCamera.ERROR_EXTRA, e));
+    finish();
+  }
+
   @Override
   public void onShowStillshot(String outputUri) {
-    if (shouldAutoSubmit()) {
+    if (mConfig.getMultiCaptureLimit() > 0) {
+      addToBatch(outputUri);
+    } else if (shouldAutoSubmit()) {
       useMedia(outputUri);
     } else {
       Fragment frag =
-          StillshotPreviewFragment.newInstance(
-              outputUri, allowRetry(), getIntent().getIntExtra(CameraIntentKey.PRIMARY_COLOR, 0));
+          StillshotPreviewFragment.newInstance(outputUri, allowRetry(), mConfig.getPrimaryColor());
       getFragmentManager().beginTransaction().replace(R.id.container, frag).commit();
     }
   }
 
+  private void addToBatch(final String outputUri) {
+    // Camera2 saves stills on its background thread, the next one may set a manifest right after
+    final CaptureManifest manifest = mManifest;
+    setCaptureManifest(null);
+    final long length = new File(Uri.parse(outputUri).getPath()).length();
+    runOnUiThread(
+        new Runnable() {
+          @Override
+          public void run() {
+            if (isFinishing()) return;
+            mBatch.add(new CapturedItem(outputUri, System.currentTimeMillis(), length, manifest));
+            if (mBatch.size() >= mConfig.getMultiCaptureLimit()) {
+              finishBatch();
+              return;
+            }
+            final Fragment frag = getFragmentManager().findFragmentById(R.id.container);
+            if (frag instanceof BaseCameraFragment)
+              ((BaseCameraFragment) frag).onBatchChanged(mBatch.size());
+          }
+        });
+  }
+
+  @Override
+  public final void finishBatch() {
+    if (mBatch.isEmpty()) return;
+    final Uri first = Uri.parse(mBatch.get(0).getUri());
+    final Intent result =
+        getIntent()
+            .putExtra(MaterialCamera.STATUS_EXTRA, MaterialCamera.STATUS_RECORDED)
+            .putExtra(MaterialCamera.ITEMS_EXTRA, mBatch)
+            .setDataAndType(first, "image/jpeg");
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+      final ClipData clip = ClipData.newRawUri(null, first);
+      for (int i = 1; i < mBatch.size(); i++)
+        clip.addItem(new ClipData.Item(Uri.parse(mBatch.get(i).getUri())));
+      result.setClipData(clip);
+    }
+    final CaptureCache cache = CaptureCache.get(this);
+    for (CapturedItem item : mBatch) cache.touch(new File(Uri.parse(item.getUri()).getPath()));
+    setResult(RESULT_OK, result);
+    finish();
+  }
+
+  @Override
+  public final int getBatchSize() {
+    return mBatch.size();
+  }
+
   @Override
   public final boolean allowRetry() {
-    return getIntent().getBooleanExtra(CameraIntentKey.ALLOW_RETRY, true);
+    return mConfig.allowRetry();
   }
 
   @Override
   public final boolean shouldAutoSubmit() {
-    return getIntent().getBooleanExtra(CameraIntentKey.AUTO_SUBMIT, false);
+    return mConfig.autoSubmit();
   }
 
   private void deleteOutputFile(@Nullable String uri) {
-    if (uri != null)
+    // Caller-supplied destinations are truncated and rewritten by the next capture instead
+    if (uri != null && outputDestination() == null && outputDescriptor() == null) {
+      final File file = new File(Uri.parse(uri).getPath());
       //noinspection ResultOfMethodCallIgnored
-      new File(Uri.parse(uri).getPath()).delete();
+      file.delete();
+      CaptureCache.get(this).remove(file);
+    }
   }
 
   @Override
@@ -396,12 +529,131 @@ public abstract class BaseCaptureActivity extends AppCompatActivity
 
   @Override
   public final void useMedia(String uri) {
+    if (uri != null
+        && !useStillshot()
+        && transcodeShortSide() > 0
+        && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+      transcode(uri);
+      return;
+    }
+    deliverMedia(uri);
+  }
+
+  @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+  private void transcode(final String uri) {
+    if (mTranscoder != null) return;
+    // The transcoded output gets its own manifest, the original's is recomputed if it fails
+    setCaptureManifest(null);
+    final boolean callerDestination = outputDestination() != null || outputDescriptor() != null;
+    final File output =
+        CameraUtil.makeTempFile(
+            this, callerDestination ? null : mConfig.getSaveDir(), "VID_", ".mp4");
+    mProgressDialog =
+        new MaterialDialog.Builder(this)
+            .content(R.string.mcam_transcoding)
+            .progress(false, 100, true)
+            .cancelable(false)
+            .show();
+    mTranscoder =
+        new VideoTranscoder(
+            this,
+            Uri.parse(uri),
+            output,
+            transcodeShortSide(),
+            transcodeBitRate(),
+            callerDestination,
+            checksumChunkSize(),
+            new VideoTranscoder.Listener() {
+              @Override
+              public void onTranscodeProgress(int percent) {
+                if (mProgressDialog != null) mProgressDialog.setProgress(percent);
+              }
+
+              @Override
+              public void onTranscodeFinished(
+                  @Nullable CaptureManifest manifest, @Nullable Exception e) {
+                mTranscoder = null;
+                if (mProgressDialog != null) {
+                  mProgressDialog.dismiss();
+                  mProgressDialog = null;
+                }
+                setCaptureManifest(manifest);
+                if (e != null) {
+                  // The original is still usable, so it's returned as is
+                  e.printStackTrace();
+                  deliverMedia(uri);
+                } else if (callerDestination) {
+                  mVideoMimeType = "video/mp4";
+                  deliverMedia(uri);
+                } else {
+                  deleteOutputFile(uri);
+                  mVideoMimeType = "video/mp4";
+                  deliverMedia(Uri.fromFile(output).toString());
+                }
+              }
+            });
+    mTranscoder.start();
+  }
+
+  private void deliverMedia(String uri) {
+    if (uri != null && checksumChunkSize() > 0 && mManifest == null) {
+      mPendingDelivery = uri;
+      mProgressDialog =
+          new MaterialDialog.Builder(this)
+              .content(R.string.mcam_processing)
+              .progress(true, 0)
+              .cancelable(false)
+              .show();
+      if (!mManifestPending) computeManifest(uri);
+      return;
+    }
+    returnMedia(uri);
+  }
+
+  private void computeManifest(String uri) {
+    final int token = ++mManifestToken;
+    mManifest = null;
+    mManifestPending = true;
+    ChunkedDigest.digestAsync(
+        this,
+        Uri.parse(uri),
+        checksumChunkSize(),
+        new ChunkedDigest.Callback() {
+          @Override
+          public void done(@Nullable CaptureManifest manifest, @Nullable Exception e) {
+            // A retry or transcode happened in the meantime
+            if (token != mManifestToken || isFinishing()) return;
+            if (e != null) e.printStackTrace();
+            mManifest = manifest;
+            mManifestPending = false;
+            if (mPendingDelivery != null) {
+              final String pending = mPendingDelivery;
+              mPendingDelivery = null;
+              if (mProgressDialog != null) {
+                mProgressDialog.dismiss();
+                mProgressDialog = null;
+              }
+              // Delivered without a manifest if hashing failed, rather than not at all
+              returnMedia(pending);
+            }
+          }
+        });
+  }
+
+  private void returnMedia(String uri) {
     if (uri != null) {
-      setResult(
-          Activity.RESULT_OK,
-          getIntent()
-              .putExtra(MaterialCamera.STATUS_EXTRA, MaterialCamera.STATUS_RECORDED)
-              .setDataAndType(Uri.parse(uri), useStillshot() ? "image/jpeg" : "video/mp4"));
+      // Returned ones are evicted last, giving the caller time to copy them
+      CaptureCache.get(this).touch(new File(Uri.parse(uri).getPath()));
+      final String type = useStillshot() ? "image/jpeg" : mVideoMimeType;
+      final Intent result =
+          getIntent().putExtra(MaterialCamera.STATUS_EXTRA, MaterialCamera.STATUS_RECORDED);
+      // The caller already knows where its own descriptor points to
+      if (outputDescriptor() != null) result.setType(type);
+      else result.setDataAndType(Uri.parse(uri), type);
+      if (!mVideoSnapshots.isEmpty())
+        result.putStringArrayListExtra(MaterialCamera.SNAPSHOTS_EXTRA, mVideoSnapshots);
+      if (mManifest != null) result.putExtra(MaterialCamera.MANIFEST_EXTRA, mManifest);
+      setResult(Activity.RESULT_OK, result);
     }
     finish();
   }
@@ -411,6 +663,11 @@ public abstract class BaseCaptureActivity extends AppCompatActivity
     mDidRecord = didRecord;
   }
 
+  @Override
+  public void setVideoMimeType(String mimeType) {
+    mVideoMimeType = mimeType;
+  }
+
   @Override
   public boolean didRecord() {
     return mDidRecord;
@@ -430,143 +687,162 @@ public abstract class BaseCaptureActivity extends AppCompatActivity
 
   @Override
   public boolean restartTimerOnRetry() {
-    return getIntent().getBooleanExtra(CameraIntentKey.RESTART_TIMER_ON_RETRY, false);
+    return mConfig.restartTimerOnRetry();
   }
 
   @Override
   public boolean continueTimerInPlayback() {
-    return getIntent().getBooleanExtra(CameraIntentKey.CONTINUE_TIMER_IN_PLAYBACK, false);
+    return mConfig.continueTimerInPlayback();
   }
 
   @Override
   public int videoEncodingBitRate(int defaultVal) {
-    return getIntent().getIntExtra(CameraIntentKey.VIDEO_BIT_RATE, defaultVal);
+    final int rate = mConfig.getVideoEncodingBitRate();
+    return rate > 0 ? rate : defaultVal;
   }
 
   @Override
   public int audioEncodingBitRate(int defaultVal) {
-    return getIntent().getIntExtra(CameraIntentKey.AUDIO_ENCODING_BIT_RATE, defaultVal);
+    final int rate = mConfig.getAudioEncodingBitRate();
+    return rate > 0 ? rate : defaultVal;
   }
 
   @Override
   public int videoFrameRate(int defaultVal) {
-    return getIntent().getIntExtra(CameraIntentKey.VIDEO_FRAME_RATE, defaultVal);
+    final int rate = mConfig.getVideoFrameRate();
+    return rate > 0 ? rate : defaultVal;
   }
 
   @Override
   public float videoPreferredAspect() {
-    return getIntent().getFloatExtra(CameraIntentKey.VIDEO_PREFERRED_ASPECT, 4f / 3f);
+    return mConfig.getVideoPreferredAspect();
   }
 
   @Override
   public int videoPreferredHeight() {
-    return getIntent().getIntExtra(CameraIntentKey.VIDEO_PREFERRED_HEIGHT, 720);
+    return mConfig.getVideoPreferredHeight();
   }
 
   @Override
   public long maxAllowedFileSize() {
-    return getIntent().getLongExtra(CameraIntentKey.MAX_ALLOWED_FILE_SIZE, -1);
+    return mConfig.getMaxAllowedFileSize();
+  }
+
+  @Nullable
+  @Override
+  public Uri outputDestination() {
+    return mConfig.getOutputDestination();
+  }
+
+  @Nullable
+  @Override
+  public ParcelFileDescriptor outputDescriptor() {
+    if (mConfig.getOutputDescriptor() == -1) return null;
+    return DescriptorRegistry.get(mConfig.getOutputDescriptor());
   }
 
   @Override
   public int qualityProfile() {
-    return getIntent().getIntExtra(CameraIntentKey.QUALITY_PROFILE, CamcorderProfile.QUALITY_HIGH);
+    return mConfig.getQualityProfile();
+  }
+
+  @Nullable
+  @Override
+  public int[] videoCodecs() {
+    return mConfig.getVideoCodecs();
   }
 
   @DrawableRes
   @Override
   public int iconPause() {
-    return getIntent().getIntExtra(CameraIntentKey.ICON_PAUSE, R.drawable.evp_action_pause);
+    return mConfig.getIconPause();
   }
 
   @DrawableRes
   @Override
   public int iconPlay() {
-    return getIntent().getIntExtra(CameraIntentKey.ICON_PLAY, R.drawable.evp_action_play);
+    return mConfig.getIconPlay();
   }
 
   @DrawableRes
   @Override
   public int iconRestart() {
-    return getIntent().getIntExtra(CameraIntentKey.ICON_RESTART, R.drawable.evp_action_restart);
+    return mConfig.getIconRestart();
   }
 
   @DrawableRes
   @Override
   public int iconRearCamera() {
-    return getIntent().getIntExtra(CameraIntentKey.ICON_REAR_CAMERA, R.drawable.mcam_camera_rear);
+    return mConfig.getIconRearCamera();
   }
 
   @DrawableRes
   @Override
   public int iconFrontCamera() {
-    return getIntent().getIntExtra(CameraIntentKey.ICON_FRONT_CAMERA, R.drawable.mcam_camera_front);
+    return mConfig.getIconFrontCamera();
   }
 
   @DrawableRes
   @Override
   public int iconStop() {
-    return getIntent().getIntExtra(CameraIntentKey.ICON_STOP, R.drawable.mcam_action_stop);
+    return mConfig.getIconStop();
   }
 
   @DrawableRes
   @Override
   public int iconRecord() {
-    return getIntent().getIntExtra(CameraIntentKey.ICON_RECORD, R.drawable.mcam_action_capture);
+    return mConfig.getIconRecord();
   }
 
   @StringRes
   @Override
   public int labelRetry() {
-    return getIntent().getIntExtra(CameraIntentKey.LABEL_RETRY, R.string.mcam_retry);
+    return mConfig.getLabelRetry();
   }
 
   @Deprecated
   @StringRes
   @Override
   public int labelUseVideo() {
-    return getIntent().getIntExtra(CameraIntentKey.LABEL_CONFIRM, R.string.mcam_use_video);
+    final int label = mConfig.getLabelConfirm();
+    return label != 0 ? label : R.string.mcam_use_video;
   }
 
   @StringRes
   @Override
   public int labelConfirm() {
-    return getIntent()
-        .getIntExtra(
-            CameraIntentKey.LABEL_CONFIRM,
-            useStillshot() ? R.string.mcam_use_stillshot : R.string.mcam_use_video);
+    final int label = mConfig.getLabelConfirm();
+    if (label != 0) return label;
+    return useStillshot() ? R.string.mcam_use_stillshot : R.string.mcam_use_video;
   }
 
   @DrawableRes
   @Override
   public int iconStillshot() {
-    return getIntent()
-        .getIntExtra(CameraIntentKey.ICON_STILL_SHOT, R.drawable.mcam_action_stillshot);
+    return mConfig.getIconStillshot();
   }
 
   @Override
   public boolean useStillshot() {
-    return getIntent().getBooleanExtra(CameraIntentKey.STILL_SHOT, false);
+    return mConfig.stillShot();
   }
 
   @DrawableRes
   @Override
   public int iconFlashAuto() {
-    return getIntent()
-        .getIntExtra(CameraIntentKey.ICON_FLASH_AUTO, R.drawable.mcam_action_flash_auto);
+    return mConfig.getIconFlashAuto();
   }
 
   @DrawableRes
   @Override
   public int iconFlashOn() {
-    return getIntent().getIntExtra(CameraIntentKey.ICON_FLASH_ON, R.drawable.mcam_action_flash);
+    return mConfig.getIconFlashOn();
   }
 
   @DrawableRes
   @Override
   public int iconFlashOff() {
-    return getIntent()
-        .getIntExtra(CameraIntentKey.ICON_FLASH_OFF, R.drawable.mcam_action_flash_off);
+    return mConfig.getIconFlashOff();
   }
 
   @Override
@@ -581,16 +857,77 @@ public abstract class BaseCaptureActivity extends AppCompatActivity
 
   @Override
   public long autoRecordDelay() {
-    return getIntent().getLongExtra(CameraIntentKey.AUTO_RECORD, -1);
+    return mConfig.getAutoRecordDelay();
+  }
+
+  @Override
+  public int transcodeShortSide() {
+    return mConfig.getTranscodeShortSide();
+  }
+
+  @Override
+  public int transcodeBitRate() {
+    return mConfig.getTranscodeBitRate();
+  }
+
+  @Override
+  public boolean parallelJpegEncoding() {
+    return mConfig.parallelJpeg();
+  }
+
+  @Override
+  public boolean nightMode() {
+    return mConfig.nightMode();
+  }
+
+  @Nullable
+  @Override
+  public FrameAnalyzer frameAnalyzer() {
+    if (mConfig.getFrameAnalyzer() == -1) return null;
+    return (FrameAnalyzer) ListenerRegistry.get(mConfig.getFrameAnalyzer());
+  }
+
+  @Nullable
+  @Override
+  public PreviewStats.Listener previewStatsListener() {
+    if (mConfig.getPreviewStatsListener() == -1) return null;
+    return (PreviewStats.Listener) ListenerRegistry.get(mConfig.getPreviewStatsListener());
+  }
+
+  @Override
+  public boolean showPreviewStats() {
+    return mConfig.showPreviewStats();
+  }
+
+  @Override
+  public int checksumChunkSize() {
+    return mConfig.getChecksumChunkSize();
+  }
+
+  @Override
+  public void setCaptureManifest(@Nullable CaptureManifest manifest) {
+    mManifestToken++;
+    mManifestPending = false;
+    mManifest = manifest;
+  }
+
+  @Override
+  public boolean allowVideoSnapshots() {
+    return mConfig.videoSnapshots();
+  }
+
+  @Override
+  public long preRollMillis() {
+    return mConfig.getPreRoll();
   }
 
   @Override
   public boolean audioDisabled() {
-    return getIntent().getBooleanExtra(CameraIntentKey.AUDIO_DISABLED, false);
+    return mConfig.audioDisabled();
   }
 
   @Override
   public boolean shouldHideCameraFacing() {
-    return !getIntent().getBooleanExtra(CameraIntentKey.ALLOW_CHANGE_CAMERA, false);
+    return !mConfig.allowChangeCamera();
   }
 }
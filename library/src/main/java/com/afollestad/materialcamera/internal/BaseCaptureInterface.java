@@ -1,19 +1,39 @@
 package com.afollestad.materialcamera.internal;
 
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
 import android.support.annotation.DrawableRes;
 import android.support.annotation.Nullable;
 import android.support.annotation.StringRes;
+import com.afollestad.materialcamera.CaptureManifest;
+import com.afollestad.materialcamera.FrameAnalyzer;
+import com.afollestad.materialcamera.PreviewStats;
 import java.util.List;
 
 /** @author Aidan Follestad (afollestad) */
 public interface BaseCaptureInterface {
 
+  /** @return the options the capture was started with, parsed once when the activity starts */
+  CaptureConfig getConfig();
+
   void onRetry(@Nullable String outputUri);
 
   void onShowPreview(@Nullable String outputUri, boolean countdownIsAtZero);
 
   void onShowStillshot(String outputUri);
 
+  /** Returns the stills of a multi-capture batch taken so far, if there are any. */
+  void finishBatch();
+
+  /** @return how many stills of a multi-capture batch were taken so far */
+  int getBatchSize();
+
+  /** Called for each still taken while recording, they're returned along with the video. */
+  void onVideoSnapshot(String outputUri);
+
+  /** Ends the capture with an error, the camera is closed or about to be. */
+  void onCaptureError(Exception e);
+
   void setRecordingStart(long start);
 
   void setRecordingEnd(long end);
@@ -53,6 +73,9 @@ public interface BaseCaptureInterface {
 
   void setDidRecord(boolean didRecord);
 
+  /** Called with the container type of the video that's being recorded. */
+  void setVideoMimeType(String mimeType);
+
   boolean didRecord();
 
   boolean restartTimerOnRetry();
@@ -71,8 +94,20 @@ public interface BaseCaptureInterface {
 
   long maxAllowedFileSize();
 
+  /** @return the Uri captures should be written to directly, or null to use a temp file */
+  @Nullable
+  Uri outputDestination();
+
+  /** @return the descriptor captures should be written to directly, or null to use a temp file */
+  @Nullable
+  ParcelFileDescriptor outputDescriptor();
+
   int qualityProfile();
 
+  /** @return the preferred video codecs in order, or null for the quality profile's */
+  @Nullable
+  int[] videoCodecs();
+
   @DrawableRes
   int iconRecord();
 
@@ -130,6 +165,34 @@ public interface BaseCaptureInterface {
 
   long autoRecordDelay();
 
+  /** @return how much video before the record press is kept and written out, or -1 for none */
+  long preRollMillis();
+
+  boolean allowVideoSnapshots();
+
+  /** @return the shorter side of submitted videos after transcoding, or -1 to not transcode */
+  int transcodeShortSide();
+
+  int transcodeBitRate();
+
+  boolean parallelJpegEncoding();
+
+  boolean nightMode();
+
+  @Nullable
+  FrameAnalyzer frameAnalyzer();
+
+  @Nullable
+  PreviewStats.Listener previewStatsListener();
+
+  boolean showPreviewStats();
+
+  /** @return the chunk size of capture manifests, or -1 to not compute them */
+  int checksumChunkSize();
+
+  /** Called with the manifest of a still before it's shown, if checksums are enabled. */
+  void setCaptureManifest(@Nullable CaptureManifest manifest);
+
   boolean audioDisabled();
 
   boolean shouldHideCameraFacing();
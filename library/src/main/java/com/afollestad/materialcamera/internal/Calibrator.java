@@ -0,0 +1,257 @@
+package com.afollestad.materialcamera.internal;
+
+import android.Manifest;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+import android.support.v4.content.ContextCompat;
+import android.util.Log;
+import com.afollestad.materialcamera.Calibration;
+import com.afollestad.materialcamera.CameraBackend;
+import com.afollestad.materialcamera.FrameAnalyzer;
+import com.afollestad.materialcamera.PreviewFrame;
+import com.afollestad.materialcamera.util.CameraUtil;
+import com.afollestad.materialcamera.util.DeviceQuirks;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a calibration on its own thread. Each camera API that could be used for stills is opened
+ * with the back camera at a few preview size limits, a couple of times each, timing the open, the
+ * time to the first preview frame, the preview frame rate and a still capture.
+ *
+ * <p>The backend that gets close to the best frame rate with the lowest average latency wins, and
+ * its preview size is the largest one that kept close to its own best frame rate.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public class Calibrator implements Runnable {
+
+  private static final String TAG = "Calibrator";
+  private static final int RUNS = 2;
+  private static final long PREVIEW_MILLIS = 1500;
+  private static final long FIRST_FRAME_TIMEOUT_MILLIS = 5000;
+  private static final int[][] PREVIEW_LIMITS = {{640, 480}, {1280, 720}, {1920, 1080}};
+  // Runs whose frame rates differ by more than this aren't stable
+  private static final float STABLE_FPS_RATIO = 0.8f;
+  // Close enough to the best frame rate to count as keeping up
+  private static final float KEEPING_UP_FPS_RATIO = 0.9f;
+
+  private final Context mContext;
+  private final Calibration.Callback mCallback;
+  private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+  private Calibrator(Context context, Calibration.Callback callback) {
+    mContext = context.getApplicationContext();
+    mCallback = callback;
+  }
+
+  public static void start(Context context, Calibration.Callback callback) {
+    final Calibrator calibrator = new Calibrator(context, callback);
+    if (ContextCompat.checkSelfPermission(context, Manifest.permission.CAMERA)
+        != PackageManager.PERMISSION_GRANTED) {
+      calibrator.deliver(null, new SecurityException("The camera permission isn't granted."));
+      return;
+    }
+    new Thread(calibrator, TAG).start();
+  }
+
+  @Override
+  public void run() {
+    final List<Calibration.Measurement> measurements = new ArrayList<>();
+    final List<Integer> backends = new ArrayList<>(2);
+    backends.add(DeviceQuirks.BACKEND_CAMERA1);
+    // Never lifts the LEGACY exclusion, so Camera2 is only measured where it could be used
+    if (CameraUtil.canUseCamera2(mContext, true)) backends.add(DeviceQuirks.BACKEND_CAMERA2);
+    for (int backend : backends) {
+      // Limits can come down to the same size
+      final Set<String> measured = new HashSet<>();
+      for (int[] limit : PREVIEW_LIMITS) {
+        final Calibration.Measurement measurement = measure(backend, limit[0], limit[1]);
+        if (measurement == null
+            || !measured.add(measurement.getPreviewWidth() + "x" + measurement.getPreviewHeight()))
+          continue;
+        Log.d(TAG, measurement.toString());
+        measurements.add(measurement);
+      }
+    }
+
+    final Calibration calibration = choose(measurements);
+    if (calibration == null) {
+      deliver(null, new Exception("No camera configuration could be measured."));
+      return;
+    }
+    calibration.save(mContext);
+    deliver(calibration, null);
+  }
+
+  /** @return the runs averaged, null if any of them failed */
+  @Nullable
+  private Calibration.Measurement measure(int backend, int maxWidth, int maxHeight) {
+    final Calibration.Measurement[] runs = new Calibration.Measurement[RUNS];
+    for (int i = 0; i < RUNS; i++) {
+      try {
+        runs[i] = measureOnce(backend, maxWidth, maxHeight);
+      } catch (Exception e) {
+        Log.w(TAG, "Failed to measure up to " + maxWidth + "x" + maxHeight, e);
+        return null;
+      }
+    }
+    long open = 0;
+    long configure = 0;
+    long capture = 0;
+    float fps = 0;
+    float minFps = Float.MAX_VALUE;
+    float maxFps = 0;
+    for (Calibration.Measurement run : runs) {
+      open += run.getOpenMillis();
+      configure += run.getConfigureMillis();
+      capture += run.getCaptureMillis();
+      fps += run.getPreviewFps();
+      minFps = Math.min(minFps, run.getPreviewFps());
+      maxFps = Math.max(maxFps, run.getPreviewFps());
+    }
+    return new Calibration.Measurement(
+        backend,
+        runs[0].getPreviewWidth(),
+        runs[0].getPreviewHeight(),
+        open / RUNS,
+        configure / RUNS,
+        fps / RUNS,
+        capture / RUNS,
+        minFps >= maxFps * STABLE_FPS_RATIO);
+  }
+
+  private Calibration.Measurement measureOnce(int type, int maxWidth, int maxHeight)
+      throws Exception {
+    final CameraBackend backend =
+        type == DeviceQuirks.BACKEND_CAMERA2 ? new Camera2Backend(mContext) : new Camera1Backend();
+    final FrameCounter counter = new FrameCounter();
+    final File still = File.createTempFile("calibration", ".jpg", mContext.getCacheDir());
+    try {
+      long start = SystemClock.uptimeMillis();
+      backend.open(false);
+      final long open = SystemClock.uptimeMillis() - start;
+
+      start = SystemClock.uptimeMillis();
+      backend.configure(maxWidth, maxHeight);
+      backend.startRepeating(counter);
+      if (!counter.awaitFirstFrame()) throw new Exception("The preview didn't start.");
+      final long configure = SystemClock.uptimeMillis() - start;
+
+      Thread.sleep(PREVIEW_MILLIS);
+      final float fps = counter.getFps();
+
+      start = SystemClock.uptimeMillis();
+      backend.takePicture(still);
+      final long capture = SystemClock.uptimeMillis() - start;
+
+      return new Calibration.Measurement(
+          type, counter.mWidth, counter.mHeight, open, configure, fps, capture, true);
+    } finally {
+      backend.close();
+      //noinspection ResultOfMethodCallIgnored
+      still.delete();
+    }
+  }
+
+  /** @return the winning backend and its preview size, null if nothing was stable */
+  @Nullable
+  static Calibration choose(List<Calibration.Measurement> measurements) {
+    float bestFps = 0;
+    for (Calibration.Measurement measurement : measurements) {
+      if (measurement.isStable()) bestFps = Math.max(bestFps, measurement.getPreviewFps());
+    }
+
+    int bestBackend = DeviceQuirks.BACKEND_DEFAULT;
+    long bestLatency = Long.MAX_VALUE;
+    Calibration.Measurement bestSize = null;
+    for (int backend : new int[] {DeviceQuirks.BACKEND_CAMERA1, DeviceQuirks.BACKEND_CAMERA2}) {
+      float backendFps = 0;
+      for (Calibration.Measurement measurement : measurements) {
+        if (measurement.isStable() && measurement.getBackend() == backend)
+          backendFps = Math.max(backendFps, measurement.getPreviewFps());
+      }
+      if (backendFps == 0 || backendFps < bestFps * KEEPING_UP_FPS_RATIO) continue;
+
+      long latency = 0;
+      int count = 0;
+      Calibration.Measurement largest = null;
+      for (Calibration.Measurement measurement : measurements) {
+        if (!measurement.isStable() || measurement.getBackend() != backend) continue;
+        latency += measurement.getLatencyMillis();
+        count++;
+        if (measurement.getPreviewFps() >= backendFps * KEEPING_UP_FPS_RATIO
+            && (largest == null
+                || measurement.getPreviewWidth() * measurement.getPreviewHeight()
+                    > largest.getPreviewWidth() * largest.getPreviewHeight())) {
+          largest = measurement;
+        }
+      }
+      if (latency / count < bestLatency) {
+        bestLatency = latency / count;
+        bestBackend = backend;
+        bestSize = largest;
+      }
+    }
+    if (bestSize == null) return null;
+    return new Calibration(
+        measurements, bestBackend, bestSize.getPreviewWidth(), bestSize.getPreviewHeight());
+  }
+
+  private void deliver(final Calibration calibration, final Exception error) {
+    mHandler.post(
+        new Runnable() {
+          @Override
+          public void run() {
+            if (error != null) mCallback.onCalibrationError(error);
+            else mCallback.onCalibrated(calibration);
+          }
+        });
+  }
+
+  /** Counts preview frames by the time they arrived from the camera. */
+  private static class FrameCounter implements FrameAnalyzer {
+
+    private final CountDownLatch mFirstFrame = new CountDownLatch(1);
+    private volatile int mWidth;
+    private volatile int mHeight;
+    private long mFirstNumber;
+    private long mFirstTime;
+    private long mLastNumber;
+    private long mLastTime;
+
+    @Override
+    public void analyze(PreviewFrame frame) {
+      final long arrived = SystemClock.uptimeMillis() - frame.getLatencyMillis();
+      synchronized (this) {
+        if (mFirstFrame.getCount() > 0) {
+          mWidth = frame.getWidth();
+          mHeight = frame.getHeight();
+          mFirstNumber = frame.getFrameNumber();
+          mFirstTime = arrived;
+          mFirstFrame.countDown();
+        }
+        mLastNumber = frame.getFrameNumber();
+        mLastTime = arrived;
+      }
+    }
+
+    boolean awaitFirstFrame() throws InterruptedException {
+      return mFirstFrame.await(FIRST_FRAME_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized float getFps() {
+      if (mLastTime <= mFirstTime) return 0;
+      return (mLastNumber - mFirstNumber) * 1000f / (mLastTime - mFirstTime);
+    }
+  }
+}
@@ -0,0 +1,254 @@
+package com.afollestad.materialcamera.internal;
+
+import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
+import android.hardware.Camera;
+import android.media.CamcorderProfile;
+import android.media.MediaRecorder;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.support.annotation.Nullable;
+import com.afollestad.materialcamera.CameraBackend;
+import com.afollestad.materialcamera.FrameAnalyzer;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Headless {@link CameraBackend} on the Camera1 API. The camera is opened on its own thread so its
+ * callbacks arrive there, and previews into a SurfaceTexture that's never drawn.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@SuppressWarnings("deprecation")
+public class Camera1Backend implements CameraBackend {
+
+  private static final long TIMEOUT_SECONDS = 10;
+
+  private HandlerThread mThread;
+  private Camera mCamera;
+  private int mCameraId;
+  private int mRotation;
+  private Camera.Size mPreviewSize;
+  private SurfaceTexture mPreviewTexture;
+  private FrameAnalysisPipeline mAnalysisPipeline;
+  private MediaRecorder mRecorder;
+
+  @Override
+  public void open(boolean frontFacing) throws Exception {
+    final int facing =
+        frontFacing ? Camera.CameraInfo.CAMERA_FACING_FRONT : Camera.CameraInfo.CAMERA_FACING_BACK;
+    mCameraId = -1;
+    final Camera.CameraInfo info = new Camera.CameraInfo();
+    for (int i = 0; i < Camera.getNumberOfCameras(); i++) {
+      Camera.getCameraInfo(i, info);
+      if (info.facing == facing) {
+        mCameraId = i;
+        break;
+      }
+    }
+    if (mCameraId == -1) throw new Exception("No " + (frontFacing ? "front" : "back") + " camera.");
+
+    mThread = new HandlerThread("Camera1Backend");
+    mThread.start();
+    final Exception[] error = new Exception[1];
+    final CountDownLatch opened = new CountDownLatch(1);
+    new Handler(mThread.getLooper())
+        .post(
+            new Runnable() {
+              @Override
+              public void run() {
+                try {
+                  mCamera = Camera.open(mCameraId);
+                } catch (Exception e) {
+                  error[0] = e;
+                }
+                opened.countDown();
+              }
+            });
+    await(opened, "open the camera");
+    if (error[0] != null) throw error[0];
+    // Headless, so frames are rotated for the device's natural orientation
+    mRotation = info.orientation;
+  }
+
+  @Override
+  public void configure(int maxPreviewWidth, int maxPreviewHeight) throws Exception {
+    final Camera.Parameters parameters = mCamera.getParameters();
+    final Camera.Size picture = largest(parameters.getSupportedPictureSizes(), Long.MAX_VALUE);
+    parameters.setPictureSize(picture.width, picture.height);
+    mPreviewSize =
+        largest(parameters.getSupportedPreviewSizes(), (long) maxPreviewWidth * maxPreviewHeight);
+    parameters.setPreviewSize(mPreviewSize.width, mPreviewSize.height);
+    parameters.setPreviewFormat(ImageFormat.NV21);
+    final List<String> focusModes = parameters.getSupportedFocusModes();
+    if (focusModes != null
+        && focusModes.contains(Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE)) {
+      parameters.setFocusMode(Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE);
+    }
+    mCamera.setParameters(parameters);
+  }
+
+  @Override
+  public void startRepeating(@Nullable FrameAnalyzer analyzer) throws Exception {
+    releaseFrameAnalysis();
+    if (mPreviewTexture == null) {
+      // Not tied to a GL context, frames are just dropped
+      mPreviewTexture = new SurfaceTexture(0);
+      mCamera.setPreviewTexture(mPreviewTexture);
+    }
+    if (analyzer != null) {
+      final Camera camera = mCamera;
+      final FrameAnalysisPipeline pipeline =
+          new FrameAnalysisPipeline(
+              analyzer,
+              mPreviewSize.width,
+              mPreviewSize.height,
+              mRotation,
+              new FrameAnalysisPipeline.BufferOwner() {
+                @Override
+                public void onBufferReleased(byte[] buffer) {
+                  camera.addCallbackBuffer(buffer);
+                }
+              });
+      camera.setPreviewCallbackWithBuffer(
+          new Camera.PreviewCallback() {
+            @Override
+            public void onPreviewFrame(byte[] data, Camera camera) {
+              pipeline.submit(data);
+            }
+          });
+      mAnalysisPipeline = pipeline;
+      pipeline.start();
+    }
+    mCamera.startPreview();
+  }
+
+  private void releaseFrameAnalysis() {
+    if (mAnalysisPipeline != null) {
+      mAnalysisPipeline.stop();
+      mAnalysisPipeline = null;
+    }
+    if (mCamera != null) mCamera.setPreviewCallbackWithBuffer(null);
+  }
+
+  @Override
+  public void takePicture(final File output) throws Exception {
+    final Exception[] error = new Exception[1];
+    final CountDownLatch taken = new CountDownLatch(1);
+    mCamera.takePicture(
+        null,
+        null,
+        new Camera.PictureCallback() {
+          @Override
+          public void onPictureTaken(byte[] data, Camera camera) {
+            FileOutputStream out = null;
+            try {
+              out = new FileOutputStream(output);
+              out.write(data);
+              out.getFD().sync();
+            } catch (IOException e) {
+              error[0] = e;
+            } finally {
+              if (out != null) {
+                try {
+                  out.close();
+                } catch (IOException e) {
+                  e.printStackTrace();
+                }
+              }
+            }
+            taken.countDown();
+          }
+        });
+    await(taken, "take a picture");
+    // The preview stops after each still
+    mCamera.startPreview();
+    if (error[0] != null) throw error[0];
+  }
+
+  @Override
+  public void startRecording(File output, boolean audio) throws Exception {
+    mCamera.unlock();
+    mRecorder = new MediaRecorder();
+    try {
+      mRecorder.setCamera(mCamera);
+      if (audio) mRecorder.setAudioSource(MediaRecorder.AudioSource.CAMCORDER);
+      mRecorder.setVideoSource(MediaRecorder.VideoSource.CAMERA);
+      final CamcorderProfile profile =
+          CamcorderProfile.get(mCameraId, CamcorderProfile.QUALITY_HIGH);
+      if (audio) {
+        mRecorder.setProfile(profile);
+      } else {
+        mRecorder.setOutputFormat(profile.fileFormat);
+        mRecorder.setVideoFrameRate(profile.videoFrameRate);
+        mRecorder.setVideoSize(profile.videoFrameWidth, profile.videoFrameHeight);
+        mRecorder.setVideoEncodingBitRate(profile.videoBitRate);
+        mRecorder.setVideoEncoder(profile.videoCodec);
+      }
+      mRecorder.setOutputFile(output.getAbsolutePath());
+      mRecorder.prepare();
+      mRecorder.start();
+    } catch (Exception e) {
+      releaseRecorder();
+      throw e;
+    }
+  }
+
+  @Override
+  public void stopRecording() throws Exception {
+    try {
+      mRecorder.stop();
+    } finally {
+      releaseRecorder();
+    }
+  }
+
+  private void releaseRecorder() {
+    if (mRecorder == null) return;
+    mRecorder.reset();
+    mRecorder.release();
+    mRecorder = null;
+    mCamera.lock();
+  }
+
+  @Override
+  public void close() {
+    if (mRecorder != null) releaseRecorder();
+    releaseFrameAnalysis();
+    if (mCamera != null) {
+      mCamera.stopPreview();
+      mCamera.release();
+      mCamera = null;
+    }
+    if (mPreviewTexture != null) {
+      mPreviewTexture.release();
+      mPreviewTexture = null;
+    }
+    if (mThread != null) {
+      mThread.quit();
+      mThread = null;
+    }
+  }
+
+  /** @return the largest size with at most {@code maxArea} pixels, or the smallest one */
+  private static Camera.Size largest(List<Camera.Size> sizes, long maxArea) {
+    Camera.Size smallest = sizes.get(0);
+    Camera.Size largest = null;
+    for (Camera.Size size : sizes) {
+      final long area = (long) size.width * size.height;
+      if (area < (long) smallest.width * smallest.height) smallest = size;
+      if (area <= maxArea && (largest == null || area > (long) largest.width * largest.height))
+        largest = size;
+    }
+    return largest != null ? largest : smallest;
+  }
+
+  static void await(CountDownLatch latch, String what) throws Exception {
+    if (!latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS))
+      throw new Exception("Timed out trying to " + what + ".");
+  }
+}
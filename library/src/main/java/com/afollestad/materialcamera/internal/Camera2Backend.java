@@ -0,0 +1,377 @@
+package com.afollestad.materialcamera.internal;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.CamcorderProfile;
+import android.media.Image;
+import android.media.ImageReader;
+import android.media.MediaRecorder;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.support.annotation.Nullable;
+import android.util.Size;
+import android.view.Surface;
+import com.afollestad.materialcamera.CameraBackend;
+import com.afollestad.materialcamera.FrameAnalyzer;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Headless {@link CameraBackend} on the Camera2 API. The offscreen preview goes to a small YUV
+ * ImageReader, which keeps AE, AF and AWB converging without a GL context to drain a
+ * SurfaceTexture. Its frames are dropped right away unless they're being analyzed.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class Camera2Backend implements CameraBackend {
+
+  private static final int VIDEO_MAX_HEIGHT = 1080;
+
+  private final CameraManager mManager;
+
+  private HandlerThread mThread;
+  private Handler mHandler;
+  private String mCameraId;
+  private StreamConfigurationMap mMap;
+  private int mRotation;
+  private CameraDevice mDevice;
+  private CameraCaptureSession mSession;
+  private ImageReader mPreviewReader;
+  private ImageReader mStillReader;
+  private volatile FrameAnalysisPipeline mAnalysisPipeline;
+  private Size mVideoSize;
+  private MediaRecorder mRecorder;
+
+  public Camera2Backend(Context context) {
+    mManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+  }
+
+  @Override
+  public void open(boolean frontFacing) throws Exception {
+    final int facing =
+        frontFacing
+            ? CameraCharacteristics.LENS_FACING_FRONT
+            : CameraCharacteristics.LENS_FACING_BACK;
+    mMap = null;
+    for (String id : mManager.getCameraIdList()) {
+      final CameraCharacteristics characteristics = mManager.getCameraCharacteristics(id);
+      final Integer lensFacing = characteristics.get(CameraCharacteristics.LENS_FACING);
+      if (lensFacing != null && lensFacing == facing) {
+        mCameraId = id;
+        mMap = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        final Integer orientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+        // Headless, so frames are rotated for the device's natural orientation
+        mRotation = orientation != null ? orientation : 0;
+        break;
+      }
+    }
+    if (mMap == null) throw new Exception("No " + (frontFacing ? "front" : "back") + " camera.");
+
+    mThread = new HandlerThread("Camera2Backend");
+    mThread.start();
+    mHandler = new Handler(mThread.getLooper());
+    final Exception[] error = new Exception[1];
+    final CountDownLatch opened = new CountDownLatch(1);
+    //noinspection MissingPermission
+    mManager.openCamera(
+        mCameraId,
+        new CameraDevice.StateCallback() {
+          @Override
+          public void onOpened(CameraDevice camera) {
+            mDevice = camera;
+            opened.countDown();
+          }
+
+          @Override
+          public void onDisconnected(CameraDevice camera) {
+            camera.close();
+            error[0] = new Exception("The camera was disconnected.");
+            opened.countDown();
+          }
+
+          @Override
+          public void onError(CameraDevice camera, int code) {
+            camera.close();
+            error[0] = new Exception("The camera failed to open, error " + code + ".");
+            opened.countDown();
+          }
+        },
+        mHandler);
+    Camera1Backend.await(opened, "open the camera");
+    if (error[0] != null) throw error[0];
+  }
+
+  @Override
+  public void configure(int maxPreviewWidth, int maxPreviewHeight) throws Exception {
+    final Size still =
+        Collections.max(
+            Arrays.asList(mMap.getOutputSizes(ImageFormat.JPEG)),
+            new Camera2Fragment.CompareSizesByArea());
+    final List<Size> previewSizes = Arrays.asList(mMap.getOutputSizes(ImageFormat.YUV_420_888));
+    Size preview = Collections.min(previewSizes, new Camera2Fragment.CompareSizesByArea());
+    for (Size size : previewSizes) {
+      final int area = size.getWidth() * size.getHeight();
+      if (area <= maxPreviewWidth * maxPreviewHeight
+          && area > preview.getWidth() * preview.getHeight()) preview = size;
+    }
+    mVideoSize = chooseVideoSize(mMap.getOutputSizes(MediaRecorder.class));
+
+    closeReaders();
+    mPreviewReader =
+        ImageReader.newInstance(
+            preview.getWidth(), preview.getHeight(), ImageFormat.YUV_420_888, 2);
+    mPreviewReader.setOnImageAvailableListener(
+        new ImageReader.OnImageAvailableListener() {
+          @Override
+          public void onImageAvailable(ImageReader reader) {
+            final Image image = reader.acquireLatestImage();
+            if (image == null) return;
+            final FrameAnalysisPipeline pipeline = mAnalysisPipeline;
+            // Copied out right away, so the camera never waits on the analyzer
+            final byte[] frame = pipeline != null ? pipeline.obtainBuffer() : null;
+            try {
+              if (frame != null) pipeline.copyToNv21(image, frame);
+            } finally {
+              image.close();
+            }
+            if (frame != null) pipeline.submit(frame);
+          }
+        },
+        mHandler);
+    mStillReader =
+        ImageReader.newInstance(still.getWidth(), still.getHeight(), ImageFormat.JPEG, 1);
+  }
+
+  @Override
+  public void startRepeating(@Nullable FrameAnalyzer analyzer) throws Exception {
+    releaseFrameAnalysis();
+    if (analyzer != null) {
+      final FrameAnalysisPipeline pipeline =
+          new FrameAnalysisPipeline(
+              analyzer, mPreviewReader.getWidth(), mPreviewReader.getHeight(), mRotation, null);
+      pipeline.start();
+      mAnalysisPipeline = pipeline;
+    }
+    // The preview reader picks up the new pipeline, a running session carries on as it is
+    if (mSession == null) startPreview(null);
+  }
+
+  private void releaseFrameAnalysis() {
+    if (mAnalysisPipeline != null) {
+      mAnalysisPipeline.stop();
+      mAnalysisPipeline = null;
+    }
+  }
+
+  private Size chooseVideoSize(Size[] choices) {
+    final CamcorderProfile profile = getCamcorderProfile();
+    Size best = null;
+    for (Size size : choices) {
+      if (size.getWidth() == profile.videoFrameWidth
+          && size.getHeight() == profile.videoFrameHeight) return size;
+      if (size.getHeight() > VIDEO_MAX_HEIGHT) continue;
+      if (best == null || size.getWidth() * size.getHeight() > best.getWidth() * best.getHeight())
+        best = size;
+    }
+    return best != null ? best : choices[0];
+  }
+
+  private CamcorderProfile getCamcorderProfile() {
+    int cameraId = 0;
+    try {
+      // Camera2 ids of built-in cameras match the legacy ids CamcorderProfile takes
+      cameraId = Integer.parseInt(mCameraId);
+    } catch (NumberFormatException ignored) {
+    }
+    if (!CamcorderProfile.hasProfile(cameraId, CamcorderProfile.QUALITY_HIGH)) cameraId = 0;
+    return CamcorderProfile.get(cameraId, CamcorderProfile.QUALITY_HIGH);
+  }
+
+  /**
+   * (Re)configures the session and starts the preview.
+   *
+   * @param recorder The recorder's surface while recording, null to take stills instead
+   */
+  private void startPreview(@Nullable Surface recorder) throws Exception {
+    if (mSession != null) {
+      mSession.close();
+      mSession = null;
+    }
+    final Exception[] error = new Exception[1];
+    final CountDownLatch configured = new CountDownLatch(1);
+    mDevice.createCaptureSession(
+        Arrays.asList(
+            mPreviewReader.getSurface(), recorder != null ? recorder : mStillReader.getSurface()),
+        new CameraCaptureSession.StateCallback() {
+          @Override
+          public void onConfigured(CameraCaptureSession session) {
+            mSession = session;
+            configured.countDown();
+          }
+
+          @Override
+          public void onConfigureFailed(CameraCaptureSession session) {
+            error[0] = new Exception("Failed to configure the capture session.");
+            configured.countDown();
+          }
+        },
+        mHandler);
+    Camera1Backend.await(configured, "configure the camera");
+    if (error[0] != null) throw error[0];
+
+    final boolean recording = recorder != null;
+    final CaptureRequest.Builder builder =
+        mDevice.createCaptureRequest(
+            recording ? CameraDevice.TEMPLATE_RECORD : CameraDevice.TEMPLATE_PREVIEW);
+    builder.addTarget(mPreviewReader.getSurface());
+    if (recording) builder.addTarget(recorder);
+    builder.set(
+        CaptureRequest.CONTROL_AF_MODE,
+        recording
+            ? CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_VIDEO
+            : CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+    mSession.setRepeatingRequest(builder.build(), null, mHandler);
+  }
+
+  @Override
+  public void takePicture(final File output) throws Exception {
+    final Exception[] error = new Exception[1];
+    final CountDownLatch written = new CountDownLatch(1);
+    mStillReader.setOnImageAvailableListener(
+        new ImageReader.OnImageAvailableListener() {
+          @Override
+          public void onImageAvailable(ImageReader reader) {
+            final Image image = reader.acquireNextImage();
+            FileOutputStream out = null;
+            try {
+              final ByteBuffer buffer = image.getPlanes()[0].getBuffer();
+              final byte[] bytes = new byte[buffer.remaining()];
+              buffer.get(bytes);
+              out = new FileOutputStream(output);
+              out.write(bytes);
+              out.getFD().sync();
+            } catch (IOException e) {
+              error[0] = e;
+            } finally {
+              image.close();
+              if (out != null) {
+                try {
+                  out.close();
+                } catch (IOException e) {
+                  e.printStackTrace();
+                }
+              }
+            }
+            written.countDown();
+          }
+        },
+        mHandler);
+
+    final CaptureRequest.Builder builder =
+        mDevice.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
+    builder.addTarget(mStillReader.getSurface());
+    builder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+    mSession.capture(builder.build(), null, mHandler);
+    Camera1Backend.await(written, "take a picture");
+    if (error[0] != null) throw error[0];
+  }
+
+  @Override
+  public void startRecording(File output, boolean audio) throws Exception {
+    final CamcorderProfile profile = getCamcorderProfile();
+    mRecorder = new MediaRecorder();
+    try {
+      if (audio) mRecorder.setAudioSource(MediaRecorder.AudioSource.DEFAULT);
+      mRecorder.setVideoSource(MediaRecorder.VideoSource.SURFACE);
+      mRecorder.setOutputFormat(profile.fileFormat);
+      mRecorder.setVideoFrameRate(profile.videoFrameRate);
+      mRecorder.setVideoSize(mVideoSize.getWidth(), mVideoSize.getHeight());
+      mRecorder.setVideoEncodingBitRate(profile.videoBitRate);
+      mRecorder.setVideoEncoder(profile.videoCodec);
+      if (audio) {
+        mRecorder.setAudioEncodingBitRate(profile.audioBitRate);
+        mRecorder.setAudioChannels(profile.audioChannels);
+        mRecorder.setAudioSamplingRate(profile.audioSampleRate);
+        mRecorder.setAudioEncoder(profile.audioCodec);
+      }
+      mRecorder.setOutputFile(output.getAbsolutePath());
+      mRecorder.prepare();
+      startPreview(mRecorder.getSurface());
+      mRecorder.start();
+    } catch (Exception e) {
+      releaseRecorder();
+      startPreview(null);
+      throw e;
+    }
+  }
+
+  @Override
+  public void stopRecording() throws Exception {
+    try {
+      mSession.stopRepeating();
+      mRecorder.stop();
+    } finally {
+      releaseRecorder();
+      startPreview(null);
+    }
+  }
+
+  private void releaseRecorder() {
+    if (mRecorder == null) return;
+    mRecorder.reset();
+    mRecorder.release();
+    mRecorder = null;
+  }
+
+  @Override
+  public void close() {
+    if (mSession != null) {
+      try {
+        mSession.stopRepeating();
+      } catch (CameraAccessException | IllegalStateException e) {
+        e.printStackTrace();
+      }
+      mSession.close();
+      mSession = null;
+    }
+    releaseRecorder();
+    if (mDevice != null) {
+      mDevice.close();
+      mDevice = null;
+    }
+    releaseFrameAnalysis();
+    closeReaders();
+    if (mThread != null) {
+      mThread.quitSafely();
+      mThread = null;
+      mHandler = null;
+    }
+  }
+
+  private void closeReaders() {
+    if (mPreviewReader != null) {
+      mPreviewReader.close();
+      mPreviewReader = null;
+    }
+    if (mStillReader != null) {
+      mStillReader.close();
+      mStillReader = null;
+    }
+  }
+}
@@ -23,6 +23,7 @@ import android.graphics.SurfaceTexture;
 import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraCaptureSession;
 import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraConstrainedHighSpeedCaptureSession;
 import android.hardware.camera2.CameraDevice;
 import android.hardware.camera2.CameraManager;
 import android.hardware.camera2.CameraMetadata;
@@ -39,18 +40,29 @@ import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.ParcelFileDescriptor;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.v4.content.ContextCompat;
 import android.util.Log;
+import android.util.Range;
 import android.util.Size;
 import android.util.SparseIntArray;
 import android.view.Surface;
 import android.view.TextureView;
 import android.view.View;
+import android.widget.TextView;
 import android.widget.Toast;
+import com.afollestad.materialcamera.CameraMetrics;
+import com.afollestad.materialcamera.FrameAnalyzer;
+import com.afollestad.materialcamera.PreviewStats;
 import com.afollestad.materialcamera.R;
 import com.afollestad.materialcamera.util.CameraUtil;
+import com.afollestad.materialcamera.util.ChunkedDigest;
+import com.afollestad.materialcamera.util.CodecUtil;
 import com.afollestad.materialcamera.util.Degrees;
+import com.afollestad.materialcamera.util.DeviceQuirks;
+import com.afollestad.materialcamera.util.SizeSelector;
 import com.afollestad.materialdialogs.DialogAction;
 import com.afollestad.materialdialogs.MaterialDialog;
 import java.io.File;
@@ -62,6 +74,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Locale;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
@@ -74,11 +87,40 @@ public class Camera2Fragment extends BaseCameraFragment implements View.OnClickL
   private AutoFitTextureView mTextureView;
   /** An {@link ImageReader} that handles still image capture. */
   private ImageReader mImageReader;
+  /** Encodes stills when {@link #mImageReader} delivers YUV frames, null for camera JPEGs. */
+  private YuvStillEncoder mYuvEncoder;
+  /** The JPEG orientation of the last still capture request, for stills we encode ourselves. */
+  private volatile int mStillOrientation;
+  /** Used instead of {@link #mMediaRecorder} when pre-roll is enabled. */
+  private PreRollRecorder mPreRollRecorder;
+  /** Receives JPEGs taken while recording, null if video snapshots aren't possible. */
+  private ImageReader mSnapshotReader;
+  /** Receives small YUV preview frames for the frame analyzer, null if there's none. */
+  private ImageReader mAnalysisReader;
+
+  private FrameAnalysisPipeline mAnalysisPipeline;
+  /** Measures the preview's frame rate, null unless stats were requested. */
+  private PreviewMetrics mPreviewMetrics;
+
+  private TextView mPreviewStatsView;
+
+  private Surface mPreviewSurface;
+  private Surface mRecorderSurface;
 
   private Size mPreviewSize;
   private Size mVideoSize;
   @Degrees.DegreeUnits private int mDisplayOrientation;
   private boolean mAfAvailable;
+  private boolean mRealtimeTimestamps;
+  /** The AE target fps range used while recording, null to leave it up to the camera. */
+  private Range<Integer> mFpsRange;
+
+  private Range<Integer>[] mFpsRanges;
+  private PreviewPolicy mPreviewPolicy;
+  private int mThermalStatus;
+  private int mVideoFrameRate;
+  /** Whether a constrained high speed session is used for video, for more than 30 fps. */
+  private boolean mHighSpeed;
 
   /** {@link CaptureRequest.Builder} for the camera preview */
   private CaptureRequest.Builder mPreviewBuilder;
@@ -88,6 +130,9 @@ public class Camera2Fragment extends BaseCameraFragment implements View.OnClickL
   private HandlerThread mBackgroundThread;
   private Handler mBackgroundHandler;
   private final Semaphore mCameraOpenCloseLock = new Semaphore(1);
+  // For CameraMetrics, 0 while disabled
+  private long mOpenStart;
+  private volatile long mCaptureStart;
 
   private final TextureView.SurfaceTextureListener mSurfaceTextureListener =
       new TextureView.SurfaceTextureListener() {
@@ -118,6 +163,8 @@ public class Camera2Fragment extends BaseCameraFragment implements View.OnClickL
         public void onOpened(@NonNull CameraDevice cameraDevice) {
           mCameraOpenCloseLock.release();
           mCameraDevice = cameraDevice;
+          CameraMetrics.count(CameraMetrics.OPENS);
+          CameraMetrics.sampleSince(CameraMetrics.OPEN_LATENCY, mOpenStart);
           startPreview();
           if (null != mTextureView) {
             configureTransform(mTextureView.getWidth(), mTextureView.getHeight());
@@ -192,11 +239,14 @@ public class Camera2Fragment extends BaseCameraFragment implements View.OnClickL
   /** Camera state: Picture was taken. */
   private static final int STATE_PICTURE_TAKEN = 4;
 
-  /** Max preview width that is guaranteed by Camera2 API */
-  private static final int MAX_PREVIEW_WIDTH = 1920;
+  /** How often the thermal status is checked while the camera is open */
+  private static final long THERMAL_POLL_MS = 10000;
+
+  /** Frame analysis uses the largest YUV size up to VGA */
+  private static final int ANALYSIS_MAX_AREA = 640 * 480;
 
-  /** Max preview height that is guaranteed by Camera2 API */
-  private static final int MAX_PREVIEW_HEIGHT = 1080;
+  /** Frames merged into each night mode still */
+  private static final int NIGHT_FRAME_COUNT = 4;
 
   /** A {@link CameraCaptureSession.CaptureCallback} that handles events related to JPEG capture. */
   private CameraCaptureSession.CaptureCallback mCaptureCallback =
@@ -265,6 +315,7 @@ public class Camera2Fragment extends BaseCameraFragment implements View.OnClickL
             @NonNull CameraCaptureSession session,
             @NonNull CaptureRequest request,
             @NonNull TotalCaptureResult result) {
+          if (mPreviewMetrics != null) mPreviewMetrics.onCaptureCompleted(result);
           process(result);
         }
       };
@@ -276,38 +327,137 @@ public class Camera2Fragment extends BaseCameraFragment implements View.OnClickL
   }
 
   private static Size chooseVideoSize(BaseCaptureInterface ci, Size[] choices) {
-    Size backupSize = null;
-    for (Size size : choices) {
-      if (size.getHeight() <= ci.videoPreferredHeight()) {
-        if (size.getWidth() == size.getHeight() * ci.videoPreferredAspect()) return size;
-        if (ci.videoPreferredHeight() >= size.getHeight()) backupSize = size;
-      }
-    }
-    if (backupSize != null) return backupSize;
+    final int index =
+        SizeSelector.chooseVideoSize(
+            widths(choices),
+            heights(choices),
+            ci.videoPreferredHeight(),
+            ci.videoPreferredAspect());
+    if (index != -1) return choices[index];
     LOG(Camera2Fragment.class, "Couldn't find any suitable video size");
     return choices[choices.length - 1];
   }
 
-  private static Size chooseOptimalSize(Size[] choices, int width, int height, Size aspectRatio) {
-    // Collect the supported resolutions that are at least as big as the preview Surface
-    List<Size> bigEnough = new ArrayList<>();
-    int w = aspectRatio.getWidth();
-    int h = aspectRatio.getHeight();
-    for (Size option : choices) {
-      if (option.getHeight() == option.getWidth() * h / w
-          && option.getWidth() >= width
-          && option.getHeight() >= height) {
-        bigEnough.add(option);
+  /**
+   * Picks {@link #mFpsRange} for the device class and thermal status. Recordings keep their
+   * requested rate until the device gets warm, high speed ranges are left alone.
+   */
+  private void updateFpsRange() {
+    if (mHighSpeed || mFpsRanges == null) return;
+    final int maxFps = mPreviewPolicy.getMaxFps(mThermalStatus);
+    if (mInterface.useStillshot()) {
+      mFpsRange = PreviewPolicy.choosePreviewFpsRange(mFpsRanges, maxFps);
+    } else if (mThermalStatus >= PreviewPolicy.THERMAL_STATUS_MODERATE) {
+      mFpsRange = chooseFpsRange(mFpsRanges, Math.min(mVideoFrameRate, maxFps));
+    } else {
+      mFpsRange = chooseFpsRange(mFpsRanges, mVideoFrameRate);
+    }
+  }
+
+  /** Steps the frame rate down (or back up) as the thermal status changes. */
+  private final Runnable mThermalMonitor =
+      new Runnable() {
+        @Override
+        public void run() {
+          final int status =
+              mPreviewPolicy != null ? mPreviewPolicy.getThermalStatus() : mThermalStatus;
+          if (status != mThermalStatus) {
+            LOG(Camera2Fragment.class, "Thermal status changed to " + status);
+            final Range<Integer> previous = mFpsRange;
+            mThermalStatus = status;
+            updateFpsRange();
+            // A still capture in progress picks it up once it returns to the preview
+            if (mPreviewSession != null
+                && mFpsRange != null
+                && !mFpsRange.equals(previous)
+                && (!mInterface.useStillshot() || mState == STATE_PREVIEW)) {
+              try {
+                updatePreview();
+              } catch (IllegalStateException e) {
+                // The session was closed in the meantime
+              }
+            }
+          }
+          if (mBackgroundHandler != null) mBackgroundHandler.postDelayed(this, THERMAL_POLL_MS);
+        }
+      };
+
+  /**
+   * Picks the range that contains {@code frameRate} with the lowest maximum, preferring the
+   * narrowest of those so the recorded frame rate stays steady. If none contain it, the range with
+   * the highest maximum is used.
+   */
+  private static Range<Integer> chooseFpsRange(Range<Integer>[] choices, int frameRate) {
+    Range<Integer> best = null;
+    Range<Integer> fastest = null;
+    for (Range<Integer> range : choices) {
+      if (fastest == null || range.getUpper() > fastest.getUpper()) fastest = range;
+      if (!range.contains(frameRate)) continue;
+      if (best == null
+          || range.getUpper() < best.getUpper()
+          || (range.getUpper().equals(best.getUpper()) && range.getLower() > best.getLower())) {
+        best = range;
       }
     }
+    return best != null ? best : fastest;
+  }
 
-    // Pick the smallest of those, assuming we found any
-    if (bigEnough.size() > 0) {
-      return Collections.min(bigEnough, new CompareSizesByArea());
-    } else {
-      LOG(Camera2Fragment.class, "Couldn't find any suitable preview size");
-      return aspectRatio;
+  /**
+   * Looks for a high speed video size and fixed fps range that can record at {@code frameRate}. The
+   * chosen size and range are stored in {@link #mVideoSize} and {@link #mFpsRange}.
+   *
+   * @return false if the camera can't record at that rate in a constrained high speed session
+   */
+  @TargetApi(Build.VERSION_CODES.M)
+  private boolean setUpHighSpeed(
+      BaseCaptureInterface ci,
+      CameraCharacteristics characteristics,
+      StreamConfigurationMap map,
+      int frameRate) {
+    final int[] capabilities =
+        characteristics.get(CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES);
+    if (capabilities == null) return false;
+    boolean supported = false;
+    for (int capability : capabilities) {
+      if (capability
+          == CameraMetadata.REQUEST_AVAILABLE_CAPABILITIES_CONSTRAINED_HIGH_SPEED_VIDEO) {
+        supported = true;
+        break;
+      }
+    }
+    if (!supported) return false;
+
+    final List<Size> sizes = new ArrayList<>();
+    for (Size size : map.getHighSpeedVideoSizes()) {
+      for (Range<Integer> range : map.getHighSpeedVideoFpsRangesFor(size)) {
+        // Recording requires a fixed range, variable ones are for preview only
+        if (range.getLower() == frameRate && range.getUpper() == frameRate) {
+          sizes.add(size);
+          break;
+        }
+      }
     }
+    if (sizes.isEmpty()) return false;
+    mVideoSize = chooseVideoSize(ci, sizes.toArray(new Size[sizes.size()]));
+    mFpsRange = Range.create(frameRate, frameRate);
+    return true;
+  }
+
+  private static Size chooseOptimalSize(Size[] choices, int width, int height, Size aspectRatio) {
+    final int index =
+        SizeSelector.chooseOptimalSize(
+            widths(choices),
+            heights(choices),
+            width,
+            height,
+            Integer.MAX_VALUE,
+            Integer.MAX_VALUE,
+            aspectRatio.getWidth(),
+            aspectRatio.getHeight(),
+            false);
+    if (index != -1) return choices[index];
+    LOG(Camera2Fragment.class, "Couldn't find any suitable preview size");
+    return aspectRatio;
   }
 
   /**
@@ -332,41 +482,64 @@ public class Camera2Fragment extends BaseCameraFragment implements View.OnClickL
       int maxWidth,
       int maxHeight,
       Size aspectRatio) {
+    final int index =
+        SizeSelector.chooseOptimalSize(
+            widths(choices),
+            heights(choices),
+            textureViewWidth,
+            textureViewHeight,
+            maxWidth,
+            maxHeight,
+            aspectRatio.getWidth(),
+            aspectRatio.getHeight(),
+            true);
+    if (index != -1) return choices[index];
+    LOG(Camera2Fragment.class, "Couldn't find any suitable preview size");
+    return choices[0];
+  }
 
-    // Collect the supported resolutions that are at least as big as the preview Surface
-    List<Size> bigEnough = new ArrayList<>();
-    // Collect the supported resolutions that are smaller than the preview Surface
-    List<Size> notBigEnough = new ArrayList<>();
-    int w = aspectRatio.getWidth();
-    int h = aspectRatio.getHeight();
-    for (Size option : choices) {
-      if (option.getWidth() <= maxWidth
-          && option.getHeight() <= maxHeight
-          && option.getHeight() == option.getWidth() * h / w) {
-        if (option.getWidth() >= textureViewWidth && option.getHeight() >= textureViewHeight) {
-          bigEnough.add(option);
-        } else {
-          notBigEnough.add(option);
-        }
-      }
-    }
+  private static int[] widths(Size[] sizes) {
+    final int[] widths = new int[sizes.length];
+    for (int i = 0; i < sizes.length; i++) widths[i] = sizes[i].getWidth();
+    return widths;
+  }
 
-    // Pick the smallest of those big enough. If there is no one big enough, pick the
-    // largest of those not big enough.
-    if (bigEnough.size() > 0) {
-      return Collections.min(bigEnough, new CompareSizesByArea());
-    } else if (notBigEnough.size() > 0) {
-      return Collections.max(notBigEnough, new CompareSizesByArea());
-    } else {
-      LOG(Camera2Fragment.class, "Couldn't find any suitable preview size");
-      return choices[0];
-    }
+  private static int[] heights(Size[] sizes) {
+    final int[] heights = new int[sizes.length];
+    for (int i = 0; i < sizes.length; i++) heights[i] = sizes[i].getHeight();
+    return heights;
   }
 
   @Override
   public void onViewCreated(final View view, Bundle savedInstanceState) {
     super.onViewCreated(view, savedInstanceState);
     mTextureView = (AutoFitTextureView) view.findViewById(R.id.texture);
+    mPreviewStatsView = (TextView) view.findViewById(R.id.previewStats);
+    setUpPreviewMetrics();
+  }
+
+  private void setUpPreviewMetrics() {
+    final PreviewStats.Listener listener = mInterface.previewStatsListener();
+    final boolean overlay = mInterface.showPreviewStats();
+    if (listener == null && !overlay) return;
+    mPreviewStatsView.setVisibility(overlay ? View.VISIBLE : View.GONE);
+    mPreviewMetrics =
+        new PreviewMetrics(
+            new PreviewStats.Listener() {
+              @Override
+              public void onPreviewStats(PreviewStats stats) {
+                if (listener != null) listener.onPreviewStats(stats);
+                if (mPreviewStatsView != null && overlay) {
+                  mPreviewStatsView.setText(
+                      String.format(
+                          Locale.US,
+                          "%.1f fps\n%d dropped\n%d ms worst",
+                          stats.getFps(),
+                          stats.getDroppedFrames(),
+                          stats.getWorstIntervalMillis()));
+                }
+              }
+            });
   }
 
   @Override
@@ -377,12 +550,15 @@ public class Camera2Fragment extends BaseCameraFragment implements View.OnClickL
     } catch (Throwable ignored) {
     }
     mTextureView = null;
+    mPreviewStatsView = null;
   }
 
   @Override
   public void onResume() {
     super.onResume();
     startBackgroundThread();
+    if (PreviewPolicy.hasThermalStatus())
+      mBackgroundHandler.postDelayed(mThermalMonitor, THERMAL_POLL_MS);
     if (mTextureView.isAvailable()) {
       openCamera();
     } else {
@@ -453,7 +629,7 @@ public class Camera2Fragment extends BaseCameraFragment implements View.OnClickL
           break;
         case CAMERA_POSITION_UNKNOWN:
         default:
-          if (getArguments().getBoolean(CameraIntentKey.DEFAULT_TO_FRONT_FACING, false)) {
+          if (mInterface.getConfig().defaultToFrontFacing()) {
             // Check front facing first
             if (mInterface.getFrontCamera() != null) {
               setImageRes(mButtonFacing, mInterface.iconRearCamera());
@@ -486,10 +662,27 @@ public class Camera2Fragment extends BaseCameraFragment implements View.OnClickL
           characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
       assert map != null;
 
+      final DeviceQuirks quirks = DeviceQuirks.get(activity);
+      mPreviewPolicy =
+          new PreviewPolicy(activity, characteristics, quirks, mInterface.useStillshot());
+      mThermalStatus = mPreviewPolicy.getThermalStatus();
+      mFpsRanges =
+          characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+
       // For still image captures, we use the largest available size.
-      Size largest =
-          Collections.max(
-              Arrays.asList(map.getOutputSizes(ImageFormat.JPEG)), new CompareSizesByArea());
+      final int stillFormat =
+          mInterface.useStillshot()
+                  && (mInterface.parallelJpegEncoding() || mInterface.nightMode())
+                  && !quirks.isBroken(DeviceQuirks.FEATURE_YUV_STILLS)
+                  && map.getOutputSizes(ImageFormat.YUV_420_888).length > 0
+              ? ImageFormat.YUV_420_888
+              : ImageFormat.JPEG;
+      final List<Size> stillSizes = new ArrayList<>();
+      for (Size size : map.getOutputSizes(stillFormat)) {
+        if (quirks.allowsStillSize(size.getWidth(), size.getHeight())) stillSizes.add(size);
+      }
+      if (stillSizes.isEmpty()) stillSizes.addAll(Arrays.asList(map.getOutputSizes(stillFormat)));
+      Size largest = Collections.max(stillSizes, new CompareSizesByArea());
       // Find out if we need to swap dimension to get the preview size relative to sensor
       // coordinate.
       int displayRotation = activity.getWindowManager().getDefaultDisplay().getRotation();
@@ -544,12 +737,12 @@ public class Camera2Fragment extends BaseCameraFragment implements View.OnClickL
           maxPreviewHeight = displaySize.x;
         }
 
-        if (maxPreviewWidth > MAX_PREVIEW_WIDTH) {
-          maxPreviewWidth = MAX_PREVIEW_WIDTH;
+        if (maxPreviewWidth > mPreviewPolicy.getMaxPreviewWidth()) {
+          maxPreviewWidth = mPreviewPolicy.getMaxPreviewWidth();
         }
 
-        if (maxPreviewHeight > MAX_PREVIEW_HEIGHT) {
-          maxPreviewHeight = MAX_PREVIEW_HEIGHT;
+        if (maxPreviewHeight > mPreviewPolicy.getMaxPreviewHeight()) {
+          maxPreviewHeight = mPreviewPolicy.getMaxPreviewHeight();
         }
 
         // Danger, W.R.! Attempting to use too large a preview size could  exceed the camera
@@ -564,49 +757,76 @@ public class Camera2Fragment extends BaseCameraFragment implements View.OnClickL
                 maxPreviewHeight,
                 largest);
 
+        if (stillFormat == ImageFormat.YUV_420_888) {
+          if (mYuvEncoder == null) mYuvEncoder = new YuvStillEncoder();
+        } else if (mYuvEncoder != null) {
+          mYuvEncoder.release();
+          mYuvEncoder = null;
+        }
+        // A night burst arrives back to back, frames are copied out and closed as they come in
         mImageReader =
-            ImageReader.newInstance(largest.getWidth(), largest.getHeight(), ImageFormat.JPEG, 2);
+            ImageReader.newInstance(
+                largest.getWidth(),
+                largest.getHeight(),
+                stillFormat,
+                isStackingStills() ? NIGHT_FRAME_COUNT + 1 : 3);
         mImageReader.setOnImageAvailableListener(
             new ImageReader.OnImageAvailableListener() {
               @Override
               public void onImageAvailable(ImageReader reader) {
                 Image image = reader.acquireNextImage();
+                if (image.getFormat() == ImageFormat.YUV_420_888 && mYuvEncoder != null) {
+                  mYuvEncoder.encode(
+                      image,
+                      mStillOrientation,
+                      new YuvStillEncoder.Callback() {
+                        @Override
+                        public void onEncoded(byte[] jpeg) {
+                          saveStillshot(jpeg);
+                        }
+
+                        @Override
+                        public void onError(Exception e) {
+                          throwError(e);
+                        }
+                      });
+                  return;
+                }
                 ByteBuffer buffer = image.getPlanes()[0].getBuffer();
                 final byte[] bytes = new byte[buffer.remaining()];
                 buffer.get(bytes);
-
-                final File outputPic = getOutputPictureFile();
-
-                FileOutputStream output = null;
-                try {
-                  output = new FileOutputStream(outputPic);
-                  output.write(bytes);
-                } catch (IOException e) {
-                  e.printStackTrace();
-                } finally {
-                  image.close();
-                  if (null != output) {
-                    try {
-                      output.close();
-                    } catch (IOException e) {
-                      e.printStackTrace();
-                    }
-                  }
-                }
-                Log.d("stillshot", "picture saved to disk - jpeg, size: " + bytes.length);
-                mOutputUri = Uri.fromFile(outputPic).toString();
-                mInterface.onShowStillshot(mOutputUri);
+                image.close();
+                saveStillshot(bytes);
               }
             },
             mBackgroundHandler);
       } else {
-        mMediaRecorder = new MediaRecorder();
-        mVideoSize =
-            chooseVideoSize(
-                (BaseCaptureInterface) activity, map.getOutputSizes(MediaRecorder.class));
-        mPreviewSize =
-            chooseOptimalSize(map.getOutputSizes(SurfaceTexture.class), width, height, mVideoSize);
+        if (mInterface.preRollMillis() <= 0) mMediaRecorder = new MediaRecorder();
+        final int frameRate = mInterface.videoFrameRate(getCamcorderProfile().videoFrameRate);
+        mHighSpeed =
+            frameRate > 30
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M
+                && !quirks.isBroken(DeviceQuirks.FEATURE_HIGH_SPEED)
+                && setUpHighSpeed(mInterface, characteristics, map, frameRate);
+        if (mHighSpeed) {
+          // All outputs of a high speed session must have the same size
+          mPreviewSize = mVideoSize;
+        } else {
+          mVideoSize = chooseVideoSize(mInterface, map.getOutputSizes(MediaRecorder.class));
+          mPreviewSize =
+              chooseOptimalSize(
+                  map.getOutputSizes(SurfaceTexture.class),
+                  width,
+                  height,
+                  mPreviewPolicy.getMaxPreviewWidth(),
+                  mPreviewPolicy.getMaxPreviewHeight(),
+                  mVideoSize);
+        }
+        mVideoFrameRate = frameRate;
+        setUpSnapshotReader(characteristics, map);
       }
+      updateFpsRange();
+      setUpFrameAnalysis(characteristics, map, stillFormat);
 
       int orientation = VideoStreamView.getScreenOrientation(activity);
       if (orientation == ActivityInfo.SCREEN_ORIENTATION_LANDSCAPE
@@ -616,6 +836,12 @@ public class Camera2Fragment extends BaseCameraFragment implements View.OnClickL
         mTextureView.setAspectRatio(mPreviewSize.getHeight(), mPreviewSize.getWidth());
       }
 
+      final Integer timestampSource =
+          characteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE);
+      mRealtimeTimestamps =
+          timestampSource != null
+              && timestampSource == CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME;
+
       mAfAvailable = false;
       int[] afModes = characteristics.get(CameraCharacteristics.CONTROL_AF_AVAILABLE_MODES);
       if (afModes != null) {
@@ -632,6 +858,7 @@ public class Camera2Fragment extends BaseCameraFragment implements View.OnClickL
       mInterface.setFlashModes(CameraUtil.getSupportedFlashModes(getActivity(), characteristics));
       onFlashModesLoaded();
 
+      mOpenStart = CameraMetrics.start();
       // noinspection ResourceType
       manager.openCamera((String) mInterface.getCurrentCameraId(), mStateCallback, null);
     } catch (CameraAccessException e) {
@@ -645,10 +872,173 @@ public class Camera2Fragment extends BaseCameraFragment implements View.OnClickL
     }
   }
 
+  /**
+   * Creates {@link #mSnapshotReader} when video snapshots were requested. LIMITED and better
+   * devices guarantee preview + record + a JPEG up to the record size, so the largest JPEG size
+   * with the video's aspect ratio that fits within it is used. LEGACY devices only guarantee a JPEG
+   * next to a single other stream, and high speed sessions can't take one at all.
+   */
+  private void setUpSnapshotReader(
+      CameraCharacteristics characteristics, StreamConfigurationMap map) {
+    if (mSnapshotReader != null) {
+      mSnapshotReader.close();
+      mSnapshotReader = null;
+    }
+    final Integer level = characteristics.get(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
+    if (!mInterface.allowVideoSnapshots()
+        || mHighSpeed
+        || level == null
+        || level == CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY) {
+      return;
+    }
+    Size snapshotSize = null;
+    for (Size size : map.getOutputSizes(ImageFormat.JPEG)) {
+      if (size.getWidth() > mVideoSize.getWidth()
+          || size.getHeight() > mVideoSize.getHeight()
+          || size.getWidth() * mVideoSize.getHeight() != size.getHeight() * mVideoSize.getWidth()) {
+        continue;
+      }
+      if (snapshotSize == null
+          || size.getWidth() * size.getHeight()
+              > snapshotSize.getWidth() * snapshotSize.getHeight()) {
+        snapshotSize = size;
+      }
+    }
+    if (snapshotSize == null) {
+      LOG(Camera2Fragment.class, "Couldn't find a suitable video snapshot size");
+      return;
+    }
+    mSnapshotReader =
+        ImageReader.newInstance(
+            snapshotSize.getWidth(), snapshotSize.getHeight(), ImageFormat.JPEG, 2);
+    mSnapshotReader.setOnImageAvailableListener(
+        new ImageReader.OnImageAvailableListener() {
+          @Override
+          public void onImageAvailable(ImageReader reader) {
+            final Image image = reader.acquireNextImage();
+            final File file = getOutputPictureFile();
+            FileOutputStream output = null;
+            try {
+              final ByteBuffer buffer = image.getPlanes()[0].getBuffer();
+              final byte[] bytes = new byte[buffer.remaining()];
+              buffer.get(bytes);
+              output = new FileOutputStream(file);
+              final long writeStart = CameraMetrics.start();
+              output.write(bytes);
+              CameraMetrics.written(writeStart, bytes.length);
+            } catch (IOException e) {
+              e.printStackTrace();
+              return;
+            } finally {
+              image.close();
+              if (null != output) {
+                try {
+                  output.close();
+                } catch (IOException e) {
+                  e.printStackTrace();
+                }
+              }
+            }
+            final Activity activity = getActivity();
+            if (activity == null) return;
+            activity.runOnUiThread(
+                new Runnable() {
+                  @Override
+                  public void run() {
+                    if (mInterface != null)
+                      mInterface.onVideoSnapshot(Uri.fromFile(file).toString());
+                  }
+                });
+          }
+        },
+        mBackgroundHandler);
+  }
+
+  /**
+   * Creates {@link #mAnalysisReader} when there's a frame analyzer, at about VGA with the preview's
+   * aspect ratio. The extra YUV stream is only added where the session is guaranteed to support it:
+   * not next to a high speed recording, a video snapshot stream or a full size YUV still on devices
+   * below FULL, and not next to a recording on LEGACY devices.
+   */
+  private void setUpFrameAnalysis(
+      CameraCharacteristics characteristics, StreamConfigurationMap map, int stillFormat) {
+    releaseFrameAnalysis();
+    final FrameAnalyzer analyzer = mInterface.frameAnalyzer();
+    if (analyzer == null) return;
+    final Integer level = characteristics.get(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
+    final boolean legacy =
+        level == null || level == CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY;
+    final boolean full =
+        level != null
+            && level != CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY
+            && level != CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_LIMITED;
+    if (mInterface.useStillshot()
+        ? stillFormat == ImageFormat.YUV_420_888 && !full
+        : mHighSpeed || legacy || mSnapshotReader != null) {
+      LOG(Camera2Fragment.class, "Frame analysis isn't supported next to the other streams");
+      return;
+    }
+
+    Size analysisSize = null;
+    for (Size size : map.getOutputSizes(ImageFormat.YUV_420_888)) {
+      if (size.getWidth() * size.getHeight() > ANALYSIS_MAX_AREA
+          || size.getWidth() * mPreviewSize.getHeight()
+              != size.getHeight() * mPreviewSize.getWidth()) {
+        continue;
+      }
+      if (analysisSize == null
+          || size.getWidth() * size.getHeight()
+              > analysisSize.getWidth() * analysisSize.getHeight()) {
+        analysisSize = size;
+      }
+    }
+    if (analysisSize == null) {
+      LOG(Camera2Fragment.class, "Couldn't find a suitable frame analysis size");
+      return;
+    }
+
+    final FrameAnalysisPipeline pipeline =
+        new FrameAnalysisPipeline(
+            analyzer, analysisSize.getWidth(), analysisSize.getHeight(), mDisplayOrientation, null);
+    mAnalysisReader =
+        ImageReader.newInstance(
+            analysisSize.getWidth(), analysisSize.getHeight(), ImageFormat.YUV_420_888, 2);
+    mAnalysisReader.setOnImageAvailableListener(
+        new ImageReader.OnImageAvailableListener() {
+          @Override
+          public void onImageAvailable(ImageReader reader) {
+            final Image image = reader.acquireLatestImage();
+            if (image == null) return;
+            // Copied out right away, so the camera never waits on the analyzer
+            final byte[] frame = pipeline.obtainBuffer();
+            try {
+              if (frame != null) pipeline.copyToNv21(image, frame);
+            } finally {
+              image.close();
+            }
+            if (frame != null) pipeline.submit(frame);
+          }
+        },
+        mBackgroundHandler);
+    mAnalysisPipeline = pipeline;
+    pipeline.start();
+  }
+
+  private void releaseFrameAnalysis() {
+    if (mAnalysisPipeline != null) {
+      mAnalysisPipeline.stop();
+      mAnalysisPipeline = null;
+    }
+    if (mAnalysisReader != null) {
+      mAnalysisReader.close();
+      mAnalysisReader = null;
+    }
+  }
+
   @Override
   public void closeCamera() {
     try {
-      if (mOutputUri != null) {
+      if (mOutputUri != null && !hasOutputDestination()) {
         final File outputFile = new File(Uri.parse(mOutputUri).getPath());
         if (outputFile.length() == 0) outputFile.delete();
       }
@@ -661,6 +1051,13 @@ public class Camera2Fragment extends BaseCameraFragment implements View.OnClickL
         mMediaRecorder.release();
         mMediaRecorder = null;
       }
+      releasePreRollRecorder();
+      if (null != mSnapshotReader) {
+        mSnapshotReader.close();
+        mSnapshotReader = null;
+      }
+      releaseFrameAnalysis();
+      closeOutputDescriptor();
     } catch (InterruptedException e) {
       throwError(new Exception("Interrupted while trying to lock camera opening.", e));
     } finally {
@@ -689,7 +1086,11 @@ public class Camera2Fragment extends BaseCameraFragment implements View.OnClickL
     if (null == mCameraDevice || !mTextureView.isAvailable() || null == mPreviewSize) return;
     try {
       if (!mInterface.useStillshot()) {
-        if (!setUpMediaRecorder()) {
+        if (mInterface.preRollMillis() > 0) {
+          if (!setUpPreRollRecorder()) {
+            return;
+          }
+        } else if (!setUpMediaRecorder()) {
           return;
         }
       }
@@ -700,6 +1101,7 @@ public class Camera2Fragment extends BaseCameraFragment implements View.OnClickL
       List<Surface> surfaces = new ArrayList<>();
       Surface previewSurface = new Surface(texture);
       surfaces.add(previewSurface);
+      mPreviewSurface = previewSurface;
       if (mInterface.useStillshot()) {
         mPreviewBuilder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
         mPreviewBuilder.addTarget(previewSurface);
@@ -709,13 +1111,23 @@ public class Camera2Fragment extends BaseCameraFragment implements View.OnClickL
         mPreviewBuilder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_RECORD);
         mPreviewBuilder.addTarget(previewSurface);
 
-        Surface recorderSurface = mMediaRecorder.getSurface();
+        Surface recorderSurface =
+            mPreRollRecorder != null
+                ? mPreRollRecorder.getInputSurface()
+                : mMediaRecorder.getSurface();
         surfaces.add(recorderSurface);
         mPreviewBuilder.addTarget(recorderSurface);
+        mRecorderSurface = recorderSurface;
+
+        // Only targeted by video snapshot requests, not the repeating one
+        if (mSnapshotReader != null) surfaces.add(mSnapshotReader.getSurface());
+      }
+      if (mAnalysisReader != null) {
+        surfaces.add(mAnalysisReader.getSurface());
+        mPreviewBuilder.addTarget(mAnalysisReader.getSurface());
       }
 
-      mCameraDevice.createCaptureSession(
-          surfaces,
+      final CameraCaptureSession.StateCallback callback =
           new CameraCaptureSession.StateCallback() {
             @Override
             public void onConfigured(@NonNull CameraCaptureSession cameraCaptureSession) {
@@ -723,6 +1135,7 @@ public class Camera2Fragment extends BaseCameraFragment implements View.OnClickL
                 return;
               }
               mPreviewSession = cameraCaptureSession;
+              if (mPreviewMetrics != null) mPreviewMetrics.reset();
               updatePreview();
             }
 
@@ -730,8 +1143,13 @@ public class Camera2Fragment extends BaseCameraFragment implements View.OnClickL
             public void onConfigureFailed(@NonNull CameraCaptureSession cameraCaptureSession) {
               throwError(new Exception("Camera configuration failed"));
             }
-          },
-          mBackgroundHandler);
+          };
+      if (mHighSpeed && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+        mCameraDevice.createConstrainedHighSpeedCaptureSession(
+            surfaces, callback, mBackgroundHandler);
+      } else {
+        mCameraDevice.createCaptureSession(surfaces, callback, mBackgroundHandler);
+      }
     } catch (CameraAccessException e) {
       e.printStackTrace();
     }
@@ -748,6 +1166,8 @@ public class Camera2Fragment extends BaseCameraFragment implements View.OnClickL
             CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
         // Flash is automatically enabled when necessary.
         setFlashMode(mPreviewBuilder);
+        if (mFpsRange != null)
+          mPreviewBuilder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, mFpsRange);
 
         // Finally, we start displaying the camera preview.
         mPreviewRequest = mPreviewBuilder.build();
@@ -755,15 +1175,42 @@ public class Camera2Fragment extends BaseCameraFragment implements View.OnClickL
       } else {
         setUpCaptureRequestBuilder(mPreviewBuilder);
         mPreviewRequest = mPreviewBuilder.build();
-        mPreviewSession.setRepeatingRequest(mPreviewRequest, null, mBackgroundHandler);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M
+            && mPreviewSession instanceof CameraConstrainedHighSpeedCaptureSession) {
+          // High speed requests are submitted in batches, one frame each per preview frame
+          final CameraConstrainedHighSpeedCaptureSession session =
+              (CameraConstrainedHighSpeedCaptureSession) mPreviewSession;
+          session.setRepeatingBurst(
+              session.createHighSpeedRequestList(mPreviewRequest),
+              mPreviewMetrics != null ? mMetricsCallback : null,
+              mBackgroundHandler);
+        } else {
+          mPreviewSession.setRepeatingRequest(
+              mPreviewRequest,
+              mPreviewMetrics != null ? mMetricsCallback : null,
+              mBackgroundHandler);
+        }
       }
     } catch (CameraAccessException e) {
       e.printStackTrace();
     }
   }
 
+  /** Set on video previews while stats are requested, stills go through mCaptureCallback. */
+  private final CameraCaptureSession.CaptureCallback mMetricsCallback =
+      new CameraCaptureSession.CaptureCallback() {
+        @Override
+        public void onCaptureCompleted(
+            @NonNull CameraCaptureSession session,
+            @NonNull CaptureRequest request,
+            @NonNull TotalCaptureResult result) {
+          if (mPreviewMetrics != null) mPreviewMetrics.onCaptureCompleted(result);
+        }
+      };
+
   private void setUpCaptureRequestBuilder(CaptureRequest.Builder builder) {
     builder.set(CaptureRequest.CONTROL_MODE, CameraMetadata.CONTROL_MODE_AUTO);
+    if (mFpsRange != null) builder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, mFpsRange);
   }
 
   private void configureTransform(int viewWidth, int viewHeight) {
@@ -795,7 +1242,7 @@ public class Camera2Fragment extends BaseCameraFragment implements View.OnClickL
   private boolean setUpMediaRecorder() {
     final Activity activity = getActivity();
     if (null == activity) return false;
-    final BaseCaptureInterface captureInterface = (BaseCaptureInterface) activity;
+    final BaseCaptureInterface captureInterface = mInterface;
     if (mMediaRecorder == null) mMediaRecorder = new MediaRecorder();
 
     boolean canUseAudio = true;
@@ -812,23 +1259,38 @@ public class Camera2Fragment extends BaseCameraFragment implements View.OnClickL
     }
     mMediaRecorder.setVideoSource(MediaRecorder.VideoSource.SURFACE);
 
-    final CamcorderProfile profile = CamcorderProfile.get(0, mInterface.qualityProfile());
-    mMediaRecorder.setOutputFormat(profile.fileFormat);
+    final CamcorderProfile profile = getCamcorderProfile();
+    final int codec =
+        CodecUtil.selectForMediaRecorder(
+            mInterface.videoCodecs(), mVideoSize.getWidth(), mVideoSize.getHeight());
+    mMediaRecorder.setOutputFormat(CodecUtil.getOutputFormat(codec, profile));
+    mInterface.setVideoMimeType(CodecUtil.getContainerMimeType(codec));
     mMediaRecorder.setVideoFrameRate(mInterface.videoFrameRate(profile.videoFrameRate));
     mMediaRecorder.setVideoSize(mVideoSize.getWidth(), mVideoSize.getHeight());
     mMediaRecorder.setVideoEncodingBitRate(mInterface.videoEncodingBitRate(profile.videoBitRate));
-    mMediaRecorder.setVideoEncoder(profile.videoCodec);
+    mMediaRecorder.setVideoEncoder(CodecUtil.getVideoEncoder(codec, profile));
 
     if (canUseAudio && audioEnabled) {
       mMediaRecorder.setAudioEncodingBitRate(mInterface.audioEncodingBitRate(profile.audioBitRate));
       mMediaRecorder.setAudioChannels(profile.audioChannels);
       mMediaRecorder.setAudioSamplingRate(profile.audioSampleRate);
-      mMediaRecorder.setAudioEncoder(profile.audioCodec);
+      mMediaRecorder.setAudioEncoder(CodecUtil.getAudioEncoder(codec, profile));
     }
 
-    Uri uri = Uri.fromFile(getOutputMediaFile());
-    mOutputUri = uri.toString();
-    mMediaRecorder.setOutputFile(uri.getPath());
+    try {
+      closeOutputDescriptor();
+      mOutputDescriptor = openOutputDestination();
+    } catch (IOException e) {
+      throwError(new Exception("Failed to open the output destination: " + e.getMessage(), e));
+      return false;
+    }
+    if (mOutputDescriptor != null) {
+      mMediaRecorder.setOutputFile(mOutputDescriptor.getFileDescriptor());
+    } else {
+      Uri uri = Uri.fromFile(getOutputMediaFile(CodecUtil.getFileExtension(codec)));
+      mOutputUri = uri.toString();
+      mMediaRecorder.setOutputFile(uri.getPath());
+    }
 
     if (captureInterface.maxAllowedFileSize() > 0) {
       mMediaRecorder.setMaxFileSize(captureInterface.maxAllowedFileSize());
@@ -857,6 +1319,87 @@ public class Camera2Fragment extends BaseCameraFragment implements View.OnClickL
     }
   }
 
+  private boolean setUpPreRollRecorder() {
+    final Activity activity = getActivity();
+    if (null == activity) return false;
+    releasePreRollRecorder();
+
+    boolean canUseAudio = true;
+    boolean audioEnabled = !mInterface.audioDisabled();
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M)
+      canUseAudio =
+          ContextCompat.checkSelfPermission(activity, Manifest.permission.RECORD_AUDIO)
+              == PackageManager.PERMISSION_GRANTED;
+    if (!canUseAudio && audioEnabled)
+      Toast.makeText(getActivity(), R.string.mcam_no_audio_access, Toast.LENGTH_LONG).show();
+
+    final CamcorderProfile profile = getCamcorderProfile();
+    final int codec =
+        CodecUtil.selectForMuxer(
+            mInterface.videoCodecs(), mVideoSize.getWidth(), mVideoSize.getHeight());
+    mInterface.setVideoMimeType(CodecUtil.getContainerMimeType(codec));
+    try {
+      mPreRollRecorder =
+          new PreRollRecorder(
+              CodecUtil.getMimeType(codec),
+              mVideoSize.getWidth(),
+              mVideoSize.getHeight(),
+              mInterface.videoFrameRate(profile.videoFrameRate),
+              mInterface.videoEncodingBitRate(profile.videoBitRate),
+              canUseAudio && audioEnabled ? profile.audioSampleRate : 0,
+              profile.audioChannels,
+              mInterface.audioEncodingBitRate(profile.audioBitRate),
+              mInterface.preRollMillis(),
+              mRealtimeTimestamps);
+      mPreRollRecorder.start();
+      return true;
+    } catch (Throwable e) {
+      releasePreRollRecorder();
+      throwError(new Exception("Failed to prepare the pre-roll encoder: " + e.getMessage(), e));
+      return false;
+    }
+  }
+
+  /** Profile of the camera in use, rather than always camera 0's. */
+  private CamcorderProfile getCamcorderProfile() {
+    int cameraId = 0;
+    try {
+      // Camera2 ids of built-in cameras match the legacy ids CamcorderProfile takes
+      cameraId = Integer.parseInt((String) mInterface.getCurrentCameraId());
+    } catch (NumberFormatException | NullPointerException e) {
+      LOG(Camera2Fragment.class, "Falling back to camera 0's profile: " + e.getMessage());
+    }
+    if (!CamcorderProfile.hasProfile(cameraId, mInterface.qualityProfile())) cameraId = 0;
+    return CamcorderProfile.get(cameraId, mInterface.qualityProfile());
+  }
+
+  private void startPreRollMuxing() throws IOException {
+    closeOutputDescriptor();
+    mOutputDescriptor = openOutputDestination();
+    if (mOutputDescriptor == null) mOutputUri = Uri.fromFile(getOutputMediaFile()).toString();
+    // Below API 26 the muxer only takes a path, which a content Uri doesn't have
+    mPreRollRecorder.startMuxing(
+        mOutputDescriptor != null ? mOutputDescriptor.getFileDescriptor() : null,
+        mOutputDescriptor != null
+            ? "/proc/self/fd/" + mOutputDescriptor.getFd()
+            : Uri.parse(mOutputUri).getPath(),
+        mDisplayOrientation);
+  }
+
+  private void releasePreRollRecorder() {
+    releasePreRollRecorder(null);
+  }
+
+  /** @param then Run on the main thread once the output is complete, right away without one */
+  private void releasePreRollRecorder(@Nullable Runnable then) {
+    if (mPreRollRecorder != null) {
+      mPreRollRecorder.release(then);
+      mPreRollRecorder = null;
+    } else if (then != null) {
+      then.run();
+    }
+  }
+
   @Override
   public boolean startRecordingVideo() {
     super.startRecordingVideo();
@@ -872,7 +1415,9 @@ public class Camera2Fragment extends BaseCameraFragment implements View.OnClickL
       }
 
       // Start recording
-      mMediaRecorder.start();
+      if (mPreRollRecorder != null) startPreRollMuxing();
+      else mMediaRecorder.start();
+      CameraMetrics.count(CameraMetrics.RECORDINGS);
 
       mButtonVideo.setEnabled(false);
       mButtonVideo.postDelayed(
@@ -895,15 +1440,23 @@ public class Camera2Fragment extends BaseCameraFragment implements View.OnClickL
   }
 
   @Override
-  public void stopRecordingVideo(boolean reachedZero) {
+  public void stopRecordingVideo(final boolean reachedZero) {
     super.stopRecordingVideo(reachedZero);
 
     if (mInterface.hasLengthLimit()
         && mInterface.shouldAutoSubmit()
-        && (mInterface.getRecordingStart() < 0 || mMediaRecorder == null)) {
+        && (mInterface.getRecordingStart() < 0
+            || (mMediaRecorder == null && mPreRollRecorder == null))) {
       stopCounter();
       releaseRecorder();
-      mInterface.onShowPreview(mOutputUri, reachedZero);
+      final String outputUri = mOutputUri;
+      releasePreRollRecorder(
+          new Runnable() {
+            @Override
+            public void run() {
+              mInterface.onShowPreview(outputUri, reachedZero);
+            }
+          });
       return;
     }
 
@@ -912,12 +1465,60 @@ public class Camera2Fragment extends BaseCameraFragment implements View.OnClickL
     releaseRecorder();
     setImageRes(mButtonVideo, mInterface.iconRecord());
     if (!CameraUtil.isChromium()) mButtonFacing.setVisibility(View.VISIBLE);
-    if (mInterface.getRecordingStart() > -1 && getActivity() != null)
-      mInterface.onShowPreview(mOutputUri, reachedZero);
+    if (mInterface.getRecordingStart() > -1) {
+      // The pre-roll output is only complete once its recorder was released
+      final String outputUri = mOutputUri;
+      releasePreRollRecorder(
+          new Runnable() {
+            @Override
+            public void run() {
+              if (getActivity() != null) mInterface.onShowPreview(outputUri, reachedZero);
+            }
+          });
+    } else {
+      releasePreRollRecorder();
+    }
 
     stopCounter();
   }
 
+  private void saveStillshot(byte[] bytes) {
+    FileOutputStream output = null;
+    try {
+      final ParcelFileDescriptor destination = openOutputDestination();
+      if (destination != null) {
+        output = new ParcelFileDescriptor.AutoCloseOutputStream(destination);
+      } else {
+        final File outputPic = getOutputPictureFile();
+        mOutputUri = Uri.fromFile(outputPic).toString();
+        output = new FileOutputStream(outputPic);
+      }
+      final long writeStart = CameraMetrics.start();
+      output.write(bytes);
+      CameraMetrics.written(writeStart, bytes.length);
+      if (mInterface.checksumChunkSize() > 0) {
+        // Hashed from the same buffer, the file isn't read back
+        final ChunkedDigest digest = new ChunkedDigest(mInterface.checksumChunkSize());
+        digest.update(bytes, 0, bytes.length);
+        mInterface.setCaptureManifest(digest.finish());
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    } finally {
+      if (null != output) {
+        try {
+          output.close();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    }
+    Log.d("stillshot", "picture saved to disk - jpeg, size: " + bytes.length);
+    CameraMetrics.count(CameraMetrics.CAPTURES);
+    CameraMetrics.sampleSince(CameraMetrics.CAPTURE_LATENCY, mCaptureStart);
+    mInterface.onShowStillshot(mOutputUri);
+  }
+
   @Override
   /**
    * @link http://pierrchen.blogspot.si/2015/01/android-camera2-api-explained.html
@@ -925,9 +1526,33 @@ public class Camera2Fragment extends BaseCameraFragment implements View.OnClickL
    *     https://github.com/googlesamples/android-Camera2Basic/blob/master/Application/src/main/java/com/example/android/camera2basic/Camera2BasicFragment.java
    */
   public void takeStillshot() {
+    mCaptureStart = CameraMetrics.start();
     lockFocus();
   }
 
+  @Override
+  protected boolean canTakeVideoSnapshot() {
+    return mSnapshotReader != null;
+  }
+
+  @Override
+  public void takeVideoSnapshot() {
+    if (null == mCameraDevice || null == mPreviewSession || null == mSnapshotReader) return;
+    try {
+      // Also targets the recorder and preview, so no video frame is dropped for the snapshot
+      final CaptureRequest.Builder builder =
+          mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_VIDEO_SNAPSHOT);
+      builder.addTarget(mPreviewSurface);
+      builder.addTarget(mRecorderSurface);
+      builder.addTarget(mSnapshotReader.getSurface());
+      setUpCaptureRequestBuilder(builder);
+      builder.set(CaptureRequest.JPEG_ORIENTATION, mDisplayOrientation);
+      mPreviewSession.capture(builder.build(), null, mBackgroundHandler);
+    } catch (CameraAccessException | IllegalStateException e) {
+      e.printStackTrace();
+    }
+  }
+
   private void lockFocus() {
     try {
       if (mAfAvailable) {
@@ -1005,7 +1630,8 @@ public class Camera2Fragment extends BaseCameraFragment implements View.OnClickL
         displayRotation += 2 % 3;
       }
 
-      captureBuilder.set(CaptureRequest.JPEG_ORIENTATION, ORIENTATIONS.get(displayRotation));
+      mStillOrientation = ORIENTATIONS.get(displayRotation);
+      captureBuilder.set(CaptureRequest.JPEG_ORIENTATION, mStillOrientation);
 
       CameraCaptureSession.CaptureCallback CaptureCallback =
           new CameraCaptureSession.CaptureCallback() {
@@ -1021,6 +1647,25 @@ public class Camera2Fragment extends BaseCameraFragment implements View.OnClickL
           };
 
       mPreviewSession.stopRepeating();
+      if (isStackingStills()) {
+        // Exposure is locked for the whole burst, so the frames only differ by noise and motion
+        captureBuilder.set(CaptureRequest.CONTROL_AE_LOCK, true);
+        final List<CaptureRequest> burst = new ArrayList<>(NIGHT_FRAME_COUNT);
+        for (int i = 0; i < NIGHT_FRAME_COUNT; i++) burst.add(captureBuilder.build());
+        mYuvEncoder.beginStack(NIGHT_FRAME_COUNT);
+        mPreviewSession.captureBurst(
+            burst,
+            new CameraCaptureSession.CaptureCallback() {
+              @Override
+              public void onCaptureSequenceCompleted(
+                  @NonNull CameraCaptureSession session, int sequenceId, long frameNumber) {
+                Log.d("stillshot", "onCaptureSequenceCompleted");
+                unlockFocus();
+              }
+            },
+            null);
+        return;
+      }
       mPreviewSession.capture(captureBuilder.build(), CaptureCallback, null);
     } catch (CameraAccessException e) {
       e.printStackTrace();
@@ -1050,7 +1695,8 @@ public class Camera2Fragment extends BaseCameraFragment implements View.OnClickL
 
     int aeMode;
     int flashMode;
-    switch (mInterface.getFlashMode()) {
+    // Flash would light the frames of a night burst unevenly
+    switch (isStackingStills() ? FLASH_MODE_OFF : mInterface.getFlashMode()) {
       case FLASH_MODE_AUTO:
         aeMode = CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH;
         flashMode = CameraMetadata.FLASH_MODE_SINGLE;
@@ -1070,6 +1716,10 @@ public class Camera2Fragment extends BaseCameraFragment implements View.OnClickL
     requestBuilder.set(CaptureRequest.FLASH_MODE, flashMode);
   }
 
+  private boolean isStackingStills() {
+    return mInterface.nightMode() && mYuvEncoder != null;
+  }
+
   static class CompareSizesByArea implements Comparator<Size> {
     @Override
     public int compare(Size lhs, Size rhs) {
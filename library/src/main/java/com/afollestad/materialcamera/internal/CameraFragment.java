@@ -11,6 +11,7 @@ import android.Manifest;
 import android.annotation.TargetApi;
 import android.app.Activity;
 import android.content.pm.PackageManager;
+import android.graphics.ImageFormat;
 import android.graphics.Point;
 import android.hardware.Camera;
 import android.media.CamcorderProfile;
@@ -18,18 +19,25 @@ import android.media.MediaRecorder;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
 import android.support.v4.content.ContextCompat;
 import android.util.Log;
 import android.view.View;
 import android.widget.RelativeLayout;
 import android.widget.Toast;
+import com.afollestad.materialcamera.CameraMetrics;
+import com.afollestad.materialcamera.FrameAnalyzer;
 import com.afollestad.materialcamera.ICallback;
 import com.afollestad.materialcamera.R;
 import com.afollestad.materialcamera.util.CameraUtil;
+import com.afollestad.materialcamera.util.ChunkedDigest;
+import com.afollestad.materialcamera.util.CodecUtil;
 import com.afollestad.materialcamera.util.Degrees;
+import com.afollestad.materialcamera.util.DeviceQuirks;
 import com.afollestad.materialcamera.util.ImageUtil;
-import com.afollestad.materialcamera.util.ManufacturerUtil;
+import com.afollestad.materialcamera.util.SizeSelector;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -48,6 +56,7 @@ public class CameraFragment extends BaseCameraFragment implements View.OnClickLi
   private Point mWindowSize;
   private int mDisplayOrientation;
   private boolean mIsAutoFocusing;
+  private FrameAnalysisPipeline mAnalysisPipeline;
   List<Integer> mFlashModes;
 
   public static CameraFragment newInstance() {
@@ -57,14 +66,16 @@ public class CameraFragment extends BaseCameraFragment implements View.OnClickLi
   }
 
   private static Camera.Size chooseVideoSize(BaseCaptureInterface ci, List<Camera.Size> choices) {
-    Camera.Size backupSize = null;
-    for (Camera.Size size : choices) {
-      if (size.height <= ci.videoPreferredHeight()) {
-        if (size.width == size.height * ci.videoPreferredAspect()) return size;
-        if (ci.videoPreferredHeight() >= size.height) backupSize = size;
-      }
+    final int[] widths = new int[choices.size()];
+    final int[] heights = new int[choices.size()];
+    for (int i = 0; i < widths.length; i++) {
+      widths[i] = choices.get(i).width;
+      heights[i] = choices.get(i).height;
     }
-    if (backupSize != null) return backupSize;
+    final int index =
+        SizeSelector.chooseVideoSize(
+            widths, heights, ci.videoPreferredHeight(), ci.videoPreferredAspect());
+    if (index != -1) return choices.get(index);
     LOG(CameraFragment.class, "Couldn't find any suitable video size");
     return choices.get(choices.size() - 1);
   }
@@ -181,7 +192,7 @@ public class CameraFragment extends BaseCameraFragment implements View.OnClickLi
           break;
         case CAMERA_POSITION_UNKNOWN:
         default:
-          if (getArguments().getBoolean(CameraIntentKey.DEFAULT_TO_FRONT_FACING, false)) {
+          if (mInterface.getConfig().defaultToFrontFacing()) {
             // Check front facing first
             if (mInterface.getFrontCamera() != null
                 && (Integer) mInterface.getFrontCamera() != -1) {
@@ -212,26 +223,29 @@ public class CameraFragment extends BaseCameraFragment implements View.OnClickLi
       if (mWindowSize == null) mWindowSize = new Point();
       activity.getWindowManager().getDefaultDisplay().getSize(mWindowSize);
       final int toOpen = getCurrentCameraId();
+      final long openStart = CameraMetrics.start();
       mCamera = Camera.open(toOpen == -1 ? 0 : toOpen);
+      CameraMetrics.count(CameraMetrics.OPENS);
+      CameraMetrics.sampleSince(CameraMetrics.OPEN_LATENCY, openStart);
       Camera.Parameters parameters = mCamera.getParameters();
       List<Camera.Size> videoSizes = parameters.getSupportedVideoSizes();
       if (videoSizes == null || videoSizes.size() == 0)
         videoSizes = parameters.getSupportedPreviewSizes();
-      mVideoSize = chooseVideoSize((BaseCaptureActivity) activity, videoSizes);
+      mVideoSize = chooseVideoSize(mInterface, videoSizes);
       Camera.Size previewSize =
           chooseOptimalSize(
               parameters.getSupportedPreviewSizes(), mWindowSize.x, mWindowSize.y, mVideoSize);
 
-      if (ManufacturerUtil.isSamsungGalaxyS3()) {
-        parameters.setPreviewSize(
-            ManufacturerUtil.SAMSUNG_S3_PREVIEW_WIDTH, ManufacturerUtil.SAMSUNG_S3_PREVIEW_HEIGHT);
+      final DeviceQuirks quirks = DeviceQuirks.get(activity);
+      if (quirks.getPreviewWidth() > 0) {
+        parameters.setPreviewSize(quirks.getPreviewWidth(), quirks.getPreviewHeight());
       } else {
         parameters.setPreviewSize(previewSize.width, previewSize.height);
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) parameters.setRecordingHint(true);
       }
 
       Camera.Size mStillShotSize =
-          getHighestSupportedStillShotSize(parameters.getSupportedPictureSizes());
+          getHighestSupportedStillShotSize(parameters.getSupportedPictureSizes(), quirks);
       parameters.setPictureSize(mStillShotSize.width, mStillShotSize.height);
 
       setCameraDisplayOrientation(parameters);
@@ -244,6 +258,7 @@ public class CameraFragment extends BaseCameraFragment implements View.OnClickLi
       onFlashModesLoaded();
 
       createPreview();
+      setUpFrameAnalysis();
       mMediaRecorder = new MediaRecorder();
 
       onCameraOpened();
@@ -255,7 +270,8 @@ public class CameraFragment extends BaseCameraFragment implements View.OnClickLi
     }
   }
 
-  private Camera.Size getHighestSupportedStillShotSize(List<Camera.Size> supportedPictureSizes) {
+  private Camera.Size getHighestSupportedStillShotSize(
+      List<Camera.Size> supportedPictureSizes, DeviceQuirks quirks) {
     Collections.sort(
         supportedPictureSizes,
         new Comparator<Camera.Size>() {
@@ -266,6 +282,12 @@ public class CameraFragment extends BaseCameraFragment implements View.OnClickLi
           }
         });
     Camera.Size maxSize = supportedPictureSizes.get(0);
+    for (Camera.Size size : supportedPictureSizes) {
+      if (quirks.allowsStillSize(size.width, size.height)) {
+        maxSize = size;
+        break;
+      }
+    }
     Log.d("CameraFragment", "Using resolution: " + maxSize.width + "x" + maxSize.height);
     return maxSize;
   }
@@ -315,8 +337,57 @@ public class CameraFragment extends BaseCameraFragment implements View.OnClickLi
     mPreviewView.setAspectRatio(mWindowSize.x, mWindowSize.y);
   }
 
+  /**
+   * Feeds preview frames to the frame analyzer, if there is one. Camera1 has no separate analysis
+   * stream, so frames come at the preview size.
+   */
+  private void setUpFrameAnalysis() {
+    releaseFrameAnalysis();
+    final FrameAnalyzer analyzer = mInterface.frameAnalyzer();
+    if (analyzer == null) return;
+    final Camera.Parameters parameters = mCamera.getParameters();
+    if (parameters.getPreviewFormat() != ImageFormat.NV21) {
+      LOG(CameraFragment.class, "Frame analysis needs NV21 preview frames");
+      return;
+    }
+    final Camera.Size size = parameters.getPreviewSize();
+    final Camera camera = mCamera;
+    camera.setPreviewCallbackWithBuffer(
+        new Camera.PreviewCallback() {
+          @Override
+          public void onPreviewFrame(byte[] data, Camera camera) {
+            if (mAnalysisPipeline != null) mAnalysisPipeline.submit(data);
+          }
+        });
+    // The camera only delivers frames into the buffers queued with it, and gets each one back
+    // once it was analyzed or replaced by a newer frame
+    final FrameAnalysisPipeline pipeline =
+        new FrameAnalysisPipeline(
+            analyzer,
+            size.width,
+            size.height,
+            mDisplayOrientation,
+            new FrameAnalysisPipeline.BufferOwner() {
+              @Override
+              public void onBufferReleased(byte[] buffer) {
+                camera.addCallbackBuffer(buffer);
+              }
+            });
+    mAnalysisPipeline = pipeline;
+    pipeline.start();
+  }
+
+  private void releaseFrameAnalysis() {
+    if (mAnalysisPipeline != null) {
+      mAnalysisPipeline.stop();
+      mAnalysisPipeline = null;
+    }
+    if (mCamera != null) mCamera.setPreviewCallbackWithBuffer(null);
+  }
+
   @Override
   public void closeCamera() {
+    releaseFrameAnalysis();
     try {
       if (mCamera != null) {
         try {
@@ -335,7 +406,7 @@ public class CameraFragment extends BaseCameraFragment implements View.OnClickLi
     try {
       final Activity activity = getActivity();
       if (null == activity) return false;
-      final BaseCaptureInterface captureInterface = (BaseCaptureInterface) activity;
+      final BaseCaptureInterface captureInterface = mInterface;
 
       setCameraDisplayOrientation(mCamera.getParameters());
       mMediaRecorder = new MediaRecorder();
@@ -359,23 +430,33 @@ public class CameraFragment extends BaseCameraFragment implements View.OnClickLi
 
       final CamcorderProfile profile =
           CamcorderProfile.get(getCurrentCameraId(), mInterface.qualityProfile());
-      mMediaRecorder.setOutputFormat(profile.fileFormat);
+      final int codec =
+          CodecUtil.selectForMediaRecorder(
+              mInterface.videoCodecs(), mVideoSize.width, mVideoSize.height);
+      mMediaRecorder.setOutputFormat(CodecUtil.getOutputFormat(codec, profile));
+      mInterface.setVideoMimeType(CodecUtil.getContainerMimeType(codec));
       mMediaRecorder.setVideoFrameRate(mInterface.videoFrameRate(profile.videoFrameRate));
       mMediaRecorder.setVideoSize(mVideoSize.width, mVideoSize.height);
       mMediaRecorder.setVideoEncodingBitRate(mInterface.videoEncodingBitRate(profile.videoBitRate));
-      mMediaRecorder.setVideoEncoder(profile.videoCodec);
+      mMediaRecorder.setVideoEncoder(CodecUtil.getVideoEncoder(codec, profile));
 
       if (canUseAudio && audioEnabled) {
         mMediaRecorder.setAudioEncodingBitRate(
             mInterface.audioEncodingBitRate(profile.audioBitRate));
         mMediaRecorder.setAudioChannels(profile.audioChannels);
         mMediaRecorder.setAudioSamplingRate(profile.audioSampleRate);
-        mMediaRecorder.setAudioEncoder(profile.audioCodec);
+        mMediaRecorder.setAudioEncoder(CodecUtil.getAudioEncoder(codec, profile));
       }
 
-      Uri uri = Uri.fromFile(getOutputMediaFile());
-      mOutputUri = uri.toString();
-      mMediaRecorder.setOutputFile(uri.getPath());
+      closeOutputDescriptor();
+      mOutputDescriptor = openOutputDestination();
+      if (mOutputDescriptor != null) {
+        mMediaRecorder.setOutputFile(mOutputDescriptor.getFileDescriptor());
+      } else {
+        Uri uri = Uri.fromFile(getOutputMediaFile(CodecUtil.getFileExtension(codec)));
+        mOutputUri = uri.toString();
+        mMediaRecorder.setOutputFile(uri.getPath());
+      }
 
       if (captureInterface.maxAllowedFileSize() > 0) {
         mMediaRecorder.setMaxFileSize(captureInterface.maxAllowedFileSize());
@@ -433,6 +514,7 @@ public class CameraFragment extends BaseCameraFragment implements View.OnClickLi
 
         // Start recording
         mMediaRecorder.start();
+        CameraMetrics.count(CameraMetrics.RECORDINGS);
 
         mButtonVideo.setEnabled(false);
         mButtonVideo.postDelayed(
@@ -525,41 +607,60 @@ public class CameraFragment extends BaseCameraFragment implements View.OnClickLi
 
   @Override
   public void takeStillshot() {
+    final long captureStart = CameraMetrics.start();
     Camera.ShutterCallback shutterCallback =
         new Camera.ShutterCallback() {
           public void onShutter() {
-            //Log.d(TAG, "onShutter'd");
+            // Log.d(TAG, "onShutter'd");
           }
         };
     Camera.PictureCallback rawCallback =
         new Camera.PictureCallback() {
           public void onPictureTaken(byte[] data, Camera camera) {
-            //Log.d(TAG, "onPictureTaken - raw. Raw is null: " + (data == null));
+            // Log.d(TAG, "onPictureTaken - raw. Raw is null: " + (data == null));
           }
         };
     Camera.PictureCallback jpegCallback =
         new Camera.PictureCallback() {
           public void onPictureTaken(final byte[] data, Camera camera) {
-            //Log.d(TAG, "onPictureTaken - jpeg, size: " + data.length);
-            final File outputPic = getOutputPictureFile();
-            // lets save the image to disk
-            ImageUtil.saveToDiskAsync(
-                data,
-                outputPic,
+            // Log.d(TAG, "onPictureTaken - jpeg, size: " + data.length);
+            final ChunkedDigest digest =
+                mInterface.checksumChunkSize() > 0
+                    ? new ChunkedDigest(mInterface.checksumChunkSize())
+                    : null;
+            final ICallback callback =
                 new ICallback() {
                   @Override
                   public void done(Exception e) {
                     if (e == null) {
                       Log.d("CameraFragment", "Picture saved to disk - jpeg, size: " + data.length);
-                      mOutputUri = Uri.fromFile(outputPic).toString();
+                      if (digest != null) mInterface.setCaptureManifest(digest.finish());
+                      CameraMetrics.count(CameraMetrics.CAPTURES);
+                      CameraMetrics.sampleSince(CameraMetrics.CAPTURE_LATENCY, captureStart);
+                      // Taking a picture stops the preview, the next still of a batch needs it
+                      if (isMultiCapture() && mCamera != null) mCamera.startPreview();
                       mInterface.onShowStillshot(mOutputUri);
-                      //mCamera.startPreview();
                       mButtonStillshot.setEnabled(true);
                     } else {
                       throwError(e);
                     }
                   }
-                });
+                };
+            final ParcelFileDescriptor destination;
+            try {
+              destination = openOutputDestination();
+            } catch (IOException e) {
+              throwError(e);
+              return;
+            }
+            if (destination != null) {
+              ImageUtil.saveToDescriptorAsync(data, destination, digest, callback);
+            } else {
+              // lets save the image to disk
+              final File outputPic = getOutputPictureFile();
+              mOutputUri = Uri.fromFile(outputPic).toString();
+              ImageUtil.saveToDiskAsync(data, outputPic, digest, callback);
+            }
           }
         };
 
@@ -572,6 +673,39 @@ public class CameraFragment extends BaseCameraFragment implements View.OnClickLi
     mCamera.takePicture(shutterCallback, rawCallback, jpegCallback);
   }
 
+  @Override
+  protected boolean canTakeVideoSnapshot() {
+    return mCamera != null && mCamera.getParameters().isVideoSnapshotSupported();
+  }
+
+  @Override
+  public void takeVideoSnapshot() {
+    if (!canTakeVideoSnapshot()) return;
+    mButtonSnapshot.setEnabled(false);
+    mCamera.takePicture(
+        null,
+        null,
+        new Camera.PictureCallback() {
+          public void onPictureTaken(final byte[] data, Camera camera) {
+            final File outputPic = getOutputPictureFile();
+            ImageUtil.saveToDiskAsync(
+                data,
+                outputPic,
+                new ICallback() {
+                  @Override
+                  public void done(Exception e) {
+                    mButtonSnapshot.setEnabled(true);
+                    if (e != null) {
+                      e.printStackTrace();
+                    } else if (mInterface != null) {
+                      mInterface.onVideoSnapshot(Uri.fromFile(outputPic).toString());
+                    }
+                  }
+                });
+          }
+        });
+  }
+
   static class CompareSizesByArea implements Comparator<Camera.Size> {
     @Override
     public int compare(Camera.Size lhs, Camera.Size rhs) {
@@ -0,0 +1,694 @@
+package com.afollestad.materialcamera.internal;
+
+import android.media.CamcorderProfile;
+import android.net.Uri;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.support.annotation.DrawableRes;
+import android.support.annotation.Nullable;
+import android.support.annotation.StringRes;
+import com.afollestad.materialcamera.R;
+
+/**
+ * Everything {@link com.afollestad.materialcamera.MaterialCamera} configures, passed to the capture
+ * activity as a single extra and read from there once. Unset values hold their defaults, or -1
+ * where the camera picks one.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public final class CaptureConfig implements Parcelable {
+
+  private static final int FLAG_ALLOW_RETRY = 1;
+  private static final int FLAG_AUTO_SUBMIT = 1 << 1;
+  private static final int FLAG_SHOW_PORTRAIT_WARNING = 1 << 2;
+  private static final int FLAG_ALLOW_CHANGE_CAMERA = 1 << 3;
+  private static final int FLAG_DEFAULT_TO_FRONT_FACING = 1 << 4;
+  private static final int FLAG_COUNTDOWN_IMMEDIATELY = 1 << 5;
+  private static final int FLAG_RETRY_EXITS = 1 << 6;
+  private static final int FLAG_RESTART_TIMER_ON_RETRY = 1 << 7;
+  private static final int FLAG_CONTINUE_TIMER_IN_PLAYBACK = 1 << 8;
+  private static final int FLAG_STILL_SHOT = 1 << 9;
+  private static final int FLAG_AUDIO_DISABLED = 1 << 10;
+  private static final int FLAG_VIDEO_SNAPSHOTS = 1 << 11;
+  private static final int FLAG_PARALLEL_JPEG = 1 << 12;
+  private static final int FLAG_NIGHT_MODE = 1 << 13;
+  private static final int FLAG_SHOW_PREVIEW_STATS = 1 << 14;
+
+  private final int mFlags;
+  private final long mLengthLimit;
+  private final String mSaveDir;
+  private final Uri mOutputDestination;
+  private final int mOutputDescriptor;
+  private final int mPrimaryColor;
+  private final long mAutoRecordDelay;
+  private final long mPreRoll;
+  private final int mTranscodeShortSide;
+  private final int mTranscodeBitRate;
+  private final int mChecksumChunkSize;
+  private final int mMultiCaptureLimit;
+  private final int mFrameAnalyzer;
+  private final int mPreviewStatsListener;
+
+  private final int mVideoEncodingBitRate;
+  private final int mAudioEncodingBitRate;
+  private final int mVideoFrameRate;
+  private final int mVideoPreferredHeight;
+  private final float mVideoPreferredAspect;
+  private final long mMaxAllowedFileSize;
+  private final int mQualityProfile;
+  private final int[] mVideoCodecs;
+
+  private final int mIconRecord;
+  private final int mIconStop;
+  private final int mIconFrontCamera;
+  private final int mIconRearCamera;
+  private final int mIconPlay;
+  private final int mIconPause;
+  private final int mIconRestart;
+  private final int mIconStillshot;
+  private final int mIconFlashAuto;
+  private final int mIconFlashOn;
+  private final int mIconFlashOff;
+
+  private final int mLabelRetry;
+  private final int mLabelConfirm;
+
+  private CaptureConfig(Builder builder) {
+    mFlags = builder.mFlags;
+    mLengthLimit = builder.mLengthLimit;
+    mSaveDir = builder.mSaveDir;
+    mOutputDestination = builder.mOutputDestination;
+    mOutputDescriptor = builder.mOutputDescriptor;
+    mPrimaryColor = builder.mPrimaryColor;
+    mAutoRecordDelay = builder.mAutoRecordDelay;
+    mPreRoll = builder.mPreRoll;
+    mTranscodeShortSide = builder.mTranscodeShortSide;
+    mTranscodeBitRate = builder.mTranscodeBitRate;
+    mChecksumChunkSize = builder.mChecksumChunkSize;
+    mMultiCaptureLimit = builder.mMultiCaptureLimit;
+    mFrameAnalyzer = builder.mFrameAnalyzer;
+    mPreviewStatsListener = builder.mPreviewStatsListener;
+    mVideoEncodingBitRate = builder.mVideoEncodingBitRate;
+    mAudioEncodingBitRate = builder.mAudioEncodingBitRate;
+    mVideoFrameRate = builder.mVideoFrameRate;
+    mVideoPreferredHeight = builder.mVideoPreferredHeight;
+    mVideoPreferredAspect = builder.mVideoPreferredAspect;
+    mMaxAllowedFileSize = builder.mMaxAllowedFileSize;
+    mQualityProfile = builder.mQualityProfile;
+    mVideoCodecs = builder.mVideoCodecs != null ? builder.mVideoCodecs.clone() : null;
+    mIconRecord = builder.mIconRecord;
+    mIconStop = builder.mIconStop;
+    mIconFrontCamera = builder.mIconFrontCamera;
+    mIconRearCamera = builder.mIconRearCamera;
+    mIconPlay = builder.mIconPlay;
+    mIconPause = builder.mIconPause;
+    mIconRestart = builder.mIconRestart;
+    mIconStillshot = builder.mIconStillshot;
+    mIconFlashAuto = builder.mIconFlashAuto;
+    mIconFlashOn = builder.mIconFlashOn;
+    mIconFlashOff = builder.mIconFlashOff;
+    mLabelRetry = builder.mLabelRetry;
+    mLabelConfirm = builder.mLabelConfirm;
+  }
+
+  private CaptureConfig(Parcel in) {
+    mFlags = in.readInt();
+    mLengthLimit = in.readLong();
+    mSaveDir = in.readString();
+    mOutputDestination = in.readParcelable(Uri.class.getClassLoader());
+    mOutputDescriptor = in.readInt();
+    mPrimaryColor = in.readInt();
+    mAutoRecordDelay = in.readLong();
+    mPreRoll = in.readLong();
+    mTranscodeShortSide = in.readInt();
+    mTranscodeBitRate = in.readInt();
+    mChecksumChunkSize = in.readInt();
+    mMultiCaptureLimit = in.readInt();
+    mFrameAnalyzer = in.readInt();
+    mPreviewStatsListener = in.readInt();
+    mVideoEncodingBitRate = in.readInt();
+    mAudioEncodingBitRate = in.readInt();
+    mVideoFrameRate = in.readInt();
+    mVideoPreferredHeight = in.readInt();
+    mVideoPreferredAspect = in.readFloat();
+    mMaxAllowedFileSize = in.readLong();
+    mQualityProfile = in.readInt();
+    mVideoCodecs = in.createIntArray();
+    mIconRecord = in.readInt();
+    mIconStop = in.readInt();
+    mIconFrontCamera = in.readInt();
+    mIconRearCamera = in.readInt();
+    mIconPlay = in.readInt();
+    mIconPause = in.readInt();
+    mIconRestart = in.readInt();
+    mIconStillshot = in.readInt();
+    mIconFlashAuto = in.readInt();
+    mIconFlashOn = in.readInt();
+    mIconFlashOff = in.readInt();
+    mLabelRetry = in.readInt();
+    mLabelConfirm = in.readInt();
+  }
+
+  @Override
+  public void writeToParcel(Parcel dest, int flags) {
+    dest.writeInt(mFlags);
+    dest.writeLong(mLengthLimit);
+    dest.writeString(mSaveDir);
+    dest.writeParcelable(mOutputDestination, flags);
+    dest.writeInt(mOutputDescriptor);
+    dest.writeInt(mPrimaryColor);
+    dest.writeLong(mAutoRecordDelay);
+    dest.writeLong(mPreRoll);
+    dest.writeInt(mTranscodeShortSide);
+    dest.writeInt(mTranscodeBitRate);
+    dest.writeInt(mChecksumChunkSize);
+    dest.writeInt(mMultiCaptureLimit);
+    dest.writeInt(mFrameAnalyzer);
+    dest.writeInt(mPreviewStatsListener);
+    dest.writeInt(mVideoEncodingBitRate);
+    dest.writeInt(mAudioEncodingBitRate);
+    dest.writeInt(mVideoFrameRate);
+    dest.writeInt(mVideoPreferredHeight);
+    dest.writeFloat(mVideoPreferredAspect);
+    dest.writeLong(mMaxAllowedFileSize);
+    dest.writeInt(mQualityProfile);
+    dest.writeIntArray(mVideoCodecs);
+    dest.writeInt(mIconRecord);
+    dest.writeInt(mIconStop);
+    dest.writeInt(mIconFrontCamera);
+    dest.writeInt(mIconRearCamera);
+    dest.writeInt(mIconPlay);
+    dest.writeInt(mIconPause);
+    dest.writeInt(mIconRestart);
+    dest.writeInt(mIconStillshot);
+    dest.writeInt(mIconFlashAuto);
+    dest.writeInt(mIconFlashOn);
+    dest.writeInt(mIconFlashOff);
+    dest.writeInt(mLabelRetry);
+    dest.writeInt(mLabelConfirm);
+  }
+
+  @Override
+  public int describeContents() {
+    return 0;
+  }
+
+  public static final Creator<CaptureConfig> CREATOR =
+      new Creator<CaptureConfig>() {
+        @Override
+        public CaptureConfig createFromParcel(Parcel in) {
+          return new CaptureConfig(in);
+        }
+
+        @Override
+        public CaptureConfig[] newArray(int size) {
+          return new CaptureConfig[size];
+        }
+      };
+
+  private boolean hasFlag(int flag) {
+    return (mFlags & flag) != 0;
+  }
+
+  public long getLengthLimit() {
+    return mLengthLimit;
+  }
+
+  public boolean allowRetry() {
+    return hasFlag(FLAG_ALLOW_RETRY);
+  }
+
+  public boolean autoSubmit() {
+    return hasFlag(FLAG_AUTO_SUBMIT);
+  }
+
+  @Nullable
+  public String getSaveDir() {
+    return mSaveDir;
+  }
+
+  @Nullable
+  public Uri getOutputDestination() {
+    return mOutputDestination;
+  }
+
+  /** @return the {@link DescriptorRegistry} token of the output descriptor, -1 if there is none */
+  public int getOutputDescriptor() {
+    return mOutputDescriptor;
+  }
+
+  public int getPrimaryColor() {
+    return mPrimaryColor;
+  }
+
+  public boolean showPortraitWarning() {
+    return hasFlag(FLAG_SHOW_PORTRAIT_WARNING);
+  }
+
+  public boolean allowChangeCamera() {
+    return hasFlag(FLAG_ALLOW_CHANGE_CAMERA);
+  }
+
+  public boolean defaultToFrontFacing() {
+    return hasFlag(FLAG_DEFAULT_TO_FRONT_FACING);
+  }
+
+  public boolean countdownImmediately() {
+    return hasFlag(FLAG_COUNTDOWN_IMMEDIATELY);
+  }
+
+  public boolean retryExits() {
+    return hasFlag(FLAG_RETRY_EXITS);
+  }
+
+  public boolean restartTimerOnRetry() {
+    return hasFlag(FLAG_RESTART_TIMER_ON_RETRY);
+  }
+
+  public boolean continueTimerInPlayback() {
+    return hasFlag(FLAG_CONTINUE_TIMER_IN_PLAYBACK);
+  }
+
+  public boolean stillShot() {
+    return hasFlag(FLAG_STILL_SHOT);
+  }
+
+  public boolean audioDisabled() {
+    return hasFlag(FLAG_AUDIO_DISABLED);
+  }
+
+  public long getAutoRecordDelay() {
+    return mAutoRecordDelay;
+  }
+
+  public long getPreRoll() {
+    return mPreRoll;
+  }
+
+  public boolean videoSnapshots() {
+    return hasFlag(FLAG_VIDEO_SNAPSHOTS);
+  }
+
+  public int getTranscodeShortSide() {
+    return mTranscodeShortSide;
+  }
+
+  public int getTranscodeBitRate() {
+    return mTranscodeBitRate;
+  }
+
+  public int getChecksumChunkSize() {
+    return mChecksumChunkSize;
+  }
+
+  /** @return the most stills to collect before returning them together, 0 for one at a time */
+  public int getMultiCaptureLimit() {
+    return mMultiCaptureLimit;
+  }
+
+  public boolean parallelJpeg() {
+    return hasFlag(FLAG_PARALLEL_JPEG);
+  }
+
+  public boolean nightMode() {
+    return hasFlag(FLAG_NIGHT_MODE);
+  }
+
+  /** @return the {@link ListenerRegistry} token of the frame analyzer, -1 if there is none */
+  public int getFrameAnalyzer() {
+    return mFrameAnalyzer;
+  }
+
+  /** @return the {@link ListenerRegistry} token of the stats listener, -1 if there is none */
+  public int getPreviewStatsListener() {
+    return mPreviewStatsListener;
+  }
+
+  public boolean showPreviewStats() {
+    return hasFlag(FLAG_SHOW_PREVIEW_STATS);
+  }
+
+  public int getVideoEncodingBitRate() {
+    return mVideoEncodingBitRate;
+  }
+
+  public int getAudioEncodingBitRate() {
+    return mAudioEncodingBitRate;
+  }
+
+  public int getVideoFrameRate() {
+    return mVideoFrameRate;
+  }
+
+  public int getVideoPreferredHeight() {
+    return mVideoPreferredHeight;
+  }
+
+  public float getVideoPreferredAspect() {
+    return mVideoPreferredAspect;
+  }
+
+  public long getMaxAllowedFileSize() {
+    return mMaxAllowedFileSize;
+  }
+
+  public int getQualityProfile() {
+    return mQualityProfile;
+  }
+
+  @Nullable
+  public int[] getVideoCodecs() {
+    return mVideoCodecs != null ? mVideoCodecs.clone() : null;
+  }
+
+  @DrawableRes
+  public int getIconRecord() {
+    return mIconRecord;
+  }
+
+  @DrawableRes
+  public int getIconStop() {
+    return mIconStop;
+  }
+
+  @DrawableRes
+  public int getIconFrontCamera() {
+    return mIconFrontCamera;
+  }
+
+  @DrawableRes
+  public int getIconRearCamera() {
+    return mIconRearCamera;
+  }
+
+  @DrawableRes
+  public int getIconPlay() {
+    return mIconPlay;
+  }
+
+  @DrawableRes
+  public int getIconPause() {
+    return mIconPause;
+  }
+
+  @DrawableRes
+  public int getIconRestart() {
+    return mIconRestart;
+  }
+
+  @DrawableRes
+  public int getIconStillshot() {
+    return mIconStillshot;
+  }
+
+  @DrawableRes
+  public int getIconFlashAuto() {
+    return mIconFlashAuto;
+  }
+
+  @DrawableRes
+  public int getIconFlashOn() {
+    return mIconFlashOn;
+  }
+
+  @DrawableRes
+  public int getIconFlashOff() {
+    return mIconFlashOff;
+  }
+
+  @StringRes
+  public int getLabelRetry() {
+    return mLabelRetry;
+  }
+
+  /** @return the confirm label, 0 for the default of the capture type */
+  @StringRes
+  public int getLabelConfirm() {
+    return mLabelConfirm;
+  }
+
+  public static class Builder {
+
+    private int mFlags =
+        FLAG_ALLOW_RETRY
+            | FLAG_SHOW_PORTRAIT_WARNING
+            | FLAG_ALLOW_CHANGE_CAMERA
+            | FLAG_CONTINUE_TIMER_IN_PLAYBACK;
+    private long mLengthLimit = -1;
+    private String mSaveDir;
+    private Uri mOutputDestination;
+    private int mOutputDescriptor = -1;
+    private int mPrimaryColor;
+    private long mAutoRecordDelay = -1;
+    private long mPreRoll = -1;
+    private int mTranscodeShortSide = -1;
+    private int mTranscodeBitRate = -1;
+    private int mChecksumChunkSize = -1;
+    private int mMultiCaptureLimit;
+    private int mFrameAnalyzer = -1;
+    private int mPreviewStatsListener = -1;
+
+    private int mVideoEncodingBitRate = -1;
+    private int mAudioEncodingBitRate = -1;
+    private int mVideoFrameRate = -1;
+    private int mVideoPreferredHeight = 720;
+    private float mVideoPreferredAspect = 4f / 3f;
+    private long mMaxAllowedFileSize = -1;
+    private int mQualityProfile = CamcorderProfile.QUALITY_HIGH;
+    private int[] mVideoCodecs;
+
+    private int mIconRecord = R.drawable.mcam_action_capture;
+    private int mIconStop = R.drawable.mcam_action_stop;
+    private int mIconFrontCamera = R.drawable.mcam_camera_front;
+    private int mIconRearCamera = R.drawable.mcam_camera_rear;
+    private int mIconPlay = R.drawable.evp_action_play;
+    private int mIconPause = R.drawable.evp_action_pause;
+    private int mIconRestart = R.drawable.evp_action_restart;
+    private int mIconStillshot = R.drawable.mcam_action_stillshot;
+    private int mIconFlashAuto = R.drawable.mcam_action_flash_auto;
+    private int mIconFlashOn = R.drawable.mcam_action_flash;
+    private int mIconFlashOff = R.drawable.mcam_action_flash_off;
+
+    private int mLabelRetry = R.string.mcam_retry;
+    private int mLabelConfirm;
+
+    private Builder flag(int flag, boolean set) {
+      if (set) mFlags |= flag;
+      else mFlags &= ~flag;
+      return this;
+    }
+
+    public Builder lengthLimit(long lengthLimit) {
+      mLengthLimit = lengthLimit;
+      return this;
+    }
+
+    public Builder allowRetry(boolean allowRetry) {
+      return flag(FLAG_ALLOW_RETRY, allowRetry);
+    }
+
+    public Builder autoSubmit(boolean autoSubmit) {
+      return flag(FLAG_AUTO_SUBMIT, autoSubmit);
+    }
+
+    public Builder saveDir(@Nullable String saveDir) {
+      mSaveDir = saveDir;
+      return this;
+    }
+
+    public Builder outputDestination(@Nullable Uri destination) {
+      mOutputDestination = destination;
+      return this;
+    }
+
+    /** @param token A {@link DescriptorRegistry} token */
+    public Builder outputDescriptor(int token) {
+      mOutputDescriptor = token;
+      return this;
+    }
+
+    public Builder primaryColor(int color) {
+      mPrimaryColor = color;
+      return this;
+    }
+
+    public Builder showPortraitWarning(boolean show) {
+      return flag(FLAG_SHOW_PORTRAIT_WARNING, show);
+    }
+
+    public Builder allowChangeCamera(boolean allow) {
+      return flag(FLAG_ALLOW_CHANGE_CAMERA, allow);
+    }
+
+    public Builder defaultToFrontFacing(boolean frontFacing) {
+      return flag(FLAG_DEFAULT_TO_FRONT_FACING, frontFacing);
+    }
+
+    public Builder countdownImmediately(boolean immediately) {
+      return flag(FLAG_COUNTDOWN_IMMEDIATELY, immediately);
+    }
+
+    public Builder retryExits(boolean exits) {
+      return flag(FLAG_RETRY_EXITS, exits);
+    }
+
+    public Builder restartTimerOnRetry(boolean restart) {
+      return flag(FLAG_RESTART_TIMER_ON_RETRY, restart);
+    }
+
+    public Builder continueTimerInPlayback(boolean continueTimer) {
+      return flag(FLAG_CONTINUE_TIMER_IN_PLAYBACK, continueTimer);
+    }
+
+    public Builder stillShot(boolean stillShot) {
+      return flag(FLAG_STILL_SHOT, stillShot);
+    }
+
+    public Builder audioDisabled(boolean disabled) {
+      return flag(FLAG_AUDIO_DISABLED, disabled);
+    }
+
+    public Builder autoRecordDelay(long delayMillis) {
+      mAutoRecordDelay = delayMillis;
+      return this;
+    }
+
+    public Builder preRoll(long preRollMs) {
+      mPreRoll = preRollMs;
+      return this;
+    }
+
+    public Builder videoSnapshots(boolean allow) {
+      return flag(FLAG_VIDEO_SNAPSHOTS, allow);
+    }
+
+    public Builder transcode(int shortSide, int bitRate) {
+      mTranscodeShortSide = shortSide;
+      mTranscodeBitRate = bitRate;
+      return this;
+    }
+
+    public Builder checksumChunkSize(int chunkSize) {
+      mChecksumChunkSize = chunkSize;
+      return this;
+    }
+
+    public Builder multiCaptureLimit(int limit) {
+      mMultiCaptureLimit = limit;
+      return this;
+    }
+
+    public Builder parallelJpeg(boolean enabled) {
+      return flag(FLAG_PARALLEL_JPEG, enabled);
+    }
+
+    public Builder nightMode(boolean enabled) {
+      return flag(FLAG_NIGHT_MODE, enabled);
+    }
+
+    /** @param token A {@link ListenerRegistry} token */
+    public Builder frameAnalyzer(int token) {
+      mFrameAnalyzer = token;
+      return this;
+    }
+
+    /** @param token A {@link ListenerRegistry} token */
+    public Builder previewStatsListener(int token) {
+      mPreviewStatsListener = token;
+      return this;
+    }
+
+    public Builder showPreviewStats(boolean show) {
+      return flag(FLAG_SHOW_PREVIEW_STATS, show);
+    }
+
+    public Builder videoEncodingBitRate(int rate) {
+      mVideoEncodingBitRate = rate;
+      return this;
+    }
+
+    public Builder audioEncodingBitRate(int rate) {
+      mAudioEncodingBitRate = rate;
+      return this;
+    }
+
+    public Builder videoFrameRate(int rate) {
+      mVideoFrameRate = rate;
+      return this;
+    }
+
+    public Builder videoPreferredHeight(int height) {
+      mVideoPreferredHeight = height;
+      return this;
+    }
+
+    public Builder videoPreferredAspect(float ratio) {
+      mVideoPreferredAspect = ratio;
+      return this;
+    }
+
+    public Builder maxAllowedFileSize(long size) {
+      mMaxAllowedFileSize = size;
+      return this;
+    }
+
+    public Builder qualityProfile(int profile) {
+      mQualityProfile = profile;
+      return this;
+    }
+
+    public Builder videoCodecs(@Nullable int[] codecs) {
+      mVideoCodecs = codecs;
+      return this;
+    }
+
+    public Builder iconRecord(@DrawableRes int iconRes) {
+      mIconRecord = iconRes;
+      return this;
+    }
+
+    public Builder iconStop(@DrawableRes int iconRes) {
+      mIconStop = iconRes;
+      return this;
+    }
+
+    public Builder iconFrontCamera(@DrawableRes int iconRes) {
+      mIconFrontCamera = iconRes;
+      return this;
+    }
+
+    public Builder iconRearCamera(@DrawableRes int iconRes) {
+      mIconRearCamera = iconRes;
+      return this;
+    }
+
+    public Builder iconPlay(@DrawableRes int iconRes) {
+      mIconPlay = iconRes;
+      return this;
+    }
+
+    public Builder iconPause(@DrawableRes int iconRes) {
+      mIconPause = iconRes;
+      return this;
+    }
+
+    public Builder iconRestart(@DrawableRes int iconRes) {
+      mIconRestart = iconRes;
+      return this;
+    }
+
+    public Builder labelRetry(@StringRes int stringRes) {
+      mLabelRetry = stringRes;
+      return this;
+    }
+
+    public Builder labelConfirm(@StringRes int stringRes) {
+      mLabelConfirm = stringRes;
+      return this;
+    }
+
+    public CaptureConfig build() {
+      return new CaptureConfig(this);
+    }
+  }
+}
@@ -0,0 +1,34 @@
+package com.afollestad.materialcamera.internal;
+
+import android.os.ParcelFileDescriptor;
+import android.support.annotation.Nullable;
+import android.util.SparseArray;
+
+/**
+ * Holds caller-supplied output descriptors while the capture activity is running. The framework
+ * refuses to start an activity with a file descriptor in its Intent, so only a token is passed.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public class DescriptorRegistry {
+
+  private static final SparseArray<ParcelFileDescriptor> sDescriptors = new SparseArray<>();
+  private static int sNextToken = 1;
+
+  private DescriptorRegistry() {}
+
+  public static synchronized int register(ParcelFileDescriptor descriptor) {
+    final int token = sNextToken++;
+    sDescriptors.put(token, descriptor);
+    return token;
+  }
+
+  @Nullable
+  public static synchronized ParcelFileDescriptor get(int token) {
+    return sDescriptors.get(token);
+  }
+
+  public static synchronized void unregister(int token) {
+    sDescriptors.remove(token);
+  }
+}
@@ -0,0 +1,516 @@
+package com.afollestad.materialcamera.internal;
+
+import android.app.Activity;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.support.annotation.Nullable;
+import com.afollestad.materialcamera.CaptureCallback;
+import com.afollestad.materialcamera.CaptureManifest;
+import com.afollestad.materialcamera.FrameAnalyzer;
+import com.afollestad.materialcamera.PreviewStats;
+import com.afollestad.materialcamera.TimeLimitReachedException;
+import com.afollestad.materialcamera.util.ChunkedDigest;
+import java.util.List;
+
+/**
+ * Stands in for {@link BaseCaptureActivity} when a camera fragment is added to the caller's own
+ * layout. There are no review screens: every capture goes straight to the activity's {@link
+ * CaptureCallback}, after which the camera is reopened for the next one. Videos aren't transcoded
+ * and can't take snapshots.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+class EmbeddedCaptureHost implements BaseCaptureInterface {
+
+  private final BaseCameraFragment mFragment;
+  private final CaptureConfig mConfig;
+  private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+  private Activity mActivity;
+  private CaptureCallback mCallback;
+  private int mCameraPosition = BaseCaptureActivity.CAMERA_POSITION_UNKNOWN;
+  private int mFlashMode = BaseCaptureActivity.FLASH_MODE_OFF;
+  private long mRecordingStart = -1;
+  private long mRecordingEnd = -1;
+  private Object mFrontCameraId;
+  private Object mBackCameraId;
+  private boolean mDidRecord;
+  private List<Integer> mFlashModes;
+  private CaptureManifest mManifest;
+  private int mDeliveryToken;
+
+  EmbeddedCaptureHost(BaseCameraFragment fragment, @Nullable CaptureConfig config) {
+    mFragment = fragment;
+    mConfig = config != null ? config : new CaptureConfig.Builder().build();
+  }
+
+  void attach(Activity activity) {
+    if (!(activity instanceof CaptureCallback)) {
+      throw new IllegalStateException(
+          activity.getClass().getName() + " must implement CaptureCallback to embed a camera.");
+    }
+    mActivity = activity;
+    mCallback = (CaptureCallback) activity;
+  }
+
+  void detach() {
+    mActivity = null;
+    mCallback = null;
+  }
+
+  /** Called once the fragment is gone for good, rather than for a configuration change. */
+  void release() {
+    mDeliveryToken++;
+    mMainHandler.removeCallbacksAndMessages(null);
+    if (mConfig.getOutputDescriptor() != -1)
+      DescriptorRegistry.unregister(mConfig.getOutputDescriptor());
+    if (mConfig.getFrameAnalyzer() != -1) ListenerRegistry.unregister(mConfig.getFrameAnalyzer());
+    if (mConfig.getPreviewStatsListener() != -1)
+      ListenerRegistry.unregister(mConfig.getPreviewStatsListener());
+  }
+
+  private void deliver(@Nullable final String outputUri) {
+    final int token = ++mDeliveryToken;
+    // Stills and videos are reported from the camera's threads and in the middle of its teardown
+    mMainHandler.post(
+        new Runnable() {
+          @Override
+          public void run() {
+            if (token != mDeliveryToken || mActivity == null) return;
+            if (outputUri == null) {
+              finishCapture();
+              mCallback.onCaptureError(new TimeLimitReachedException());
+            } else if (checksumChunkSize() > 0 && mManifest == null) {
+              digest(token, outputUri);
+            } else {
+              returnMedia(outputUri);
+            }
+          }
+        });
+  }
+
+  private void digest(final int token, final String outputUri) {
+    ChunkedDigest.digestAsync(
+        mActivity,
+        Uri.parse(outputUri),
+        checksumChunkSize(),
+        new ChunkedDigest.Callback() {
+          @Override
+          public void done(@Nullable CaptureManifest manifest, @Nullable Exception e) {
+            if (token != mDeliveryToken || mActivity == null) return;
+            if (e != null) e.printStackTrace();
+            // Delivered without a manifest if hashing failed, rather than not at all
+            mManifest = manifest;
+            returnMedia(outputUri);
+          }
+        });
+  }
+
+  private void returnMedia(String outputUri) {
+    final CaptureManifest manifest = mManifest;
+    finishCapture();
+    mCallback.onCaptured(outputDescriptor() != null ? null : Uri.parse(outputUri), manifest);
+  }
+
+  private void finishCapture() {
+    mManifest = null;
+    mDidRecord = false;
+    setRecordingStart(-1);
+    mFragment.resetForNextCapture();
+  }
+
+  @Override
+  public CaptureConfig getConfig() {
+    return mConfig;
+  }
+
+  @Override
+  public void onRetry(@Nullable String outputUri) {}
+
+  @Override
+  public void onShowPreview(@Nullable String outputUri, boolean countdownIsAtZero) {
+    deliver(outputUri);
+  }
+
+  @Override
+  public void onShowStillshot(String outputUri) {
+    deliver(outputUri);
+  }
+
+  @Override
+  public void finishBatch() {}
+
+  @Override
+  public int getBatchSize() {
+    // Each still is delivered right away
+    return 0;
+  }
+
+  @Override
+  public void onVideoSnapshot(String outputUri) {}
+
+  @Override
+  public void onCaptureError(final Exception e) {
+    mMainHandler.post(
+        new Runnable() {
+          @Override
+          public void run() {
+            if (mCallback != null) mCallback.onCaptureError(e);
+          }
+        });
+  }
+
+  @Override
+  public void setRecordingStart(long start) {
+    mRecordingStart = start;
+    if (start > -1 && hasLengthLimit()) setRecordingEnd(mRecordingStart + getLengthLimit());
+    else setRecordingEnd(-1);
+  }
+
+  @Override
+  public void setRecordingEnd(long end) {
+    mRecordingEnd = end;
+  }
+
+  @Override
+  public long getRecordingStart() {
+    return mRecordingStart;
+  }
+
+  @Override
+  public long getRecordingEnd() {
+    return mRecordingEnd;
+  }
+
+  @Override
+  public boolean hasLengthLimit() {
+    return getLengthLimit() > -1;
+  }
+
+  @Override
+  public boolean countdownImmediately() {
+    return mConfig.countdownImmediately();
+  }
+
+  @Override
+  public long getLengthLimit() {
+    return mConfig.getLengthLimit();
+  }
+
+  @Override
+  public void setCameraPosition(int position) {
+    mCameraPosition = position;
+  }
+
+  @Override
+  public void toggleCameraPosition() {
+    if (getCurrentCameraPosition() == BaseCaptureActivity.CAMERA_POSITION_FRONT) {
+      if (getBackCamera() != null) setCameraPosition(BaseCaptureActivity.CAMERA_POSITION_BACK);
+    } else {
+      if (getFrontCamera() != null) setCameraPosition(BaseCaptureActivity.CAMERA_POSITION_FRONT);
+    }
+  }
+
+  @Override
+  public Object getCurrentCameraId() {
+    if (getCurrentCameraPosition() == BaseCaptureActivity.CAMERA_POSITION_FRONT)
+      return getFrontCamera();
+    else return getBackCamera();
+  }
+
+  @Override
+  public int getCurrentCameraPosition() {
+    return mCameraPosition;
+  }
+
+  @Override
+  public void setFrontCamera(Object id) {
+    mFrontCameraId = id;
+  }
+
+  @Override
+  public void setBackCamera(Object id) {
+    mBackCameraId = id;
+  }
+
+  @Override
+  public Object getFrontCamera() {
+    return mFrontCameraId;
+  }
+
+  @Override
+  public Object getBackCamera() {
+    return mBackCameraId;
+  }
+
+  @Override
+  public void useMedia(String uri) {
+    deliver(uri);
+  }
+
+  @Override
+  public boolean shouldAutoSubmit() {
+    return true;
+  }
+
+  @Override
+  public boolean allowRetry() {
+    return false;
+  }
+
+  @Override
+  public void setDidRecord(boolean didRecord) {
+    mDidRecord = didRecord;
+  }
+
+  @Override
+  public void setVideoMimeType(String mimeType) {
+    // The callback only gets the Uri, whose extension already tells the type
+  }
+
+  @Override
+  public boolean didRecord() {
+    return mDidRecord;
+  }
+
+  @Override
+  public boolean restartTimerOnRetry() {
+    return false;
+  }
+
+  @Override
+  public boolean continueTimerInPlayback() {
+    return false;
+  }
+
+  @Override
+  public int videoEncodingBitRate(int defaultVal) {
+    final int rate = mConfig.getVideoEncodingBitRate();
+    return rate > 0 ? rate : defaultVal;
+  }
+
+  @Override
+  public int audioEncodingBitRate(int defaultVal) {
+    final int rate = mConfig.getAudioEncodingBitRate();
+    return rate > 0 ? rate : defaultVal;
+  }
+
+  @Override
+  public int videoFrameRate(int defaultVal) {
+    final int rate = mConfig.getVideoFrameRate();
+    return rate > 0 ? rate : defaultVal;
+  }
+
+  @Override
+  public int videoPreferredHeight() {
+    return mConfig.getVideoPreferredHeight();
+  }
+
+  @Override
+  public float videoPreferredAspect() {
+    return mConfig.getVideoPreferredAspect();
+  }
+
+  @Override
+  public long maxAllowedFileSize() {
+    return mConfig.getMaxAllowedFileSize();
+  }
+
+  @Nullable
+  @Override
+  public Uri outputDestination() {
+    return mConfig.getOutputDestination();
+  }
+
+  @Nullable
+  @Override
+  public ParcelFileDescriptor outputDescriptor() {
+    if (mConfig.getOutputDescriptor() == -1) return null;
+    return DescriptorRegistry.get(mConfig.getOutputDescriptor());
+  }
+
+  @Override
+  public int qualityProfile() {
+    return mConfig.getQualityProfile();
+  }
+
+  @Nullable
+  @Override
+  public int[] videoCodecs() {
+    return mConfig.getVideoCodecs();
+  }
+
+  @Override
+  public int iconRecord() {
+    return mConfig.getIconRecord();
+  }
+
+  @Override
+  public int iconStop() {
+    return mConfig.getIconStop();
+  }
+
+  @Override
+  public int iconFrontCamera() {
+    return mConfig.getIconFrontCamera();
+  }
+
+  @Override
+  public int iconRearCamera() {
+    return mConfig.getIconRearCamera();
+  }
+
+  @Override
+  public int iconPlay() {
+    return mConfig.getIconPlay();
+  }
+
+  @Override
+  public int iconPause() {
+    return mConfig.getIconPause();
+  }
+
+  @Override
+  public int iconRestart() {
+    return mConfig.getIconRestart();
+  }
+
+  @Override
+  public int labelRetry() {
+    return mConfig.getLabelRetry();
+  }
+
+  @Deprecated
+  @Override
+  public int labelUseVideo() {
+    return labelConfirm();
+  }
+
+  @Override
+  public int labelConfirm() {
+    return mConfig.getLabelConfirm();
+  }
+
+  @Override
+  public int iconStillshot() {
+    return mConfig.getIconStillshot();
+  }
+
+  @Override
+  public boolean useStillshot() {
+    return mConfig.stillShot();
+  }
+
+  @Override
+  public void toggleFlashMode() {
+    if (mFlashModes != null) {
+      mFlashMode = mFlashModes.get((mFlashModes.indexOf(mFlashMode) + 1) % mFlashModes.size());
+    }
+  }
+
+  @Override
+  public int getFlashMode() {
+    return mFlashMode;
+  }
+
+  @Override
+  public int iconFlashAuto() {
+    return mConfig.getIconFlashAuto();
+  }
+
+  @Override
+  public int iconFlashOn() {
+    return mConfig.getIconFlashOn();
+  }
+
+  @Override
+  public int iconFlashOff() {
+    return mConfig.getIconFlashOff();
+  }
+
+  @Override
+  public void setFlashModes(List<Integer> modes) {
+    mFlashModes = modes;
+  }
+
+  @Override
+  public boolean shouldHideFlash() {
+    return !useStillshot() || mFlashModes == null;
+  }
+
+  @Override
+  public long autoRecordDelay() {
+    return mConfig.getAutoRecordDelay();
+  }
+
+  @Override
+  public long preRollMillis() {
+    return mConfig.getPreRoll();
+  }
+
+  @Override
+  public boolean allowVideoSnapshots() {
+    return false;
+  }
+
+  @Override
+  public int transcodeShortSide() {
+    return -1;
+  }
+
+  @Override
+  public int transcodeBitRate() {
+    return -1;
+  }
+
+  @Override
+  public boolean parallelJpegEncoding() {
+    return mConfig.parallelJpeg();
+  }
+
+  @Override
+  public boolean nightMode() {
+    return mConfig.nightMode();
+  }
+
+  @Nullable
+  @Override
+  public FrameAnalyzer frameAnalyzer() {
+    if (mConfig.getFrameAnalyzer() == -1) return null;
+    return (FrameAnalyzer) ListenerRegistry.get(mConfig.getFrameAnalyzer());
+  }
+
+  @Nullable
+  @Override
+  public PreviewStats.Listener previewStatsListener() {
+    if (mConfig.getPreviewStatsListener() == -1) return null;
+    return (PreviewStats.Listener) ListenerRegistry.get(mConfig.getPreviewStatsListener());
+  }
+
+  @Override
+  public boolean showPreviewStats() {
+    return mConfig.showPreviewStats();
+  }
+
+  @Override
+  public int checksumChunkSize() {
+    return mConfig.getChecksumChunkSize();
+  }
+
+  @Override
+  public void setCaptureManifest(@Nullable CaptureManifest manifest) {
+    mManifest = manifest;
+  }
+
+  @Override
+  public boolean audioDisabled() {
+    return mConfig.audioDisabled();
+  }
+
+  @Override
+  public boolean shouldHideCameraFacing() {
+    return !mConfig.allowChangeCamera();
+  }
+}
@@ -0,0 +1,297 @@
+package com.afollestad.materialcamera.internal;
+
+import android.support.annotation.Nullable;
+import com.afollestad.materialcamera.CameraBackend;
+import com.afollestad.materialcamera.FrameAnalyzer;
+import com.afollestad.materialcamera.PreviewFrame;
+import com.afollestad.materialcamera.util.JpegEncoder;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * In-memory {@link CameraBackend} for tests and benchmarks. It only uses plain Java, so it runs on
+ * the JVM or under Robolectric without a camera. The preview is a synthetic NV21 pattern that moves
+ * one pixel per frame, stills are real JPEGs of the current frame, and each call can be slowed down
+ * or made to fail.
+ *
+ * <p>Calls made out of order throw an {@link IllegalStateException}, just like a real camera would
+ * fail, so state handling can be checked as well.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public class FakeCameraBackend implements CameraBackend {
+
+  public static final int OPEN = 0;
+  public static final int CONFIGURE = 1;
+  public static final int START_REPEATING = 2;
+  public static final int TAKE_PICTURE = 3;
+  public static final int START_RECORDING = 4;
+  public static final int STOP_RECORDING = 5;
+  private static final int OPERATION_COUNT = 6;
+
+  private static final int DEFAULT_WIDTH = 640;
+  private static final int DEFAULT_HEIGHT = 480;
+
+  private final int mWidth;
+  private final int mHeight;
+  private final long[] mLatencies = new long[OPERATION_COUNT];
+  private final Exception[] mFailures = new Exception[OPERATION_COUNT];
+  private long mFrameIntervalMillis = 33;
+  private int mRotation;
+
+  private boolean mOpen;
+  private int mPreviewWidth;
+  private int mPreviewHeight;
+  private File mRecording;
+  private long mRecordingStart;
+  private Thread mFrameThread;
+
+  // Guarded by this
+  private long mFrameCount;
+  private long mDroppedCount;
+  private int mPictureCount;
+
+  public FakeCameraBackend() {
+    this(DEFAULT_WIDTH, DEFAULT_HEIGHT);
+  }
+
+  /** @param width The still size, and the largest preview size */
+  public FakeCameraBackend(int width, int height) {
+    mWidth = width;
+    mHeight = height;
+  }
+
+  /** Makes an operation, e.g. {@link #TAKE_PICTURE}, block for a while before it does anything. */
+  public FakeCameraBackend setLatency(int operation, long millis) {
+    synchronized (mLatencies) {
+      mLatencies[operation] = millis;
+    }
+    return this;
+  }
+
+  /** Makes the next call of an operation throw {@code e}, after its latency. */
+  public FakeCameraBackend failNext(int operation, Exception e) {
+    synchronized (mFailures) {
+      mFailures[operation] = e;
+    }
+    return this;
+  }
+
+  /** @param millis The time between frames, 33 (30 fps) by default */
+  public FakeCameraBackend setFrameInterval(long millis) {
+    mFrameIntervalMillis = Math.max(1, millis);
+    return this;
+  }
+
+  /** @param degrees Reported with each frame as the rotation that shows it upright */
+  public FakeCameraBackend setRotation(int degrees) {
+    mRotation = degrees;
+    return this;
+  }
+
+  /** @return how many frames were generated since the preview started, dropped ones included */
+  public synchronized long getFrameCount() {
+    return mFrameCount;
+  }
+
+  /** @return how many frames were skipped because the analyzer was still busy */
+  public synchronized long getDroppedFrames() {
+    return mDroppedCount;
+  }
+
+  public synchronized int getPictureCount() {
+    return mPictureCount;
+  }
+
+  public boolean isOpen() {
+    return mOpen;
+  }
+
+  public boolean isRecording() {
+    return mRecording != null;
+  }
+
+  @Override
+  public void open(boolean frontFacing) throws Exception {
+    enter(OPEN);
+    if (mOpen) throw new IllegalStateException("The camera is already open.");
+    mOpen = true;
+  }
+
+  @Override
+  public void configure(int maxPreviewWidth, int maxPreviewHeight) throws Exception {
+    enter(CONFIGURE);
+    checkOpen();
+    if (mFrameThread != null) throw new IllegalStateException("Can't configure while previewing.");
+    // Even sizes keep the chroma planes simple
+    mPreviewWidth = Math.max(2, Math.min(mWidth, maxPreviewWidth) & ~1);
+    mPreviewHeight = Math.max(2, Math.min(mHeight, maxPreviewHeight) & ~1);
+  }
+
+  @Override
+  public void startRepeating(@Nullable FrameAnalyzer analyzer) throws Exception {
+    enter(START_REPEATING);
+    checkConfigured();
+    stopFrames();
+    final FrameAnalyzer frameAnalyzer = analyzer;
+    mFrameThread =
+        new Thread("FakeCameraBackend") {
+          @Override
+          public void run() {
+            generateFrames(frameAnalyzer);
+          }
+        };
+    mFrameThread.start();
+  }
+
+  /**
+   * Generates a frame every interval and analyzes it on this thread. Frames that come due while the
+   * analyzer is busy are counted as dropped, like the newest-frame-wins pipeline of real backends.
+   */
+  private void generateFrames(@Nullable FrameAnalyzer analyzer) {
+    final byte[] frame = new byte[JpegEncoder.getFrameSize(mPreviewWidth, mPreviewHeight)];
+    final long interval = mFrameIntervalMillis;
+    long due = System.currentTimeMillis();
+    while (!Thread.currentThread().isInterrupted()) {
+      final long wait = due - System.currentTimeMillis();
+      if (wait > 0) {
+        try {
+          Thread.sleep(wait);
+        } catch (InterruptedException e) {
+          return;
+        }
+      }
+      final long frameNumber;
+      final long dropped;
+      synchronized (this) {
+        // Frames whose time passed while the last one was analyzed never arrive
+        final long now = System.currentTimeMillis();
+        final long missed = Math.max(0, (now - due) / interval);
+        due += missed * interval;
+        mFrameCount += missed + 1;
+        mDroppedCount += missed;
+        frameNumber = mFrameCount;
+        dropped = mDroppedCount;
+      }
+      if (analyzer != null) {
+        fillFrame(frame, mPreviewWidth, mPreviewHeight, frameNumber);
+        analyzer.analyze(
+            new PreviewFrame(
+                frame,
+                mPreviewWidth,
+                mPreviewHeight,
+                mRotation,
+                frameNumber,
+                dropped,
+                Math.max(0, System.currentTimeMillis() - due)));
+      }
+      due += interval;
+    }
+  }
+
+  /**
+   * A diagonal luma gradient that moves one pixel per frame. The chroma is flat grey, so the same
+   * bytes are valid NV21 and I420.
+   */
+  static void fillFrame(byte[] out, int width, int height, long frameNumber) {
+    final int shift = (int) (frameNumber & 0xff);
+    for (int y = 0, i = 0; y < height; y++) {
+      for (int x = 0; x < width; x++, i++) out[i] = (byte) (x + y + shift);
+    }
+    for (int i = width * height; i < out.length; i++) out[i] = (byte) 128;
+  }
+
+  @Override
+  public void takePicture(File output) throws Exception {
+    enter(TAKE_PICTURE);
+    checkConfigured();
+    if (mRecording != null)
+      throw new IllegalStateException("Can't take a picture while recording.");
+    final long frameNumber;
+    synchronized (this) {
+      frameNumber = mFrameCount;
+      mPictureCount++;
+    }
+    final byte[] frame = new byte[JpegEncoder.getFrameSize(mWidth, mHeight)];
+    fillFrame(frame, mWidth, mHeight, frameNumber);
+    final OutputStream out = new BufferedOutputStream(new FileOutputStream(output));
+    try {
+      new JpegEncoder(90).encode(ByteBuffer.wrap(frame), mWidth, mHeight, mRotation, null, 1, out);
+    } finally {
+      out.close();
+    }
+  }
+
+  @Override
+  public void startRecording(File output, boolean audio) throws Exception {
+    enter(START_RECORDING);
+    checkConfigured();
+    if (mRecording != null) throw new IllegalStateException("Already recording.");
+    mRecording = output;
+    mRecordingStart = System.currentTimeMillis();
+  }
+
+  /** Writes a placeholder that records how long the recording lasted, it's not a playable video. */
+  @Override
+  public void stopRecording() throws Exception {
+    enter(STOP_RECORDING);
+    if (mRecording == null) throw new IllegalStateException("Not recording.");
+    final File output = mRecording;
+    mRecording = null;
+    final OutputStream out = new FileOutputStream(output);
+    try {
+      out.write(
+          ("fake video, " + (System.currentTimeMillis() - mRecordingStart) + " ms")
+              .getBytes("UTF-8"));
+    } finally {
+      out.close();
+    }
+  }
+
+  @Override
+  public void close() {
+    stopFrames();
+    mRecording = null;
+    mPreviewWidth = 0;
+    mPreviewHeight = 0;
+    mOpen = false;
+  }
+
+  private void stopFrames() {
+    if (mFrameThread == null) return;
+    mFrameThread.interrupt();
+    try {
+      mFrameThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    mFrameThread = null;
+  }
+
+  private void checkOpen() {
+    if (!mOpen) throw new IllegalStateException("The camera isn't open.");
+  }
+
+  private void checkConfigured() {
+    checkOpen();
+    if (mPreviewWidth == 0) throw new IllegalStateException("The camera isn't configured.");
+  }
+
+  /** Waits out an operation's latency, then throws its failure if one was set. */
+  private void enter(int operation) throws Exception {
+    final long latency;
+    synchronized (mLatencies) {
+      latency = mLatencies[operation];
+    }
+    if (latency > 0) Thread.sleep(latency);
+    final Exception failure;
+    synchronized (mFailures) {
+      failure = mFailures[operation];
+      mFailures[operation] = null;
+    }
+    if (failure != null) throw failure;
+  }
+}
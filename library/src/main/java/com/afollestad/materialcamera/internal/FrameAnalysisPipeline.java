@@ -0,0 +1,198 @@
+package com.afollestad.materialcamera.internal;
+
+import android.annotation.TargetApi;
+import android.media.Image;
+import android.os.Build;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import com.afollestad.materialcamera.FrameAnalyzer;
+import com.afollestad.materialcamera.PreviewFrame;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Locale;
+
+/**
+ * Hands preview frames to a {@link FrameAnalyzer} on its own thread. Frames are NV21 in a small
+ * pool of buffers allocated up front: one being analyzed, one waiting and one being filled. A new
+ * frame replaces the waiting one, so the analyzer always gets the latest frame and the camera never
+ * waits for it.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+class FrameAnalysisPipeline implements Runnable {
+
+  /** Takes buffers the pipeline is done with, e.g. to queue them with the camera again. */
+  interface BufferOwner {
+    void onBufferReleased(byte[] buffer);
+  }
+
+  private static final String TAG = "FrameAnalysisPipeline";
+  private static final int BUFFER_COUNT = 3;
+
+  private final FrameAnalyzer mAnalyzer;
+  private final int mWidth;
+  private final int mHeight;
+  private final int mRotation;
+  @Nullable private final BufferOwner mOwner;
+  private final ArrayDeque<byte[]> mFree = new ArrayDeque<>(BUFFER_COUNT);
+  private final Thread mThread;
+
+  private byte[] mPending;
+  private long mPendingTime;
+  private boolean mStopped;
+  private long mFrameCount;
+  private long mDroppedCount;
+  private long mAnalyzedCount;
+  private long mTotalLatencyMillis;
+  private long mTotalAnalysisMillis;
+
+  // Only used on the thread images are copied on
+  private byte[] mRowScratch;
+
+  /**
+   * @param owner Gets all buffers right away and each one again after it was analyzed or dropped,
+   *     null to keep them in the pipeline for {@link #obtainBuffer()}
+   */
+  FrameAnalysisPipeline(
+      FrameAnalyzer analyzer, int width, int height, int rotation, @Nullable BufferOwner owner) {
+    mAnalyzer = analyzer;
+    mWidth = width;
+    mHeight = height;
+    mRotation = rotation;
+    mOwner = owner;
+    for (int i = 0; i < BUFFER_COUNT; i++) releaseBuffer(new byte[getBufferSize(width, height)]);
+    mThread = new Thread(this, TAG);
+  }
+
+  static int getBufferSize(int width, int height) {
+    return width * height + 2 * ((width + 1) / 2) * ((height + 1) / 2);
+  }
+
+  void start() {
+    mThread.start();
+  }
+
+  /** Stops handing out frames, the analyzer may still be running the last one. */
+  void stop() {
+    synchronized (this) {
+      if (mStopped) return;
+      mStopped = true;
+      mPending = null;
+      mFree.clear();
+      notifyAll();
+    }
+    Log.d(
+        TAG,
+        String.format(
+            Locale.getDefault(),
+            "%d frames, %d analyzed, %d dropped, %d ms average latency, %d ms average analysis",
+            mFrameCount,
+            mAnalyzedCount,
+            mDroppedCount,
+            mTotalLatencyMillis / Math.max(1, mAnalyzedCount),
+            mTotalAnalysisMillis / Math.max(1, mAnalyzedCount)));
+  }
+
+  /**
+   * @return a buffer to put the next frame in, taking the waiting frame's buffer if none is free.
+   *     Null once stopped.
+   */
+  @Nullable
+  synchronized byte[] obtainBuffer() {
+    if (mStopped) return null;
+    if (!mFree.isEmpty()) return mFree.poll();
+    final byte[] dropped = mPending;
+    mPending = null;
+    if (dropped != null) mDroppedCount++;
+    return dropped;
+  }
+
+  /** Queues a frame for the analyzer, in place of the one that was waiting. */
+  synchronized void submit(byte[] frame) {
+    if (mStopped) return;
+    if (mPending != null) {
+      releaseBuffer(mPending);
+      mDroppedCount++;
+    }
+    mPending = frame;
+    mPendingTime = SystemClock.uptimeMillis();
+    mFrameCount++;
+    notifyAll();
+  }
+
+  /** Copies a {@link android.graphics.ImageFormat#YUV_420_888} image into an NV21 buffer. */
+  @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+  void copyToNv21(Image image, byte[] out) {
+    final Image.Plane[] planes = image.getPlanes();
+    final ByteBuffer luma = planes[0].getBuffer();
+    final int lumaStride = planes[0].getRowStride();
+    for (int row = 0; row < mHeight; row++) {
+      luma.position(row * lumaStride);
+      luma.get(out, row * mWidth, mWidth);
+    }
+
+    final ByteBuffer u = planes[1].getBuffer();
+    final ByteBuffer v = planes[2].getBuffer();
+    final int chromaStride = planes[1].getRowStride();
+    final int pixelStride = planes[1].getPixelStride();
+    final int chromaWidth = (mWidth + 1) / 2;
+    final int chromaHeight = (mHeight + 1) / 2;
+    final int rowLength = (chromaWidth - 1) * pixelStride + 1;
+    if (mRowScratch == null || mRowScratch.length < 2 * rowLength)
+      mRowScratch = new byte[2 * rowLength];
+    int offset = mWidth * mHeight;
+    for (int row = 0; row < chromaHeight; row++) {
+      u.position(row * chromaStride);
+      u.get(mRowScratch, 0, rowLength);
+      v.position(row * planes[2].getRowStride());
+      v.get(mRowScratch, rowLength, rowLength);
+      for (int x = 0; x < chromaWidth; x++) {
+        out[offset++] = mRowScratch[rowLength + x * pixelStride];
+        out[offset++] = mRowScratch[x * pixelStride];
+      }
+    }
+  }
+
+  @Override
+  public void run() {
+    while (true) {
+      final byte[] frame;
+      final long latency;
+      final long frameNumber;
+      final long dropped;
+      synchronized (this) {
+        while (!mStopped && mPending == null) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+        if (mStopped) return;
+        frame = mPending;
+        mPending = null;
+        latency = SystemClock.uptimeMillis() - mPendingTime;
+        frameNumber = mFrameCount;
+        dropped = mDroppedCount;
+      }
+
+      final long start = SystemClock.uptimeMillis();
+      mAnalyzer.analyze(
+          new PreviewFrame(frame, mWidth, mHeight, mRotation, frameNumber, dropped, latency));
+      final long analysis = SystemClock.uptimeMillis() - start;
+
+      synchronized (this) {
+        mAnalyzedCount++;
+        mTotalLatencyMillis += latency;
+        mTotalAnalysisMillis += analysis;
+        if (!mStopped) releaseBuffer(frame);
+      }
+    }
+  }
+
+  private void releaseBuffer(byte[] buffer) {
+    if (mOwner != null) mOwner.onBufferReleased(buffer);
+    else mFree.add(buffer);
+  }
+}
@@ -0,0 +1,34 @@
+package com.afollestad.materialcamera.internal;
+
+import android.support.annotation.Nullable;
+import android.util.SparseArray;
+
+/**
+ * Holds caller-supplied listeners, e.g. a {@link com.afollestad.materialcamera.FrameAnalyzer},
+ * while the capture activity is running, like {@link DescriptorRegistry}. Objects can't go through
+ * an Intent, so only a token is passed.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public class ListenerRegistry {
+
+  private static final SparseArray<Object> sListeners = new SparseArray<>();
+  private static int sNextToken = 1;
+
+  private ListenerRegistry() {}
+
+  public static synchronized int register(Object listener) {
+    final int token = sNextToken++;
+    sListeners.put(token, listener);
+    return token;
+  }
+
+  @Nullable
+  public static synchronized Object get(int token) {
+    return sListeners.get(token);
+  }
+
+  public static synchronized void unregister(int token) {
+    sListeners.remove(token);
+  }
+}
@@ -3,41 +3,57 @@ package com.afollestad.materialcamera.internal;
 import android.app.Activity;
 import android.app.Fragment;
 import android.content.pm.ActivityInfo;
+import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Bundle;
-import android.os.Handler;
+import android.os.SystemClock;
 import android.support.annotation.Nullable;
+import android.support.v4.view.ViewCompat;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import com.afollestad.easyvideoplayer.EasyVideoCallback;
 import com.afollestad.easyvideoplayer.EasyVideoPlayer;
 import com.afollestad.materialcamera.R;
-import com.afollestad.materialcamera.util.CameraUtil;
 import com.afollestad.materialdialogs.MaterialDialog;
 
 /** @author Aidan Follestad (afollestad) */
 public class PlaybackVideoFragment extends Fragment
     implements CameraUriInterface, EasyVideoCallback {
 
+  private static final int THUMBNAIL_COUNT = 8;
+
   private EasyVideoPlayer mPlayer;
+  private ScrubberStripView mScrubber;
+  private ThumbnailExtractor mThumbnailExtractor;
   private String mOutputUri;
   private BaseCaptureInterface mInterface;
+  private long mPrepareStart;
+
+  private final RecordingTimer mCountdownTimer =
+      new RecordingTimer(
+          new RecordingTimer.Callback() {
+            @Override
+            public void onTick(CharSequence label) {
+              if (mPlayer != null) mPlayer.setBottomLabelText(label);
+            }
 
-  private Handler mCountdownHandler;
-  private final Runnable mCountdownRunnable =
+            @Override
+            public void onFinished() {
+              if (mPlayer != null) useVideo();
+            }
+          });
+
+  private final Runnable mScrubberRunnable =
       new Runnable() {
         @Override
         public void run() {
-          if (mPlayer != null) {
-            long diff = mInterface.getRecordingEnd() - System.currentTimeMillis();
-            if (diff <= 0) {
-              useVideo();
-              return;
-            }
-            mPlayer.setBottomLabelText(String.format("-%s", CameraUtil.getDurationString(diff)));
-            if (mCountdownHandler != null) mCountdownHandler.postDelayed(mCountdownRunnable, 200);
-          }
+          if (mPlayer == null || mScrubber == null || !mPlayer.isPrepared()) return;
+          final int duration = mPlayer.getDuration();
+          if (duration > 0) mScrubber.setProgress((float) mPlayer.getCurrentPosition() / duration);
+          // Follows playback once per frame, and stops along with it
+          if (mPlayer.isPlaying()) ViewCompat.postOnAnimation(mScrubber, this);
         }
       };
 
@@ -106,26 +122,51 @@ public class PlaybackVideoFragment extends Fragment
     if (mInterface.hasLengthLimit()
         && mInterface.shouldAutoSubmit()
         && mInterface.continueTimerInPlayback()) {
-      final long diff = mInterface.getRecordingEnd() - System.currentTimeMillis();
-      mPlayer.setBottomLabelText(String.format("-%s", CameraUtil.getDurationString(diff)));
-      startCountdownTimer();
+      mCountdownTimer.start(mPlayer, -1, mInterface.getRecordingEnd());
     }
 
+    mPrepareStart = SystemClock.uptimeMillis();
     mPlayer.setSource(Uri.parse(mOutputUri));
+    setUpScrubber(view);
   }
 
-  private void startCountdownTimer() {
-    if (mCountdownHandler == null) mCountdownHandler = new Handler();
-    else mCountdownHandler.removeCallbacks(mCountdownRunnable);
-    mCountdownHandler.post(mCountdownRunnable);
+  private void setUpScrubber(View view) {
+    mScrubber = (ScrubberStripView) view.findViewById(R.id.scrubber);
+    mScrubber.setSlotCount(THUMBNAIL_COUNT);
+    mScrubber.setOnScrubListener(
+        new ScrubberStripView.OnScrubListener() {
+          @Override
+          public void onScrub(float fraction) {
+            if (mPlayer != null && mPlayer.isPrepared())
+              mPlayer.seekTo((int) (fraction * mPlayer.getDuration()));
+          }
+        });
+    mThumbnailExtractor =
+        new ThumbnailExtractor(
+            getActivity(),
+            Uri.parse(mOutputUri),
+            THUMBNAIL_COUNT,
+            getResources().getDimensionPixelSize(R.dimen.mcam_scrubber_height),
+            new ThumbnailExtractor.Listener() {
+              @Override
+              public void onThumbnail(int index, Bitmap thumbnail) {
+                if (mScrubber != null) mScrubber.setThumbnail(index, thumbnail);
+              }
+            });
+    mThumbnailExtractor.start();
   }
 
   @Override
   public void onDestroyView() {
     super.onDestroyView();
-    if (mCountdownHandler != null) {
-      mCountdownHandler.removeCallbacks(mCountdownRunnable);
-      mCountdownHandler = null;
+    mCountdownTimer.stop();
+    if (mThumbnailExtractor != null) {
+      mThumbnailExtractor.cancel();
+      mThumbnailExtractor = null;
+    }
+    if (mScrubber != null) {
+      mScrubber.removeCallbacks(mScrubberRunnable);
+      mScrubber = null;
     }
     if (mPlayer != null) {
       mPlayer.release();
@@ -133,6 +174,13 @@ public class PlaybackVideoFragment extends Fragment
     }
   }
 
+  @Override
+  public void onDestroy() {
+    super.onDestroy();
+    // Kept across rotations, but the destination may be overwritten by the next capture
+    ThumbnailExtractor.evict(Uri.parse(getOutputUri()));
+  }
+
   private void useVideo() {
     if (mPlayer != null) {
       mPlayer.release();
@@ -147,16 +195,24 @@ public class PlaybackVideoFragment extends Fragment
   }
 
   @Override
-  public void onStarted(EasyVideoPlayer player) {}
+  public void onStarted(EasyVideoPlayer player) {
+    updateScrubber();
+  }
 
   @Override
-  public void onPaused(EasyVideoPlayer player) {}
+  public void onPaused(EasyVideoPlayer player) {
+    updateScrubber();
+  }
 
   @Override
   public void onPreparing(EasyVideoPlayer player) {}
 
   @Override
-  public void onPrepared(EasyVideoPlayer player) {}
+  public void onPrepared(EasyVideoPlayer player) {
+    Log.d(
+        "PlaybackVideoFragment",
+        "Prepared in " + (SystemClock.uptimeMillis() - mPrepareStart) + " ms");
+  }
 
   @Override
   public void onBuffering(int percent) {}
@@ -171,7 +227,15 @@ public class PlaybackVideoFragment extends Fragment
   }
 
   @Override
-  public void onCompletion(EasyVideoPlayer player) {}
+  public void onCompletion(EasyVideoPlayer player) {
+    updateScrubber();
+  }
+
+  private void updateScrubber() {
+    if (mScrubber == null) return;
+    mScrubber.removeCallbacks(mScrubberRunnable);
+    ViewCompat.postOnAnimation(mScrubber, mScrubberRunnable);
+  }
 
   @Override
   public void onRetry(EasyVideoPlayer player, Uri source) {
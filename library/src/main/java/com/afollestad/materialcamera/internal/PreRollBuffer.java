@@ -0,0 +1,137 @@
+package com.afollestad.materialcamera.internal;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A bounded ring of encoded samples (access units) from one or more tracks. Sample data lives in a
+ * single direct buffer allocated up front, with per-sample bookkeeping in parallel arrays, so
+ * appending on the encoder threads never allocates. The oldest samples are evicted once either the
+ * byte capacity, the sample count or the time window is exceeded.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+class PreRollBuffer {
+
+  interface SampleSink {
+    void writeSample(int track, ByteBuffer data, long presentationTimeUs, boolean keyFrame);
+  }
+
+  private final ByteBuffer mArena;
+  private final int mCapacity;
+  private final long mWindowUs;
+
+  private final int[] mOffsets;
+  private final int[] mSizes;
+  private final int[] mTracks;
+  private final long[] mTimestamps;
+  private final boolean[] mKeyFrames;
+
+  private int mHead;
+  private int mCount;
+  private int mWritePos;
+
+  /**
+   * @param capacityBytes Size of the sample arena
+   * @param maxSamples How many samples can be held at once, across all tracks
+   * @param windowUs How far back in time samples are kept
+   */
+  PreRollBuffer(int capacityBytes, int maxSamples, long windowUs) {
+    mArena = ByteBuffer.allocateDirect(capacityBytes);
+    mCapacity = capacityBytes;
+    mWindowUs = windowUs;
+    mOffsets = new int[maxSamples];
+    mSizes = new int[maxSamples];
+    mTracks = new int[maxSamples];
+    mTimestamps = new long[maxSamples];
+    mKeyFrames = new boolean[maxSamples];
+  }
+
+  /**
+   * Copies the remaining bytes of {@code data} into the ring, evicting old samples as needed.
+   *
+   * @return false if the sample is larger than the whole ring and was dropped
+   */
+  synchronized boolean append(int track, ByteBuffer data, long presentationTimeUs, boolean key) {
+    final int size = data.remaining();
+    if (size > mCapacity) return false;
+
+    int offset = mWritePos;
+    if (offset + size > mCapacity) {
+      // Not enough room before the end of the arena, drop whatever still lives there and wrap
+      while (mCount > 0 && mOffsets[mHead] >= offset) evictOldest();
+      offset = 0;
+    }
+    while (mCount > 0 && (mCount == mOffsets.length || overlapsOldest(offset, size))) evictOldest();
+
+    mArena.limit(offset + size);
+    mArena.position(offset);
+    mArena.put(data);
+
+    final int index = (mHead + mCount) % mOffsets.length;
+    mOffsets[index] = offset;
+    mSizes[index] = size;
+    mTracks[index] = track;
+    mTimestamps[index] = presentationTimeUs;
+    mKeyFrames[index] = key;
+    mCount++;
+    mWritePos = offset + size;
+
+    while (mCount > 1 && presentationTimeUs - mTimestamps[mHead] > mWindowUs) evictOldest();
+    return true;
+  }
+
+  /**
+   * Writes out everything buffered, starting at the oldest key frame of {@code keyTrack} so the
+   * output can be decoded from its first sample. Samples of other tracks that come before that key
+   * frame are skipped. The ring is empty afterwards.
+   *
+   * @return the presentation time of the first sample written, or -1 if nothing was written
+   */
+  synchronized long drainTo(int keyTrack, SampleSink sink) {
+    int start = -1;
+    for (int i = 0; i < mCount; i++) {
+      final int index = (mHead + i) % mOffsets.length;
+      if (mTracks[index] == keyTrack && mKeyFrames[index]) {
+        start = i;
+        break;
+      }
+    }
+    if (start == -1) {
+      clear();
+      return -1;
+    }
+
+    final long startUs = mTimestamps[(mHead + start) % mOffsets.length];
+    final ByteBuffer view = mArena.duplicate();
+    for (int i = 0; i < mCount; i++) {
+      final int index = (mHead + i) % mOffsets.length;
+      if (mTracks[index] == keyTrack ? i < start : mTimestamps[index] < startUs) continue;
+      view.limit(mOffsets[index] + mSizes[index]);
+      view.position(mOffsets[index]);
+      sink.writeSample(mTracks[index], view, mTimestamps[index], mKeyFrames[index]);
+    }
+    clear();
+    return startUs;
+  }
+
+  synchronized void clear() {
+    mHead = 0;
+    mCount = 0;
+    mWritePos = 0;
+  }
+
+  synchronized int size() {
+    return mCount;
+  }
+
+  private boolean overlapsOldest(int offset, int size) {
+    final int start = mOffsets[mHead];
+    return start < offset + size && start + mSizes[mHead] > offset;
+  }
+
+  private void evictOldest() {
+    mHead = (mHead + 1) % mOffsets.length;
+    mCount--;
+    if (mCount == 0) mWritePos = 0;
+  }
+}
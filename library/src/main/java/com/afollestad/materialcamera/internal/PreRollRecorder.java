@@ -0,0 +1,359 @@
+package com.afollestad.materialcamera.internal;
+
+import android.annotation.TargetApi;
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.media.MediaRecorder;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.view.Surface;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Records from a Surface like {@link MediaRecorder}, but keeps the encoders running before
+ * recording starts. Encoded samples go into a {@link PreRollBuffer} until {@link
+ * #startMuxing(FileDescriptor, String, int)} is called, at which point the buffered GOPs are
+ * written out first and everything after goes straight to the muxer.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+class PreRollRecorder {
+
+  private static final String TAG = "PreRollRecorder";
+  private static final int TRACK_VIDEO = 0;
+  private static final int TRACK_AUDIO = 1;
+  private static final int I_FRAME_INTERVAL_SEC = 1;
+  private static final int AAC_FRAME_SIZE = 1024;
+  private static final long DEQUEUE_TIMEOUT_US = 10000;
+
+  private final PreRollBuffer mBuffer;
+  private final MediaCodec mVideoEncoder;
+  private final Surface mInputSurface;
+  @Nullable private final MediaCodec mAudioEncoder;
+  @Nullable private final AudioRecord mAudioRecord;
+  private final boolean mRealtimeTimestamps;
+
+  private volatile boolean mRunning;
+  private Thread mVideoThread;
+  private Thread mAudioThread;
+
+  private MediaFormat mVideoFormat;
+  private MediaFormat mAudioFormat;
+  private MediaMuxer mMuxer;
+  private int mVideoTrack = -1;
+  private int mAudioTrack = -1;
+  private long mFirstTimestampUs = -1;
+  private final MediaCodec.BufferInfo mFlushInfo = new MediaCodec.BufferInfo();
+
+  private final PreRollBuffer.SampleSink mMuxerSink =
+      new PreRollBuffer.SampleSink() {
+        @Override
+        public void writeSample(
+            int track, ByteBuffer data, long presentationTimeUs, boolean keyFrame) {
+          mFlushInfo.set(
+              data.position(),
+              data.remaining(),
+              presentationTimeUs,
+              keyFrame ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0);
+          writeToMuxer(track, data, mFlushInfo);
+        }
+      };
+
+  /**
+   * @param videoMimeType Mime type of the video encoder, must be writable to MPEG-4
+   * @param audioSampleRate Sample rate of the recorded audio, or 0 to record without audio
+   * @param realtimeTimestamps Whether the camera stamps frames with {@link
+   *     SystemClock#elapsedRealtimeNanos()} rather than {@link System#nanoTime()}, so that audio
+   *     can be stamped with the same clock.
+   */
+  PreRollRecorder(
+      String videoMimeType,
+      int width,
+      int height,
+      int frameRate,
+      int videoBitRate,
+      int audioSampleRate,
+      int audioChannels,
+      int audioBitRate,
+      long preRollMs,
+      boolean realtimeTimestamps)
+      throws IOException {
+    mRealtimeTimestamps = realtimeTimestamps;
+
+    final MediaFormat videoFormat = MediaFormat.createVideoFormat(videoMimeType, width, height);
+    videoFormat.setInteger(
+        MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+    videoFormat.setInteger(MediaFormat.KEY_BIT_RATE, videoBitRate);
+    videoFormat.setInteger(MediaFormat.KEY_FRAME_RATE, frameRate);
+    // Short GOPs keep the amount of pre-roll lost to key frame alignment small
+    videoFormat.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, I_FRAME_INTERVAL_SEC);
+    mVideoEncoder = MediaCodec.createEncoderByType(videoMimeType);
+    mVideoEncoder.configure(videoFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+    mInputSurface = mVideoEncoder.createInputSurface();
+
+    if (audioSampleRate > 0) {
+      final MediaFormat audioFormat =
+          MediaFormat.createAudioFormat(
+              MediaFormat.MIMETYPE_AUDIO_AAC, audioSampleRate, audioChannels);
+      audioFormat.setInteger(
+          MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC);
+      audioFormat.setInteger(MediaFormat.KEY_BIT_RATE, audioBitRate);
+      mAudioEncoder = MediaCodec.createEncoderByType(MediaFormat.MIMETYPE_AUDIO_AAC);
+      mAudioEncoder.configure(audioFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+      final int channelConfig =
+          audioChannels == 1 ? AudioFormat.CHANNEL_IN_MONO : AudioFormat.CHANNEL_IN_STEREO;
+      final int minBufferSize =
+          AudioRecord.getMinBufferSize(
+              audioSampleRate, channelConfig, AudioFormat.ENCODING_PCM_16BIT);
+      mAudioRecord =
+          new AudioRecord(
+              MediaRecorder.AudioSource.CAMCORDER,
+              audioSampleRate,
+              channelConfig,
+              AudioFormat.ENCODING_PCM_16BIT,
+              Math.max(minBufferSize, AAC_FRAME_SIZE * audioChannels * 2) * 2);
+    } else {
+      mAudioEncoder = null;
+      mAudioRecord = null;
+    }
+
+    // Sized for the requested window plus one GOP, since output has to start at a key frame,
+    // with headroom for encoders overshooting their target bit rate.
+    final long windowMs = preRollMs + I_FRAME_INTERVAL_SEC * 1000;
+    final long bytesPerSec = (videoBitRate + (mAudioEncoder != null ? audioBitRate : 0)) / 8;
+    final long capacity = bytesPerSec * windowMs / 1000 * 2;
+    final int audioFramesPerSec = mAudioEncoder != null ? audioSampleRate / AAC_FRAME_SIZE + 1 : 0;
+    final long maxSamples = (frameRate + audioFramesPerSec) * windowMs / 1000 * 2;
+    mBuffer =
+        new PreRollBuffer(
+            (int) Math.min(capacity, Integer.MAX_VALUE),
+            (int) Math.min(maxSamples, Integer.MAX_VALUE),
+            windowMs * 1000);
+  }
+
+  /** The Surface the camera should render recorded frames into. */
+  @NonNull
+  Surface getInputSurface() {
+    return mInputSurface;
+  }
+
+  /** Starts encoding into the pre-roll buffer. */
+  void start() {
+    mRunning = true;
+    mVideoEncoder.start();
+    mVideoThread = new Thread(mVideoDrain, "PreRollVideo");
+    mVideoThread.start();
+    if (mAudioEncoder != null && mAudioRecord != null) {
+      mAudioEncoder.start();
+      mAudioRecord.startRecording();
+      mAudioThread = new Thread(mAudioLoop, "PreRollAudio");
+      mAudioThread.start();
+    }
+  }
+
+  /**
+   * Starts writing to the output, beginning with the buffered pre-roll.
+   *
+   * @param descriptor Output file descriptor, used on API 26 and above
+   * @param path Output path, used when no descriptor is given or it can't be used. For a descriptor
+   *     this should be its /proc/self/fd path.
+   */
+  synchronized void startMuxing(
+      @Nullable FileDescriptor descriptor, @Nullable String path, int orientationHint)
+      throws IOException {
+    if (mVideoFormat == null) throw new IOException("The video encoder hasn't started yet.");
+    if (descriptor != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+      mMuxer = new MediaMuxer(descriptor, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+    } else {
+      mMuxer = new MediaMuxer(path, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+    }
+    mMuxer.setOrientationHint(orientationHint);
+    mVideoTrack = mMuxer.addTrack(mVideoFormat);
+    if (mAudioFormat != null) mAudioTrack = mMuxer.addTrack(mAudioFormat);
+    mMuxer.start();
+    final long startUs = mBuffer.drainTo(TRACK_VIDEO, mMuxerSink);
+    Log.d(TAG, "Muxing started, pre-roll starts at " + startUs + "us");
+  }
+
+  /**
+   * Stops the encoders and finalizes the output if muxing was started. Only the end of stream is
+   * signalled on the calling thread, waiting for the encoders and writing the index happen on
+   * another one.
+   *
+   * @param onReleased Posted to the main thread once the output is complete, may be null
+   */
+  void release(@Nullable final Runnable onReleased) {
+    mRunning = false;
+    try {
+      mVideoEncoder.signalEndOfInputStream();
+    } catch (IllegalStateException ignored) {
+    }
+    new Thread(
+            new Runnable() {
+              @Override
+              public void run() {
+                finish();
+                if (onReleased != null) new Handler(Looper.getMainLooper()).post(onReleased);
+              }
+            },
+            "PreRollRelease")
+        .start();
+  }
+
+  private void finish() {
+    joinQuietly(mVideoThread);
+    joinQuietly(mAudioThread);
+    if (mAudioRecord != null) {
+      try {
+        mAudioRecord.stop();
+      } catch (IllegalStateException ignored) {
+      }
+      mAudioRecord.release();
+    }
+    releaseCodec(mAudioEncoder);
+    releaseCodec(mVideoEncoder);
+    mInputSurface.release();
+    synchronized (this) {
+      if (mMuxer != null) {
+        try {
+          mMuxer.stop();
+        } catch (IllegalStateException e) {
+          Log.e(TAG, "Failed to finalize the output: " + e.getMessage());
+        }
+        mMuxer.release();
+        mMuxer = null;
+      }
+    }
+    mBuffer.clear();
+  }
+
+  private synchronized void onSample(int track, ByteBuffer data, MediaCodec.BufferInfo info) {
+    if (mMuxer != null) {
+      writeToMuxer(track, data, info);
+    } else {
+      mBuffer.append(
+          track,
+          data,
+          info.presentationTimeUs,
+          (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0);
+    }
+  }
+
+  private void writeToMuxer(int track, ByteBuffer data, MediaCodec.BufferInfo info) {
+    final int muxerTrack = track == TRACK_VIDEO ? mVideoTrack : mAudioTrack;
+    if (muxerTrack == -1) return;
+    if (mFirstTimestampUs == -1) {
+      // Nothing was buffered, output has to start at the next video key frame
+      if (track != TRACK_VIDEO || (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) == 0) return;
+      mFirstTimestampUs = info.presentationTimeUs;
+    }
+    info.presentationTimeUs -= mFirstTimestampUs;
+    if (info.presentationTimeUs < 0) return;
+    mMuxer.writeSampleData(muxerTrack, data, info);
+  }
+
+  /** @return false once the end of stream was reached */
+  private boolean drain(MediaCodec encoder, int track, MediaCodec.BufferInfo info, long timeoutUs) {
+    final int index = encoder.dequeueOutputBuffer(info, timeoutUs);
+    if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+      synchronized (this) {
+        if (track == TRACK_VIDEO) mVideoFormat = encoder.getOutputFormat();
+        else mAudioFormat = encoder.getOutputFormat();
+      }
+    } else if (index >= 0) {
+      final ByteBuffer data = encoder.getOutputBuffer(index);
+      if (data != null
+          && info.size > 0
+          && (info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0) {
+        data.limit(info.offset + info.size);
+        data.position(info.offset);
+        onSample(track, data, info);
+      }
+      encoder.releaseOutputBuffer(index, false);
+      return (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) == 0;
+    }
+    return true;
+  }
+
+  private final Runnable mVideoDrain =
+      new Runnable() {
+        @Override
+        public void run() {
+          final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+          try {
+            //noinspection StatementWithEmptyBody
+            while (drain(mVideoEncoder, TRACK_VIDEO, info, DEQUEUE_TIMEOUT_US)) {}
+          } catch (IllegalStateException e) {
+            Log.e(TAG, "Video encoder stopped: " + e.getMessage());
+          }
+        }
+      };
+
+  private final Runnable mAudioLoop =
+      new Runnable() {
+        @Override
+        public void run() {
+          //noinspection ConstantConditions
+          final MediaCodec encoder = mAudioEncoder;
+          final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+          try {
+            boolean inputDone = false;
+            while (true) {
+              if (!inputDone) {
+                final int index = encoder.dequeueInputBuffer(DEQUEUE_TIMEOUT_US);
+                if (index >= 0) {
+                  final ByteBuffer input = encoder.getInputBuffer(index);
+                  //noinspection ConstantConditions
+                  input.clear();
+                  //noinspection ConstantConditions
+                  final int read = mAudioRecord.read(input, input.capacity());
+                  final long timestampUs =
+                      (mRealtimeTimestamps ? SystemClock.elapsedRealtimeNanos() : System.nanoTime())
+                          / 1000;
+                  inputDone = !mRunning;
+                  encoder.queueInputBuffer(
+                      index,
+                      0,
+                      Math.max(read, 0),
+                      timestampUs,
+                      inputDone ? MediaCodec.BUFFER_FLAG_END_OF_STREAM : 0);
+                }
+              }
+              if (!drain(encoder, TRACK_AUDIO, info, inputDone ? DEQUEUE_TIMEOUT_US : 0)) break;
+            }
+          } catch (IllegalStateException e) {
+            Log.e(TAG, "Audio encoder stopped: " + e.getMessage());
+          }
+        }
+      };
+
+  private static void releaseCodec(@Nullable MediaCodec codec) {
+    if (codec == null) return;
+    try {
+      codec.stop();
+    } catch (IllegalStateException ignored) {
+    }
+    codec.release();
+  }
+
+  private static void joinQuietly(@Nullable Thread thread) {
+    if (thread == null) return;
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
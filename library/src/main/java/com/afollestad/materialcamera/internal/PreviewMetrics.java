@@ -0,0 +1,98 @@
+package com.afollestad.materialcamera.internal;
+
+import android.annotation.TargetApi;
+import android.hardware.camera2.CaptureResult;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import com.afollestad.materialcamera.PreviewStats;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects {@link PreviewStats} from the capture results of the preview. Counting a frame is a
+ * handful of arithmetic, only the report that's posted about once a second allocates.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+class PreviewMetrics {
+
+  private static final long REPORT_INTERVAL_NS = TimeUnit.SECONDS.toNanos(1);
+
+  private final PreviewStats.Listener mListener;
+  private final Handler mHandler = new Handler(Looper.getMainLooper());
+  private final long[] mHistogram = new long[PreviewStats.INTERVAL_BUCKETS_MS.length + 1];
+
+  private long mLastTimestamp = -1;
+  private long mLastFrameNumber = -1;
+  private long mFrameCount;
+  private long mDroppedFrames;
+  private long mWindowStart;
+  private long mWindowFrames;
+  private long mWorstInterval;
+
+  /** @param listener Called on the main thread */
+  PreviewMetrics(PreviewStats.Listener listener) {
+    mListener = listener;
+  }
+
+  /** Counts a completed preview frame, call in the order results arrive. */
+  void onCaptureCompleted(CaptureResult result) {
+    final Long timestamp = result.get(CaptureResult.SENSOR_TIMESTAMP);
+    if (timestamp == null) return;
+    final long frameNumber = result.getFrameNumber();
+    if (frameNumber <= mLastFrameNumber) return;
+
+    mFrameCount++;
+    if (mLastTimestamp == -1) {
+      mWindowStart = timestamp;
+      mWindowFrames = 0;
+    } else {
+      mDroppedFrames += frameNumber - mLastFrameNumber - 1;
+      final long interval = timestamp - mLastTimestamp;
+      mWorstInterval = Math.max(mWorstInterval, interval);
+      final long intervalMs = TimeUnit.NANOSECONDS.toMillis(interval);
+      int bucket = 0;
+      while (bucket < PreviewStats.INTERVAL_BUCKETS_MS.length
+          && intervalMs >= PreviewStats.INTERVAL_BUCKETS_MS[bucket]) {
+        bucket++;
+      }
+      mHistogram[bucket]++;
+      mWindowFrames++;
+    }
+    mLastTimestamp = timestamp;
+    mLastFrameNumber = frameNumber;
+
+    final long elapsed = timestamp - mWindowStart;
+    if (elapsed >= REPORT_INTERVAL_NS) {
+      report((float) mWindowFrames * TimeUnit.SECONDS.toNanos(1) / elapsed);
+      mWindowStart = timestamp;
+      mWindowFrames = 0;
+      mWorstInterval = 0;
+    }
+  }
+
+  /** Starts over for a new capture session, the totals are kept. */
+  void reset() {
+    mLastTimestamp = -1;
+    mLastFrameNumber = -1;
+    mWorstInterval = 0;
+  }
+
+  private void report(float fps) {
+    final PreviewStats stats =
+        new PreviewStats(
+            fps,
+            mFrameCount,
+            mDroppedFrames,
+            TimeUnit.NANOSECONDS.toMillis(mWorstInterval),
+            mHistogram.clone());
+    mHandler.post(
+        new Runnable() {
+          @Override
+          public void run() {
+            mListener.onPreviewStats(stats);
+          }
+        });
+  }
+}
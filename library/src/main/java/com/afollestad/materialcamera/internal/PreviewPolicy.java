@@ -0,0 +1,141 @@
+package com.afollestad.materialcamera.internal;
+
+import android.annotation.TargetApi;
+import android.app.ActivityManager;
+import android.content.Context;
+import android.hardware.camera2.CameraCharacteristics;
+import android.os.Build;
+import android.os.PowerManager;
+import android.support.annotation.Nullable;
+import android.util.Range;
+import com.afollestad.materialcamera.Calibration;
+import com.afollestad.materialcamera.util.DeviceQuirks;
+import java.lang.reflect.Method;
+
+/**
+ * Decides how large and how fast the preview may be, from the device's class and how hot it is.
+ * Low-end devices (low RAM or a LEGACY camera) get a 720p preview at up to 24 fps, others 1080p at
+ * up to 30 fps. As the device heats up the frame rate is lowered, and from the severe thermal state
+ * on the next session also falls back to 720p. {@link DeviceQuirks} can lower both further, and so
+ * can a saved {@link Calibration} that picked Camera2, for stills with the back camera.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+class PreviewPolicy {
+
+  // Mirrors PowerManager.THERMAL_STATUS_*, added in API 29
+  static final int THERMAL_STATUS_NONE = 0;
+  static final int THERMAL_STATUS_MODERATE = 2;
+  static final int THERMAL_STATUS_SEVERE = 3;
+
+  private static final int API_THERMAL_STATUS = 29;
+  private static final long LOW_END_TOTAL_MEMORY = 2L * 1024 * 1024 * 1024;
+
+  private static Method sGetThermalStatus;
+
+  private final PowerManager mPowerManager;
+  private final boolean mLowEnd;
+  private final DeviceQuirks mQuirks;
+  @Nullable private final Calibration mCalibration;
+
+  PreviewPolicy(
+      Context context,
+      CameraCharacteristics characteristics,
+      DeviceQuirks quirks,
+      boolean stillShot) {
+    mQuirks = quirks;
+    // Only what was measured: the back camera previewing for stills
+    final Calibration calibration = stillShot ? Calibration.getSaved(context) : null;
+    final Integer facing = characteristics.get(CameraCharacteristics.LENS_FACING);
+    mCalibration =
+        calibration != null
+                && calibration.getBackend() == DeviceQuirks.BACKEND_CAMERA2
+                && facing != null
+                && facing == CameraCharacteristics.LENS_FACING_BACK
+            ? calibration
+            : null;
+    mPowerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+    final ActivityManager activityManager =
+        (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+    final ActivityManager.MemoryInfo memoryInfo = new ActivityManager.MemoryInfo();
+    activityManager.getMemoryInfo(memoryInfo);
+    final Integer level = characteristics.get(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
+    mLowEnd =
+        (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT && activityManager.isLowRamDevice())
+            || memoryInfo.totalMem < LOW_END_TOTAL_MEMORY
+            || level == null
+            || level == CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY;
+  }
+
+  static boolean hasThermalStatus() {
+    return Build.VERSION.SDK_INT >= API_THERMAL_STATUS;
+  }
+
+  /** @return the largest preview width to use, in sensor orientation */
+  int getMaxPreviewWidth() {
+    final int width = useSmallPreview() ? 1280 : 1920;
+    return cap(
+        cap(width, mQuirks.getPreviewWidth()),
+        mCalibration != null ? mCalibration.getPreviewWidth() : 0);
+  }
+
+  /** @return the largest preview height to use, in sensor orientation */
+  int getMaxPreviewHeight() {
+    final int height = useSmallPreview() ? 720 : 1080;
+    return cap(
+        cap(height, mQuirks.getPreviewHeight()),
+        mCalibration != null ? mCalibration.getPreviewHeight() : 0);
+  }
+
+  /** @return the highest frame rate the preview should run at in {@code thermalStatus} */
+  int getMaxFps(int thermalStatus) {
+    final int maxFps;
+    if (thermalStatus >= THERMAL_STATUS_SEVERE) maxFps = 15;
+    else if (mLowEnd || thermalStatus >= THERMAL_STATUS_MODERATE) maxFps = 24;
+    else maxFps = 30;
+    return cap(maxFps, mQuirks.getMaxFps());
+  }
+
+  /** @return {@code value}, lowered to {@code limit} unless that's 0 */
+  private static int cap(int value, int limit) {
+    return limit > 0 ? Math.min(value, limit) : value;
+  }
+
+  /**
+   * Picks the still preview's AE target fps range: the fastest one within {@code maxFps}, with the
+   * lowest minimum so exposure can lengthen in dim scenes.
+   */
+  @Nullable
+  static Range<Integer> choosePreviewFpsRange(Range<Integer>[] choices, int maxFps) {
+    Range<Integer> best = null;
+    Range<Integer> slowest = null;
+    for (Range<Integer> range : choices) {
+      if (slowest == null || range.getUpper() < slowest.getUpper()) slowest = range;
+      if (range.getUpper() > maxFps) continue;
+      if (best == null
+          || range.getUpper() > best.getUpper()
+          || (range.getUpper().equals(best.getUpper()) && range.getLower() < best.getLower())) {
+        best = range;
+      }
+    }
+    return best != null ? best : slowest;
+  }
+
+  /** @return the current PowerManager thermal status, or none before API 29 */
+  int getThermalStatus() {
+    // Not in the compile SDK yet, so it's looked up reflectively
+    if (!hasThermalStatus()) return THERMAL_STATUS_NONE;
+    try {
+      if (sGetThermalStatus == null)
+        sGetThermalStatus = PowerManager.class.getMethod("getCurrentThermalStatus");
+      return (Integer) sGetThermalStatus.invoke(mPowerManager);
+    } catch (Exception e) {
+      return THERMAL_STATUS_NONE;
+    }
+  }
+
+  private boolean useSmallPreview() {
+    return mLowEnd || getThermalStatus() >= THERMAL_STATUS_SEVERE;
+  }
+}
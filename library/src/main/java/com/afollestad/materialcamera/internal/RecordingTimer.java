@@ -0,0 +1,88 @@
+package com.afollestad.materialcamera.internal;
+
+import android.support.v4.view.ViewCompat;
+import android.view.View;
+import com.afollestad.materialcamera.util.DurationFormatter;
+
+/**
+ * Drives a recording duration label from the display's frame clock. Rather than ticking at a fixed
+ * rate, it wakes up on the first frame after the shown second changes, or after the end of a
+ * countdown, so the label is updated once per second and a countdown finishes within a frame of its
+ * end. Labels are formatted into a reused buffer.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+class RecordingTimer implements Runnable {
+
+  interface Callback {
+    /** @param label Only valid until the next call, copy it to keep it */
+    void onTick(CharSequence label);
+
+    /** The end of the countdown was reached, the timer is stopped. */
+    void onFinished();
+  }
+
+  private final DurationFormatter mFormatter = new DurationFormatter();
+  private final Callback mCallback;
+
+  private View mView;
+  private long mStart;
+  private long mEnd;
+  private long mShownSecond;
+
+  RecordingTimer(Callback callback) {
+    mCallback = callback;
+  }
+
+  /**
+   * Counts down to {@code end}, or up from {@code start} if there's no end. Both are wall clock
+   * times, like {@link BaseCaptureInterface#getRecordingStart()}.
+   *
+   * @param view Schedules the ticks, they stop if it's detached
+   */
+  void start(View view, long start, long end) {
+    stop();
+    if (start == -1 && end == -1) return;
+    mView = view;
+    mStart = start;
+    mEnd = end;
+    mShownSecond = -1;
+    run();
+  }
+
+  void stop() {
+    if (mView != null) {
+      mView.removeCallbacks(this);
+      mView = null;
+    }
+  }
+
+  @Override
+  public void run() {
+    if (mView == null) return;
+    final long now = System.currentTimeMillis();
+    final long delay;
+    if (mEnd != -1) {
+      final long remaining = mEnd - now;
+      if (remaining <= 0) {
+        stop();
+        mCallback.onFinished();
+        return;
+      }
+      show(remaining / 1000, true);
+      // The shown second drops once the remaining time falls below it, unless the end comes first
+      delay = Math.min(remaining % 1000 + 1, remaining);
+    } else {
+      final long elapsed = Math.max(0, now - mStart);
+      show(elapsed / 1000, false);
+      delay = 1000 - elapsed % 1000;
+    }
+    ViewCompat.postOnAnimationDelayed(mView, this, delay);
+  }
+
+  private void show(long second, boolean negative) {
+    if (second == mShownSecond) return;
+    mShownSecond = second;
+    mCallback.onTick(mFormatter.format(second * 1000, negative));
+  }
+}
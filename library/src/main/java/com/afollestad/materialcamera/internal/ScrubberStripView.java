@@ -0,0 +1,129 @@
+package com.afollestad.materialcamera.internal;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.View;
+
+/**
+ * A row of video thumbnails with a position marker, dragging over it scrubs. Slots without a
+ * thumbnail yet are drawn as placeholders, so the strip can fill in as thumbnails arrive. Nothing
+ * is allocated while drawing.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+class ScrubberStripView extends View {
+
+  interface OnScrubListener {
+    void onScrub(float fraction);
+  }
+
+  private final Paint mBitmapPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+  private final Paint mPlaceholderPaint = new Paint();
+  private final Paint mMarkerPaint = new Paint();
+  private final Rect mSource = new Rect();
+  private final Rect mDestination = new Rect();
+
+  private Bitmap[] mThumbnails = new Bitmap[0];
+  private float mProgress;
+  private OnScrubListener mListener;
+
+  public ScrubberStripView(Context context) {
+    this(context, null);
+  }
+
+  public ScrubberStripView(Context context, AttributeSet attrs) {
+    this(context, attrs, 0);
+  }
+
+  public ScrubberStripView(Context context, AttributeSet attrs, int defStyle) {
+    super(context, attrs, defStyle);
+    mPlaceholderPaint.setColor(0x40ffffff);
+    mMarkerPaint.setColor(Color.WHITE);
+    mMarkerPaint.setStrokeWidth(2 * getResources().getDisplayMetrics().density);
+  }
+
+  public void setSlotCount(int count) {
+    mThumbnails = new Bitmap[count];
+    invalidate();
+  }
+
+  public void setThumbnail(int index, Bitmap thumbnail) {
+    if (index < 0 || index >= mThumbnails.length) return;
+    mThumbnails[index] = thumbnail;
+    invalidate();
+  }
+
+  /** @param progress Position of the marker, from 0 to 1 */
+  public void setProgress(float progress) {
+    progress = Math.max(0f, Math.min(1f, progress));
+    if (progress == mProgress) return;
+    mProgress = progress;
+    invalidate();
+  }
+
+  public void setOnScrubListener(OnScrubListener listener) {
+    mListener = listener;
+  }
+
+  @Override
+  public boolean onTouchEvent(MotionEvent event) {
+    final int width = getWidth() - getPaddingLeft() - getPaddingRight();
+    if (width <= 0 || !isEnabled()) return false;
+    switch (event.getActionMasked()) {
+      case MotionEvent.ACTION_DOWN:
+        getParent().requestDisallowInterceptTouchEvent(true);
+        // fall through
+      case MotionEvent.ACTION_MOVE:
+        setProgress((event.getX() - getPaddingLeft()) / width);
+        if (mListener != null) mListener.onScrub(mProgress);
+        return true;
+      case MotionEvent.ACTION_UP:
+      case MotionEvent.ACTION_CANCEL:
+        getParent().requestDisallowInterceptTouchEvent(false);
+        return true;
+    }
+    return super.onTouchEvent(event);
+  }
+
+  @Override
+  protected void onDraw(Canvas canvas) {
+    final int left = getPaddingLeft();
+    final int top = getPaddingTop();
+    final int width = getWidth() - left - getPaddingRight();
+    final int bottom = getHeight() - getPaddingBottom();
+    final int count = mThumbnails.length;
+    if (width <= 0 || bottom <= top) return;
+
+    for (int i = 0; i < count; i++) {
+      mDestination.set(left + width * i / count, top, left + width * (i + 1) / count, bottom);
+      final Bitmap thumbnail = mThumbnails[i];
+      if (thumbnail == null || thumbnail.isRecycled()) {
+        canvas.drawRect(mDestination, mPlaceholderPaint);
+        continue;
+      }
+      centerCrop(thumbnail, mDestination, mSource);
+      canvas.drawBitmap(thumbnail, mSource, mDestination, mBitmapPaint);
+    }
+
+    final float x = left + width * mProgress;
+    canvas.drawLine(x, top, x, bottom, mMarkerPaint);
+  }
+
+  private static void centerCrop(Bitmap bitmap, Rect destination, Rect out) {
+    final int width = bitmap.getWidth();
+    final int height = bitmap.getHeight();
+    if (width * destination.height() > height * destination.width()) {
+      final int cropped = height * destination.width() / Math.max(1, destination.height());
+      out.set((width - cropped) / 2, 0, (width + cropped) / 2, height);
+    } else {
+      final int cropped = width * destination.height() / Math.max(1, destination.width());
+      out.set(0, (height - cropped) / 2, width, (height + cropped) / 2);
+    }
+  }
+}
@@ -86,7 +86,7 @@ public class StillshotPreviewFragment extends BaseGalleryFragment {
 
     // TODO IMPROVE MEMORY USAGE HERE, ESPECIALLY ON LOW-END DEVICES.
     if (mBitmap == null)
-      mBitmap = ImageUtil.getRotatedBitmap(Uri.parse(mOutputUri).getPath(), width, height);
+      mBitmap = ImageUtil.getRotatedBitmap(getActivity(), Uri.parse(mOutputUri), width, height);
 
     if (mBitmap == null)
       showDialog(
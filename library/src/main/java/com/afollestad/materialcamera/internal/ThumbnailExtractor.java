@@ -0,0 +1,202 @@
+package com.afollestad.materialcamera.internal;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.util.LruCache;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pulls evenly spaced thumbnails out of a video for the playback scrubber. Only sync frames are
+ * decoded, which needs no decoding of the frames in between, and the frames are scaled down right
+ * away. Slots are filled coarse to fine, so the strip looks complete early on. Thumbnails are kept
+ * in a process wide LRU cache keyed by Uri and timestamp, so coming back to the same video (a
+ * rotation, for example) doesn't decode anything.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+class ThumbnailExtractor {
+
+  interface Listener {
+    /** Called on the main thread as each thumbnail becomes available, in no particular order. */
+    void onThumbnail(int index, Bitmap thumbnail);
+  }
+
+  private static final String TAG = "ThumbnailExtractor";
+  private static final int WORKER_COUNT = 2;
+
+  private static final Executor sExecutor =
+      new ThreadPoolExecutor(
+          WORKER_COUNT,
+          WORKER_COUNT,
+          1,
+          TimeUnit.SECONDS,
+          new LinkedBlockingQueue<Runnable>(),
+          new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable r) {
+              return new Thread(TAG + " #" + mCount.incrementAndGet()) {
+                @Override
+                public void run() {
+                  Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                  r.run();
+                }
+              };
+            }
+          });
+
+  private static LruCache<String, Bitmap> sCache;
+
+  static {
+    ((ThreadPoolExecutor) sExecutor).allowCoreThreadTimeOut(true);
+  }
+
+  private final Context mContext;
+  private final Uri mUri;
+  private final int mCount;
+  private final int mHeight;
+  private final Listener mListener;
+  private final Handler mHandler = new Handler(Looper.getMainLooper());
+  private final AtomicInteger mNext = new AtomicInteger();
+
+  private volatile boolean mCancelled;
+  private volatile long mDurationUs = -1;
+  private final int[] mOrder;
+
+  /** @param height Height of the thumbnails, the width follows the video's aspect ratio */
+  ThumbnailExtractor(Context context, Uri uri, int count, int height, Listener listener) {
+    mContext = context.getApplicationContext();
+    mUri = uri;
+    mCount = count;
+    mHeight = height;
+    mListener = listener;
+    mOrder = coarseToFine(count);
+  }
+
+  void start() {
+    for (int i = 0; i < WORKER_COUNT; i++) {
+      sExecutor.execute(
+          new Runnable() {
+            @Override
+            public void run() {
+              extract();
+            }
+          });
+    }
+  }
+
+  /** Stops as soon as possible, the listener won't be called anymore. */
+  void cancel() {
+    mCancelled = true;
+  }
+
+  /** Drops the cached thumbnails of {@code uri}, for destinations that get overwritten. */
+  static void evict(Uri uri) {
+    final String prefix = uri + "@";
+    final LruCache<String, Bitmap> cache = getCache();
+    for (String key : cache.snapshot().keySet()) {
+      if (key.startsWith(prefix)) cache.remove(key);
+    }
+  }
+
+  private void extract() {
+    // Each worker has its own retriever, they aren't safe to share between threads
+    MediaMetadataRetriever retriever = null;
+    try {
+      int slot;
+      while (!mCancelled && (slot = mNext.getAndIncrement()) < mCount) {
+        final int index = mOrder[slot];
+        if (retriever == null) {
+          retriever = new MediaMetadataRetriever();
+          retriever.setDataSource(mContext, mUri);
+          if (mDurationUs == -1) mDurationUs = getDurationUs(retriever);
+        }
+        final long timeUs = mDurationUs * index / mCount + mDurationUs / (2 * mCount);
+        final String key = mUri + "@" + timeUs + "/" + mHeight;
+        Bitmap thumbnail = getCache().get(key);
+        if (thumbnail == null) {
+          thumbnail = decode(retriever, timeUs);
+          if (thumbnail == null) continue;
+          getCache().put(key, thumbnail);
+        }
+        deliver(index, thumbnail);
+      }
+    } catch (RuntimeException e) {
+      Log.w(TAG, "Failed to extract thumbnails from " + mUri + ": " + e.getMessage());
+    } finally {
+      if (retriever != null) retriever.release();
+    }
+  }
+
+  @Nullable
+  private Bitmap decode(MediaMetadataRetriever retriever, long timeUs) {
+    final Bitmap frame =
+        retriever.getFrameAtTime(timeUs, MediaMetadataRetriever.OPTION_CLOSEST_SYNC);
+    if (frame == null || frame.getHeight() == 0) return null;
+    final int width = Math.max(1, frame.getWidth() * mHeight / frame.getHeight());
+    final Bitmap scaled = Bitmap.createScaledBitmap(frame, width, mHeight, true);
+    if (scaled != frame) frame.recycle();
+    return scaled;
+  }
+
+  private void deliver(final int index, final Bitmap thumbnail) {
+    mHandler.post(
+        new Runnable() {
+          @Override
+          public void run() {
+            if (!mCancelled) mListener.onThumbnail(index, thumbnail);
+          }
+        });
+  }
+
+  private static long getDurationUs(MediaMetadataRetriever retriever) {
+    final String duration = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
+    try {
+      return duration != null ? Long.parseLong(duration) * 1000 : 0;
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  /** Orders slots by halving the gaps between them, e.g. 0, 4, 2, 6, 1, 3, 5, 7 for 8 slots. */
+  private static int[] coarseToFine(int count) {
+    final int[] order = new int[count];
+    final boolean[] taken = new boolean[count];
+    int filled = 0;
+    for (int step = Integer.highestOneBit(Math.max(1, count)); step > 0; step /= 2) {
+      for (int i = 0; i < count; i += step) {
+        if (taken[i]) continue;
+        taken[i] = true;
+        order[filled++] = i;
+      }
+    }
+    return order;
+  }
+
+  private static synchronized LruCache<String, Bitmap> getCache() {
+    if (sCache == null) {
+      final int maxBytes = (int) Math.min(Runtime.getRuntime().maxMemory() / 16, 8 * 1024 * 1024);
+      sCache =
+          new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+              return value.getRowBytes() * value.getHeight();
+            }
+          };
+    }
+    return sCache;
+  }
+}
@@ -0,0 +1,759 @@
+package com.afollestad.materialcamera.internal;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.SurfaceTexture;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaMetadataRetriever;
+import android.media.MediaMuxer;
+import android.net.Uri;
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLExt;
+import android.opengl.EGLSurface;
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+import android.opengl.Matrix;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.view.Surface;
+import com.afollestad.materialcamera.CaptureManifest;
+import com.afollestad.materialcamera.util.ChunkedDigest;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Re-encodes a recorded video to a smaller H.264 rendition. Frames go from the decoder to the
+ * encoder through a GL texture, which is also where the rotation from the recorder's orientation
+ * hint is baked in. AAC audio is copied over as is, anything else is re-encoded to AAC.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+class VideoTranscoder implements Runnable {
+
+  interface Listener {
+    void onTranscodeProgress(int percent);
+
+    /** @param manifest Manifest of the output, if a chunk size was given and there was no error */
+    void onTranscodeFinished(@Nullable CaptureManifest manifest, @Nullable Exception e);
+  }
+
+  private static final String TAG = "VideoTranscoder";
+  private static final long TIMEOUT_US = 10000;
+  private static final int DEFAULT_FRAME_RATE = 30;
+  private static final int I_FRAME_INTERVAL_SEC = 1;
+  private static final int AUDIO_BIT_RATE = 128000;
+  private static final int MAX_SAMPLE_SIZE = 1024 * 1024;
+
+  private final Context mContext;
+  private final Uri mInput;
+  private final File mOutput;
+  private final int mShortSide;
+  private final int mBitRate;
+  private final boolean mReplaceInput;
+  private final int mChecksumChunkSize;
+  private final Listener mListener;
+  private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+  private volatile boolean mCancelled;
+  private long mDurationUs;
+  private int mLastProgress = -1;
+
+  /**
+   * @param shortSide Length of the output's shorter side, it's never scaled up
+   * @param replaceInput Whether the output should be copied back over the input when done, for
+   *     destinations given by the caller
+   * @param checksumChunkSize Chunk size of the output's manifest, or -1 to not compute one
+   */
+  VideoTranscoder(
+      Context context,
+      Uri input,
+      File output,
+      int shortSide,
+      int bitRate,
+      boolean replaceInput,
+      int checksumChunkSize,
+      Listener listener) {
+    mContext = context.getApplicationContext();
+    mInput = input;
+    mOutput = output;
+    mShortSide = shortSide;
+    mBitRate = bitRate;
+    mReplaceInput = replaceInput;
+    mChecksumChunkSize = checksumChunkSize;
+    mListener = listener;
+  }
+
+  void start() {
+    new Thread(this, TAG).start();
+  }
+
+  /** Stops transcoding as soon as possible, the listener won't be called anymore. */
+  void cancel() {
+    mCancelled = true;
+  }
+
+  @Override
+  public void run() {
+    Exception error = null;
+    CaptureManifest manifest = null;
+    ParcelFileDescriptor input = null;
+    try {
+      input = mContext.getContentResolver().openFileDescriptor(mInput, "r");
+      if (input == null) throw new IOException("Unable to open " + mInput);
+      transcode(input.getFileDescriptor());
+      final ChunkedDigest digest =
+          mChecksumChunkSize > 0 ? new ChunkedDigest(mChecksumChunkSize) : null;
+      if (mReplaceInput) {
+        // The copy is the one read of the output there is anyway, hash along with it
+        copyOver(mOutput, mInput, digest);
+        //noinspection ResultOfMethodCallIgnored
+        mOutput.delete();
+        if (digest != null) manifest = digest.finish();
+      } else if (digest != null) {
+        manifest = ChunkedDigest.digest(new FileInputStream(mOutput), mChecksumChunkSize);
+      }
+    } catch (Exception e) {
+      error = e;
+      //noinspection ResultOfMethodCallIgnored
+      mOutput.delete();
+    } finally {
+      if (input != null) {
+        try {
+          input.close();
+        } catch (IOException ignored) {
+        }
+      }
+    }
+
+    final Exception result = error;
+    final CaptureManifest resultManifest = manifest;
+    mHandler.post(
+        new Runnable() {
+          @Override
+          public void run() {
+            if (!mCancelled) mListener.onTranscodeFinished(resultManifest, result);
+          }
+        });
+  }
+
+  private void transcode(FileDescriptor fd) throws IOException {
+    final MediaExtractor videoExtractor = new MediaExtractor();
+    final MediaExtractor audioExtractor = new MediaExtractor();
+    MediaCodec videoDecoder = null;
+    MediaCodec videoEncoder = null;
+    MediaCodec audioDecoder = null;
+    MediaCodec audioEncoder = null;
+    EncoderSurface encoderSurface = null;
+    DecoderSurface decoderSurface = null;
+    MediaMuxer muxer = null;
+    boolean muxerStarted = false;
+
+    try {
+      videoExtractor.setDataSource(fd);
+      final int videoIndex = selectTrack(videoExtractor, "video/");
+      if (videoIndex < 0) throw new IOException("No video track found in " + mInput);
+      videoExtractor.selectTrack(videoIndex);
+      final MediaFormat videoInputFormat = videoExtractor.getTrackFormat(videoIndex);
+      mDurationUs =
+          videoInputFormat.containsKey(MediaFormat.KEY_DURATION)
+              ? videoInputFormat.getLong(MediaFormat.KEY_DURATION)
+              : -1;
+
+      // Output dimensions, after rotating and scaling down
+      final int rotation = getRotation(fd);
+      int width = videoInputFormat.getInteger(MediaFormat.KEY_WIDTH);
+      int height = videoInputFormat.getInteger(MediaFormat.KEY_HEIGHT);
+      if (rotation == 90 || rotation == 270) {
+        final int swap = width;
+        width = height;
+        height = swap;
+      }
+      final float scale = Math.min(1f, (float) mShortSide / Math.min(width, height));
+      // Multiples of 16 are the safest bet across hardware encoders
+      width = Math.max(16, Math.round(width * scale / 16f) * 16);
+      height = Math.max(16, Math.round(height * scale / 16f) * 16);
+
+      final MediaFormat videoOutputFormat =
+          MediaFormat.createVideoFormat(MediaFormat.MIMETYPE_VIDEO_AVC, width, height);
+      videoOutputFormat.setInteger(
+          MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+      videoOutputFormat.setInteger(MediaFormat.KEY_BIT_RATE, mBitRate);
+      videoOutputFormat.setInteger(
+          MediaFormat.KEY_FRAME_RATE,
+          videoInputFormat.containsKey(MediaFormat.KEY_FRAME_RATE)
+              ? videoInputFormat.getInteger(MediaFormat.KEY_FRAME_RATE)
+              : DEFAULT_FRAME_RATE);
+      videoOutputFormat.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, I_FRAME_INTERVAL_SEC);
+
+      videoEncoder = MediaCodec.createEncoderByType(MediaFormat.MIMETYPE_VIDEO_AVC);
+      videoEncoder.configure(videoOutputFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+      encoderSurface = new EncoderSurface(videoEncoder.createInputSurface());
+      encoderSurface.makeCurrent();
+      videoEncoder.start();
+
+      decoderSurface = new DecoderSurface(rotation);
+      videoDecoder =
+          MediaCodec.createDecoderByType(videoInputFormat.getString(MediaFormat.KEY_MIME));
+      videoDecoder.configure(videoInputFormat, decoderSurface.getSurface(), null, 0);
+      videoDecoder.start();
+
+      // Audio is copied as is when MPEG-4 can hold it, AAC is the only such codec on all levels
+      audioExtractor.setDataSource(fd);
+      final int audioIndex = selectTrack(audioExtractor, "audio/");
+      MediaFormat audioInputFormat = null;
+      boolean audioPassthrough = false;
+      if (audioIndex >= 0) {
+        audioExtractor.selectTrack(audioIndex);
+        audioInputFormat = audioExtractor.getTrackFormat(audioIndex);
+        audioPassthrough =
+            MediaFormat.MIMETYPE_AUDIO_AAC.equals(audioInputFormat.getString(MediaFormat.KEY_MIME));
+        if (!audioPassthrough) {
+          final MediaFormat audioOutputFormat =
+              MediaFormat.createAudioFormat(
+                  MediaFormat.MIMETYPE_AUDIO_AAC,
+                  audioInputFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE),
+                  audioInputFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT));
+          audioOutputFormat.setInteger(
+              MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC);
+          audioOutputFormat.setInteger(MediaFormat.KEY_BIT_RATE, AUDIO_BIT_RATE);
+          audioEncoder = MediaCodec.createEncoderByType(MediaFormat.MIMETYPE_AUDIO_AAC);
+          audioEncoder.configure(audioOutputFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+          audioEncoder.start();
+          audioDecoder =
+              MediaCodec.createDecoderByType(audioInputFormat.getString(MediaFormat.KEY_MIME));
+          audioDecoder.configure(audioInputFormat, null, null, 0);
+          audioDecoder.start();
+        }
+      }
+
+      muxer =
+          new MediaMuxer(mOutput.getAbsolutePath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+      final boolean hasAudio = audioInputFormat != null;
+      int muxerVideoTrack = -1;
+      int muxerAudioTrack = -1;
+      MediaFormat encodedVideoFormat = null;
+      MediaFormat encodedAudioFormat = audioPassthrough ? audioInputFormat : null;
+
+      final MediaCodec.BufferInfo videoDecoderInfo = new MediaCodec.BufferInfo();
+      final MediaCodec.BufferInfo videoEncoderInfo = new MediaCodec.BufferInfo();
+      final MediaCodec.BufferInfo audioDecoderInfo = new MediaCodec.BufferInfo();
+      final MediaCodec.BufferInfo audioEncoderInfo = new MediaCodec.BufferInfo();
+      final ByteBuffer passthroughBuffer =
+          audioPassthrough ? ByteBuffer.allocate(sampleSize(audioInputFormat)) : null;
+      ByteBuffer[] videoDecoderInputs = videoDecoder.getInputBuffers();
+      ByteBuffer[] videoEncoderOutputs = videoEncoder.getOutputBuffers();
+      ByteBuffer[] audioDecoderInputs =
+          audioDecoder != null ? audioDecoder.getInputBuffers() : null;
+      ByteBuffer[] audioDecoderOutputs =
+          audioDecoder != null ? audioDecoder.getOutputBuffers() : null;
+      ByteBuffer[] audioEncoderInputs =
+          audioEncoder != null ? audioEncoder.getInputBuffers() : null;
+      ByteBuffer[] audioEncoderOutputs =
+          audioEncoder != null ? audioEncoder.getOutputBuffers() : null;
+
+      boolean videoExtractorDone = false;
+      boolean videoDecoderDone = false;
+      boolean videoEncoderDone = false;
+      boolean audioExtractorDone = !hasAudio;
+      boolean audioDecoderDone = !hasAudio || audioPassthrough;
+      boolean audioEncoderDone = !hasAudio;
+      int pendingAudioDecoderOutput = -1;
+
+      while (!videoEncoderDone || !audioEncoderDone) {
+        if (mCancelled) throw new IOException("Transcoding was cancelled.");
+
+        // Video: extractor -> decoder
+        if (!videoExtractorDone) {
+          final int index = videoDecoder.dequeueInputBuffer(TIMEOUT_US);
+          if (index >= 0) {
+            final int size = videoExtractor.readSampleData(videoDecoderInputs[index], 0);
+            if (size < 0) {
+              videoDecoder.queueInputBuffer(index, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+              videoExtractorDone = true;
+            } else {
+              videoDecoder.queueInputBuffer(
+                  index, 0, size, videoExtractor.getSampleTime(), videoExtractor.getSampleFlags());
+              videoExtractor.advance();
+            }
+          }
+        }
+
+        // Video: decoder -> GL -> encoder
+        if (!videoDecoderDone && (encodedVideoFormat == null || muxerStarted)) {
+          final int index = videoDecoder.dequeueOutputBuffer(videoDecoderInfo, TIMEOUT_US);
+          if (index >= 0) {
+            final boolean render = videoDecoderInfo.size != 0;
+            videoDecoder.releaseOutputBuffer(index, render);
+            if (render) {
+              decoderSurface.awaitNewImage();
+              decoderSurface.drawImage(width, height);
+              encoderSurface.setPresentationTime(videoDecoderInfo.presentationTimeUs * 1000);
+              encoderSurface.swapBuffers();
+            }
+            if ((videoDecoderInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+              videoDecoderDone = true;
+              videoEncoder.signalEndOfInputStream();
+            }
+          }
+        }
+
+        // Video: encoder -> muxer
+        if (!videoEncoderDone && (encodedVideoFormat == null || muxerStarted)) {
+          final int index = videoEncoder.dequeueOutputBuffer(videoEncoderInfo, TIMEOUT_US);
+          if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+            encodedVideoFormat = videoEncoder.getOutputFormat();
+          } else if (index == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+            videoEncoderOutputs = videoEncoder.getOutputBuffers();
+          } else if (index >= 0) {
+            if ((videoEncoderInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0
+                && videoEncoderInfo.size != 0) {
+              muxer.writeSampleData(muxerVideoTrack, videoEncoderOutputs[index], videoEncoderInfo);
+              onProgress(videoEncoderInfo.presentationTimeUs);
+            }
+            videoEncoder.releaseOutputBuffer(index, false);
+            videoEncoderDone = (videoEncoderInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+          }
+        }
+
+        if (audioPassthrough) {
+          // Audio: extractor -> muxer
+          if (muxerStarted && !audioExtractorDone) {
+            final int size = audioExtractor.readSampleData(passthroughBuffer, 0);
+            if (size < 0) {
+              audioExtractorDone = true;
+              audioEncoderDone = true;
+            } else {
+              audioEncoderInfo.set(
+                  0,
+                  size,
+                  audioExtractor.getSampleTime(),
+                  (audioExtractor.getSampleFlags() & MediaExtractor.SAMPLE_FLAG_SYNC) != 0
+                      ? MediaCodec.BUFFER_FLAG_KEY_FRAME
+                      : 0);
+              muxer.writeSampleData(muxerAudioTrack, passthroughBuffer, audioEncoderInfo);
+              audioExtractor.advance();
+            }
+          }
+        } else if (hasAudio) {
+          // Audio: extractor -> decoder
+          if (!audioExtractorDone) {
+            final int index = audioDecoder.dequeueInputBuffer(TIMEOUT_US);
+            if (index >= 0) {
+              final int size = audioExtractor.readSampleData(audioDecoderInputs[index], 0);
+              if (size < 0) {
+                audioDecoder.queueInputBuffer(index, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                audioExtractorDone = true;
+              } else {
+                audioDecoder.queueInputBuffer(
+                    index,
+                    0,
+                    size,
+                    audioExtractor.getSampleTime(),
+                    audioExtractor.getSampleFlags());
+                audioExtractor.advance();
+              }
+            }
+          }
+
+          // Audio: decoder -> encoder, PCM is copied between their buffers
+          if (!audioDecoderDone
+              && pendingAudioDecoderOutput == -1
+              && (encodedAudioFormat == null || muxerStarted)) {
+            final int index = audioDecoder.dequeueOutputBuffer(audioDecoderInfo, TIMEOUT_US);
+            if (index == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+              audioDecoderOutputs = audioDecoder.getOutputBuffers();
+            } else if (index >= 0) {
+              if (audioDecoderInfo.size == 0
+                  && (audioDecoderInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) == 0) {
+                audioDecoder.releaseOutputBuffer(index, false);
+              } else {
+                pendingAudioDecoderOutput = index;
+              }
+            }
+          }
+          if (pendingAudioDecoderOutput != -1) {
+            final int index = audioEncoder.dequeueInputBuffer(TIMEOUT_US);
+            if (index >= 0) {
+              final ByteBuffer pcm = audioDecoderOutputs[pendingAudioDecoderOutput];
+              final int size =
+                  Math.min(audioDecoderInfo.size, audioEncoderInputs[index].capacity());
+              pcm.limit(audioDecoderInfo.offset + size);
+              pcm.position(audioDecoderInfo.offset);
+              audioEncoderInputs[index].clear();
+              audioEncoderInputs[index].put(pcm);
+              audioEncoder.queueInputBuffer(
+                  index, 0, size, audioDecoderInfo.presentationTimeUs, audioDecoderInfo.flags);
+              audioDecoder.releaseOutputBuffer(pendingAudioDecoderOutput, false);
+              pendingAudioDecoderOutput = -1;
+              audioDecoderDone =
+                  (audioDecoderInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+            }
+          }
+
+          // Audio: encoder -> muxer
+          if (!audioEncoderDone && (encodedAudioFormat == null || muxerStarted)) {
+            final int index = audioEncoder.dequeueOutputBuffer(audioEncoderInfo, TIMEOUT_US);
+            if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+              encodedAudioFormat = audioEncoder.getOutputFormat();
+            } else if (index == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+              audioEncoderOutputs = audioEncoder.getOutputBuffers();
+            } else if (index >= 0) {
+              if ((audioEncoderInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0
+                  && audioEncoderInfo.size != 0) {
+                muxer.writeSampleData(
+                    muxerAudioTrack, audioEncoderOutputs[index], audioEncoderInfo);
+              }
+              audioEncoder.releaseOutputBuffer(index, false);
+              audioEncoderDone =
+                  (audioEncoderInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+            }
+          }
+        }
+
+        // The muxer can only start once every track's format is known
+        if (!muxerStarted
+            && encodedVideoFormat != null
+            && (!hasAudio || encodedAudioFormat != null)) {
+          muxerVideoTrack = muxer.addTrack(encodedVideoFormat);
+          if (hasAudio) muxerAudioTrack = muxer.addTrack(encodedAudioFormat);
+          muxer.start();
+          muxerStarted = true;
+        }
+      }
+    } finally {
+      videoExtractor.release();
+      audioExtractor.release();
+      releaseCodec(videoDecoder);
+      releaseCodec(videoEncoder);
+      releaseCodec(audioDecoder);
+      releaseCodec(audioEncoder);
+      if (decoderSurface != null) decoderSurface.release();
+      if (encoderSurface != null) encoderSurface.release();
+      if (muxer != null) {
+        try {
+          if (muxerStarted) muxer.stop();
+        } catch (IllegalStateException e) {
+          Log.e(TAG, "Failed to finalize the output: " + e.getMessage());
+        }
+        muxer.release();
+      }
+    }
+  }
+
+  private void onProgress(long presentationTimeUs) {
+    if (mDurationUs <= 0) return;
+    final int progress = (int) Math.min(100, presentationTimeUs * 100 / mDurationUs);
+    if (progress == mLastProgress) return;
+    mLastProgress = progress;
+    mHandler.post(
+        new Runnable() {
+          @Override
+          public void run() {
+            if (!mCancelled) mListener.onTranscodeProgress(progress);
+          }
+        });
+  }
+
+  private void copyOver(File source, Uri destination, @Nullable ChunkedDigest digest)
+      throws IOException {
+    final OutputStream out = mContext.getContentResolver().openOutputStream(destination, "wt");
+    if (out == null) throw new IOException("Unable to open " + destination);
+    final InputStream in = new FileInputStream(source);
+    try {
+      final byte[] buffer = new byte[64 * 1024];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        if (digest != null) digest.update(buffer, 0, read);
+        out.write(buffer, 0, read);
+      }
+    } finally {
+      in.close();
+      out.close();
+    }
+  }
+
+  private static int selectTrack(MediaExtractor extractor, String mimePrefix) {
+    for (int i = 0; i < extractor.getTrackCount(); i++) {
+      final String mime = extractor.getTrackFormat(i).getString(MediaFormat.KEY_MIME);
+      if (mime != null && mime.startsWith(mimePrefix)) return i;
+    }
+    return -1;
+  }
+
+  private static int sampleSize(MediaFormat format) {
+    return format.containsKey(MediaFormat.KEY_MAX_INPUT_SIZE)
+        ? format.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE)
+        : MAX_SAMPLE_SIZE;
+  }
+
+  /** The orientation hint given to the recorder, which is the display orientation at the time. */
+  private static int getRotation(FileDescriptor fd) {
+    final MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+    try {
+      retriever.setDataSource(fd);
+      final String rotation =
+          retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_ROTATION);
+      return rotation != null ? Integer.parseInt(rotation) : 0;
+    } catch (RuntimeException e) {
+      Log.w(TAG, "Couldn't read the video rotation: " + e.getMessage());
+      return 0;
+    } finally {
+      retriever.release();
+    }
+  }
+
+  private static void releaseCodec(@Nullable MediaCodec codec) {
+    if (codec == null) return;
+    try {
+      codec.stop();
+    } catch (IllegalStateException ignored) {
+    }
+    codec.release();
+  }
+
+  /** An EGL window surface on the encoder's input Surface. */
+  private static class EncoderSurface {
+
+    private static final int EGL_RECORDABLE_ANDROID = 0x3142;
+
+    private final Surface mSurface;
+    private EGLDisplay mDisplay = EGL14.EGL_NO_DISPLAY;
+    private EGLContext mContext = EGL14.EGL_NO_CONTEXT;
+    private EGLSurface mEglSurface = EGL14.EGL_NO_SURFACE;
+
+    EncoderSurface(Surface surface) throws IOException {
+      mSurface = surface;
+      mDisplay = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+      final int[] version = new int[2];
+      if (!EGL14.eglInitialize(mDisplay, version, 0, version, 1))
+        throw new IOException("Unable to initialize EGL.");
+      final int[] configAttributes = {
+        EGL14.EGL_RED_SIZE,
+        8,
+        EGL14.EGL_GREEN_SIZE,
+        8,
+        EGL14.EGL_BLUE_SIZE,
+        8,
+        EGL14.EGL_RENDERABLE_TYPE,
+        EGL14.EGL_OPENGL_ES2_BIT,
+        EGL_RECORDABLE_ANDROID,
+        1,
+        EGL14.EGL_NONE
+      };
+      final EGLConfig[] configs = new EGLConfig[1];
+      final int[] count = new int[1];
+      if (!EGL14.eglChooseConfig(mDisplay, configAttributes, 0, configs, 0, 1, count, 0)
+          || count[0] == 0) {
+        throw new IOException("Unable to find a recordable EGL config.");
+      }
+      final int[] contextAttributes = {EGL14.EGL_CONTEXT_CLIENT_VERSION, 2, EGL14.EGL_NONE};
+      mContext =
+          EGL14.eglCreateContext(mDisplay, configs[0], EGL14.EGL_NO_CONTEXT, contextAttributes, 0);
+      final int[] surfaceAttributes = {EGL14.EGL_NONE};
+      mEglSurface =
+          EGL14.eglCreateWindowSurface(mDisplay, configs[0], mSurface, surfaceAttributes, 0);
+      if (mContext == null || mEglSurface == null)
+        throw new IOException("Unable to create the EGL surface: " + EGL14.eglGetError());
+    }
+
+    void makeCurrent() throws IOException {
+      if (!EGL14.eglMakeCurrent(mDisplay, mEglSurface, mEglSurface, mContext))
+        throw new IOException("eglMakeCurrent failed: " + EGL14.eglGetError());
+    }
+
+    void setPresentationTime(long nanos) {
+      EGLExt.eglPresentationTimeANDROID(mDisplay, mEglSurface, nanos);
+    }
+
+    void swapBuffers() {
+      EGL14.eglSwapBuffers(mDisplay, mEglSurface);
+    }
+
+    void release() {
+      if (mDisplay != EGL14.EGL_NO_DISPLAY) {
+        EGL14.eglMakeCurrent(
+            mDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
+        EGL14.eglDestroySurface(mDisplay, mEglSurface);
+        EGL14.eglDestroyContext(mDisplay, mContext);
+        EGL14.eglReleaseThread();
+        EGL14.eglTerminate(mDisplay);
+      }
+      mSurface.release();
+      mDisplay = EGL14.EGL_NO_DISPLAY;
+      mContext = EGL14.EGL_NO_CONTEXT;
+      mEglSurface = EGL14.EGL_NO_SURFACE;
+    }
+  }
+
+  /**
+   * Receives decoded frames in an external texture, and draws them rotated into the current EGL
+   * surface.
+   */
+  private static class DecoderSurface implements SurfaceTexture.OnFrameAvailableListener {
+
+    private static final long FRAME_TIMEOUT_MS = 2500;
+    private static final String VERTEX_SHADER =
+        "uniform mat4 uMVPMatrix;\n"
+            + "uniform mat4 uSTMatrix;\n"
+            + "attribute vec4 aPosition;\n"
+            + "attribute vec4 aTextureCoord;\n"
+            + "varying vec2 vTextureCoord;\n"
+            + "void main() {\n"
+            + "  gl_Position = uMVPMatrix * aPosition;\n"
+            + "  vTextureCoord = (uSTMatrix * aTextureCoord).xy;\n"
+            + "}\n";
+    private static final String FRAGMENT_SHADER =
+        "#extension GL_OES_EGL_image_external : require\n"
+            + "precision mediump float;\n"
+            + "varying vec2 vTextureCoord;\n"
+            + "uniform samplerExternalOES sTexture;\n"
+            + "void main() {\n"
+            + "  gl_FragColor = texture2D(sTexture, vTextureCoord);\n"
+            + "}\n";
+    // X, Y, U, V of a quad covering the whole viewport
+    private static final float[] QUAD = {
+      -1f, -1f, 0f, 0f, 1f, -1f, 1f, 0f, -1f, 1f, 0f, 1f, 1f, 1f, 1f, 1f
+    };
+
+    private final Object mFrameLock = new Object();
+    private final float[] mMvpMatrix = new float[16];
+    private final float[] mStMatrix = new float[16];
+    private final FloatBuffer mQuad;
+    private final SurfaceTexture mSurfaceTexture;
+    private final Surface mSurface;
+    private final int mProgram;
+    private final int mTextureId;
+    private boolean mFrameAvailable;
+
+    DecoderSurface(int rotation) throws IOException {
+      mQuad =
+          ByteBuffer.allocateDirect(QUAD.length * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+      mQuad.put(QUAD).position(0);
+      // The player would rotate clockwise, GL rotates counterclockwise
+      Matrix.setRotateM(mMvpMatrix, 0, -rotation, 0f, 0f, 1f);
+
+      mProgram = createProgram();
+      final int[] textures = new int[1];
+      GLES20.glGenTextures(1, textures, 0);
+      mTextureId = textures[0];
+      GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, mTextureId);
+      GLES20.glTexParameteri(
+          GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+      GLES20.glTexParameteri(
+          GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+      GLES20.glTexParameteri(
+          GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+      GLES20.glTexParameteri(
+          GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+
+      // This thread has no Looper, so frame callbacks arrive on the main thread
+      mSurfaceTexture = new SurfaceTexture(mTextureId);
+      mSurfaceTexture.setOnFrameAvailableListener(this);
+      mSurface = new Surface(mSurfaceTexture);
+    }
+
+    Surface getSurface() {
+      return mSurface;
+    }
+
+    @Override
+    public void onFrameAvailable(SurfaceTexture surfaceTexture) {
+      synchronized (mFrameLock) {
+        mFrameAvailable = true;
+        mFrameLock.notifyAll();
+      }
+    }
+
+    void awaitNewImage() throws IOException {
+      synchronized (mFrameLock) {
+        final long deadline = System.currentTimeMillis() + FRAME_TIMEOUT_MS;
+        while (!mFrameAvailable) {
+          final long remaining = deadline - System.currentTimeMillis();
+          if (remaining <= 0) throw new IOException("Timed out waiting for a decoded frame.");
+          try {
+            mFrameLock.wait(remaining);
+          } catch (InterruptedException e) {
+            throw new IOException("Interrupted while waiting for a decoded frame.");
+          }
+        }
+        mFrameAvailable = false;
+      }
+      mSurfaceTexture.updateTexImage();
+    }
+
+    void drawImage(int width, int height) {
+      mSurfaceTexture.getTransformMatrix(mStMatrix);
+      GLES20.glViewport(0, 0, width, height);
+      GLES20.glClearColor(0f, 0f, 0f, 1f);
+      GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+      GLES20.glUseProgram(mProgram);
+      GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+      GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, mTextureId);
+
+      final int position = GLES20.glGetAttribLocation(mProgram, "aPosition");
+      final int textureCoord = GLES20.glGetAttribLocation(mProgram, "aTextureCoord");
+      mQuad.position(0);
+      GLES20.glVertexAttribPointer(position, 2, GLES20.GL_FLOAT, false, 16, mQuad);
+      GLES20.glEnableVertexAttribArray(position);
+      mQuad.position(2);
+      GLES20.glVertexAttribPointer(textureCoord, 2, GLES20.GL_FLOAT, false, 16, mQuad);
+      GLES20.glEnableVertexAttribArray(textureCoord);
+
+      GLES20.glUniformMatrix4fv(
+          GLES20.glGetUniformLocation(mProgram, "uMVPMatrix"), 1, false, mMvpMatrix, 0);
+      GLES20.glUniformMatrix4fv(
+          GLES20.glGetUniformLocation(mProgram, "uSTMatrix"), 1, false, mStMatrix, 0);
+      GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+    }
+
+    void release() {
+      mSurface.release();
+      mSurfaceTexture.release();
+      GLES20.glDeleteProgram(mProgram);
+      GLES20.glDeleteTextures(1, new int[] {mTextureId}, 0);
+    }
+
+    private static int createProgram() throws IOException {
+      final int vertexShader = loadShader(GLES20.GL_VERTEX_SHADER, VERTEX_SHADER);
+      final int fragmentShader = loadShader(GLES20.GL_FRAGMENT_SHADER, FRAGMENT_SHADER);
+      final int program = GLES20.glCreateProgram();
+      GLES20.glAttachShader(program, vertexShader);
+      GLES20.glAttachShader(program, fragmentShader);
+      GLES20.glLinkProgram(program);
+      final int[] status = new int[1];
+      GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, status, 0);
+      if (status[0] != GLES20.GL_TRUE)
+        throw new IOException("Unable to link program: " + GLES20.glGetProgramInfoLog(program));
+      return program;
+    }
+
+    private static int loadShader(int type, String source) throws IOException {
+      final int shader = GLES20.glCreateShader(type);
+      GLES20.glShaderSource(shader, source);
+      GLES20.glCompileShader(shader);
+      final int[] status = new int[1];
+      GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, status, 0);
+      if (status[0] == 0)
+        throw new IOException("Unable to compile shader: " + GLES20.glGetShaderInfoLog(shader));
+      return shader;
+    }
+  }
+}
@@ -0,0 +1,209 @@
+package com.afollestad.materialcamera.internal;
+
+import android.annotation.TargetApi;
+import android.media.Image;
+import android.os.Build;
+import android.util.Log;
+import com.afollestad.materialcamera.util.FrameStacker;
+import com.afollestad.materialcamera.util.JpegEncoder;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes {@link android.graphics.ImageFormat#YUV_420_888} stills with {@link JpegEncoder}, with
+ * the stripes of each frame spread over all cores instead of going through the camera's single
+ * hardware encoder. Images are copied into pooled direct buffers and closed right away, so the
+ * camera can deliver the next frame while the previous ones are still being encoded.
+ *
+ * <p>After {@link #beginStack(int)}, the next frames are held until the burst is complete and
+ * merged with {@link FrameStacker} before encoding, for night shots.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+class YuvStillEncoder {
+
+  interface Callback {
+    /** Called on an encoder thread. */
+    void onEncoded(byte[] jpeg);
+
+    void onError(Exception e);
+  }
+
+  private static final int QUALITY = 95;
+  private static final int MAX_POOLED_BUFFERS = 2;
+  private static final int CORES = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+  private static ExecutorService sStripeExecutor;
+  private static ExecutorService sFrameExecutor;
+  private static ForkJoinPool sMergePool;
+
+  private final JpegEncoder mEncoder = new JpegEncoder(QUALITY);
+  private final ArrayDeque<ByteBuffer> mPool = new ArrayDeque<>();
+  private byte[] mRowScratch;
+  private int mMaxPooled = MAX_POOLED_BUFFERS;
+  private ByteBuffer[] mStack;
+  private int mStacked;
+  // Only touched on the frame executor
+  private FrameStacker mStacker;
+
+  /**
+   * Holds the next {@code count} frames and merges them into one still. Call on the thread images
+   * are delivered on, a burst that was still incomplete is dropped.
+   */
+  void beginStack(int count) {
+    for (int i = 0; i < mStacked; i++) recycleBuffer(mStack[i]);
+    synchronized (this) {
+      mMaxPooled = Math.max(MAX_POOLED_BUFFERS, count);
+    }
+    mStack = count > 1 ? new ByteBuffer[count] : null;
+    mStacked = 0;
+  }
+
+  /**
+   * Copies the image and closes it, then encodes it in the background.
+   *
+   * @param orientation Clockwise rotation to show the frame upright
+   */
+  void encode(Image image, final int orientation, final Callback callback) {
+    final int width = image.getWidth();
+    final int height = image.getHeight();
+    final ByteBuffer frame;
+    try {
+      frame = obtainBuffer(JpegEncoder.getFrameSize(width, height));
+      final Image.Plane[] planes = image.getPlanes();
+      final int chromaWidth = (width + 1) / 2;
+      final int chromaHeight = (height + 1) / 2;
+      copyPlane(planes[0], width, height, frame);
+      copyPlane(planes[1], chromaWidth, chromaHeight, frame);
+      copyPlane(planes[2], chromaWidth, chromaHeight, frame);
+      frame.flip();
+    } catch (RuntimeException e) {
+      beginStack(0);
+      callback.onError(e);
+      return;
+    } finally {
+      image.close();
+    }
+
+    final ByteBuffer[] frames;
+    if (mStack != null) {
+      mStack[mStacked++] = frame;
+      if (mStacked < mStack.length) return;
+      frames = mStack;
+      mStack = null;
+      mStacked = 0;
+    } else {
+      frames = new ByteBuffer[] {frame};
+    }
+
+    getFrameExecutor()
+        .execute(
+            new Runnable() {
+              @Override
+              public void run() {
+                final ByteArrayOutputStream out = new ByteArrayOutputStream(frames[0].limit() / 4);
+                try {
+                  if (frames.length > 1) stack(frames, width, height);
+                  mEncoder.encode(
+                      frames[0], width, height, orientation, getStripeExecutor(), CORES * 2, out);
+                } catch (Exception e) {
+                  callback.onError(e);
+                  return;
+                } finally {
+                  for (ByteBuffer buffer : frames) recycleBuffer(buffer);
+                }
+                callback.onEncoded(out.toByteArray());
+              }
+            });
+  }
+
+  /** Drops the pooled buffers, frames that are being encoded finish normally. */
+  synchronized void release() {
+    mPool.clear();
+  }
+
+  private void stack(ByteBuffer[] frames, int width, int height) {
+    if (mStacker == null || mStacker.getWidth() != width || mStacker.getHeight() != height)
+      mStacker = new FrameStacker(width, height);
+    final long start = System.nanoTime();
+    mStacker.stack(frames, frames.length, getMergePool());
+    Log.d(
+        "YuvStillEncoder",
+        String.format(
+            Locale.getDefault(),
+            "Stacked %d frames in %d ms",
+            frames.length,
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+  }
+
+  private synchronized ByteBuffer obtainBuffer(int size) {
+    while (!mPool.isEmpty()) {
+      final ByteBuffer pooled = mPool.poll();
+      if (pooled.capacity() >= size) {
+        pooled.clear();
+        pooled.limit(size);
+        return pooled;
+      }
+    }
+    return ByteBuffer.allocateDirect(size);
+  }
+
+  private synchronized void recycleBuffer(ByteBuffer buffer) {
+    if (mPool.size() < mMaxPooled) mPool.add(buffer);
+  }
+
+  /** Appends a plane to {@code out} tightly packed, whatever its row and pixel stride are. */
+  private void copyPlane(Image.Plane plane, int width, int height, ByteBuffer out) {
+    final ByteBuffer source = plane.getBuffer();
+    final int rowStride = plane.getRowStride();
+    final int pixelStride = plane.getPixelStride();
+    final int rowLength = (width - 1) * pixelStride + 1;
+    if (pixelStride != 1 && (mRowScratch == null || mRowScratch.length < rowLength))
+      mRowScratch = new byte[rowLength];
+    for (int row = 0; row < height; row++) {
+      final int start = row * rowStride;
+      if (pixelStride == 1) {
+        source.limit(start + width);
+        source.position(start);
+        out.put(source);
+        source.limit(source.capacity());
+      } else {
+        source.position(start);
+        source.get(mRowScratch, 0, rowLength);
+        for (int x = 0; x < width; x++) out.put(mRowScratch[x * pixelStride]);
+      }
+    }
+  }
+
+  private static synchronized ExecutorService getStripeExecutor() {
+    if (sStripeExecutor == null) sStripeExecutor = newPool(CORES);
+    return sStripeExecutor;
+  }
+
+  /** Frames are put together one at a time, their stripes are what runs in parallel. */
+  private static synchronized ExecutorService getFrameExecutor() {
+    if (sFrameExecutor == null) sFrameExecutor = newPool(1);
+    return sFrameExecutor;
+  }
+
+  private static synchronized ForkJoinPool getMergePool() {
+    if (sMergePool == null) sMergePool = new ForkJoinPool(CORES);
+    return sMergePool;
+  }
+
+  private static ExecutorService newPool(int threads) {
+    final ThreadPoolExecutor executor =
+        new ThreadPoolExecutor(
+            threads, threads, 5, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+}
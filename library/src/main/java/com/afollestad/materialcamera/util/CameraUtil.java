@@ -11,14 +11,12 @@ import android.os.Build;
 import android.support.annotation.ColorInt;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import com.afollestad.materialcamera.Calibration;
 import com.afollestad.materialcamera.internal.BaseCaptureActivity;
 import java.io.File;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
-import java.util.Locale;
-import java.util.concurrent.TimeUnit;
 
 /** @author Aidan Follestad (afollestad) */
 public class CameraUtil {
@@ -31,23 +29,28 @@ public class CameraUtil {
   }
 
   public static String getDurationString(long durationMs) {
-    return String.format(
-        Locale.getDefault(),
-        "%02d:%02d",
-        TimeUnit.MILLISECONDS.toMinutes(durationMs),
-        TimeUnit.MILLISECONDS.toSeconds(durationMs)
-            - TimeUnit.MINUTES.toSeconds(TimeUnit.MILLISECONDS.toMinutes(durationMs)));
+    return TimeFormat.getDurationString(durationMs);
   }
 
+  /**
+   * Files in the external cache directory, for a null {@code saveDir}, go in the {@link
+   * CaptureCache}.
+   */
   @SuppressWarnings({"ConstantConditions", "ResultOfMethodCallIgnored"})
   public static File makeTempFile(
       @NonNull Context context, @Nullable String saveDir, String prefix, String extension) {
+    final CaptureCache cache = saveDir == null ? CaptureCache.get(context) : null;
     if (saveDir == null) saveDir = context.getExternalCacheDir().getAbsolutePath();
-    final String timeStamp =
-        new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(new Date());
     final File dir = new File(saveDir);
     dir.mkdirs();
-    return new File(dir, prefix + timeStamp + extension);
+    final String name = TimeFormat.getFileName(prefix, new Date(), extension);
+    File file = new File(dir, name);
+    // Several stills can be taken within a second
+    final int dot = name.lastIndexOf('.');
+    for (int i = 1; file.exists(); i++)
+      file = new File(dir, name.substring(0, dot) + "_" + i + name.substring(dot));
+    if (cache != null) cache.add(file);
+    return file;
   }
 
   public static boolean hasCamera(Context context) {
@@ -57,12 +60,13 @@ public class CameraUtil {
 
   public static List<Integer> getSupportedFlashModes(
       Context context, Camera.Parameters parameters) {
-    //check has system feature for flash
+    if (DeviceQuirks.get(context).isBroken(DeviceQuirks.FEATURE_FLASH)) return null;
+    // check has system feature for flash
     if (context.getPackageManager().hasSystemFeature(PackageManager.FEATURE_CAMERA_FLASH)) {
       List<String> modes = parameters.getSupportedFlashModes();
       if (modes == null
           || (modes.size() == 1 && modes.get(0).equals(Camera.Parameters.FLASH_MODE_OFF))) {
-        return null; //not supported
+        return null; // not supported
       } else {
         ArrayList<Integer> flashModes = new ArrayList<>();
         for (String mode : modes) {
@@ -86,7 +90,7 @@ public class CameraUtil {
         return flashModes;
       }
     } else {
-      return null; //not supported
+      return null; // not supported
     }
   }
 
@@ -95,7 +99,9 @@ public class CameraUtil {
   public static List<Integer> getSupportedFlashModes(
       Context context, CameraCharacteristics characteristics) {
     if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
-      return null; //doesn't support camera2
+      return null; // doesn't support camera2
+    } else if (DeviceQuirks.get(context).isBroken(DeviceQuirks.FEATURE_FLASH)) {
+      return null;
     } else if (context.getPackageManager().hasSystemFeature(PackageManager.FEATURE_CAMERA_FLASH)) {
       Boolean flashAvailable = characteristics.get(CameraCharacteristics.FLASH_INFO_AVAILABLE);
       if (flashAvailable == null || !flashAvailable) return null;
@@ -103,7 +109,7 @@ public class CameraUtil {
       int[] modes = characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_MODES);
       if (modes == null
           || (modes.length == 1 && modes[0] == CameraCharacteristics.CONTROL_AE_MODE_OFF)) {
-        return null; //not supported
+        return null; // not supported
       } else {
         ArrayList<Integer> flashModes = new ArrayList<>(3);
         for (int mode : modes) {
@@ -126,14 +132,29 @@ public class CameraUtil {
         return flashModes;
       }
     }
-    return null; //not supported
+    return null; // not supported
   }
 
-  @TargetApi(Build.VERSION_CODES.LOLLIPOP)
   public static boolean hasCamera2(Context context, boolean stillShot) {
+    if (!canUseCamera2(context, stillShot)) return false;
+    if (stillShot
+        && DeviceQuirks.get(context).getStillshotBackend() == DeviceQuirks.BACKEND_DEFAULT) {
+      // A calibration only measured stills, and only picks between APIs that could be used
+      final Calibration calibration = Calibration.getSaved(context);
+      if (calibration != null && calibration.getBackend() == DeviceQuirks.BACKEND_CAMERA1)
+        return false;
+    }
+    return true;
+  }
+
+  /** @return whether Camera2 may be used at all, ignoring a saved {@link Calibration} */
+  @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+  public static boolean canUseCamera2(Context context, boolean stillShot) {
     if (context == null) return false;
     if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) return false;
-    if (stillShot && ManufacturerUtil.isSamsungDevice()) return false;
+    final DeviceQuirks quirks = DeviceQuirks.get(context);
+    final int backend = stillShot ? quirks.getStillshotBackend() : quirks.getBackend();
+    if (backend == DeviceQuirks.BACKEND_CAMERA1) return false;
     try {
       CameraManager manager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
       String[] idList = manager.getCameraIdList();
@@ -150,7 +171,8 @@ public class CameraUtil {
           //noinspection ConstantConditions
           final int supportLevel =
               characteristics.get(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
-          if (supportLevel == CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY) {
+          if (supportLevel == CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY
+              && backend != DeviceQuirks.BACKEND_CAMERA2) {
             notNull = false;
             break;
           }
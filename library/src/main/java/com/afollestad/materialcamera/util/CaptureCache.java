@@ -0,0 +1,272 @@
+package com.afollestad.materialcamera.util;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import java.io.File;
+import java.io.FileFilter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps the captures the library writes to the external cache directory, when no save directory was
+ * given, within a size and age limit. Files are indexed least recently used first; after each new
+ * file the oldest ones are deleted on a background thread until the rest fit.
+ *
+ * <p>The index only lives in memory. The first use in a process scans the directory for files the
+ * library wrote, so files left behind by a crash are found and empty ones deleted.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public class CaptureCache {
+
+  public static final long DEFAULT_MAX_BYTES = 200L * 1024 * 1024;
+  public static final long DEFAULT_MAX_AGE_MILLIS = 7L * 24 * 60 * 60 * 1000;
+
+  private static final String TAG = "CaptureCache";
+  // The prefixes of CameraUtil#makeTempFile callers
+  private static final String[] PREFIXES = {"VID_", "IMG_"};
+  // May still be written or shown, so kept even over the limits
+  private static final long IN_USE_MILLIS = 15 * 60 * 1000;
+
+  private static CaptureCache sInstance;
+
+  @Nullable private final File mDir;
+  // Access ordered, so the least recently used file comes first
+  private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+  private final AtomicBoolean mTrimPending = new AtomicBoolean();
+  private final ExecutorService mExecutor =
+      Executors.newSingleThreadExecutor(
+          new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable r) {
+              final Thread thread = new Thread(r, TAG);
+              thread.setDaemon(true);
+              thread.setPriority(Thread.MIN_PRIORITY);
+              return thread;
+            }
+          });
+
+  private long mMaxBytes = DEFAULT_MAX_BYTES;
+  private long mMaxAgeMillis = DEFAULT_MAX_AGE_MILLIS;
+  private long mSize;
+
+  private static class Entry {
+    final File file;
+    long size;
+    long lastUsed;
+
+    Entry(File file, long size, long lastUsed) {
+      this.file = file;
+      this.size = size;
+      this.lastUsed = lastUsed;
+    }
+  }
+
+  /** @return the cache, scanning its directory in the background on the first call */
+  public static synchronized CaptureCache get(@NonNull Context context) {
+    if (sInstance == null) {
+      sInstance = new CaptureCache(context.getApplicationContext().getExternalCacheDir());
+      sInstance.scanAsync();
+    }
+    return sInstance;
+  }
+
+  private CaptureCache(@Nullable File dir) {
+    mDir = dir;
+  }
+
+  /** @return the directory captures go to when no save directory was given, null if unmounted */
+  @Nullable
+  public File getDirectory() {
+    return mDir;
+  }
+
+  /**
+   * Changes the limits, e.g. from Application#onCreate. Files used in the last 15 minutes are kept
+   * either way.
+   *
+   * @param maxBytes 0 for no size limit
+   * @param maxAgeMillis 0 for no age limit
+   */
+  public void setLimits(long maxBytes, long maxAgeMillis) {
+    synchronized (this) {
+      mMaxBytes = maxBytes;
+      mMaxAgeMillis = maxAgeMillis;
+    }
+    trimAsync();
+  }
+
+  /** @return bytes taken by the indexed files as of the last scan or trim */
+  public synchronized long getSize() {
+    return mSize;
+  }
+
+  /** Indexes a file the library is about to write into the cache directory. */
+  public void add(@NonNull File file) {
+    if (!isCached(file)) return;
+    synchronized (this) {
+      mEntries.put(file.getAbsolutePath(), new Entry(file, 0, System.currentTimeMillis()));
+    }
+    trimAsync();
+  }
+
+  /** Marks a file as used now, so it's evicted last. Files outside the cache are ignored. */
+  public synchronized void touch(@NonNull File file) {
+    final Entry entry = mEntries.get(file.getAbsolutePath());
+    if (entry != null) entry.lastUsed = System.currentTimeMillis();
+  }
+
+  /** Forgets a file that was deleted. */
+  public synchronized void remove(@NonNull File file) {
+    final Entry entry = mEntries.remove(file.getAbsolutePath());
+    if (entry != null) mSize -= entry.size;
+  }
+
+  private boolean isCached(File file) {
+    return mDir != null && mDir.equals(file.getParentFile()) && isCapture(file.getName());
+  }
+
+  private static boolean isCapture(String name) {
+    for (String prefix : PREFIXES) {
+      if (name.startsWith(prefix)) return true;
+    }
+    return false;
+  }
+
+  private void scanAsync() {
+    mExecutor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            scan();
+            trim();
+          }
+        });
+  }
+
+  private void scan() {
+    if (mDir == null) return;
+    final File[] files =
+        mDir.listFiles(
+            new FileFilter() {
+              @Override
+              public boolean accept(File file) {
+                return file.isFile() && isCapture(file.getName());
+              }
+            });
+    if (files == null) return;
+    final long[] modified = new long[files.length];
+    for (int i = 0; i < files.length; i++) modified[i] = files[i].lastModified();
+    final Integer[] order = new Integer[files.length];
+    for (int i = 0; i < order.length; i++) order[i] = i;
+    Arrays.sort(
+        order,
+        new Comparator<Integer>() {
+          @Override
+          public int compare(Integer lhs, Integer rhs) {
+            return Long.compare(modified[lhs], modified[rhs]);
+          }
+        });
+
+    final long now = System.currentTimeMillis();
+    final LinkedHashMap<String, Entry> scanned = new LinkedHashMap<>();
+    for (int i : order) {
+      final File file = files[i];
+      final long size = file.length();
+      if (size == 0 && now - modified[i] > IN_USE_MILLIS) {
+        // Never written to, e.g. the app died while the camera opened
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+        continue;
+      }
+      scanned.put(file.getAbsolutePath(), new Entry(file, size, modified[i]));
+    }
+    synchronized (this) {
+      // Files added while the scan was queued are newer, so they go after the scanned ones
+      scanned.keySet().removeAll(mEntries.keySet());
+      final LinkedHashMap<String, Entry> added = new LinkedHashMap<>(mEntries);
+      mEntries.clear();
+      mEntries.putAll(scanned);
+      mEntries.putAll(added);
+    }
+  }
+
+  private void trimAsync() {
+    if (!mTrimPending.compareAndSet(false, true)) return;
+    mExecutor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            mTrimPending.set(false);
+            trim();
+          }
+        });
+  }
+
+  private void trim() {
+    // Files are only touched outside the lock, which the main thread takes for touch and add
+    final Entry[] entries;
+    synchronized (this) {
+      entries = mEntries.values().toArray(new Entry[mEntries.size()]);
+    }
+    final IdentityHashMap<Entry, Long> sizes = new IdentityHashMap<>();
+    for (Entry entry : entries) sizes.put(entry, entry.file.exists() ? entry.file.length() : -1L);
+
+    final long now = System.currentTimeMillis();
+    final List<Entry> evicted = new ArrayList<>();
+    synchronized (this) {
+      mSize = 0;
+      for (Iterator<Entry> it = mEntries.values().iterator(); it.hasNext(); ) {
+        final Entry entry = it.next();
+        // Entries added since the snapshot keep their size until the next trim
+        final Long size = sizes.get(entry);
+        if (size != null && size < 0) {
+          it.remove();
+          continue;
+        }
+        if (size != null) entry.size = size;
+        mSize += entry.size;
+      }
+
+      for (Iterator<Entry> it = mEntries.values().iterator(); it.hasNext(); ) {
+        final Entry entry = it.next();
+        // Everything after this one was used more recently still
+        if (now - entry.lastUsed < IN_USE_MILLIS) break;
+        final boolean overSize = mMaxBytes > 0 && mSize > mMaxBytes;
+        final boolean tooOld = mMaxAgeMillis > 0 && now - entry.lastUsed > mMaxAgeMillis;
+        if (!overSize && !tooOld) break;
+        it.remove();
+        mSize -= entry.size;
+        evicted.add(entry);
+      }
+    }
+
+    int deleted = 0;
+    for (Entry entry : evicted) {
+      if (entry.file.delete() || !entry.file.exists()) {
+        deleted++;
+        continue;
+      }
+      synchronized (this) {
+        // Retried once it's the least recently used again
+        final String path = entry.file.getAbsolutePath();
+        if (!mEntries.containsKey(path)) {
+          mEntries.put(path, entry);
+          mSize += entry.size;
+        }
+      }
+    }
+    if (deleted > 0) Log.d(TAG, "Evicted " + deleted + " captures, " + getSize() + " bytes left");
+  }
+}
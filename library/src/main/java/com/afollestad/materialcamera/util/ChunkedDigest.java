@@ -0,0 +1,132 @@
+package com.afollestad.materialcamera.util;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.support.annotation.Nullable;
+import com.afollestad.materialcamera.CaptureManifest;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+
+/**
+ * Computes a {@link CaptureManifest} over bytes as they're written, so the file doesn't have to be
+ * read back afterwards. Not thread safe.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public class ChunkedDigest {
+
+  public interface Callback {
+    void done(@Nullable CaptureManifest manifest, @Nullable Exception e);
+  }
+
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final int mChunkSize;
+  private final MessageDigest mFileDigest;
+  private final MessageDigest mChunkDigest;
+  private final ArrayList<String> mChunks = new ArrayList<>();
+  private long mLength;
+  private int mChunkFill;
+
+  public ChunkedDigest(int chunkSize) {
+    if (chunkSize <= 0) throw new IllegalArgumentException("Chunk size must be positive.");
+    mChunkSize = chunkSize;
+    mFileDigest = newSha256();
+    mChunkDigest = newSha256();
+  }
+
+  public void update(byte[] data, int offset, int length) {
+    mFileDigest.update(data, offset, length);
+    mLength += length;
+    while (length > 0) {
+      final int count = Math.min(length, mChunkSize - mChunkFill);
+      mChunkDigest.update(data, offset, count);
+      mChunkFill += count;
+      offset += count;
+      length -= count;
+      if (mChunkFill == mChunkSize) {
+        mChunks.add(toHex(mChunkDigest.digest()));
+        mChunkFill = 0;
+      }
+    }
+  }
+
+  /** Completes the digests, the instance can't be updated anymore afterwards. */
+  public CaptureManifest finish() {
+    if (mChunkFill > 0) {
+      mChunks.add(toHex(mChunkDigest.digest()));
+      mChunkFill = 0;
+    }
+    return new CaptureManifest(
+        toHex(mFileDigest.digest()), mLength, mChunkSize, mChunks.toArray(new String[0]));
+  }
+
+  /** Reads {@code input} to its end in one pass, the stream is closed afterwards. */
+  public static CaptureManifest digest(InputStream input, int chunkSize) throws IOException {
+    final ChunkedDigest digest = new ChunkedDigest(chunkSize);
+    final byte[] buffer = new byte[64 * 1024];
+    try {
+      int read;
+      while ((read = input.read(buffer)) != -1) digest.update(buffer, 0, read);
+    } finally {
+      input.close();
+    }
+    return digest.finish();
+  }
+
+  /**
+   * Digests a finished file:// or content:// Uri on a background thread.
+   *
+   * @param callback will always return in originating thread
+   */
+  public static void digestAsync(
+      Context context, final Uri uri, final int chunkSize, final Callback callback) {
+    final Context appContext = context.getApplicationContext();
+    final Handler handler = new Handler();
+    new Thread() {
+      @Override
+      public void run() {
+        CaptureManifest manifest = null;
+        Exception error = null;
+        try {
+          final InputStream input = appContext.getContentResolver().openInputStream(uri);
+          if (input == null) throw new IOException("Unable to open " + uri);
+          manifest = digest(input, chunkSize);
+        } catch (Exception e) {
+          error = e;
+        }
+        final CaptureManifest result = manifest;
+        final Exception e = error;
+        handler.post(
+            new Runnable() {
+              @Override
+              public void run() {
+                callback.done(result, e);
+              }
+            });
+      }
+    }.start();
+  }
+
+  private static MessageDigest newSha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      // Every Android release ships SHA-256
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static String toHex(byte[] bytes) {
+    final char[] chars = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+      chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+    }
+    return new String(chars);
+  }
+}
@@ -0,0 +1,231 @@
+package com.afollestad.materialcamera.util;
+
+import android.annotation.TargetApi;
+import android.media.CamcorderProfile;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.media.MediaFormat;
+import android.media.MediaRecorder;
+import android.os.Build;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import com.afollestad.materialcamera.MaterialCamera;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Picks a video codec from the preferences given to {@link MaterialCamera#videoCodec(int...)}. The
+ * device's encoders are probed through {@link MediaCodecList} once per process.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public class CodecUtil {
+
+  private static final String TAG = "CodecUtil";
+  private static final String MIME_VP8 = "video/x-vnd.on2.vp8";
+  private static final String MIME_HEVC = "video/hevc";
+
+  private static Map<String, EncoderInfo> sEncoders;
+
+  private CodecUtil() {}
+
+  /**
+   * What is known about the preferred encoder for a mime type. Max dimensions are {@link
+   * Integer#MAX_VALUE} if the platform doesn't report them.
+   */
+  public static class EncoderInfo {
+
+    public final String name;
+    public final String mimeType;
+    public final int[] profiles;
+    public final int maxLevel;
+    public final int maxWidth;
+    public final int maxHeight;
+
+    EncoderInfo(
+        String name, String mimeType, int[] profiles, int maxLevel, int maxWidth, int maxHeight) {
+      this.name = name;
+      this.mimeType = mimeType;
+      this.profiles = profiles;
+      this.maxLevel = maxLevel;
+      this.maxWidth = maxWidth;
+      this.maxHeight = maxHeight;
+    }
+
+    boolean supportsSize(int width, int height) {
+      // Sizes are reported in landscape, video can be recorded either way
+      return (width <= maxWidth && height <= maxHeight)
+          || (height <= maxWidth && width <= maxHeight);
+    }
+  }
+
+  @Nullable
+  public static String getMimeType(@MaterialCamera.VideoCodec int codec) {
+    switch (codec) {
+      case MaterialCamera.CODEC_H264:
+        return MediaFormat.MIMETYPE_VIDEO_AVC;
+      case MaterialCamera.CODEC_HEVC:
+        return MIME_HEVC;
+      case MaterialCamera.CODEC_VP8:
+        return MIME_VP8;
+      default:
+        return null;
+    }
+  }
+
+  /** @return the encoder that would be used for {@code codec}, or null if there is none. */
+  @Nullable
+  public static EncoderInfo getEncoderInfo(@MaterialCamera.VideoCodec int codec) {
+    final String mimeType = getMimeType(codec);
+    if (mimeType == null) return null;
+    return getEncoders().get(mimeType);
+  }
+
+  /**
+   * Returns the first of {@code preferences} that {@link MediaRecorder} can record at the given
+   * size, or {@link MaterialCamera#CODEC_DEFAULT} if none can, which means the quality profile's
+   * own codec should be used.
+   */
+  @MaterialCamera.VideoCodec
+  public static int selectForMediaRecorder(@Nullable int[] preferences, int width, int height) {
+    return select(preferences, width, height, true);
+  }
+
+  /**
+   * Same as {@link #selectForMediaRecorder(int[], int, int)}, for encoders written to an MPEG-4
+   * container with {@link android.media.MediaMuxer}. Never returns {@link
+   * MaterialCamera#CODEC_DEFAULT}, H.264 is the fallback.
+   */
+  @MaterialCamera.VideoCodec
+  public static int selectForMuxer(@Nullable int[] preferences, int width, int height) {
+    final int codec = select(preferences, width, height, false);
+    return codec == MaterialCamera.CODEC_DEFAULT ? MaterialCamera.CODEC_H264 : codec;
+  }
+
+  public static int getOutputFormat(
+      @MaterialCamera.VideoCodec int codec, CamcorderProfile profile) {
+    switch (codec) {
+      case MaterialCamera.CODEC_DEFAULT:
+        return profile.fileFormat;
+      case MaterialCamera.CODEC_VP8:
+        return MediaRecorder.OutputFormat.WEBM;
+      default:
+        return MediaRecorder.OutputFormat.MPEG_4;
+    }
+  }
+
+  public static int getVideoEncoder(
+      @MaterialCamera.VideoCodec int codec, CamcorderProfile profile) {
+    switch (codec) {
+      case MaterialCamera.CODEC_H264:
+        return MediaRecorder.VideoEncoder.H264;
+      case MaterialCamera.CODEC_HEVC:
+        return MediaRecorder.VideoEncoder.HEVC;
+      case MaterialCamera.CODEC_VP8:
+        return MediaRecorder.VideoEncoder.VP8;
+      default:
+        return profile.videoCodec;
+    }
+  }
+
+  public static int getAudioEncoder(
+      @MaterialCamera.VideoCodec int codec, CamcorderProfile profile) {
+    // WebM can't hold AAC or AMR
+    if (codec == MaterialCamera.CODEC_VP8) return MediaRecorder.AudioEncoder.VORBIS;
+    return profile.audioCodec;
+  }
+
+  /** @return the extension of files written by {@link #getOutputFormat(int, CamcorderProfile)} */
+  public static String getFileExtension(@MaterialCamera.VideoCodec int codec) {
+    return codec == MaterialCamera.CODEC_VP8 ? ".webm" : ".mp4";
+  }
+
+  /** @return the MIME type of files written by {@link #getOutputFormat(int, CamcorderProfile)} */
+  public static String getContainerMimeType(@MaterialCamera.VideoCodec int codec) {
+    return codec == MaterialCamera.CODEC_VP8 ? "video/webm" : "video/mp4";
+  }
+
+  @MaterialCamera.VideoCodec
+  private static int select(
+      @Nullable int[] preferences, int width, int height, boolean mediaRecorder) {
+    if (preferences == null) return MaterialCamera.CODEC_DEFAULT;
+    for (int codec : preferences) {
+      if (codec == MaterialCamera.CODEC_DEFAULT) return codec;
+      if (!isUsable(codec, mediaRecorder)) continue;
+      final EncoderInfo info = getEncoderInfo(codec);
+      if (info != null && info.supportsSize(width, height)) return codec;
+      Log.d(TAG, "No encoder for " + getMimeType(codec) + " at " + width + "x" + height);
+    }
+    return MaterialCamera.CODEC_DEFAULT;
+  }
+
+  private static boolean isUsable(@MaterialCamera.VideoCodec int codec, boolean mediaRecorder) {
+    switch (codec) {
+      case MaterialCamera.CODEC_H264:
+        return true;
+      case MaterialCamera.CODEC_HEVC:
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.N || !mediaRecorder;
+      case MaterialCamera.CODEC_VP8:
+        // MediaMuxer's MPEG-4 writer doesn't take VP8, MediaRecorder writes it to WebM
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && mediaRecorder;
+      default:
+        return false;
+    }
+  }
+
+  private static synchronized Map<String, EncoderInfo> getEncoders() {
+    if (sEncoders != null) return sEncoders;
+    sEncoders = new HashMap<>();
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) return sEncoders;
+    final String[] mimeTypes = {MediaFormat.MIMETYPE_VIDEO_AVC, MIME_HEVC, MIME_VP8};
+    //noinspection deprecation
+    final int count = MediaCodecList.getCodecCount();
+    for (int i = 0; i < count; i++) {
+      //noinspection deprecation
+      final MediaCodecInfo codecInfo = MediaCodecList.getCodecInfoAt(i);
+      if (!codecInfo.isEncoder()) continue;
+      for (String type : codecInfo.getSupportedTypes()) {
+        for (String mimeType : mimeTypes) {
+          if (!mimeType.equalsIgnoreCase(type)) continue;
+          final EncoderInfo existing = sEncoders.get(mimeType);
+          // The first encoder listed is the one the framework picks, unless it's a software one
+          if (existing != null && !isSoftware(existing.name)) continue;
+          if (existing != null && isSoftware(codecInfo.getName())) continue;
+          try {
+            sEncoders.put(mimeType, probe(codecInfo, mimeType));
+          } catch (RuntimeException e) {
+            Log.w(TAG, "Failed to probe " + codecInfo.getName() + ": " + e.getMessage());
+          }
+        }
+      }
+    }
+    Log.d(TAG, "Video encoders: " + sEncoders.keySet());
+    return sEncoders;
+  }
+
+  @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+  private static EncoderInfo probe(MediaCodecInfo codecInfo, String mimeType) {
+    final MediaCodecInfo.CodecCapabilities capabilities =
+        codecInfo.getCapabilitiesForType(mimeType);
+    final int[] profiles = new int[capabilities.profileLevels.length];
+    int maxLevel = 0;
+    for (int i = 0; i < profiles.length; i++) {
+      profiles[i] = capabilities.profileLevels[i].profile;
+      maxLevel = Math.max(maxLevel, capabilities.profileLevels[i].level);
+    }
+    int maxWidth = Integer.MAX_VALUE;
+    int maxHeight = Integer.MAX_VALUE;
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+      final MediaCodecInfo.VideoCapabilities video = capabilities.getVideoCapabilities();
+      if (video != null) {
+        maxWidth = video.getSupportedWidths().getUpper();
+        maxHeight = video.getSupportedHeights().getUpper();
+      }
+    }
+    return new EncoderInfo(codecInfo.getName(), mimeType, profiles, maxLevel, maxWidth, maxHeight);
+  }
+
+  private static boolean isSoftware(String name) {
+    return name.startsWith("OMX.google.") || name.startsWith("c2.android.");
+  }
+}
@@ -53,7 +53,7 @@ public class Degrees {
 
   @SuppressWarnings("ResourceType")
   @DegreeUnits
-  private static int naturalize(@DegreeUnits int orientation) {
+  static int naturalize(@DegreeUnits int orientation) {
     if (orientation == 360) orientation = 0;
     else if (orientation > 360) {
       do {
@@ -0,0 +1,231 @@
+package com.afollestad.materialcamera.util;
+
+import android.content.Context;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import com.afollestad.materialcamera.R;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Camera workarounds for specific devices, read from {@code res/raw/mcam_quirks.json}. Apps can
+ * ship their own copy of that file to add or fix devices without waiting for a library release.
+ *
+ * <p>Each entry names a manufacturer and optionally a model, a device (a trailing * matches a
+ * prefix) and an SDK range. All entries that match the running device apply in order, so later ones
+ * override earlier ones. The file is parsed once into a table keyed by manufacturer, and the result
+ * for this device is kept for the life of the process.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public class DeviceQuirks {
+
+  public static final int BACKEND_DEFAULT = 0;
+  public static final int BACKEND_CAMERA1 = 1;
+  /** Camera2 even where it's only LEGACY, for devices known to work well with it. */
+  public static final int BACKEND_CAMERA2 = 2;
+
+  public static final String FEATURE_FLASH = "flash";
+  /** YUV stills, which parallel JPEG encoding and night mode need. */
+  public static final String FEATURE_YUV_STILLS = "yuv_stills";
+
+  public static final String FEATURE_HIGH_SPEED = "high_speed";
+
+  private static final String TAG = "DeviceQuirks";
+  private static final int VERSION = 1;
+
+  private static DeviceQuirks sInstance;
+
+  private int mBackend = BACKEND_DEFAULT;
+  private int mStillshotBackend = -1;
+  private int mPreviewWidth;
+  private int mPreviewHeight;
+  private int mMaxStillWidth;
+  private int mMaxStillHeight;
+  private int mMaxFps;
+  private final Set<String> mBrokenFeatures = new HashSet<>();
+
+  /** @return the quirks of the running device, parsed on the first call */
+  public static synchronized DeviceQuirks get(@NonNull Context context) {
+    if (sInstance == null) {
+      Map<String, List<JSONObject>> table = null;
+      try {
+        table = parse(readQuirks(context));
+      } catch (IOException | JSONException e) {
+        Log.e(TAG, "Failed to read the device quirks", e);
+      }
+      sInstance =
+          table != null
+              ? forDevice(
+                  table, Build.MANUFACTURER, Build.MODEL, Build.DEVICE, Build.VERSION.SDK_INT)
+              : new DeviceQuirks();
+    }
+    return sInstance;
+  }
+
+  private static String readQuirks(Context context) throws IOException {
+    final InputStream in = context.getResources().openRawResource(R.raw.mcam_quirks);
+    try {
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      final byte[] buffer = new byte[4096];
+      int read;
+      while ((read = in.read(buffer)) != -1) out.write(buffer, 0, read);
+      return out.toString("UTF-8");
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * @return the entries of a quirks file, grouped by lower case manufacturer in file order. Null if
+   *     the file is of a newer version than this library reads.
+   */
+  @Nullable
+  public static Map<String, List<JSONObject>> parse(String json) throws JSONException {
+    final JSONObject root = new JSONObject(json);
+    final int version = root.getInt("version");
+    if (version > VERSION) {
+      Log.w(TAG, "Ignoring device quirks of version " + version + ", only " + VERSION + " is read");
+      return null;
+    }
+    final JSONArray devices = root.getJSONArray("devices");
+    final Map<String, List<JSONObject>> table = new HashMap<>();
+    for (int i = 0; i < devices.length(); i++) {
+      final JSONObject entry = devices.getJSONObject(i);
+      final String manufacturer = entry.getString("manufacturer").toLowerCase(Locale.US);
+      List<JSONObject> entries = table.get(manufacturer);
+      if (entries == null) {
+        entries = new ArrayList<>(2);
+        table.put(manufacturer, entries);
+      }
+      entries.add(entry);
+    }
+    return table;
+  }
+
+  /** @return the quirks of a device, merged from all entries of {@code table} that match it */
+  public static DeviceQuirks forDevice(
+      Map<String, List<JSONObject>> table,
+      String manufacturer,
+      String model,
+      String device,
+      int sdk) {
+    final DeviceQuirks quirks = new DeviceQuirks();
+    final List<JSONObject> entries = table.get(manufacturer.toLowerCase(Locale.US));
+    if (entries == null) return quirks;
+    for (JSONObject entry : entries) {
+      if (matches(entry.optString("model", null), model)
+          && matches(entry.optString("device", null), device)
+          && sdk >= entry.optInt("min_sdk", 0)
+          && sdk <= entry.optInt("max_sdk", Integer.MAX_VALUE)) {
+        quirks.apply(entry);
+      }
+    }
+    return quirks;
+  }
+
+  private static boolean matches(@Nullable String pattern, String value) {
+    if (pattern == null) return true;
+    if (value == null) return false;
+    if (pattern.endsWith("*")) {
+      return value
+          .toLowerCase(Locale.US)
+          .startsWith(pattern.substring(0, pattern.length() - 1).toLowerCase(Locale.US));
+    }
+    return pattern.equalsIgnoreCase(value);
+  }
+
+  private void apply(JSONObject entry) {
+    if (entry.has("backend")) mBackend = parseBackend(entry.optString("backend"));
+    if (entry.has("stillshot_backend"))
+      mStillshotBackend = parseBackend(entry.optString("stillshot_backend"));
+    final int[] previewSize = parseSize(entry.optString("preview_size", null));
+    if (previewSize != null) {
+      mPreviewWidth = previewSize[0];
+      mPreviewHeight = previewSize[1];
+    }
+    final int[] maxStillSize = parseSize(entry.optString("max_still_size", null));
+    if (maxStillSize != null) {
+      mMaxStillWidth = maxStillSize[0];
+      mMaxStillHeight = maxStillSize[1];
+    }
+    if (entry.has("max_fps")) mMaxFps = entry.optInt("max_fps");
+    final JSONArray broken = entry.optJSONArray("broken_features");
+    if (broken != null) {
+      for (int i = 0; i < broken.length(); i++) mBrokenFeatures.add(broken.optString(i));
+    }
+  }
+
+  private static int parseBackend(String backend) {
+    if ("camera1".equals(backend)) return BACKEND_CAMERA1;
+    if ("camera2".equals(backend)) return BACKEND_CAMERA2;
+    return BACKEND_DEFAULT;
+  }
+
+  /** @return width and height of e.g. 640x480, null if it's missing or malformed */
+  @Nullable
+  private static int[] parseSize(@Nullable String size) {
+    if (size == null) return null;
+    final int separator = size.indexOf('x');
+    if (separator == -1) return null;
+    try {
+      return new int[] {
+        Integer.parseInt(size.substring(0, separator).trim()),
+        Integer.parseInt(size.substring(separator + 1).trim())
+      };
+    } catch (NumberFormatException e) {
+      Log.w(TAG, "Ignoring malformed size " + size);
+      return null;
+    }
+  }
+
+  /** @return one of the BACKEND_ constants, for video */
+  public int getBackend() {
+    return mBackend;
+  }
+
+  /** @return one of the BACKEND_ constants, for stillshots */
+  public int getStillshotBackend() {
+    return mStillshotBackend != -1 ? mStillshotBackend : mBackend;
+  }
+
+  /**
+   * @return the preview width in sensor orientation, 0 to choose one as usual. Camera1 previews at
+   *     exactly this size, Camera2 at no more than it.
+   */
+  public int getPreviewWidth() {
+    return mPreviewWidth;
+  }
+
+  public int getPreviewHeight() {
+    return mPreviewHeight;
+  }
+
+  /** @return whether a still size is safe to use on this device */
+  public boolean allowsStillSize(int width, int height) {
+    return mMaxStillWidth <= 0 || (width <= mMaxStillWidth && height <= mMaxStillHeight);
+  }
+
+  /** @return the highest preview frame rate this device handles, 0 if there's no limit */
+  public int getMaxFps() {
+    return mMaxFps;
+  }
+
+  /** @param feature One of the FEATURE_ constants */
+  public boolean isBroken(String feature) {
+    return mBrokenFeatures.contains(feature);
+  }
+}
@@ -0,0 +1,64 @@
+package com.afollestad.materialcamera.util;
+
+/**
+ * Formats durations like {@link CameraUtil#getDurationString(long)} into a reused {@code char[]},
+ * for labels that are updated while recording or playing. The instance is the formatted text, it
+ * changes with every call to {@link #format(long, boolean)}.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public class DurationFormatter implements CharSequence {
+
+  // A minus, 19 digits of minutes, a colon and 2 digits of seconds
+  private final char[] mChars = new char[23];
+  private int mLength;
+
+  /** @param negative Puts a minus in front, for time that's left */
+  public DurationFormatter format(long durationMs, boolean negative) {
+    durationMs = Math.max(0, durationMs);
+    final long minutes = durationMs / 60000;
+    final int seconds = (int) (durationMs / 1000 % 60);
+    int length = 0;
+    if (negative) mChars[length++] = '-';
+    if (minutes < 10) mChars[length++] = '0';
+    length = appendDigits(minutes, length);
+    mChars[length++] = ':';
+    mChars[length++] = (char) ('0' + seconds / 10);
+    mChars[length++] = (char) ('0' + seconds % 10);
+    mLength = length;
+    return this;
+  }
+
+  private int appendDigits(long value, int offset) {
+    int digits = 1;
+    for (long rest = value / 10; rest > 0; rest /= 10) digits++;
+    for (int i = offset + digits - 1; i >= offset; i--) {
+      mChars[i] = (char) ('0' + value % 10);
+      value /= 10;
+    }
+    return offset + digits;
+  }
+
+  @Override
+  public int length() {
+    return mLength;
+  }
+
+  @Override
+  public char charAt(int index) {
+    if (index < 0 || index >= mLength) throw new IndexOutOfBoundsException("index " + index);
+    return mChars[index];
+  }
+
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    if (start < 0 || end > mLength || start > end)
+      throw new IndexOutOfBoundsException("start " + start + ", end " + end);
+    return new String(mChars, start, end - start);
+  }
+
+  @Override
+  public String toString() {
+    return new String(mChars, 0, mLength);
+  }
+}
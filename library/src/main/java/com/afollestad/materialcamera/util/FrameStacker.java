@@ -0,0 +1,323 @@
+package com.afollestad.materialcamera.util;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Merges a burst of I420 frames of the same scene into one with less noise. Frames are aligned to
+ * the first one with a global translation, searched coarse to fine on downscaled luma, and then
+ * averaged per pixel. Like {@link JpegEncoder} this only uses plain Java and NIO.
+ *
+ * <p>The merge runs on a {@link ForkJoinPool} over bands of rows, writing into the first frame. Its
+ * per-pixel kernel doesn't allocate, the accumulator rows are kept per worker thread.
+ *
+ * <p>An instance holds the downscaled luma used for alignment, so it's meant for one frame size and
+ * isn't thread safe.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public class FrameStacker {
+
+  private static final int FINE_SCALE = 4;
+  private static final int COARSE_SCALE = 16;
+  private static final int COARSE_RADIUS = 4;
+  private static final int FINE_RADIUS = 2;
+  private static final int FULL_RADIUS = 2;
+  private static final int FULL_SAMPLE_STEP = 8;
+  private static final int TILE_ROWS = 32;
+
+  private static final ThreadLocal<int[]> sAccumulator = new ThreadLocal<>();
+
+  private final int mWidth;
+  private final int mHeight;
+  private final int mFineWidth;
+  private final int mFineHeight;
+  private final int mCoarseWidth;
+  private final int mCoarseHeight;
+  private final int[] mReferenceFine;
+  private final int[] mReferenceCoarse;
+  private final int[] mFine;
+  private final int[] mCoarse;
+  private final int[] mBest = new int[2];
+
+  public FrameStacker(int width, int height) {
+    mWidth = width;
+    mHeight = height;
+    mFineWidth = Math.max(1, width / FINE_SCALE);
+    mFineHeight = Math.max(1, height / FINE_SCALE);
+    mCoarseWidth = Math.max(1, mFineWidth / (COARSE_SCALE / FINE_SCALE));
+    mCoarseHeight = Math.max(1, mFineHeight / (COARSE_SCALE / FINE_SCALE));
+    mReferenceFine = new int[mFineWidth * mFineHeight];
+    mReferenceCoarse = new int[mCoarseWidth * mCoarseHeight];
+    mFine = new int[mReferenceFine.length];
+    mCoarse = new int[mReferenceCoarse.length];
+  }
+
+  public int getWidth() {
+    return mWidth;
+  }
+
+  public int getHeight() {
+    return mHeight;
+  }
+
+  /**
+   * Aligns and merges {@code count} frames into the first one. Frames start at offset 0 of their
+   * buffers.
+   *
+   * @param pool Runs the merge, the alignment happens on the calling thread
+   */
+  public void stack(ByteBuffer[] frames, int count, ForkJoinPool pool) {
+    final int[] offsets = new int[2 * count];
+    align(frames, count, offsets);
+    merge(frames, count, offsets, pool);
+  }
+
+  /**
+   * Finds how far each frame moved against the first one. Pixel (x, y) of the first frame matches
+   * pixel (x + offsets[2i], y + offsets[2i + 1]) of frame i.
+   */
+  public void align(ByteBuffer[] frames, int count, int[] offsets) {
+    offsets[0] = 0;
+    offsets[1] = 0;
+    if (count < 2) return;
+    downscale(frames[0], mReferenceFine, mReferenceCoarse);
+    for (int i = 1; i < count; i++) {
+      downscale(frames[i], mFine, mCoarse);
+      search(mReferenceCoarse, mCoarse, mCoarseWidth, mCoarseHeight, 0, 0, COARSE_RADIUS, 1);
+      final int ratio = COARSE_SCALE / FINE_SCALE;
+      search(
+          mReferenceFine,
+          mFine,
+          mFineWidth,
+          mFineHeight,
+          mBest[0] * ratio,
+          mBest[1] * ratio,
+          FINE_RADIUS,
+          2);
+      refine(frames[0], frames[i], mBest[0] * FINE_SCALE, mBest[1] * FINE_SCALE);
+      offsets[2 * i] = mBest[0];
+      offsets[2 * i + 1] = mBest[1];
+    }
+  }
+
+  /** Averages the aligned frames into the first one, on all threads of {@code pool}. */
+  public void merge(ByteBuffer[] frames, int count, int[] offsets, ForkJoinPool pool) {
+    final int chromaWidth = (mWidth + 1) / 2;
+    final int chromaHeight = (mHeight + 1) / 2;
+    final int cbOffset = mWidth * mHeight;
+    final int crOffset = cbOffset + chromaWidth * chromaHeight;
+    pool.invoke(new MergeTask(frames, count, offsets, 0, mWidth, mHeight, 0, 0, mHeight));
+    pool.invoke(
+        new MergeTask(
+            frames, count, offsets, cbOffset, chromaWidth, chromaHeight, 1, 0, chromaHeight));
+    pool.invoke(
+        new MergeTask(
+            frames, count, offsets, crOffset, chromaWidth, chromaHeight, 1, 0, chromaHeight));
+  }
+
+  /** Box filters the luma plane down to both search levels. */
+  private void downscale(ByteBuffer frame, int[] fine, int[] coarse) {
+    for (int y = 0; y < mFineHeight; y++) {
+      for (int x = 0; x < mFineWidth; x++) {
+        int sum = 0;
+        for (int dy = 0; dy < FINE_SCALE; dy++) {
+          final int row = (y * FINE_SCALE + dy) * mWidth + x * FINE_SCALE;
+          for (int dx = 0; dx < FINE_SCALE; dx++) sum += frame.get(row + dx) & 0xff;
+        }
+        fine[y * mFineWidth + x] = sum / (FINE_SCALE * FINE_SCALE);
+      }
+    }
+    final int ratio = COARSE_SCALE / FINE_SCALE;
+    for (int y = 0; y < mCoarseHeight; y++) {
+      for (int x = 0; x < mCoarseWidth; x++) {
+        int sum = 0;
+        for (int dy = 0; dy < ratio; dy++) {
+          final int row = (y * ratio + dy) * mFineWidth + x * ratio;
+          for (int dx = 0; dx < ratio; dx++) sum += fine[row + dx];
+        }
+        coarse[y * mCoarseWidth + x] = sum / (ratio * ratio);
+      }
+    }
+  }
+
+  /**
+   * Leaves the translation around ({@code centerX}, {@code centerY}) with the lowest mean absolute
+   * difference in {@link #mBest}, sampling every {@code step} pixels.
+   */
+  private void search(
+      int[] reference,
+      int[] frame,
+      int width,
+      int height,
+      int centerX,
+      int centerY,
+      int radius,
+      int step) {
+    long bestSum = 0;
+    long bestCount = 0;
+    int bestX = centerX;
+    int bestY = centerY;
+    for (int dy = centerY - radius; dy <= centerY + radius; dy++) {
+      for (int dx = centerX - radius; dx <= centerX + radius; dx++) {
+        final int x0 = Math.max(0, -dx);
+        final int x1 = Math.min(width, width - dx);
+        final int y0 = Math.max(0, -dy);
+        final int y1 = Math.min(height, height - dy);
+        // Too little overlap left to tell anything
+        if ((x1 - x0) * 2 < width || (y1 - y0) * 2 < height) continue;
+        long sum = 0;
+        long count = 0;
+        for (int y = y0; y < y1; y += step) {
+          final int referenceRow = y * width;
+          final int frameRow = (y + dy) * width + dx;
+          for (int x = x0; x < x1; x += step) {
+            sum += Math.abs(reference[referenceRow + x] - frame[frameRow + x]);
+            count++;
+          }
+        }
+        if (count > 0 && (bestCount == 0 || sum * bestCount < bestSum * count)) {
+          bestSum = sum;
+          bestCount = count;
+          bestX = dx;
+          bestY = dy;
+        }
+      }
+    }
+    mBest[0] = bestX;
+    mBest[1] = bestY;
+  }
+
+  /** Final search at full resolution on a sparse grid, the fine level is only good to a few px. */
+  private void refine(ByteBuffer reference, ByteBuffer frame, int centerX, int centerY) {
+    final int radius = FULL_RADIUS + FINE_SCALE / 2;
+    long bestSum = 0;
+    long bestCount = 0;
+    int bestX = centerX;
+    int bestY = centerY;
+    for (int dy = centerY - radius; dy <= centerY + radius; dy++) {
+      for (int dx = centerX - radius; dx <= centerX + radius; dx++) {
+        final int x0 = Math.max(0, -dx);
+        final int x1 = Math.min(mWidth, mWidth - dx);
+        final int y0 = Math.max(0, -dy);
+        final int y1 = Math.min(mHeight, mHeight - dy);
+        long sum = 0;
+        long count = 0;
+        for (int y = y0; y < y1; y += FULL_SAMPLE_STEP) {
+          final int referenceRow = y * mWidth;
+          final int frameRow = (y + dy) * mWidth + dx;
+          for (int x = x0; x < x1; x += FULL_SAMPLE_STEP) {
+            sum +=
+                Math.abs(
+                    (reference.get(referenceRow + x) & 0xff) - (frame.get(frameRow + x) & 0xff));
+            count++;
+          }
+        }
+        if (count > 0 && (bestCount == 0 || sum * bestCount < bestSum * count)) {
+          bestSum = sum;
+          bestCount = count;
+          bestX = dx;
+          bestY = dy;
+        }
+      }
+    }
+    mBest[0] = bestX;
+    mBest[1] = bestY;
+  }
+
+  /** Averages a band of rows of one plane, splitting it in halves until it's small enough. */
+  private static class MergeTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final ByteBuffer[] mFrames;
+    private final int mCount;
+    private final int[] mOffsets;
+    private final int mPlaneOffset;
+    private final int mPlaneWidth;
+    private final int mPlaneHeight;
+    private final int mShift;
+    private final int mStartRow;
+    private final int mEndRow;
+
+    MergeTask(
+        ByteBuffer[] frames,
+        int count,
+        int[] offsets,
+        int planeOffset,
+        int planeWidth,
+        int planeHeight,
+        int shift,
+        int startRow,
+        int endRow) {
+      mFrames = frames;
+      mCount = count;
+      mOffsets = offsets;
+      mPlaneOffset = planeOffset;
+      mPlaneWidth = planeWidth;
+      mPlaneHeight = planeHeight;
+      mShift = shift;
+      mStartRow = startRow;
+      mEndRow = endRow;
+    }
+
+    @Override
+    protected void compute() {
+      if (mEndRow - mStartRow > TILE_ROWS) {
+        final int middle = (mStartRow + mEndRow) >>> 1;
+        invokeAll(split(mStartRow, middle), split(middle, mEndRow));
+        return;
+      }
+      int[] accumulator = sAccumulator.get();
+      if (accumulator == null || accumulator.length < mPlaneWidth) {
+        accumulator = new int[mPlaneWidth];
+        sAccumulator.set(accumulator);
+      }
+      for (int y = mStartRow; y < mEndRow; y++) mergeRow(y, accumulator);
+    }
+
+    private MergeTask split(int startRow, int endRow) {
+      return new MergeTask(
+          mFrames,
+          mCount,
+          mOffsets,
+          mPlaneOffset,
+          mPlaneWidth,
+          mPlaneHeight,
+          mShift,
+          startRow,
+          endRow);
+    }
+
+    private void mergeRow(int y, int[] accumulator) {
+      final int width = mPlaneWidth;
+      for (int i = 0; i < mCount; i++) {
+        final ByteBuffer frame = mFrames[i];
+        final int dx = mOffsets[2 * i] >> mShift;
+        final int dy = mOffsets[2 * i + 1] >> mShift;
+        final int row = mPlaneOffset + Math.max(0, Math.min(mPlaneHeight - 1, y + dy)) * width;
+        // Columns that map outside of the frame repeat its edge
+        final int left = Math.max(0, Math.min(width, -dx));
+        final int right = Math.max(left, Math.min(width, width - dx));
+        final int first = frame.get(row) & 0xff;
+        final int last = frame.get(row + width - 1) & 0xff;
+        if (i == 0) {
+          for (int x = 0; x < left; x++) accumulator[x] = first;
+          for (int x = left; x < right; x++) accumulator[x] = frame.get(row + x + dx) & 0xff;
+          for (int x = right; x < width; x++) accumulator[x] = last;
+        } else {
+          for (int x = 0; x < left; x++) accumulator[x] += first;
+          for (int x = left; x < right; x++) accumulator[x] += frame.get(row + x + dx) & 0xff;
+          for (int x = right; x < width; x++) accumulator[x] += last;
+        }
+      }
+      // The first frame is never shifted, so row y of it has already been read
+      final ByteBuffer out = mFrames[0];
+      final int outRow = mPlaneOffset + y * width;
+      final int half = mCount / 2;
+      for (int x = 0; x < width; x++)
+        out.put(outRow + x, (byte) ((accumulator[x] + half) / mCount));
+    }
+  }
+}
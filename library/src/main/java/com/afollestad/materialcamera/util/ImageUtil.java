@@ -3,17 +3,23 @@ package com.afollestad.materialcamera.util;
 import static com.afollestad.materialcamera.util.Degrees.DEGREES_270;
 import static com.afollestad.materialcamera.util.Degrees.DEGREES_90;
 
+import android.content.ContentResolver;
+import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Matrix;
 import android.media.ExifInterface;
+import android.net.Uri;
 import android.os.Handler;
+import android.os.ParcelFileDescriptor;
 import android.support.annotation.Nullable;
 import android.util.Log;
+import com.afollestad.materialcamera.CameraMetrics;
 import com.afollestad.materialcamera.ICallback;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 
 /** Created by tomiurankar on 06/03/16. */
 public class ImageUtil {
@@ -26,15 +32,66 @@ public class ImageUtil {
    */
   public static void saveToDiskAsync(
       final byte[] input, final File output, final ICallback callback) {
+    saveAsync(input, output, null, null, callback);
+  }
+
+  /**
+   * Same as {@link #saveToDiskAsync(byte[], File, ICallback)}, {@code digest} is updated with the
+   * bytes on the writing thread.
+   */
+  public static void saveToDiskAsync(
+      final byte[] input,
+      final File output,
+      @Nullable final ChunkedDigest digest,
+      final ICallback callback) {
+    saveAsync(input, output, null, digest, callback);
+  }
+
+  /**
+   * Saves byte[] array to an already opened file descriptor
+   *
+   * @param input byte array
+   * @param output descriptor to write to, it's closed once written
+   * @param callback will always return in originating thread
+   */
+  public static void saveToDescriptorAsync(
+      final byte[] input, final ParcelFileDescriptor output, final ICallback callback) {
+    saveAsync(input, null, output, null, callback);
+  }
+
+  /**
+   * Same as {@link #saveToDescriptorAsync(byte[], ParcelFileDescriptor, ICallback)}, {@code digest}
+   * is updated with the bytes on the writing thread.
+   */
+  public static void saveToDescriptorAsync(
+      final byte[] input,
+      final ParcelFileDescriptor output,
+      @Nullable final ChunkedDigest digest,
+      final ICallback callback) {
+    saveAsync(input, null, output, digest, callback);
+  }
+
+  private static void saveAsync(
+      final byte[] input,
+      @Nullable final File file,
+      @Nullable final ParcelFileDescriptor descriptor,
+      @Nullable final ChunkedDigest digest,
+      final ICallback callback) {
     final Handler handler = new Handler();
     new Thread() {
       @Override
       public void run() {
         try {
-          FileOutputStream outputStream = new FileOutputStream(output);
+          OutputStream outputStream =
+              descriptor != null
+                  ? new ParcelFileDescriptor.AutoCloseOutputStream(descriptor)
+                  : new FileOutputStream(file);
+          if (digest != null) digest.update(input, 0, input.length);
+          final long writeStart = CameraMetrics.start();
           outputStream.write(input);
           outputStream.flush();
           outputStream.close();
+          CameraMetrics.written(writeStart, input.length);
 
           handler.post(
               new Runnable() {
@@ -56,6 +113,35 @@ public class ImageUtil {
     }.start();
   }
 
+  /**
+   * Same as {@link #getRotatedBitmap(String, int, int)}, but also accepts content:// Uris.
+   *
+   * @param input file:// or content:// Uri of a JPEG
+   * @return rotated bitmap or null
+   */
+  @Nullable
+  public static Bitmap getRotatedBitmap(Context context, Uri input, int reqWidth, int reqHeight) {
+    if (!ContentResolver.SCHEME_CONTENT.equals(input.getScheme()))
+      return getRotatedBitmap(input.getPath(), reqWidth, reqHeight);
+    ParcelFileDescriptor descriptor = null;
+    try {
+      descriptor = context.getContentResolver().openFileDescriptor(input, "r");
+      if (descriptor == null) return null;
+      // ExifInterface only takes a path before API 24, go through our own descriptor
+      return getRotatedBitmap("/proc/self/fd/" + descriptor.getFd(), reqWidth, reqHeight);
+    } catch (IOException e) {
+      Log.e("exif", "Error when trying to open : " + input, e);
+      return null;
+    } finally {
+      if (descriptor != null) {
+        try {
+          descriptor.close();
+        } catch (IOException ignored) {
+        }
+      }
+    }
+  }
+
   /**
    * Rotates the bitmap per their EXIF flag. This is a recursive function that will be called again
    * if the image needs to be downsized more.
@@ -79,13 +165,14 @@ public class ImageUtil {
 
     Matrix matrix = new Matrix();
     matrix.preRotate(rotationInDegrees);
-    // we need not check if the rotation is not needed, since the below function will then return the same bitmap. Thus no memory loss occurs.
+    // we need not check if the rotation is not needed, since the below function will then return
+    // the same bitmap. Thus no memory loss occurs.
 
     return Bitmap.createBitmap(
         origBitmap, 0, 0, origBitmap.getWidth(), origBitmap.getHeight(), matrix, true);
   }
 
-  private static int calculateInSampleSize(
+  static int calculateInSampleSize(
       BitmapFactory.Options options, int reqWidth, int reqHeight, int rotationInDegrees) {
 
     // Raw height and width of image
@@ -117,19 +204,23 @@ public class ImageUtil {
 
   private static int getExifDegreesFromJpeg(String inputFile) {
     try {
-      final ExifInterface exif = new ExifInterface(inputFile);
-      final int exifOrientation =
-          exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
-      if (exifOrientation == ExifInterface.ORIENTATION_ROTATE_90) {
-        return 90;
-      } else if (exifOrientation == ExifInterface.ORIENTATION_ROTATE_180) {
-        return 180;
-      } else if (exifOrientation == ExifInterface.ORIENTATION_ROTATE_270) {
-        return 270;
-      }
+      return getExifDegrees(new ExifInterface(inputFile));
     } catch (IOException e) {
       Log.e("exif", "Error when trying to get exif data from : " + inputFile, e);
     }
     return 0;
   }
+
+  static int getExifDegrees(ExifInterface exif) {
+    final int exifOrientation =
+        exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+    if (exifOrientation == ExifInterface.ORIENTATION_ROTATE_90) {
+      return 90;
+    } else if (exifOrientation == ExifInterface.ORIENTATION_ROTATE_180) {
+      return 180;
+    } else if (exifOrientation == ExifInterface.ORIENTATION_ROTATE_270) {
+      return 270;
+    }
+    return 0;
+  }
 }
@@ -0,0 +1,507 @@
+package com.afollestad.materialcamera.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Baseline JPEG encoder for planar YUV 4:2:0 (I420) frames. It only uses plain Java and NIO, so it
+ * runs on the JVM as well as on a device.
+ *
+ * <p>The frame is cut into horizontal stripes of whole MCU rows, which are entropy coded in
+ * parallel and then joined with restart markers. Each stripe starts with fresh DC predictions, so
+ * none of them depends on another. Instances are immutable and can be shared between threads.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public class JpegEncoder {
+
+  private static final int MCU_SIZE = 16;
+  private static final int MAX_RESTART_INTERVAL = 0xffff;
+
+  /** Natural (row major) index of each coefficient to its position in zig-zag order. */
+  private static final int[] ZIGZAG = {
+    0, 1, 5, 6, 14, 15, 27, 28, 2, 4, 7, 13, 16, 26, 29, 42, 3, 8, 12, 17, 25, 30, 41, 43, 9, 11,
+    18, 24, 31, 40, 44, 53, 10, 19, 23, 32, 39, 45, 52, 54, 20, 22, 33, 38, 46, 51, 55, 60, 21, 34,
+    37, 47, 50, 56, 59, 61, 35, 36, 48, 49, 57, 58, 62, 63
+  };
+
+  private static final int[] LUMA_QUANT = {
+    16, 11, 10, 16, 24, 40, 51, 61, 12, 12, 14, 19, 26, 58, 60, 55, 14, 13, 16, 24, 40, 57, 69, 56,
+    14, 17, 22, 29, 51, 87, 80, 62, 18, 22, 37, 56, 68, 109, 103, 77, 24, 35, 55, 64, 81, 104, 113,
+    92, 49, 64, 78, 87, 103, 121, 120, 101, 72, 92, 95, 98, 112, 100, 103, 99
+  };
+
+  private static final int[] CHROMA_QUANT = {
+    17, 18, 24, 47, 99, 99, 99, 99, 18, 21, 26, 66, 99, 99, 99, 99, 24, 26, 56, 99, 99, 99, 99, 99,
+    47, 66, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99,
+    99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99
+  };
+
+  private static final double[] AAN_SCALE = {
+    1.0, 1.387039845, 1.306562965, 1.175875602, 1.0, 0.785694958, 0.541196100, 0.275899379
+  };
+
+  // Huffman tables from Annex K of the spec, as code counts per length followed by the symbols
+
+  private static final int[] DC_LUMA_COUNTS = {0, 1, 5, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0, 0, 0};
+  private static final int[] DC_CHROMA_COUNTS = {0, 3, 1, 1, 1, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0};
+  private static final int[] DC_SYMBOLS = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11};
+
+  private static final int[] AC_LUMA_COUNTS = {0, 2, 1, 3, 3, 2, 4, 3, 5, 5, 4, 4, 0, 0, 1, 0x7d};
+  private static final int[] AC_LUMA_SYMBOLS = {
+    0x01, 0x02, 0x03, 0x00, 0x04, 0x11, 0x05, 0x12, 0x21, 0x31, 0x41, 0x06, 0x13, 0x51, 0x61, 0x07,
+    0x22, 0x71, 0x14, 0x32, 0x81, 0x91, 0xa1, 0x08, 0x23, 0x42, 0xb1, 0xc1, 0x15, 0x52, 0xd1, 0xf0,
+    0x24, 0x33, 0x62, 0x72, 0x82, 0x09, 0x0a, 0x16, 0x17, 0x18, 0x19, 0x1a, 0x25, 0x26, 0x27, 0x28,
+    0x29, 0x2a, 0x34, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48, 0x49,
+    0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69,
+    0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x83, 0x84, 0x85, 0x86, 0x87, 0x88, 0x89,
+    0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5, 0xa6, 0xa7,
+    0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3, 0xc4, 0xc5,
+    0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda, 0xe1, 0xe2,
+    0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf1, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+    0xf9, 0xfa
+  };
+
+  private static final int[] AC_CHROMA_COUNTS = {0, 2, 1, 2, 4, 4, 3, 4, 7, 5, 4, 4, 0, 1, 2, 0x77};
+  private static final int[] AC_CHROMA_SYMBOLS = {
+    0x00, 0x01, 0x02, 0x03, 0x11, 0x04, 0x05, 0x21, 0x31, 0x06, 0x12, 0x41, 0x51, 0x07, 0x61, 0x71,
+    0x13, 0x22, 0x32, 0x81, 0x08, 0x14, 0x42, 0x91, 0xa1, 0xb1, 0xc1, 0x09, 0x23, 0x33, 0x52, 0xf0,
+    0x15, 0x62, 0x72, 0xd1, 0x0a, 0x16, 0x24, 0x34, 0xe1, 0x25, 0xf1, 0x17, 0x18, 0x19, 0x1a, 0x26,
+    0x27, 0x28, 0x29, 0x2a, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48,
+    0x49, 0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68,
+    0x69, 0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x82, 0x83, 0x84, 0x85, 0x86, 0x87,
+    0x88, 0x89, 0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5,
+    0xa6, 0xa7, 0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3,
+    0xc4, 0xc5, 0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda,
+    0xe2, 0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+    0xf9, 0xfa
+  };
+
+  private static final HuffmanTable DC_LUMA = new HuffmanTable(DC_LUMA_COUNTS, DC_SYMBOLS);
+  private static final HuffmanTable AC_LUMA = new HuffmanTable(AC_LUMA_COUNTS, AC_LUMA_SYMBOLS);
+  private static final HuffmanTable DC_CHROMA = new HuffmanTable(DC_CHROMA_COUNTS, DC_SYMBOLS);
+  private static final HuffmanTable AC_CHROMA =
+      new HuffmanTable(AC_CHROMA_COUNTS, AC_CHROMA_SYMBOLS);
+
+  private final int[] mLumaQuant = new int[64];
+  private final int[] mChromaQuant = new int[64];
+  private final float[] mLumaDivisors = new float[64];
+  private final float[] mChromaDivisors = new float[64];
+
+  /** @param quality From 1 to 100, scaled the same way as libjpeg does */
+  public JpegEncoder(int quality) {
+    quality = Math.max(1, Math.min(100, quality));
+    final int scale = quality < 50 ? 5000 / quality : 200 - quality * 2;
+    for (int i = 0; i < 64; i++) {
+      mLumaQuant[ZIGZAG[i]] = Math.max(1, Math.min(255, (LUMA_QUANT[i] * scale + 50) / 100));
+      mChromaQuant[ZIGZAG[i]] = Math.max(1, Math.min(255, (CHROMA_QUANT[i] * scale + 50) / 100));
+    }
+    // Folds the scaling of the AAN DCT outputs into the quantization
+    for (int row = 0, i = 0; row < 8; row++) {
+      for (int col = 0; col < 8; col++, i++) {
+        final double aan = AAN_SCALE[row] * AAN_SCALE[col] * 8;
+        mLumaDivisors[i] = (float) (1 / (mLumaQuant[ZIGZAG[i]] * aan));
+        mChromaDivisors[i] = (float) (1 / (mChromaQuant[ZIGZAG[i]] * aan));
+      }
+    }
+  }
+
+  /** @return the size of an I420 frame, a full size Y plane followed by quarter size U and V */
+  public static int getFrameSize(int width, int height) {
+    return width * height + 2 * ((width + 1) / 2) * ((height + 1) / 2);
+  }
+
+  /**
+   * Encodes an I420 frame, starting at the buffer's position.
+   *
+   * @param orientation Clockwise rotation to show the frame upright, written as an EXIF tag
+   * @param executor Encodes the stripes if not null, otherwise the frame is encoded in one piece on
+   *     the calling thread
+   * @param stripes How many stripes to cut the frame into when there's an executor
+   */
+  public void encode(
+      ByteBuffer frame,
+      int width,
+      int height,
+      int orientation,
+      ExecutorService executor,
+      int stripes,
+      OutputStream out)
+      throws IOException {
+    final int mcuColumns = (width + MCU_SIZE - 1) / MCU_SIZE;
+    final int mcuRows = (height + MCU_SIZE - 1) / MCU_SIZE;
+    if (executor == null) stripes = 1;
+    int rowsPerStripe = (mcuRows + Math.max(1, stripes) - 1) / Math.max(1, stripes);
+    rowsPerStripe = Math.max(1, Math.min(rowsPerStripe, MAX_RESTART_INTERVAL / mcuColumns));
+    final int stripeCount = (mcuRows + rowsPerStripe - 1) / rowsPerStripe;
+
+    final List<Future<BitWriter>> futures = new ArrayList<>(stripeCount);
+    final List<BitWriter> encoded = new ArrayList<>(stripeCount);
+    for (int i = 0; i < stripeCount; i++) {
+      final Stripe stripe =
+          new Stripe(
+              frame.duplicate(),
+              frame.position(),
+              width,
+              height,
+              i * rowsPerStripe,
+              Math.min(mcuRows, (i + 1) * rowsPerStripe));
+      if (executor == null || stripeCount == 1) encoded.add(stripe.call());
+      else futures.add(executor.submit(stripe));
+    }
+    try {
+      for (Future<BitWriter> future : futures) encoded.add(future.get());
+    } catch (InterruptedException e) {
+      for (Future<BitWriter> future : futures) future.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while encoding.");
+    } catch (ExecutionException e) {
+      throw new IOException("Failed to encode a stripe: " + e.getCause(), e.getCause());
+    }
+
+    writeHeaders(out, width, height, orientation, stripeCount > 1 ? mcuColumns * rowsPerStripe : 0);
+    for (int i = 0; i < stripeCount; i++) {
+      final BitWriter stripe = encoded.get(i);
+      out.write(stripe.mBytes, 0, stripe.mLength);
+      if (i < stripeCount - 1) writeMarker(out, 0xd0 + (i % 8));
+    }
+    writeMarker(out, 0xd9);
+  }
+
+  private void writeHeaders(
+      OutputStream out, int width, int height, int orientation, int restartInterval)
+      throws IOException {
+    writeMarker(out, 0xd8);
+
+    // APP1 with a single IFD entry, the orientation
+    writeMarker(out, 0xe1);
+    writeShort(out, 34);
+    out.write(new byte[] {'E', 'x', 'i', 'f', 0, 0, 'M', 'M', 0, 42, 0, 0, 0, 8});
+    writeShort(out, 1);
+    writeShort(out, 0x0112);
+    writeShort(out, 3);
+    out.write(new byte[] {0, 0, 0, 1});
+    writeShort(out, getExifOrientation(orientation));
+    out.write(new byte[] {0, 0, 0, 0, 0, 0});
+
+    writeMarker(out, 0xdb);
+    writeShort(out, 2 + 2 * 65);
+    out.write(0);
+    for (int value : mLumaQuant) out.write(value);
+    out.write(1);
+    for (int value : mChromaQuant) out.write(value);
+
+    writeMarker(out, 0xc0);
+    writeShort(out, 17);
+    out.write(8);
+    writeShort(out, height);
+    writeShort(out, width);
+    out.write(3);
+    out.write(new byte[] {1, 0x22, 0, 2, 0x11, 1, 3, 0x11, 1});
+
+    writeMarker(out, 0xc4);
+    writeShort(
+        out,
+        2 + 4 * 17 + DC_SYMBOLS.length * 2 + AC_LUMA_SYMBOLS.length + AC_CHROMA_SYMBOLS.length);
+    writeHuffmanTable(out, 0x00, DC_LUMA_COUNTS, DC_SYMBOLS);
+    writeHuffmanTable(out, 0x10, AC_LUMA_COUNTS, AC_LUMA_SYMBOLS);
+    writeHuffmanTable(out, 0x01, DC_CHROMA_COUNTS, DC_SYMBOLS);
+    writeHuffmanTable(out, 0x11, AC_CHROMA_COUNTS, AC_CHROMA_SYMBOLS);
+
+    if (restartInterval > 0) {
+      writeMarker(out, 0xdd);
+      writeShort(out, 4);
+      writeShort(out, restartInterval);
+    }
+
+    writeMarker(out, 0xda);
+    writeShort(out, 12);
+    out.write(new byte[] {3, 1, 0, 2, 0x11, 3, 0x11, 0, 63, 0});
+  }
+
+  private static void writeHuffmanTable(OutputStream out, int id, int[] counts, int[] symbols)
+      throws IOException {
+    out.write(id);
+    for (int count : counts) out.write(count);
+    for (int symbol : symbols) out.write(symbol);
+  }
+
+  private static void writeMarker(OutputStream out, int marker) throws IOException {
+    out.write(0xff);
+    out.write(marker);
+  }
+
+  private static void writeShort(OutputStream out, int value) throws IOException {
+    out.write((value >> 8) & 0xff);
+    out.write(value & 0xff);
+  }
+
+  private static int getExifOrientation(int degrees) {
+    switch (((degrees % 360) + 360) % 360) {
+      case 90:
+        return 6;
+      case 180:
+        return 3;
+      case 270:
+        return 8;
+      default:
+        return 1;
+    }
+  }
+
+  /** Encodes a range of MCU rows, with its own scratch space so stripes can run concurrently. */
+  private class Stripe implements Callable<BitWriter> {
+
+    private final ByteBuffer mFrame;
+    private final int mOffset;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mChromaWidth;
+    private final int mChromaHeight;
+    private final int mFirstRow;
+    private final int mEndRow;
+
+    private final byte[] mLumaRows;
+    private final byte[] mCbRows;
+    private final byte[] mCrRows;
+    private final float[] mBlock = new float[64];
+    private final int[] mCoefficients = new int[64];
+    private int mLumaDc;
+    private int mCbDc;
+    private int mCrDc;
+
+    Stripe(ByteBuffer frame, int offset, int width, int height, int firstRow, int endRow) {
+      mFrame = frame;
+      mOffset = offset;
+      mWidth = width;
+      mHeight = height;
+      mChromaWidth = (width + 1) / 2;
+      mChromaHeight = (height + 1) / 2;
+      mFirstRow = firstRow;
+      mEndRow = endRow;
+      mLumaRows = new byte[MCU_SIZE * width];
+      mCbRows = new byte[8 * mChromaWidth];
+      mCrRows = new byte[8 * mChromaWidth];
+    }
+
+    @Override
+    public BitWriter call() {
+      // Roughly what the stripe compresses to at high quality, it grows if needed
+      final BitWriter writer =
+          new BitWriter(Math.max(1024, (mEndRow - mFirstRow) * MCU_SIZE * mWidth / 4));
+      final int mcuColumns = (mWidth + MCU_SIZE - 1) / MCU_SIZE;
+      final int cbOffset = mOffset + mWidth * mHeight;
+      final int crOffset = cbOffset + mChromaWidth * mChromaHeight;
+      for (int row = mFirstRow; row < mEndRow; row++) {
+        readRows(mOffset, mWidth, mHeight, row * MCU_SIZE, MCU_SIZE, mLumaRows);
+        readRows(cbOffset, mChromaWidth, mChromaHeight, row * 8, 8, mCbRows);
+        readRows(crOffset, mChromaWidth, mChromaHeight, row * 8, 8, mCrRows);
+        for (int column = 0; column < mcuColumns; column++) {
+          final int x = column * MCU_SIZE;
+          mLumaDc = encodeBlock(mLumaRows, mWidth, x, 0, mLumaDc, true, writer);
+          mLumaDc = encodeBlock(mLumaRows, mWidth, x + 8, 0, mLumaDc, true, writer);
+          mLumaDc = encodeBlock(mLumaRows, mWidth, x, 8, mLumaDc, true, writer);
+          mLumaDc = encodeBlock(mLumaRows, mWidth, x + 8, 8, mLumaDc, true, writer);
+          mCbDc = encodeBlock(mCbRows, mChromaWidth, column * 8, 0, mCbDc, false, writer);
+          mCrDc = encodeBlock(mCrRows, mChromaWidth, column * 8, 0, mCrDc, false, writer);
+        }
+      }
+      writer.flush();
+      return writer;
+    }
+
+    /** Copies {@code count} rows of a plane, repeating the last row past the bottom edge. */
+    private void readRows(int offset, int width, int height, int first, int count, byte[] out) {
+      for (int i = 0; i < count; i++) {
+        final int row = Math.min(first + i, height - 1);
+        mFrame.position(offset + row * width);
+        mFrame.get(out, i * width, width);
+      }
+    }
+
+    private int encodeBlock(
+        byte[] rows, int width, int x, int y, int previousDc, boolean luma, BitWriter writer) {
+      final float[] block = mBlock;
+      for (int row = 0; row < 8; row++) {
+        final int start = (y + row) * width;
+        for (int column = 0; column < 8; column++) {
+          // Repeats the last column past the right edge
+          final int sample = rows[start + Math.min(x + column, width - 1)] & 0xff;
+          block[row * 8 + column] = sample - 128;
+        }
+      }
+      forwardDct(block);
+
+      final float[] divisors = luma ? mLumaDivisors : mChromaDivisors;
+      final int[] coefficients = mCoefficients;
+      for (int i = 0; i < 64; i++) {
+        coefficients[ZIGZAG[i]] = Math.round(block[i] * divisors[i]);
+      }
+
+      final HuffmanTable dcTable = luma ? DC_LUMA : DC_CHROMA;
+      final HuffmanTable acTable = luma ? AC_LUMA : AC_CHROMA;
+      final int dc = coefficients[0];
+      final int diff = dc - previousDc;
+      final int dcCategory = category(diff);
+      writer.write(dcTable.mCodes[dcCategory], dcTable.mLengths[dcCategory]);
+      if (dcCategory > 0) writer.write(bits(diff, dcCategory), dcCategory);
+
+      int last = 63;
+      while (last > 0 && coefficients[last] == 0) last--;
+      int run = 0;
+      for (int i = 1; i <= last; i++) {
+        final int value = coefficients[i];
+        if (value == 0) {
+          run++;
+          continue;
+        }
+        while (run > 15) {
+          writer.write(acTable.mCodes[0xf0], acTable.mLengths[0xf0]);
+          run -= 16;
+        }
+        final int acCategory = category(value);
+        final int symbol = (run << 4) | acCategory;
+        writer.write(acTable.mCodes[symbol], acTable.mLengths[symbol]);
+        writer.write(bits(value, acCategory), acCategory);
+        run = 0;
+      }
+      if (last < 63) writer.write(acTable.mCodes[0], acTable.mLengths[0]);
+      return dc;
+    }
+  }
+
+  /** In place AAN forward DCT, outputs are scaled by the factors folded into the divisors. */
+  private static void forwardDct(float[] data) {
+    for (int pass = 0; pass < 2; pass++) {
+      // Rows first, then columns
+      final int step = pass == 0 ? 1 : 8;
+      final int next = pass == 0 ? 8 : 1;
+      for (int i = 0, base = 0; i < 8; i++, base += next) {
+        final float d0 = data[base];
+        final float d1 = data[base + step];
+        final float d2 = data[base + 2 * step];
+        final float d3 = data[base + 3 * step];
+        final float d4 = data[base + 4 * step];
+        final float d5 = data[base + 5 * step];
+        final float d6 = data[base + 6 * step];
+        final float d7 = data[base + 7 * step];
+
+        final float tmp0 = d0 + d7;
+        final float tmp7 = d0 - d7;
+        final float tmp1 = d1 + d6;
+        final float tmp6 = d1 - d6;
+        final float tmp2 = d2 + d5;
+        final float tmp5 = d2 - d5;
+        final float tmp3 = d3 + d4;
+        final float tmp4 = d3 - d4;
+
+        // Even part
+        float tmp10 = tmp0 + tmp3;
+        final float tmp13 = tmp0 - tmp3;
+        float tmp11 = tmp1 + tmp2;
+        float tmp12 = tmp1 - tmp2;
+
+        data[base] = tmp10 + tmp11;
+        data[base + 4 * step] = tmp10 - tmp11;
+
+        final float z1 = (tmp12 + tmp13) * 0.707106781f;
+        data[base + 2 * step] = tmp13 + z1;
+        data[base + 6 * step] = tmp13 - z1;
+
+        // Odd part
+        tmp10 = tmp4 + tmp5;
+        tmp11 = tmp5 + tmp6;
+        tmp12 = tmp6 + tmp7;
+
+        final float z5 = (tmp10 - tmp12) * 0.382683433f;
+        final float z2 = 0.541196100f * tmp10 + z5;
+        final float z4 = 1.306562965f * tmp12 + z5;
+        final float z3 = tmp11 * 0.707106781f;
+
+        final float z11 = tmp7 + z3;
+        final float z13 = tmp7 - z3;
+
+        data[base + 5 * step] = z13 + z2;
+        data[base + 3 * step] = z13 - z2;
+        data[base + step] = z11 + z4;
+        data[base + 7 * step] = z11 - z4;
+      }
+    }
+  }
+
+  /** @return how many bits are needed for the magnitude of {@code value} */
+  private static int category(int value) {
+    return 32 - Integer.numberOfLeadingZeros(Math.abs(value));
+  }
+
+  /** Negative values are stored as their ones' complement. */
+  private static int bits(int value, int category) {
+    return (value < 0 ? value - 1 : value) & ((1 << category) - 1);
+  }
+
+  private static class HuffmanTable {
+
+    final int[] mCodes = new int[256];
+    final int[] mLengths = new int[256];
+
+    HuffmanTable(int[] counts, int[] symbols) {
+      int code = 0;
+      int index = 0;
+      for (int length = 1; length <= 16; length++) {
+        for (int i = 0; i < counts[length - 1]; i++) {
+          mCodes[symbols[index]] = code;
+          mLengths[symbols[index]] = length;
+          index++;
+          code++;
+        }
+        code <<= 1;
+      }
+    }
+  }
+
+  /** Entropy coded bytes of a stripe, with 0xFF bytes stuffed as the format requires. */
+  private static class BitWriter {
+
+    byte[] mBytes;
+    int mLength;
+    private int mBuffer;
+    private int mBitCount;
+
+    BitWriter(int capacity) {
+      mBytes = new byte[capacity];
+    }
+
+    void write(int value, int length) {
+      mBuffer = (mBuffer << length) | (value & ((1 << length) - 1));
+      mBitCount += length;
+      while (mBitCount >= 8) {
+        final int b = (mBuffer >> (mBitCount - 8)) & 0xff;
+        put(b);
+        if (b == 0xff) put(0);
+        mBitCount -= 8;
+      }
+      mBuffer &= (1 << mBitCount) - 1;
+    }
+
+    /** Pads the last byte with 1 bits, as required before a marker. */
+    void flush() {
+      if (mBitCount > 0) write(0x7f, 8 - mBitCount);
+    }
+
+    private void put(int b) {
+      if (mLength == mBytes.length) {
+        final byte[] grown = new byte[mBytes.length * 2];
+        System.arraycopy(mBytes, 0, grown, 0, mLength);
+        mBytes = grown;
+      }
+      mBytes[mLength++] = (byte) b;
+    }
+  }
+}
@@ -0,0 +1,66 @@
+package com.afollestad.materialcamera.util;
+
+/**
+ * Picks preview and video sizes for both camera APIs. Sizes are passed as parallel arrays of widths
+ * and heights, so this doesn't depend on either API's size class and runs on the JVM.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public class SizeSelector {
+
+  private SizeSelector() {}
+
+  /**
+   * @return the index of the first size no higher than {@code preferredHeight} with the preferred
+   *     aspect ratio, or else the last one no higher than it. -1 if all of them are higher.
+   */
+  public static int chooseVideoSize(
+      int[] widths, int[] heights, int preferredHeight, float preferredAspect) {
+    int backup = -1;
+    for (int i = 0; i < widths.length; i++) {
+      if (heights[i] <= preferredHeight) {
+        if (widths[i] == heights[i] * preferredAspect) return i;
+        backup = i;
+      }
+    }
+    return backup;
+  }
+
+  /**
+   * Out of the sizes with the given aspect ratio that fit in {@code maxWidth} x {@code maxHeight},
+   * picks the smallest one that's at least {@code minWidth} x {@code minHeight}.
+   *
+   * @param allowSmaller If none are big enough, pick the largest of the smaller ones instead
+   * @return the index of the chosen size, -1 if none qualify
+   */
+  public static int chooseOptimalSize(
+      int[] widths,
+      int[] heights,
+      int minWidth,
+      int minHeight,
+      int maxWidth,
+      int maxHeight,
+      int aspectWidth,
+      int aspectHeight,
+      boolean allowSmaller) {
+    int smallestBigEnough = -1;
+    int largestTooSmall = -1;
+    for (int i = 0; i < widths.length; i++) {
+      final int width = widths[i];
+      final int height = heights[i];
+      if (width > maxWidth || height > maxHeight || height != width * aspectHeight / aspectWidth)
+        continue;
+      final long area = (long) width * height;
+      if (width >= minWidth && height >= minHeight) {
+        if (smallestBigEnough == -1
+            || area < (long) widths[smallestBigEnough] * heights[smallestBigEnough])
+          smallestBigEnough = i;
+      } else if (largestTooSmall == -1
+          || area > (long) widths[largestTooSmall] * heights[largestTooSmall]) {
+        largestTooSmall = i;
+      }
+    }
+    if (smallestBigEnough != -1) return smallestBigEnough;
+    return allowSmaller ? largestTooSmall : -1;
+  }
+}
@@ -0,0 +1,33 @@
+package com.afollestad.materialcamera.util;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Formats times for labels and file names. It only uses plain Java, so it runs on the JVM as well.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public class TimeFormat {
+
+  private TimeFormat() {}
+
+  /** @return minutes and seconds, e.g. 01:05 */
+  public static String getDurationString(long durationMs) {
+    return String.format(
+        Locale.getDefault(),
+        "%02d:%02d",
+        TimeUnit.MILLISECONDS.toMinutes(durationMs),
+        TimeUnit.MILLISECONDS.toSeconds(durationMs)
+            - TimeUnit.MINUTES.toSeconds(TimeUnit.MILLISECONDS.toMinutes(durationMs)));
+  }
+
+  /** @return the name of a capture file taken at {@code date}, e.g. VID_20170601_153012.mp4 */
+  public static String getFileName(String prefix, Date date, String extension) {
+    final String timeStamp =
+        new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(date);
+    return prefix + timeStamp + extension;
+  }
+}
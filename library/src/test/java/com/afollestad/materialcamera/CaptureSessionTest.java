@@ -0,0 +1,291 @@
+package com.afollestad.materialcamera;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import com.afollestad.materialcamera.internal.FakeCameraBackend;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** @author Aidan Follestad (afollestad) */
+public class CaptureSessionTest {
+
+  private static final long TIMEOUT_SECONDS = 10;
+
+  private static final Executor DIRECT =
+      new Executor() {
+        @Override
+        public void execute(@NonNull Runnable command) {
+          command.run();
+        }
+      };
+
+  private File mDir;
+  private TrackingBackend mBackend;
+  private CaptureSession mSession;
+
+  @Before
+  public void setUp() throws IOException {
+    mDir = File.createTempFile("capture", "");
+    assertTrue(mDir.delete() && mDir.mkdir());
+    mBackend = new TrackingBackend();
+    mSession = new CaptureSession(mBackend, DIRECT);
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    mSession.close();
+    mBackend.awaitClosed();
+    CameraMetrics.setExporter(null);
+    final File[] files = mDir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+      }
+    }
+    //noinspection ResultOfMethodCallIgnored
+    mDir.delete();
+  }
+
+  @Test
+  public void capturesAndRecordsInOrder() throws Exception {
+    final Result opened = new Result();
+    mSession.open(false, opened);
+    assertNull(opened.get());
+    assertTrue(mBackend.isOpen());
+
+    final File still = new File(mDir, "still.jpg");
+    final Result picture = new Result();
+    mSession.takePicture(still, picture);
+    assertSame(still, picture.get());
+    assertEquals(1, mBackend.getPictureCount());
+    final byte[] header = read(still, 2);
+    assertEquals((byte) 0xFF, header[0]);
+    assertEquals((byte) 0xD8, header[1]);
+
+    final File video = new File(mDir, "video.mp4");
+    final Result started = new Result();
+    mSession.startRecording(video, false, started);
+    assertNull(started.get());
+    assertTrue(mBackend.isRecording());
+
+    final Result stopped = new Result();
+    mSession.stop(stopped);
+    assertSame(video, stopped.get());
+    assertFalse(mBackend.isRecording());
+    assertTrue(video.length() > 0);
+
+    mSession.close();
+    mBackend.awaitClosed();
+    assertFalse(mBackend.isOpen());
+  }
+
+  @Test
+  public void rejectsCallsOutOfOrder() throws Exception {
+    assertIllegalState(takePicture());
+
+    final Result stopped = new Result();
+    mSession.stop(stopped);
+    assertIllegalState(stopped);
+
+    mSession.open(false, new Result());
+    final Result reopened = new Result();
+    mSession.open(false, reopened);
+    assertIllegalState(reopened);
+
+    final Result started = new Result();
+    mSession.startRecording(new File(mDir, "video.mp4"), false, started);
+    assertNull(started.get());
+    assertIllegalState(takePicture());
+    final Result startedAgain = new Result();
+    mSession.startRecording(new File(mDir, "other.mp4"), false, startedAgain);
+    assertIllegalState(startedAgain);
+
+    mSession.close();
+    assertIllegalState(takePicture());
+    assertEquals(0, mBackend.getPictureCount());
+  }
+
+  @Test
+  public void closesTheCameraWhenOpenFails() throws Exception {
+    final IOException busy = new IOException("The camera is in use.");
+    mBackend.failNext(FakeCameraBackend.OPEN, busy);
+    final Result failed = new Result();
+    mSession.open(false, failed);
+    assertSame(busy, failed.getError());
+    assertEquals(1, mBackend.getCloseCount());
+    assertFalse(mBackend.isOpen());
+
+    // Only the next call fails, and the session stays usable
+    final Result opened = new Result();
+    mSession.open(false, opened);
+    assertNull(opened.get());
+    assertTrue(mBackend.isOpen());
+  }
+
+  @Test
+  public void closesTheCameraWhenConfiguringFails() throws Exception {
+    mBackend.failNext(FakeCameraBackend.CONFIGURE, new IOException("No preview size."));
+    final Result failed = new Result();
+    mSession.open(false, failed);
+    assertTrue(failed.getError() instanceof IOException);
+    assertEquals(1, mBackend.getCloseCount());
+    assertFalse(mBackend.isOpen());
+    assertIllegalState(takePicture());
+  }
+
+  @Test
+  public void queuesCallsBehindSlowOnes() throws Exception {
+    final MaxGaugeExporter metrics = new MaxGaugeExporter();
+    CameraMetrics.setExporter(metrics);
+    mBackend.setLatency(FakeCameraBackend.TAKE_PICTURE, 100);
+    final Result opened = new Result();
+    mSession.open(false, opened);
+    opened.get();
+
+    final long start = System.nanoTime();
+    final Result[] pictures = new Result[3];
+    for (int i = 0; i < pictures.length; i++) {
+      pictures[i] = new Result();
+      mSession.takePicture(new File(mDir, "still" + i + ".jpg"), pictures[i]);
+    }
+    for (Result picture : pictures) picture.get();
+    final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+    // One at a time, so the later calls waited for the earlier ones
+    assertTrue(elapsedMillis + " ms", elapsedMillis >= 300);
+    assertTrue(metrics.getMaxGauge() + " queued", metrics.getMaxGauge() >= 2);
+    assertEquals(0, metrics.getGauge(CameraMetrics.QUEUE_DEPTH));
+
+    final InMemoryExporter.Histogram latency = metrics.getHistogram(CameraMetrics.CAPTURE_LATENCY);
+    assertTrue(latency != null);
+    assertEquals(3, latency.getCount());
+    assertTrue(latency.getSum() + " ms", latency.getSum() >= 300);
+    assertEquals(1, metrics.getCount(CameraMetrics.OPENS));
+    assertEquals(3, metrics.getCount(CameraMetrics.CAPTURES));
+  }
+
+  private Result takePicture() {
+    final Result result = new Result();
+    mSession.takePicture(new File(mDir, "still.jpg"), result);
+    return result;
+  }
+
+  private static void assertIllegalState(Result result) throws InterruptedException {
+    final Exception error = result.getError();
+    assertTrue(String.valueOf(error), error instanceof IllegalStateException);
+  }
+
+  private static byte[] read(File file, int count) throws IOException {
+    final byte[] bytes = new byte[count];
+    final InputStream in = new FileInputStream(file);
+    try {
+      assertEquals(count, in.read(bytes));
+    } finally {
+      in.close();
+    }
+    return bytes;
+  }
+
+  private static class Result implements CaptureSession.Callback {
+
+    private final CountDownLatch mDone = new CountDownLatch(1);
+    private volatile File mOutput;
+    private volatile Exception mError;
+
+    @Override
+    public void onSuccess(@Nullable File output) {
+      mOutput = output;
+      mDone.countDown();
+    }
+
+    @Override
+    public void onError(Exception e) {
+      mError = e;
+      mDone.countDown();
+    }
+
+    @Nullable
+    File get() throws Exception {
+      await();
+      if (mError != null) throw mError;
+      return mOutput;
+    }
+
+    Exception getError() throws InterruptedException {
+      await();
+      if (mError == null) fail("Succeeded with " + mOutput);
+      return mError;
+    }
+
+    private void await() throws InterruptedException {
+      assertTrue("Timed out", mDone.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+  }
+
+  /** Counts {@link #close()} calls, which the session makes on its worker thread. */
+  private static class TrackingBackend extends FakeCameraBackend {
+
+    private int mCloseCount;
+    private boolean mLive;
+
+    @Override
+    public void open(boolean frontFacing) throws Exception {
+      super.open(frontFacing);
+      synchronized (this) {
+        mLive = true;
+      }
+    }
+
+    @Override
+    public void close() {
+      super.close();
+      synchronized (this) {
+        mCloseCount++;
+        mLive = false;
+        notifyAll();
+      }
+    }
+
+    synchronized int getCloseCount() {
+      return mCloseCount;
+    }
+
+    /** Waits until a camera that was opened is closed again. */
+    synchronized void awaitClosed() throws InterruptedException {
+      final long end = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+      while (mLive && System.currentTimeMillis() < end) wait(100);
+      assertFalse("Still open", mLive);
+    }
+  }
+
+  private static class MaxGaugeExporter extends InMemoryExporter {
+
+    private long mMaxGauge;
+
+    @Override
+    public synchronized void onGauge(@NonNull String name, long value) {
+      super.onGauge(name, value);
+      if (CameraMetrics.QUEUE_DEPTH.equals(name)) mMaxGauge = Math.max(mMaxGauge, value);
+    }
+
+    synchronized long getMaxGauge() {
+      return mMaxGauge;
+    }
+  }
+}
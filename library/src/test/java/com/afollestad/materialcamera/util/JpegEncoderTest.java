@@ -0,0 +1,220 @@
+package com.afollestad.materialcamera.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.imageio.ImageIO;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** @author Aidan Follestad (afollestad) */
+public class JpegEncoderTest {
+
+  // Multiples of 16, odd, and even but not whole MCUs
+  private static final int[][] SIZES = {{64, 48}, {101, 77}, {250, 130}, {17, 9}};
+  private static final int STRIPES = 4;
+  private static final double MIN_LUMA_PSNR = 35;
+  private static final double MIN_CHROMA_PSNR = 30;
+
+  private final JpegEncoder mEncoder = new JpegEncoder(90);
+  private ExecutorService mExecutor;
+
+  @Before
+  public void setUp() {
+    mExecutor = Executors.newFixedThreadPool(STRIPES);
+  }
+
+  @After
+  public void tearDown() {
+    mExecutor.shutdown();
+  }
+
+  @Test
+  public void encodesInOnePiece() throws IOException {
+    for (int[] size : SIZES) {
+      final byte[] frame = createFrame(size[0], size[1]);
+      final byte[] jpeg = encode(frame, size[0], size[1], 0, null, 1);
+      assertEquals(0, countRestartMarkers(jpeg));
+      checkDecoded(frame, size[0], size[1], decode(jpeg));
+    }
+  }
+
+  @Test
+  public void stripesDecodeTheSameAsOnePiece() throws IOException {
+    for (int[] size : SIZES) {
+      final byte[] frame = createFrame(size[0], size[1]);
+      final BufferedImage whole = decode(encode(frame, size[0], size[1], 0, null, 1));
+      final byte[] jpeg = encode(frame, size[0], size[1], 0, mExecutor, STRIPES);
+      final int mcuRows = (size[1] + 15) / 16;
+      final int rowsPerStripe = (mcuRows + STRIPES - 1) / STRIPES;
+      assertEquals(
+          size[0] + "x" + size[1],
+          (mcuRows + rowsPerStripe - 1) / rowsPerStripe - 1,
+          countRestartMarkers(jpeg));
+
+      // Restart markers only reset the DC predictions, the decoded pixels can't change
+      final BufferedImage striped = decode(jpeg);
+      checkDecoded(frame, size[0], size[1], striped);
+      for (int y = 0; y < size[1]; y++) {
+        for (int x = 0; x < size[0]; x++) {
+          if (whole.getRGB(x, y) != striped.getRGB(x, y))
+            fail(size[0] + "x" + size[1] + " differs at " + x + "," + y);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void writesTheOrientation() throws IOException {
+    final byte[] frame = createFrame(101, 77);
+    final int[][] orientations = {{0, 1}, {90, 6}, {180, 3}, {270, 8}, {-90, 8}, {450, 6}};
+    for (int[] orientation : orientations) {
+      final byte[] jpeg = encode(frame, 101, 77, orientation[0], mExecutor, STRIPES);
+      assertEquals(orientation[0] + " degrees", orientation[1], readExifOrientation(jpeg));
+      // Rotation is left to the viewer, the pixels stay as captured
+      final BufferedImage image = decode(jpeg);
+      assertEquals(101, image.getWidth());
+      assertEquals(77, image.getHeight());
+    }
+  }
+
+  @Test
+  public void encodesFromTheBufferPosition() throws IOException {
+    final byte[] frame = createFrame(64, 48);
+    final byte[] padded = new byte[frame.length + 10];
+    System.arraycopy(frame, 0, padded, 10, frame.length);
+    final ByteBuffer buffer = ByteBuffer.wrap(padded);
+    buffer.position(10);
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    mEncoder.encode(buffer, 64, 48, 0, mExecutor, STRIPES, out);
+    checkDecoded(frame, 64, 48, decode(out.toByteArray()));
+  }
+
+  /** Smooth gradients with some ripples on every plane, like a real scene rather than noise. */
+  private static byte[] createFrame(int width, int height) {
+    final byte[] frame = new byte[JpegEncoder.getFrameSize(width, height)];
+    int i = 0;
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++)
+        frame[i++] = clamp(128 + 70 * Math.sin(x / 9.0) * Math.cos(y / 7.0) + (x - y) / 4.0);
+    }
+    final int chromaWidth = (width + 1) / 2;
+    final int chromaHeight = (height + 1) / 2;
+    for (int y = 0; y < chromaHeight; y++) {
+      for (int x = 0; x < chromaWidth; x++) frame[i++] = clamp(128 + 40 * Math.sin((x + y) / 6.0));
+    }
+    for (int y = 0; y < chromaHeight; y++) {
+      for (int x = 0; x < chromaWidth; x++) frame[i++] = clamp(128 + 40 * Math.cos((x - y) / 8.0));
+    }
+    return frame;
+  }
+
+  private byte[] encode(
+      byte[] frame, int width, int height, int orientation, ExecutorService executor, int stripes)
+      throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    mEncoder.encode(ByteBuffer.wrap(frame), width, height, orientation, executor, stripes, out);
+    return out.toByteArray();
+  }
+
+  private static BufferedImage decode(byte[] jpeg) throws IOException {
+    final BufferedImage image = ImageIO.read(new ByteArrayInputStream(jpeg));
+    if (image == null) fail("Not a readable JPEG");
+    return image;
+  }
+
+  /** Converts the decoded pixels back to YCbCr and compares them to the source planes. */
+  private static void checkDecoded(byte[] frame, int width, int height, BufferedImage image) {
+    final String name = width + "x" + height;
+    assertEquals(name, width, image.getWidth());
+    assertEquals(name, height, image.getHeight());
+    final int chromaWidth = (width + 1) / 2;
+    final int uOffset = width * height;
+    final int vOffset = uOffset + chromaWidth * ((height + 1) / 2);
+    double lumaError = 0;
+    double chromaError = 0;
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        final int rgb = image.getRGB(x, y);
+        final int r = (rgb >> 16) & 0xff;
+        final int g = (rgb >> 8) & 0xff;
+        final int b = rgb & 0xff;
+        final int chroma = (y / 2) * chromaWidth + x / 2;
+        lumaError += square(0.299 * r + 0.587 * g + 0.114 * b - (frame[y * width + x] & 0xff));
+        chromaError +=
+            square(-0.168736 * r - 0.331264 * g + 0.5 * b + 128 - (frame[uOffset + chroma] & 0xff));
+        chromaError +=
+            square(0.5 * r - 0.418688 * g - 0.081312 * b + 128 - (frame[vOffset + chroma] & 0xff));
+      }
+    }
+    final double lumaPsnr = psnr(lumaError / (width * height));
+    final double chromaPsnr = psnr(chromaError / (2 * width * height));
+    assertTrue(name + " luma PSNR " + lumaPsnr, lumaPsnr >= MIN_LUMA_PSNR);
+    assertTrue(name + " chroma PSNR " + chromaPsnr, chromaPsnr >= MIN_CHROMA_PSNR);
+  }
+
+  private static int countRestartMarkers(byte[] jpeg) {
+    int count = 0;
+    // Entropy coded 0xFF bytes are followed by a stuffed 0, so any 0xFFDn is a marker
+    for (int i = 0; i < jpeg.length - 1; i++) {
+      if ((jpeg[i] & 0xff) == 0xff && (jpeg[i + 1] & 0xf8) == 0xd0) count++;
+    }
+    return count;
+  }
+
+  /** @return the orientation tag of the EXIF segment, -1 if there is none */
+  private static int readExifOrientation(byte[] jpeg) {
+    int i = 2;
+    while (i + 4 <= jpeg.length && (jpeg[i] & 0xff) == 0xff) {
+      final int marker = jpeg[i + 1] & 0xff;
+      final int length = readShort(jpeg, i + 2, true);
+      if (marker == 0xe1 && new String(jpeg, i + 4, 4).equals("Exif")) {
+        final int tiff = i + 10;
+        final boolean bigEndian = jpeg[tiff] == 'M';
+        final int ifd = tiff + readInt(jpeg, tiff + 4, bigEndian);
+        final int entries = readShort(jpeg, ifd, bigEndian);
+        for (int entry = ifd + 2; entry < ifd + 2 + entries * 12; entry += 12) {
+          if (readShort(jpeg, entry, bigEndian) == 0x0112)
+            return readShort(jpeg, entry + 8, bigEndian);
+        }
+        return -1;
+      }
+      if (marker == 0xda) break;
+      i += 2 + length;
+    }
+    return -1;
+  }
+
+  private static int readShort(byte[] data, int offset, boolean bigEndian) {
+    final int first = data[offset] & 0xff;
+    final int second = data[offset + 1] & 0xff;
+    return bigEndian ? (first << 8) | second : (second << 8) | first;
+  }
+
+  private static int readInt(byte[] data, int offset, boolean bigEndian) {
+    final int first = readShort(data, offset, bigEndian);
+    final int second = readShort(data, offset + 2, bigEndian);
+    return bigEndian ? (first << 16) | second : (second << 16) | first;
+  }
+
+  private static byte clamp(double value) {
+    return (byte) Math.max(0, Math.min(255, Math.round(value)));
+  }
+
+  private static double square(double value) {
+    return value * value;
+  }
+
+  private static double psnr(double meanSquaredError) {
+    return 10 * Math.log10(255 * 255 / Math.max(meanSquaredError, 1e-10));
+  }
+}